@@ -3,6 +3,7 @@ load("//tools/bzl:maven_jar.bzl", "maven_jar")
 AWS_SDK_VER = "2.16.19"
 AWS_KINESIS_VER = "2.3.4"
 JACKSON_VER = "2.10.4"
+JMH_VER = "1.32"
 
 def external_plugin_deps():
     maven_jar(
@@ -29,6 +30,12 @@ def external_plugin_deps():
         sha1 = "33ec7d291973658779b5777db2a0214a5c469e81",
     )
 
+    maven_jar(
+        name = "amazon-glue",
+        artifact = "software.amazon.awssdk:glue:2.16.1",
+        sha1 = "3bad4e631ec95c2519be5034805c3bc81d718975",
+    )
+
     maven_jar(
         name = "amazon-cloudwatch",
         artifact = "software.amazon.awssdk:cloudwatch:" + AWS_SDK_VER,
@@ -202,3 +209,33 @@ def external_plugin_deps():
         artifact = 'javax.xml.bind:jaxb-api:2.3.1',
         sha1 = '8531ad5ac454cc2deb9d4d32c40c4d7451939b5d',
     )
+
+    maven_jar(
+        name = "jmh-core",
+        artifact = "org.openjdk.jmh:jmh-core:" + JMH_VER,
+        sha1 = "9a8b69ea08118fd4e5d30a152d37b7087ee4a720",
+    )
+
+    maven_jar(
+        name = "jmh-generator-annprocess",
+        artifact = "org.openjdk.jmh:jmh-generator-annprocess:" + JMH_VER,
+        sha1 = "0a28eccc75e0d65984ce25e1ec4dd021a0ca6c57",
+    )
+
+    maven_jar(
+        name = "jopt-simple",
+        artifact = "net.sf.jopt-simple:jopt-simple:4.6",
+        sha1 = "306816fb57cf94f108a43c95731b08934dcae15c",
+    )
+
+    maven_jar(
+        name = "commons-math3",
+        artifact = "org.apache.commons:commons-math3:3.2",
+        sha1 = "ec2544ab27e110d2d431bdad7d538ed509b21e62",
+    )
+
+    maven_jar(
+        name = "avro",
+        artifact = "org.apache.avro:avro:1.10.1",
+        sha1 = "6070b282bf8c35948a43648113abd8a4a513f669",
+    )
@@ -0,0 +1,92 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.gerritforge.gerrit.eventbroker.EventMessage;
+import com.google.common.base.Suppliers;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.data.RefUpdateAttribute;
+import com.google.gerrit.server.events.RefUpdatedEvent;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.avro.Schema;
+import org.eclipse.jgit.lib.Config;
+
+/** Events and settings shared by the benchmarks. */
+class BenchmarkFixtures {
+  static final String PLUGIN_NAME = "kinesis-events";
+  static final String STREAM_NAME = "gerrit";
+  static final String SHARD_ID = "shardId-000000000000";
+
+  static RefUpdatedEvent refUpdatedEvent(int i) {
+    RefUpdateAttribute refUpdate = new RefUpdateAttribute();
+    refUpdate.project = "platform/frameworks/base";
+    refUpdate.refName = "refs/changes/" + (i % 100) + "/" + i + "/1";
+    refUpdate.oldRev = "0000000000000000000000000000000000000000";
+    refUpdate.newRev = "3d0c2f3e6c8e2c8b5f5e0a7c0b6d1a2f9e8d7c6b";
+    RefUpdatedEvent event = new RefUpdatedEvent();
+    event.refUpdate = Suppliers.ofInstance(refUpdate);
+    return event;
+  }
+
+  static EventMessage eventMessage(int i) {
+    return new EventMessage(
+        new EventMessage.Header(UUID.randomUUID(), UUID.randomUUID()), refUpdatedEvent(i));
+  }
+
+  static Configuration configuration() {
+    return configuration(new Config());
+  }
+
+  static Configuration configuration(Config gerritConfig) {
+    PluginConfigFactory pluginConfigFactory = mock(PluginConfigFactory.class);
+    when(pluginConfigFactory.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(PluginConfig.Update.forTest(PLUGIN_NAME, gerritConfig).asPluginConfig());
+    when(pluginConfigFactory.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(new Config());
+    return new Configuration(pluginConfigFactory, PLUGIN_NAME);
+  }
+
+  static Configuration configuration(String recordEncoding) {
+    Config gerritConfig = new Config();
+    gerritConfig.setString("plugin", PLUGIN_NAME, "recordEncoding", recordEncoding);
+    // Stands for the in-memory registry of the benchmarks, which is never built from the config.
+    gerritConfig.setString("plugin", PLUGIN_NAME, "schemaRegistry", "glue");
+    return configuration(gerritConfig);
+  }
+
+  /** Keeps the schemas in memory, so that benchmarks do not depend on the file system. */
+  static SchemaRegistry schemaRegistry() {
+    Map<Long, Schema> schemas = new ConcurrentHashMap<>();
+    return new SchemaRegistry() {
+      @Override
+      public void register(long id, Schema schema) {
+        schemas.put(id, schema);
+      }
+
+      @Override
+      public Optional<Schema> lookup(long id) {
+        return Optional.ofNullable(schemas.get(id));
+      }
+    };
+  }
+
+  private BenchmarkFixtures() {}
+}
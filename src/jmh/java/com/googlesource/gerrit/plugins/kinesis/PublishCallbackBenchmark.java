@@ -0,0 +1,108 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.amazonaws.services.kinesis.producer.Attempt;
+import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overhead of reporting the outcome of a publishing request, from the {@link PublishResult}
+ * returned to the caller to the callback registered on the producer future, either run straight
+ * away or handed over to the callback executor. As in {@link KinesisPublisher}, a new callback is
+ * registered for each request.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PublishCallbackBenchmark {
+  private UserRecordResult result;
+  private ExecutorService callBackExecutor;
+
+  @Setup
+  public void setup() {
+    result =
+        new UserRecordResult(
+            ImmutableList.<Attempt>of(),
+            "49590338271490256608559692538361571095921575989136588898",
+            "shardId-000000000000",
+            true);
+    callBackExecutor =
+        new ProducerCallbackExecutorProvider(BenchmarkFixtures.configuration()).get();
+  }
+
+  @TearDown
+  public void tearDown() {
+    callBackExecutor.shutdown();
+  }
+
+  @Benchmark
+  public PublishResult publishResult() {
+    return PublishResult.success(result.getAttempts().size() + 1);
+  }
+
+  @Benchmark
+  public Object directCallback() throws Exception {
+    return publishAndWaitForCallback(MoreExecutors.directExecutor());
+  }
+
+  /** Includes the hand-over to the callback thread and back, as the caller waits for it. */
+  @Benchmark
+  public Object executorCallback() throws Exception {
+    return publishAndWaitForCallback(callBackExecutor);
+  }
+
+  private Object publishAndWaitForCallback(Executor executor) throws Exception {
+    SettableFuture<UserRecordResult> published = SettableFuture.create();
+    SettableFuture<Integer> callbackDone = SettableFuture.create();
+    Futures.addCallback(
+        published,
+        new FutureCallback<UserRecordResult>() {
+          @Override
+          public void onSuccess(UserRecordResult result) {
+            callbackDone.set(result.getAttempts().size());
+          }
+
+          @Override
+          public void onFailure(Throwable e) {
+            callbackDone.setException(e);
+          }
+        },
+        executor);
+    published.set(result);
+    return callbackDone.get();
+  }
+}
@@ -0,0 +1,83 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.gerritforge.gerrit.eventbroker.EventGsonProvider;
+import com.gerritforge.gerrit.eventbroker.EventMessage;
+import com.google.gerrit.server.events.Event;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of turning an event into the stamped payload of a kinesis record, as done by {@link
+ * KinesisPublisher} for stream events and by {@link KinesisBrokerApi} for broker messages.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PublishSerializationBenchmark {
+  private static final Optional<String> SOURCE = Optional.of("benchmark");
+
+  @Param({"json", "avro"})
+  public String encoding;
+
+  private Gson gson;
+  private RecordCodec recordCodec;
+  private Event event;
+  private EventMessage eventMessage;
+
+  @Setup
+  public void setup() {
+    gson = new EventGsonProvider().get();
+    recordCodec =
+        new RecordCodec(
+            gson, BenchmarkFixtures.schemaRegistry(), BenchmarkFixtures.configuration(encoding));
+    event = BenchmarkFixtures.refUpdatedEvent(1);
+    eventMessage = BenchmarkFixtures.eventMessage(1);
+  }
+
+  @Benchmark
+  public ByteBuffer streamEvent() {
+    return toRecord(gson.toJsonTree(event));
+  }
+
+  @Benchmark
+  public ByteBuffer brokerMessage() {
+    return toRecord(gson.toJsonTree(eventMessage));
+  }
+
+  private ByteBuffer toRecord(JsonElement payload) {
+    RecordEnvelope.stamp(payload.getAsJsonObject(), Instant.now(), SOURCE);
+    return ByteBuffer.wrap(recordCodec.encode(payload));
+  }
+}
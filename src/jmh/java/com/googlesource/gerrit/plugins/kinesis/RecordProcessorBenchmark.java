@@ -0,0 +1,137 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import com.gerritforge.gerrit.eventbroker.EventGsonProvider;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.util.OneOffRequestContext;
+import com.google.gson.Gson;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.kinesis.lifecycle.events.InitializationInput;
+import software.amazon.kinesis.lifecycle.events.ProcessRecordsInput;
+import software.amazon.kinesis.retrieval.KinesisClientRecord;
+
+/**
+ * Cost of decoding a batch of records and dispatching the messages to a subscriber, one by one or
+ * as a batch, in {@link KinesisRecordProcessor#processRecords}. The request context is a stub, so
+ * opening it is not part of the measurement.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RecordProcessorBenchmark {
+  // Keep a reference, since JUL loggers, and their level, can be garbage collected otherwise.
+  private static final Logger PLUGIN_LOGGER =
+      Logger.getLogger(RecordProcessorBenchmark.class.getPackage().getName());
+
+  @Param({"1", "100", "1000"})
+  public int batchSize;
+
+  @Param({"single", "batch"})
+  public String subscriber;
+
+  @Param({"json", "avro"})
+  public String encoding;
+
+  private KinesisRecordProcessor processor;
+  private List<byte[]> payloads;
+  private ProcessRecordsInput input;
+  private long consumedMessages;
+
+  @Setup
+  public void setup() {
+    // Processing logs each batch at info level, which would otherwise dominate the measurement.
+    PLUGIN_LOGGER.setLevel(java.util.logging.Level.WARNING);
+
+    Gson gson = new EventGsonProvider().get();
+    Configuration configuration = BenchmarkFixtures.configuration(encoding);
+    RecordCodec recordCodec =
+        new RecordCodec(gson, BenchmarkFixtures.schemaRegistry(), configuration);
+    ConsumerMetrics consumerMetrics = new ConsumerMetrics(new DisabledMetricMaker());
+    EventBatchConsumer consumer =
+        "batch".equals(subscriber)
+            ? messages -> consumedMessages += messages.size()
+            : EventBatchConsumer.forEachMessage(message -> consumedMessages++);
+    processor =
+        new KinesisRecordProcessor(
+            BenchmarkFixtures.STREAM_NAME,
+            configuration.getPrimaryEndpoint(),
+            new CatchUpMonitor(BenchmarkFixtures.STREAM_NAME, configuration, () -> {}),
+            consumer,
+            mock(OneOffRequestContext.class, withSettings().stubOnly()),
+            gson,
+            null,
+            consumerMetrics,
+            new LocalEventSources(null, configuration),
+            new HandlerExecutors(mock(WorkQueue.class), configuration),
+            new ConsumedEventsCache(configuration, consumerMetrics),
+            new ShardProgress(),
+            recordCodec,
+            configuration);
+    processor.initialize(InitializationInput.builder().shardId(BenchmarkFixtures.SHARD_ID).build());
+
+    payloads = new ArrayList<>(batchSize);
+    for (int i = 0; i < batchSize; i++) {
+      payloads.add(recordCodec.encode(gson.toJsonTree(BenchmarkFixtures.eventMessage(i))));
+    }
+  }
+
+  /** Records are read through their data buffer, hence they cannot be reused across calls. */
+  @Setup(Level.Invocation)
+  public void records() {
+    Instant now = Instant.now();
+    List<KinesisClientRecord> records = new ArrayList<>(batchSize);
+    for (int i = 0; i < batchSize; i++) {
+      records.add(
+          KinesisClientRecord.builder()
+              .data(ByteBuffer.wrap(payloads.get(i)))
+              .partitionKey("partition-key")
+              .sequenceNumber(Integer.toString(i))
+              .approximateArrivalTimestamp(now)
+              .build());
+    }
+    input = ProcessRecordsInput.builder().records(records).millisBehindLatest(0L).build();
+  }
+
+  @Benchmark
+  public long processRecords() {
+    processor.processRecords(input);
+    return consumedMessages;
+  }
+}
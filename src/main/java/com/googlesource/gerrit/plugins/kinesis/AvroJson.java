@@ -0,0 +1,187 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.Schema.Type;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.io.Encoder;
+
+/**
+ * Maps JSON records, as serialized by Gson, to records of the declared {@link RecordSchemas} and
+ * back.
+ *
+ * <p>Members of the declared fields' type are written to their field. All the other members,
+ * whether they are not declared, or are null or of another type than the declared one, are carried
+ * together as JSON text in the field flagged with {@link #OTHER_MEMBERS}, and merged back when
+ * reading, so that reading gives back the very same JSON.
+ *
+ * <p>Records of any schema can be read, including the ones published by nodes inferring the schema
+ * from the events.
+ */
+class AvroJson {
+  /** Property flagging the field carrying the members that no other field is declared for. */
+  static final String OTHER_MEMBERS = "otherMembers";
+
+  private static final Pattern LONG = Pattern.compile("-?[0-9]{1,18}");
+
+  static void write(JsonObject object, Schema schema, Encoder out) throws IOException {
+    JsonObject otherMembers = new JsonObject();
+    for (Map.Entry<String, JsonElement> member : object.entrySet()) {
+      Field field = schema.getField(member.getKey());
+      if (field == null || isOtherMembers(field) || !fits(member.getValue(), field)) {
+        otherMembers.add(member.getKey(), member.getValue());
+      }
+    }
+
+    for (Field field : schema.getFields()) {
+      if (isOtherMembers(field)) {
+        writeOptional(otherMembers.size() == 0 ? null : otherMembers, field, out);
+      } else {
+        JsonElement value = object.get(field.name());
+        writeOptional(fits(value, field) ? value : null, field, out);
+      }
+    }
+  }
+
+  static JsonElement read(Schema schema, Decoder in) throws IOException {
+    switch (schema.getType()) {
+      case RECORD:
+        JsonObject object = new JsonObject();
+        for (Field field : schema.getFields()) {
+          JsonElement value = read(field.schema(), in);
+          if (value == null) {
+            continue;
+          }
+          if (isOtherMembers(field)) {
+            for (Map.Entry<String, JsonElement> member : value.getAsJsonObject().entrySet()) {
+              object.add(member.getKey(), member.getValue());
+            }
+          } else {
+            object.add(field.name(), value);
+          }
+        }
+        return object;
+      case UNION:
+        Schema branch = schema.getTypes().get(in.readIndex());
+        if (branch.getType() == Type.NULL) {
+          in.readNull();
+          return null;
+        }
+        return read(branch, in);
+      case ARRAY:
+        JsonArray array = new JsonArray();
+        for (long n = in.readArrayStart(); n != 0; n = in.arrayNext()) {
+          for (long i = 0; i < n; i++) {
+            array.add(read(schema.getElementType(), in));
+          }
+        }
+        return array;
+      case STRING:
+        return new JsonPrimitive(in.readString());
+      case LONG:
+        return new JsonPrimitive(in.readLong());
+      case DOUBLE:
+        return new JsonPrimitive(in.readDouble());
+      case BOOLEAN:
+        return new JsonPrimitive(in.readBoolean());
+      case NULL:
+        in.readNull();
+        return JsonNull.INSTANCE;
+      case BYTES:
+        ByteBuffer json = in.readBytes(null);
+        return new JsonParser()
+            .parse(
+                new String(
+                    json.array(), json.arrayOffset() + json.position(), json.remaining(), UTF_8));
+      default:
+        throw new IllegalArgumentException("Unexpected schema type " + schema.getType());
+    }
+  }
+
+  private static boolean isOtherMembers(Field field) {
+    return field.getProp(OTHER_MEMBERS) != null;
+  }
+
+  /** The schema of the values of a declared field, an optional union of null and that schema. */
+  private static Schema valueSchema(Field field) {
+    return field.schema().getTypes().get(1);
+  }
+
+  private static boolean fits(JsonElement value, Field field) {
+    if (value == null || value.isJsonNull()) {
+      return false;
+    }
+    switch (valueSchema(field).getType()) {
+      case RECORD:
+        return value.isJsonObject();
+      case STRING:
+        return value.isJsonPrimitive() && value.getAsJsonPrimitive().isString();
+      case LONG:
+        return value.isJsonPrimitive()
+            && value.getAsJsonPrimitive().isNumber()
+            && LONG.matcher(value.getAsString()).matches();
+      case BOOLEAN:
+        return value.isJsonPrimitive() && value.getAsJsonPrimitive().isBoolean();
+      case BYTES:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static void writeOptional(JsonElement value, Field field, Encoder out)
+      throws IOException {
+    if (value == null) {
+      out.writeIndex(0);
+      out.writeNull();
+      return;
+    }
+    out.writeIndex(1);
+    Schema schema = valueSchema(field);
+    switch (schema.getType()) {
+      case RECORD:
+        write(value.getAsJsonObject(), schema, out);
+        break;
+      case STRING:
+        out.writeString(value.getAsString());
+        break;
+      case LONG:
+        out.writeLong(value.getAsLong());
+        break;
+      case BOOLEAN:
+        out.writeBoolean(value.getAsBoolean());
+        break;
+      case BYTES:
+        out.writeBytes(value.toString().getBytes(UTF_8));
+        break;
+      default:
+        throw new IllegalArgumentException("Unexpected schema type " + schema.getType());
+    }
+  }
+}
@@ -0,0 +1,167 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.kinesis.ShardProgress.ShardState;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import software.amazon.kinesis.leases.Lease;
+
+/**
+ * Live view of the consumers, producers and executors of this node, for diagnosing throughput
+ * problems on a running server without restarting it or turning on finer logging.
+ */
+@Singleton
+class BrokerStatus {
+  private final KinesisBrokerApi brokerApi;
+  private final ShardProgress shardProgress;
+  private final KinesisProducers kinesisProducers;
+  private final ExecutorService consumerExecutor;
+  private final ExecutorService catchUpExecutor;
+  private final ExecutorService producerCallbackExecutor;
+  private final HandlerExecutors handlerExecutors;
+
+  @Inject
+  BrokerStatus(
+      KinesisBrokerApi brokerApi,
+      ShardProgress shardProgress,
+      KinesisProducers kinesisProducers,
+      @ConsumerExecutor ExecutorService consumerExecutor,
+      @CatchUpExecutor ExecutorService catchUpExecutor,
+      @ProducerCallbackExecutor ExecutorService producerCallbackExecutor,
+      HandlerExecutors handlerExecutors) {
+    this.brokerApi = brokerApi;
+    this.shardProgress = shardProgress;
+    this.kinesisProducers = kinesisProducers;
+    this.consumerExecutor = consumerExecutor;
+    this.catchUpExecutor = catchUpExecutor;
+    this.producerCallbackExecutor = producerCallbackExecutor;
+    this.handlerExecutors = handlerExecutors;
+  }
+
+  BrokerStatusInfo get() {
+    BrokerStatusInfo status = new BrokerStatusInfo();
+    status.consumers = new ArrayList<>();
+    brokerApi.consumers().stream()
+        .sorted(
+            Comparator.comparing(KinesisConsumer::getStreamName)
+                .thenComparing(c -> !c.getEndpoint().isPrimary())
+                .thenComparing(c -> c.getEndpoint().name()))
+        .forEach(c -> status.consumers.add(consumer(c)));
+
+    status.producers = new TreeMap<>();
+    kinesisProducers
+        .started()
+        .forEach(
+            (name, producer) -> {
+              ProducerInfo info = new ProducerInfo();
+              info.outstandingRecords = producer.getOutstandingRecordsCount();
+              info.outstandingBytes = kinesisProducers.getOutstandingBytes(name);
+              status.producers.put(name, info);
+            });
+
+    status.executors = new TreeMap<>();
+    status.executors.put("consumer", executor(consumerExecutor));
+    status.executors.put("catch-up", executor(catchUpExecutor));
+    status.executors.put("producer-callback", executor(producerCallbackExecutor));
+    handlerExecutors.all().forEach((t, e) -> status.executors.put("handler-" + t, executor(e)));
+    return status;
+  }
+
+  private ConsumerInfo consumer(KinesisConsumer consumer) {
+    ConsumerInfo info = new ConsumerInfo();
+    info.topic = consumer.getStreamName();
+    info.endpoint = consumer.getEndpoint().name();
+    info.workerId = consumer.getWorkerIdentifier().orElse(null);
+    info.shards = new ArrayList<>();
+    Map<String, ShardState> progress = shardProgress.forStream(info.topic, consumer.getEndpoint());
+    consumer.getLeases().stream()
+        .sorted(Comparator.comparing(Lease::leaseKey))
+        .forEach(
+            lease -> {
+              ShardInfo shard = new ShardInfo();
+              shard.shardId = lease.leaseKey();
+              shard.leaseOwner = lease.leaseOwner();
+              shard.leaseCounter = lease.leaseCounter();
+              if (lease.checkpoint() != null) {
+                shard.checkpoint = lease.checkpoint().sequenceNumber();
+              }
+              ShardState state = progress.get(lease.leaseKey());
+              if (state != null) {
+                shard.millisBehindLatest = state.millisBehindLatest().orElse(null);
+                shard.lastSequenceNumber = state.lastSequenceNumber().orElse(null);
+                shard.lastProcessedAt = state.processedAt().toString();
+              }
+              info.shards.add(shard);
+            });
+    return info;
+  }
+
+  private static ExecutorInfo executor(ExecutorService executor) {
+    ExecutorInfo info = new ExecutorInfo();
+    if (executor instanceof ThreadPoolExecutor) {
+      ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+      info.poolSize = pool.getPoolSize();
+      info.activeThreads = pool.getActiveCount();
+      info.queuedTasks = pool.getQueue().size();
+      info.completedTasks = pool.getCompletedTaskCount();
+    }
+    return info;
+  }
+
+  static class BrokerStatusInfo {
+    public String generatedAt = Instant.now().toString();
+    public List<ConsumerInfo> consumers;
+    public Map<String, ProducerInfo> producers;
+    public Map<String, ExecutorInfo> executors;
+  }
+
+  static class ConsumerInfo {
+    public String topic;
+    public String endpoint;
+    public String workerId;
+    public List<ShardInfo> shards;
+  }
+
+  static class ShardInfo {
+    public String shardId;
+    public String leaseOwner;
+    public Long leaseCounter;
+    public String checkpoint;
+    public Long millisBehindLatest;
+    public String lastSequenceNumber;
+    public String lastProcessedAt;
+  }
+
+  static class ProducerInfo {
+    public long outstandingRecords;
+    public long outstandingBytes;
+  }
+
+  static class ExecutorInfo {
+    public Integer poolSize;
+    public Integer activeThreads;
+    public Integer queuedTasks;
+    public Long completedTasks;
+  }
+}
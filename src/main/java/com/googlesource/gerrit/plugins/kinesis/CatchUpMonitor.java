@@ -0,0 +1,97 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.common.flogger.FluentLogger;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tracks how far behind the tip of the stream a consumer is and decides when it should switch
+ * between its steady-state retrieval settings and the catch-up ones.
+ *
+ * <p>Every shard reports its own {@code millisBehindLatest}, and the consumer is as far behind as
+ * its most lagging shard. Catch-up mode is entered when that goes over {@code catchUpThresholdMs}
+ * and left once it drops below half of it, so that a consumer hovering around the threshold does
+ * not keep flipping between the two modes.
+ */
+class CatchUpMonitor {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final String streamName;
+  private final Configuration configuration;
+  private final Runnable onModeChange;
+  private final Map<String, Long> millisBehindLatestByShard = new ConcurrentHashMap<>();
+  private final AtomicBoolean catchingUp = new AtomicBoolean(false);
+  private volatile boolean retrievalCatchingUp;
+
+  CatchUpMonitor(String streamName, Configuration configuration, Runnable onModeChange) {
+    this.streamName = streamName;
+    this.configuration = configuration;
+    this.onModeChange = onModeChange;
+  }
+
+  public boolean isCatchingUp() {
+    return catchingUp.get();
+  }
+
+  /** Start in catch-up mode, without waiting for the lag to be reported, e.g. when replaying. */
+  public void startCatchingUp() {
+    if (configuration.isCatchUpEnabled()) {
+      catchingUp.set(true);
+    }
+  }
+
+  /**
+   * Whether the retrieval settings of a new scheduler should be the catch-up ones. The answer is
+   * remembered, so that a mode change happening while the scheduler is being replaced is not lost.
+   */
+  public boolean useCatchUpRetrieval() {
+    retrievalCatchingUp = catchingUp.get();
+    return retrievalCatchingUp;
+  }
+
+  /** Whether the mode changed since the retrieval settings were last chosen. */
+  public boolean isRetrievalOutdated() {
+    return retrievalCatchingUp != catchingUp.get();
+  }
+
+  public void onMillisBehindLatest(String shardId, Long millisBehindLatest) {
+    if (!configuration.isCatchUpEnabled() || millisBehindLatest == null) {
+      return;
+    }
+
+    millisBehindLatestByShard.put(shardId, millisBehindLatest);
+    long maxMillisBehindLatest =
+        millisBehindLatestByShard.values().stream().mapToLong(Long::longValue).max().orElse(0L);
+    long threshold = configuration.getCatchUpThresholdMs();
+    if (maxMillisBehindLatest > threshold && catchingUp.compareAndSet(false, true)) {
+      logger.atInfo().log(
+          "[%s] %sms behind latest, switching to catch-up mode", streamName, maxMillisBehindLatest);
+      onModeChange.run();
+    } else if (maxMillisBehindLatest <= threshold / 2 && catchingUp.compareAndSet(true, false)) {
+      logger.atInfo().log(
+          "[%s] %sms behind latest, switching back to steady-state mode",
+          streamName, maxMillisBehindLatest);
+      onModeChange.run();
+    }
+  }
+
+  /** Stop accounting for a shard this node no longer consumes, e.g. lease lost or shard ended. */
+  public void onShardReleased(String shardId) {
+    millisBehindLatestByShard.remove(shardId);
+  }
+}
@@ -23,15 +23,20 @@ import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClientBuilder;
 @Singleton
 class CloudWatchAsyncClientProvider implements Provider<CloudWatchAsyncClient> {
   private final Configuration configuration;
+  private final NettyHttpClientFactory httpClientFactory;
 
   @Inject
-  CloudWatchAsyncClientProvider(Configuration configuration) {
+  CloudWatchAsyncClientProvider(
+      Configuration configuration, NettyHttpClientFactory httpClientFactory) {
     this.configuration = configuration;
+    this.httpClientFactory = httpClientFactory;
   }
 
   @Override
   public CloudWatchAsyncClient get() {
-    CloudWatchAsyncClientBuilder builder = CloudWatchAsyncClient.builder();
+    CloudWatchAsyncClientBuilder builder =
+        CloudWatchAsyncClient.builder()
+            .httpClientBuilder(httpClientFactory.builder(HttpClientSettings.CLOUDWATCH));
     configuration.getRegion().ifPresent(builder::region);
     configuration.getEndpoint().ifPresent(builder::endpointOverride);
 
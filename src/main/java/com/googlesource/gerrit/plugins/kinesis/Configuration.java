@@ -15,22 +15,78 @@
 package com.googlesource.gerrit.plugins.kinesis;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.extensions.annotations.PluginName;
 import com.google.gerrit.server.config.PluginConfig;
 import com.google.gerrit.server.config.PluginConfigFactory;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.kinesis.ConsumerSettings.RetrievalMode;
 import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
 import org.apache.log4j.Level;
+import org.eclipse.jgit.lib.Config;
+import software.amazon.awssdk.http.Protocol;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.kinesis.common.InitialPositionInStream;
+import software.amazon.kinesis.metrics.MetricsLevel;
 
 @Singleton
 class Configuration {
+  enum KclMetrics {
+    CLOUDWATCH,
+    GERRIT,
+    NONE
+  }
+
+  enum ExecutorMode {
+    FIXED,
+    ELASTIC
+  }
+
+  enum LeaseStoreType {
+    DYNAMODB,
+    LOCAL
+  }
+
+  enum ProducerStartup {
+    EAGER,
+    WARM_UP,
+    LAZY
+  }
+
+  enum RecordEncoding {
+    JSON,
+    AVRO
+  }
+
+  enum SchemaRegistryType {
+    LOCAL,
+    GLUE
+  }
+
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  static final String TOPIC_SECTION = "topic";
+  static final String MAX_EVENT_AGE_MS = "maxEventAgeMs";
+  static final String EVENT_TYPE = "eventType";
+  static final String COALESCE_WINDOW_MS = "coalesceWindowMs";
+  static final String COALESCE_EVENT_TYPE = "coalesceEventType";
+  static final String PRIORITY = "priority";
+  static final String PRIORITY_SECTION = "priority";
+  static final String HTTP_CLIENT_SECTION = "httpClient";
+  static final String ENDPOINT_SECTION = "endpoint";
+
   private static final String DEFAULT_NUMBER_OF_SUBSCRIBERS = "6";
+  private static final ImmutableSet<String> DEFAULT_COALESCE_EVENT_TYPES =
+      ImmutableSet.of("ref-updated");
   private static final String DEFAULT_STREAM_EVENTS_TOPIC = "gerrit";
   private static final String DEFAULT_INITIAL_POSITION = "latest";
   private static final Long DEFAULT_POLLING_INTERVAL_MS = 1000L;
@@ -40,6 +96,44 @@ class Configuration {
   private static final Long DEFAULT_SHUTDOWN_TIMEOUT_MS = 20000L;
   private static final Level DEFAULT_AWS_LIB_LOG_LEVEL = Level.WARN;
   private static final Boolean DEFAULT_SEND_ASYNC = true;
+  private static final Long DEFAULT_CATCH_UP_THRESHOLD_MS = 0L;
+  private static final Integer DEFAULT_CATCH_UP_MAX_RECORDS = 10000;
+  private static final Long DEFAULT_CATCH_UP_POLLING_INTERVAL_MS = 200L;
+  private static final Integer DEFAULT_CATCH_UP_HANDLER_THREADS = 1;
+  private static final Boolean DEFAULT_SKIP_SELF_ORIGINATED_EVENTS = false;
+  private static final Integer DEFAULT_PRODUCER_MAX_CONNECTIONS = 1;
+  private static final Integer DEFAULT_HTTP_CLIENT_EVENT_LOOP_THREADS = 0;
+  private static final String DEFAULT_KCL_METRICS = "cloudwatch";
+  private static final String DEFAULT_KCL_METRICS_LEVEL = "detailed";
+  private static final String DEFAULT_LEASE_STORE = "dynamodb";
+  private static final String DEFAULT_PRODUCER_STARTUP = "eager";
+  private static final String DEFAULT_RECORD_ENCODING = "json";
+  private static final String DEFAULT_SCHEMA_REGISTRY = "local";
+  private static final String DEFAULT_GLUE_SCHEMA_REGISTRY_NAME = "default-registry";
+  private static final String DEFAULT_RETRIEVAL_MODE = "polling";
+  private static final Long DEFAULT_CHECKPOINT_INTERVAL_MS = 0L;
+  private static final Integer DEFAULT_HANDLER_THREADS = 1;
+  private static final Long DEFAULT_DEDUP_CACHE_SIZE = 0L;
+  private static final Long DEFAULT_DEDUP_CACHE_TTL_MS = 600000L;
+  private static final String DEFAULT_EXECUTOR_MODE = "fixed";
+  private static final Integer DEFAULT_PRODUCER_CALLBACK_THREADS = 1;
+  private static final Integer DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD = 0;
+  private static final Integer DEFAULT_CIRCUIT_BREAKER_MINIMUM_CALLS = 20;
+  private static final Long DEFAULT_CIRCUIT_BREAKER_WINDOW_MS = 60000L;
+  private static final Long DEFAULT_CIRCUIT_BREAKER_OPEN_MS = 30000L;
+  private static final Integer DEFAULT_CIRCUIT_BREAKER_PROBES = 3;
+  private static final Integer DEFAULT_SHARD_RATE_LIMIT_RECORDS_PER_SECOND = 0;
+  private static final Integer DEFAULT_SHARD_RATE_LIMIT_BYTES_PER_SECOND = 1048576;
+  private static final Long DEFAULT_SHARD_RATE_LIMIT_MAX_WAIT_MS = 1000L;
+  private static final Long DEFAULT_SHARD_MAP_REFRESH_MS = 60000L;
+  private static final Long DEFAULT_HEARTBEAT_INTERVAL_MS = 0L;
+  private static final Long DEFAULT_READINESS_MAX_LAG_MS = 10000L;
+  private static final Integer DEFAULT_FAILOVER_ERROR_RATE_THRESHOLD = 0;
+  private static final Long DEFAULT_FAILOVER_LATENCY_THRESHOLD_MS = 0L;
+  private static final Integer DEFAULT_FAILOVER_MINIMUM_CALLS = 20;
+  private static final Long DEFAULT_FAILOVER_WINDOW_MS = 30000L;
+  private static final Long DEFAULT_FAILBACK_AFTER_MS = 120000L;
+  private static final Boolean DEFAULT_CONSUME_FAILOVER_ENDPOINTS = true;
 
   private final String applicationName;
   private final String streamEventsTopic;
@@ -54,10 +148,64 @@ class Configuration {
   private final Long shutdownTimeoutMs;
   private final Level awsLibLogLevel;
   private final Boolean sendAsync;
+  private final Long catchUpThresholdMs;
+  private final Integer catchUpMaxRecords;
+  private final Long catchUpPollingIntervalMs;
+  private final Integer catchUpHandlerThreads;
+  private final Boolean skipSelfOriginatedEvents;
+  private final ImmutableList<String> sourceInstanceIds;
+  private final Map<String, Long> maxEventAgeMsByTopic;
+  private final ImmutableList<String> includedEventTypes;
+  private final ImmutableList<String> excludedEventTypes;
+  private final ImmutableList<String> includedProjects;
+  private final ImmutableList<String> excludedProjects;
+  private final Map<String, String> topicByEventType;
+  private final Map<String, Long> coalesceWindowMsByTopic;
+  private final Map<String, ImmutableSet<String>> coalesceEventTypesByTopic;
+  private final Integer producerMaxConnections;
+  private final Map<String, PriorityClass> priorityClasses;
+  private final Map<String, String> priorityByTopic;
+  private final Integer httpClientEventLoopThreads;
+  private final Map<String, HttpClientSettings> httpClientSettings;
+  private final KclMetrics kclMetrics;
+  private final MetricsLevel kclMetricsLevel;
+  private final LeaseStoreType leaseStore;
+  private final ProducerStartup producerStartup;
+  private final Optional<Path> localLeaseStoreDirectory;
+  private final RecordEncoding recordEncoding;
+  private final SchemaRegistryType schemaRegistry;
+  private final Optional<Path> localSchemaRegistryDirectory;
+  private final String glueSchemaRegistryName;
+  private final ConsumerSettings defaultConsumerSettings;
+  private final Map<String, ConsumerSettings> consumerSettingsByTopic;
+  private final Long dedupCacheSize;
+  private final Long dedupCacheTtlMs;
+  private final ExecutorMode executorMode;
+  private final Integer producerCallbackThreads;
+  private final Integer circuitBreakerFailureRateThreshold;
+  private final Integer circuitBreakerMinimumCalls;
+  private final Long circuitBreakerWindowMs;
+  private final Long circuitBreakerOpenMs;
+  private final Integer circuitBreakerProbes;
+  private final Integer shardRateLimitRecordsPerSecond;
+  private final Integer shardRateLimitBytesPerSecond;
+  private final Long shardRateLimitMaxWaitMs;
+  private final Long shardMapRefreshMs;
+  private final Long heartbeatIntervalMs;
+  private final Long readinessMaxLagMs;
+  private final ImmutableList<String> readinessTopics;
+  private final ImmutableList<KinesisEndpoint> endpoints;
+  private final Integer failoverErrorRateThreshold;
+  private final Long failoverLatencyThresholdMs;
+  private final Integer failoverMinimumCalls;
+  private final Long failoverWindowMs;
+  private final Long failbackAfterMs;
+  private final Boolean consumeFailoverEndpoints;
 
   @Inject
   public Configuration(PluginConfigFactory configFactory, @PluginName String pluginName) {
     PluginConfig pluginConfig = configFactory.getFromGerritConfig(pluginName);
+    Config globalPluginConfig = configFactory.getGlobalPluginConfig(pluginName);
 
     this.region = Optional.ofNullable(getStringParam(pluginConfig, "region", null)).map(Region::of);
     this.endpoint =
@@ -108,6 +256,324 @@ class Configuration {
             .map(Boolean::new)
             .orElse(DEFAULT_SEND_ASYNC);
 
+    this.catchUpThresholdMs =
+        Optional.ofNullable(getStringParam(pluginConfig, "catchUpThresholdMs", null))
+            .map(Long::parseLong)
+            .orElse(DEFAULT_CATCH_UP_THRESHOLD_MS);
+
+    this.catchUpMaxRecords =
+        Optional.ofNullable(getStringParam(pluginConfig, "catchUpMaxRecords", null))
+            .map(Integer::parseInt)
+            .orElse(DEFAULT_CATCH_UP_MAX_RECORDS);
+
+    this.catchUpPollingIntervalMs =
+        Optional.ofNullable(getStringParam(pluginConfig, "catchUpPollingIntervalMs", null))
+            .map(Long::parseLong)
+            .orElse(DEFAULT_CATCH_UP_POLLING_INTERVAL_MS);
+
+    this.catchUpHandlerThreads =
+        Optional.ofNullable(getStringParam(pluginConfig, "catchUpHandlerThreads", null))
+            .map(Integer::parseInt)
+            .orElse(DEFAULT_CATCH_UP_HANDLER_THREADS);
+
+    this.skipSelfOriginatedEvents =
+        Optional.ofNullable(getStringParam(pluginConfig, "skipSelfOriginatedEvents", null))
+            .map(Boolean::new)
+            .orElse(DEFAULT_SKIP_SELF_ORIGINATED_EVENTS);
+    this.sourceInstanceIds = ImmutableList.copyOf(pluginConfig.getStringList("sourceInstanceId"));
+
+    this.producerMaxConnections =
+        Optional.ofNullable(getStringParam(pluginConfig, "producerMaxConnections", null))
+            .map(Integer::parseInt)
+            .orElse(DEFAULT_PRODUCER_MAX_CONNECTIONS);
+
+    this.httpClientEventLoopThreads =
+        Optional.ofNullable(getStringParam(pluginConfig, "httpClientEventLoopThreads", null))
+            .map(Integer::parseInt)
+            .orElse(DEFAULT_HTTP_CLIENT_EVENT_LOOP_THREADS);
+
+    this.kclMetrics =
+        KclMetrics.valueOf(
+            getStringParam(pluginConfig, "kclMetrics", DEFAULT_KCL_METRICS).toUpperCase());
+
+    this.kclMetricsLevel =
+        MetricsLevel.fromName(
+            getStringParam(pluginConfig, "kclMetricsLevel", DEFAULT_KCL_METRICS_LEVEL));
+
+    this.leaseStore =
+        LeaseStoreType.valueOf(
+            getStringParam(pluginConfig, "leaseStore", DEFAULT_LEASE_STORE).toUpperCase());
+
+    this.producerStartup =
+        ProducerStartup.valueOf(
+            getStringParam(pluginConfig, "producerStartup", DEFAULT_PRODUCER_STARTUP)
+                .toUpperCase()
+                .replace('-', '_'));
+
+    this.localLeaseStoreDirectory =
+        Optional.ofNullable(getStringParam(pluginConfig, "localLeaseStoreDirectory", null))
+            .map(Paths::get);
+
+    this.recordEncoding =
+        RecordEncoding.valueOf(
+            getStringParam(pluginConfig, "recordEncoding", DEFAULT_RECORD_ENCODING).toUpperCase());
+
+    this.schemaRegistry =
+        SchemaRegistryType.valueOf(
+            getStringParam(pluginConfig, "schemaRegistry", DEFAULT_SCHEMA_REGISTRY).toUpperCase());
+
+    this.localSchemaRegistryDirectory =
+        Optional.ofNullable(getStringParam(pluginConfig, "localSchemaRegistryDirectory", null))
+            .map(Paths::get);
+
+    this.glueSchemaRegistryName =
+        getStringParam(pluginConfig, "glueSchemaRegistryName", DEFAULT_GLUE_SCHEMA_REGISTRY_NAME);
+
+    // A registry private to the node would leave the other nodes unable to decode its records.
+    if (recordEncoding == RecordEncoding.AVRO
+        && schemaRegistry == SchemaRegistryType.LOCAL
+        && !localSchemaRegistryDirectory.isPresent()) {
+      throw new IllegalArgumentException(
+          "recordEncoding is AVRO, but no schema registry shared by the nodes is configured:"
+              + " set schemaRegistry to GLUE, or localSchemaRegistryDirectory to a shared"
+              + " directory");
+    }
+
+    this.defaultConsumerSettings =
+        ConsumerSettings.create(
+            RetrievalMode.valueOf(
+                getStringParam(pluginConfig, "retrievalMode", DEFAULT_RETRIEVAL_MODE)
+                    .toUpperCase()),
+            pollingIntervalMs,
+            maxRecords,
+            initialPosition,
+            Optional.ofNullable(getStringParam(pluginConfig, "checkpointIntervalMs", null))
+                .map(Long::parseLong)
+                .orElse(DEFAULT_CHECKPOINT_INTERVAL_MS),
+            Optional.ofNullable(getStringParam(pluginConfig, "handlerThreads", null))
+                .map(Integer::parseInt)
+                .orElse(DEFAULT_HANDLER_THREADS));
+
+    this.dedupCacheSize =
+        Optional.ofNullable(getStringParam(pluginConfig, "dedupCacheSize", null))
+            .map(Long::parseLong)
+            .orElse(DEFAULT_DEDUP_CACHE_SIZE);
+
+    this.dedupCacheTtlMs =
+        Optional.ofNullable(getStringParam(pluginConfig, "dedupCacheTtlMs", null))
+            .map(Long::parseLong)
+            .orElse(DEFAULT_DEDUP_CACHE_TTL_MS);
+
+    this.executorMode =
+        ExecutorMode.valueOf(
+            getStringParam(pluginConfig, "executorMode", DEFAULT_EXECUTOR_MODE).toUpperCase());
+
+    this.producerCallbackThreads =
+        Optional.ofNullable(getStringParam(pluginConfig, "producerCallbackThreads", null))
+            .map(Integer::parseInt)
+            .orElse(DEFAULT_PRODUCER_CALLBACK_THREADS);
+
+    this.circuitBreakerFailureRateThreshold =
+        Optional.ofNullable(
+                getStringParam(pluginConfig, "circuitBreakerFailureRateThreshold", null))
+            .map(Integer::parseInt)
+            .orElse(DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD);
+
+    this.circuitBreakerMinimumCalls =
+        Optional.ofNullable(getStringParam(pluginConfig, "circuitBreakerMinimumCalls", null))
+            .map(Integer::parseInt)
+            .orElse(DEFAULT_CIRCUIT_BREAKER_MINIMUM_CALLS);
+
+    this.circuitBreakerWindowMs =
+        Optional.ofNullable(getStringParam(pluginConfig, "circuitBreakerWindowMs", null))
+            .map(Long::parseLong)
+            .orElse(DEFAULT_CIRCUIT_BREAKER_WINDOW_MS);
+
+    this.circuitBreakerOpenMs =
+        Optional.ofNullable(getStringParam(pluginConfig, "circuitBreakerOpenMs", null))
+            .map(Long::parseLong)
+            .orElse(DEFAULT_CIRCUIT_BREAKER_OPEN_MS);
+
+    this.circuitBreakerProbes =
+        Optional.ofNullable(getStringParam(pluginConfig, "circuitBreakerProbes", null))
+            .map(Integer::parseInt)
+            .orElse(DEFAULT_CIRCUIT_BREAKER_PROBES);
+
+    this.shardRateLimitRecordsPerSecond =
+        Optional.ofNullable(getStringParam(pluginConfig, "shardRateLimitRecordsPerSecond", null))
+            .map(Integer::parseInt)
+            .orElse(DEFAULT_SHARD_RATE_LIMIT_RECORDS_PER_SECOND);
+
+    this.shardRateLimitBytesPerSecond =
+        Optional.ofNullable(getStringParam(pluginConfig, "shardRateLimitBytesPerSecond", null))
+            .map(Integer::parseInt)
+            .orElse(DEFAULT_SHARD_RATE_LIMIT_BYTES_PER_SECOND);
+
+    this.shardRateLimitMaxWaitMs =
+        Optional.ofNullable(getStringParam(pluginConfig, "shardRateLimitMaxWaitMs", null))
+            .map(Long::parseLong)
+            .orElse(DEFAULT_SHARD_RATE_LIMIT_MAX_WAIT_MS);
+
+    this.shardMapRefreshMs =
+        Optional.ofNullable(getStringParam(pluginConfig, "shardMapRefreshMs", null))
+            .map(Long::parseLong)
+            .orElse(DEFAULT_SHARD_MAP_REFRESH_MS);
+
+    this.heartbeatIntervalMs =
+        Optional.ofNullable(getStringParam(pluginConfig, "heartbeatIntervalMs", null))
+            .map(Long::parseLong)
+            .orElse(DEFAULT_HEARTBEAT_INTERVAL_MS);
+
+    this.readinessMaxLagMs =
+        Optional.ofNullable(getStringParam(pluginConfig, "readinessMaxLagMs", null))
+            .map(Long::parseLong)
+            .orElse(DEFAULT_READINESS_MAX_LAG_MS);
+    this.readinessTopics = ImmutableList.copyOf(pluginConfig.getStringList("readinessTopic"));
+
+    this.failoverErrorRateThreshold =
+        Optional.ofNullable(getStringParam(pluginConfig, "failoverErrorRateThreshold", null))
+            .map(Integer::parseInt)
+            .orElse(DEFAULT_FAILOVER_ERROR_RATE_THRESHOLD);
+
+    this.failoverLatencyThresholdMs =
+        Optional.ofNullable(getStringParam(pluginConfig, "failoverLatencyThresholdMs", null))
+            .map(Long::parseLong)
+            .orElse(DEFAULT_FAILOVER_LATENCY_THRESHOLD_MS);
+
+    this.failoverMinimumCalls =
+        Optional.ofNullable(getStringParam(pluginConfig, "failoverMinimumCalls", null))
+            .map(Integer::parseInt)
+            .orElse(DEFAULT_FAILOVER_MINIMUM_CALLS);
+
+    this.failoverWindowMs =
+        Optional.ofNullable(getStringParam(pluginConfig, "failoverWindowMs", null))
+            .map(Long::parseLong)
+            .orElse(DEFAULT_FAILOVER_WINDOW_MS);
+
+    this.failbackAfterMs =
+        Optional.ofNullable(getStringParam(pluginConfig, "failbackAfterMs", null))
+            .map(Long::parseLong)
+            .orElse(DEFAULT_FAILBACK_AFTER_MS);
+
+    this.consumeFailoverEndpoints =
+        Optional.ofNullable(getStringParam(pluginConfig, "consumeFailoverEndpoints", null))
+            .map(Boolean::new)
+            .orElse(DEFAULT_CONSUME_FAILOVER_ENDPOINTS);
+
+    this.includedEventTypes =
+        ImmutableList.copyOf(pluginConfig.getStringList("streamEventsIncludeEventType"));
+    this.excludedEventTypes =
+        ImmutableList.copyOf(pluginConfig.getStringList("streamEventsExcludeEventType"));
+    this.includedProjects =
+        ImmutableList.copyOf(pluginConfig.getStringList("streamEventsIncludeProject"));
+    this.excludedProjects =
+        ImmutableList.copyOf(pluginConfig.getStringList("streamEventsExcludeProject"));
+
+    ImmutableMap.Builder<String, Long> maxEventAgeMs = ImmutableMap.builder();
+    Map<String, String> eventTypeTopics = new LinkedHashMap<>();
+    ImmutableMap.Builder<String, Long> coalesceWindowMs = ImmutableMap.builder();
+    ImmutableMap.Builder<String, ImmutableSet<String>> coalesceEventTypes = ImmutableMap.builder();
+    ImmutableMap.Builder<String, String> topicPriorities = ImmutableMap.builder();
+    ImmutableMap.Builder<String, ConsumerSettings> consumerSettings = ImmutableMap.builder();
+    for (String topic : globalPluginConfig.getSubsections(TOPIC_SECTION)) {
+      long topicMaxEventAgeMs =
+          globalPluginConfig.getLong(TOPIC_SECTION, topic, MAX_EVENT_AGE_MS, 0L);
+      if (topicMaxEventAgeMs > 0) {
+        maxEventAgeMs.put(topic, topicMaxEventAgeMs);
+      }
+      for (String eventType : globalPluginConfig.getStringList(TOPIC_SECTION, topic, EVENT_TYPE)) {
+        String eventTypeTopic = eventTypeTopics.putIfAbsent(eventType, topic);
+        if (eventTypeTopic != null) {
+          logger.atWarning().log(
+              "Event type %s assigned to both topics %s and %s, publishing to %s only",
+              eventType, eventTypeTopic, topic, eventTypeTopic);
+        }
+      }
+      long topicCoalesceWindowMs =
+          globalPluginConfig.getLong(TOPIC_SECTION, topic, COALESCE_WINDOW_MS, 0L);
+      if (topicCoalesceWindowMs > 0) {
+        coalesceWindowMs.put(topic, topicCoalesceWindowMs);
+      }
+      String[] topicCoalesceEventTypes =
+          globalPluginConfig.getStringList(TOPIC_SECTION, topic, COALESCE_EVENT_TYPE);
+      if (topicCoalesceEventTypes.length > 0) {
+        coalesceEventTypes.put(topic, ImmutableSet.copyOf(topicCoalesceEventTypes));
+      }
+      String topicPriority = globalPluginConfig.getString(TOPIC_SECTION, topic, PRIORITY);
+      if (topicPriority != null) {
+        topicPriorities.put(topic, topicPriority);
+      }
+      consumerSettings.put(
+          topic, getConsumerSettings(globalPluginConfig, topic, defaultConsumerSettings));
+    }
+    this.maxEventAgeMsByTopic = maxEventAgeMs.build();
+    this.topicByEventType = ImmutableMap.copyOf(eventTypeTopics);
+    this.coalesceWindowMsByTopic = coalesceWindowMs.build();
+    this.coalesceEventTypesByTopic = coalesceEventTypes.build();
+    this.priorityByTopic = topicPriorities.build();
+    this.consumerSettingsByTopic = consumerSettings.build();
+
+    ImmutableMap.Builder<String, PriorityClass> priorities = ImmutableMap.builder();
+    priorities.put(
+        PriorityClass.DEFAULT,
+        PriorityClass.create(
+            PriorityClass.DEFAULT,
+            producerMaxConnections,
+            publishSingleRequestTimeoutMs,
+            publishTimeoutMs));
+    for (String priority : globalPluginConfig.getSubsections(PRIORITY_SECTION)) {
+      if (!PriorityClass.DEFAULT.equals(priority)) {
+        priorities.put(
+            priority,
+            PriorityClass.create(
+                priority,
+                globalPluginConfig.getInt(
+                    PRIORITY_SECTION, priority, "maxConnections", producerMaxConnections),
+                globalPluginConfig.getLong(
+                    PRIORITY_SECTION,
+                    priority,
+                    "publishSingleRequestTimeoutMs",
+                    publishSingleRequestTimeoutMs),
+                globalPluginConfig.getLong(
+                    PRIORITY_SECTION, priority, "publishTimeoutMs", publishTimeoutMs)));
+      }
+    }
+    this.priorityClasses = priorities.build();
+
+    ImmutableList.Builder<KinesisEndpoint> endpointsBuilder = ImmutableList.builder();
+    endpointsBuilder.add(KinesisEndpoint.create(KinesisEndpoint.PRIMARY, region, endpoint));
+    for (String name : globalPluginConfig.getSubsections(ENDPOINT_SECTION)) {
+      if (KinesisEndpoint.PRIMARY.equals(name)) {
+        logger.atWarning().log(
+            "Ignoring endpoint section '%s': the primary endpoint is configured by the 'region'"
+                + " and 'endpoint' settings",
+            name);
+        continue;
+      }
+      endpointsBuilder.add(
+          KinesisEndpoint.create(
+              name,
+              Optional.ofNullable(globalPluginConfig.getString(ENDPOINT_SECTION, name, "region"))
+                  .map(Region::of),
+              Optional.ofNullable(globalPluginConfig.getString(ENDPOINT_SECTION, name, "endpoint"))
+                  .map(URI::create)));
+    }
+    this.endpoints = endpointsBuilder.build();
+
+    ImmutableMap.Builder<String, HttpClientSettings> httpClients = ImmutableMap.builder();
+    for (String client : globalPluginConfig.getSubsections(HTTP_CLIENT_SECTION)) {
+      httpClients.put(client, getHttpClientSettings(globalPluginConfig, client));
+    }
+    this.httpClientSettings = httpClients.build();
+    priorityByTopic.forEach(
+        (topic, priority) -> {
+          if (!priorityClasses.containsKey(priority)) {
+            logger.atWarning().log(
+                "Topic %s assigned to undefined priority class %s, using %s instead",
+                topic, priority, PriorityClass.DEFAULT);
+          }
+        });
+
     logger.atInfo().log(
         "Kinesis client. Application:'%s'|PollingInterval: %s|maxRecords: %s%s%s",
         applicationName,
@@ -141,6 +607,15 @@ class Configuration {
     return endpoint;
   }
 
+  /** The primary endpoint first, followed by the failover ones in the order they are declared. */
+  public ImmutableList<KinesisEndpoint> getEndpoints() {
+    return endpoints;
+  }
+
+  public KinesisEndpoint getPrimaryEndpoint() {
+    return endpoints.get(0);
+  }
+
   public Long getPublishSingleRequestTimeoutMs() {
     return publishSingleRequestTimeoutMs;
   }
@@ -164,10 +639,67 @@ class Configuration {
         : System.getProperty(name);
   }
 
+  private static HttpClientSettings getHttpClientSettings(Config config, String client) {
+    HttpClientSettings.Builder settings = HttpClientSettings.builder();
+    getOptionalString(config, HTTP_CLIENT_SECTION, client, "maxConcurrency")
+        .map(Integer::parseInt)
+        .ifPresent(settings::maxConcurrency);
+    getOptionalString(config, HTTP_CLIENT_SECTION, client, "connectionAcquisitionTimeoutMs")
+        .map(Long::parseLong)
+        .ifPresent(settings::connectionAcquisitionTimeoutMs);
+    getOptionalString(config, HTTP_CLIENT_SECTION, client, "connectionMaxIdleTimeMs")
+        .map(Long::parseLong)
+        .ifPresent(settings::connectionMaxIdleTimeMs);
+    getOptionalString(config, HTTP_CLIENT_SECTION, client, "useIdleConnectionReaper")
+        .map(Boolean::new)
+        .ifPresent(settings::useIdleConnectionReaper);
+    getOptionalString(config, HTTP_CLIENT_SECTION, client, "protocol")
+        .map(p -> Protocol.valueOf(p.toUpperCase()))
+        .ifPresent(settings::protocol);
+    getOptionalString(config, HTTP_CLIENT_SECTION, client, "http2MaxStreams")
+        .map(Long::parseLong)
+        .ifPresent(settings::http2MaxStreams);
+    getOptionalString(config, HTTP_CLIENT_SECTION, client, "http2InitialWindowSize")
+        .map(Integer::parseInt)
+        .ifPresent(settings::http2InitialWindowSize);
+    getOptionalString(config, HTTP_CLIENT_SECTION, client, "http2HealthCheckPingPeriodMs")
+        .map(Long::parseLong)
+        .ifPresent(settings::http2HealthCheckPingPeriodMs);
+    return settings.build();
+  }
+
+  private static ConsumerSettings getConsumerSettings(
+      Config config, String topic, ConsumerSettings defaults) {
+    return ConsumerSettings.create(
+        getOptionalString(config, TOPIC_SECTION, topic, "retrievalMode")
+            .map(m -> RetrievalMode.valueOf(m.toUpperCase()))
+            .orElse(defaults.retrievalMode()),
+        config.getLong(TOPIC_SECTION, topic, "pollingIntervalMs", defaults.pollingIntervalMs()),
+        config.getInt(TOPIC_SECTION, topic, "maxRecords", defaults.maxRecords()),
+        getOptionalString(config, TOPIC_SECTION, topic, "initialPosition")
+            .map(p -> InitialPositionInStream.valueOf(p.toUpperCase()))
+            .orElse(defaults.initialPosition()),
+        config.getLong(
+            TOPIC_SECTION, topic, "checkpointIntervalMs", defaults.checkpointIntervalMs()),
+        config.getInt(TOPIC_SECTION, topic, "handlerThreads", defaults.handlerThreads()));
+  }
+
+  private static Optional<String> getOptionalString(
+      Config config, String section, String subsection, String name) {
+    return Optional.ofNullable(config.getString(section, subsection, name));
+  }
+
   public static String cosumerLeaseName(String applicationName, String streamName) {
     return String.format("%s-%s", applicationName, streamName);
   }
 
+  /** Consumers of the failover endpoints keep their leases apart from the primary ones. */
+  public static String cosumerLeaseName(
+      String applicationName, String streamName, KinesisEndpoint endpoint) {
+    String leaseName = cosumerLeaseName(applicationName, streamName);
+    return endpoint.isPrimary() ? leaseName : String.format("%s-%s", leaseName, endpoint.name());
+  }
+
   public Long getShutdownTimeoutMs() {
     return shutdownTimeoutMs;
   }
@@ -179,4 +711,233 @@ class Configuration {
   public Boolean isSendAsync() {
     return sendAsync;
   }
+
+  public boolean isCatchUpEnabled() {
+    return catchUpThresholdMs > 0;
+  }
+
+  public Long getCatchUpThresholdMs() {
+    return catchUpThresholdMs;
+  }
+
+  public Integer getCatchUpMaxRecords() {
+    return catchUpMaxRecords;
+  }
+
+  public Long getCatchUpPollingIntervalMs() {
+    return catchUpPollingIntervalMs;
+  }
+
+  public Integer getCatchUpHandlerThreads() {
+    return catchUpHandlerThreads;
+  }
+
+  public Boolean isSkipSelfOriginatedEvents() {
+    return skipSelfOriginatedEvents;
+  }
+
+  public ImmutableList<String> getSourceInstanceIds() {
+    return sourceInstanceIds;
+  }
+
+  public Optional<Long> getMaxEventAgeMs(String topic) {
+    return Optional.ofNullable(maxEventAgeMsByTopic.get(topic));
+  }
+
+  public ImmutableList<String> getStreamEventsIncludedEventTypes() {
+    return includedEventTypes;
+  }
+
+  public ImmutableList<String> getStreamEventsExcludedEventTypes() {
+    return excludedEventTypes;
+  }
+
+  public ImmutableList<String> getStreamEventsIncludedProjects() {
+    return includedProjects;
+  }
+
+  public ImmutableList<String> getStreamEventsExcludedProjects() {
+    return excludedProjects;
+  }
+
+  public Optional<Long> getCoalesceWindowMs(String topic) {
+    return Optional.ofNullable(coalesceWindowMsByTopic.get(topic));
+  }
+
+  /** Types of the events of the topic that supersede the previous ones of the same type. */
+  public ImmutableSet<String> getCoalesceEventTypes(String topic) {
+    return coalesceEventTypesByTopic.getOrDefault(topic, DEFAULT_COALESCE_EVENT_TYPES);
+  }
+
+  public Collection<PriorityClass> getPriorityClasses() {
+    return priorityClasses.values();
+  }
+
+  public PriorityClass getDefaultPriorityClass() {
+    return priorityClasses.get(PriorityClass.DEFAULT);
+  }
+
+  public PriorityClass getPriorityClass(String topic) {
+    return Optional.ofNullable(priorityByTopic.get(topic))
+        .map(priorityClasses::get)
+        .orElse(getDefaultPriorityClass());
+  }
+
+  public Integer getHttpClientEventLoopThreads() {
+    return httpClientEventLoopThreads;
+  }
+
+  public HttpClientSettings getHttpClientSettings(String client) {
+    return Optional.ofNullable(httpClientSettings.get(client))
+        .orElse(HttpClientSettings.builder().build());
+  }
+
+  public KclMetrics getKclMetrics() {
+    return kclMetrics;
+  }
+
+  public MetricsLevel getKclMetricsLevel() {
+    return kclMetricsLevel;
+  }
+
+  public LeaseStoreType getLeaseStore() {
+    return leaseStore;
+  }
+
+  public ProducerStartup getProducerStartup() {
+    return producerStartup;
+  }
+
+  public Optional<Path> getLocalLeaseStoreDirectory() {
+    return localLeaseStoreDirectory;
+  }
+
+  public RecordEncoding getRecordEncoding() {
+    return recordEncoding;
+  }
+
+  public SchemaRegistryType getSchemaRegistry() {
+    return schemaRegistry;
+  }
+
+  public Optional<Path> getLocalSchemaRegistryDirectory() {
+    return localSchemaRegistryDirectory;
+  }
+
+  public String getGlueSchemaRegistryName() {
+    return glueSchemaRegistryName;
+  }
+
+  public ConsumerSettings getConsumerSettings(String topic) {
+    return consumerSettingsByTopic.getOrDefault(topic, defaultConsumerSettings);
+  }
+
+  public Long getDedupCacheSize() {
+    return dedupCacheSize;
+  }
+
+  public Long getDedupCacheTtlMs() {
+    return dedupCacheTtlMs;
+  }
+
+  public ExecutorMode getExecutorMode() {
+    return executorMode;
+  }
+
+  public Integer getProducerCallbackThreads() {
+    return producerCallbackThreads;
+  }
+
+  public boolean isCircuitBreakerEnabled() {
+    return circuitBreakerFailureRateThreshold > 0;
+  }
+
+  public Integer getCircuitBreakerFailureRateThreshold() {
+    return circuitBreakerFailureRateThreshold;
+  }
+
+  public Integer getCircuitBreakerMinimumCalls() {
+    return circuitBreakerMinimumCalls;
+  }
+
+  public Long getCircuitBreakerWindowMs() {
+    return circuitBreakerWindowMs;
+  }
+
+  public Long getCircuitBreakerOpenMs() {
+    return circuitBreakerOpenMs;
+  }
+
+  public Integer getCircuitBreakerProbes() {
+    return circuitBreakerProbes;
+  }
+
+  public boolean isShardRateLimitEnabled() {
+    return shardRateLimitRecordsPerSecond > 0;
+  }
+
+  public Integer getShardRateLimitRecordsPerSecond() {
+    return shardRateLimitRecordsPerSecond;
+  }
+
+  public Integer getShardRateLimitBytesPerSecond() {
+    return shardRateLimitBytesPerSecond;
+  }
+
+  public Long getShardRateLimitMaxWaitMs() {
+    return shardRateLimitMaxWaitMs;
+  }
+
+  public Long getShardMapRefreshMs() {
+    return shardMapRefreshMs;
+  }
+
+  public boolean isHeartbeatEnabled() {
+    return heartbeatIntervalMs > 0;
+  }
+
+  public Long getHeartbeatIntervalMs() {
+    return heartbeatIntervalMs;
+  }
+
+  public Long getReadinessMaxLagMs() {
+    return readinessMaxLagMs;
+  }
+
+  public ImmutableList<String> getReadinessTopics() {
+    return readinessTopics;
+  }
+
+  public boolean isFailoverEnabled() {
+    return failoverErrorRateThreshold > 0 && endpoints.size() > 1;
+  }
+
+  public Integer getFailoverErrorRateThreshold() {
+    return failoverErrorRateThreshold;
+  }
+
+  public Long getFailoverLatencyThresholdMs() {
+    return failoverLatencyThresholdMs;
+  }
+
+  public Integer getFailoverMinimumCalls() {
+    return failoverMinimumCalls;
+  }
+
+  public Long getFailoverWindowMs() {
+    return failoverWindowMs;
+  }
+
+  public Long getFailbackAfterMs() {
+    return failbackAfterMs;
+  }
+
+  /** Whether topics are also consumed from the failover endpoints, besides the primary one. */
+  public boolean isConsumeFailoverEndpoints() {
+    return consumeFailoverEndpoints && isFailoverEnabled();
+  }
+
+  public String getStreamEventsTopic(String eventType) {
+    return topicByEventType.getOrDefault(eventType, streamEventsTopic);
+  }
 }
@@ -0,0 +1,101 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ids of the events recently handed over to the subscribers of each stream, used to drop the
+ * records delivered more than once, e.g. after a lease moves to another worker before its
+ * checkpoint, or when the producer retries a record that was in fact already stored.
+ *
+ * <p>Events are marked as consumed before being handed over, so that the same event processed in
+ * parallel is handed over only once, and forgotten if the subscriber fails to handle them, so that
+ * they are handed over again when delivered again.
+ */
+@Singleton
+class ConsumedEventsCache {
+  private final Configuration configuration;
+  private final ConsumerMetrics consumerMetrics;
+  private final Ticker ticker;
+  private final Map<String, Cache<UUID, Boolean>> consumedEventsByStream =
+      new ConcurrentHashMap<>();
+
+  @Inject
+  ConsumedEventsCache(Configuration configuration, ConsumerMetrics consumerMetrics) {
+    this(configuration, consumerMetrics, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  ConsumedEventsCache(Configuration configuration, ConsumerMetrics consumerMetrics, Ticker ticker) {
+    this.configuration = configuration;
+    this.consumerMetrics = consumerMetrics;
+    this.ticker = ticker;
+  }
+
+  public boolean isEnabled() {
+    return configuration.getDedupCacheSize() > 0;
+  }
+
+  /**
+   * Record that the event is being consumed.
+   *
+   * @return false when the event was already consumed from the same stream.
+   */
+  public boolean markConsumed(String streamName, UUID eventId) {
+    boolean firstTime =
+        consumedEventsByStream
+                .computeIfAbsent(streamName, s -> newCache())
+                .asMap()
+                .putIfAbsent(eventId, Boolean.TRUE)
+            == null;
+    if (firstTime) {
+      consumerMetrics.incrementDedupCacheMisses(streamName);
+    } else {
+      consumerMetrics.incrementDedupCacheHits(streamName);
+    }
+    return firstTime;
+  }
+
+  /** Forget an event the subscriber failed to handle, so that it is consumed if delivered again. */
+  public void forget(String streamName, UUID eventId) {
+    Cache<UUID, Boolean> consumedEvents = consumedEventsByStream.get(streamName);
+    if (consumedEvents != null) {
+      consumedEvents.invalidate(eventId);
+    }
+  }
+
+  /** Forget the events consumed from the stream, so that they can be replayed. */
+  public void clear(String streamName) {
+    consumedEventsByStream.remove(streamName);
+  }
+
+  private Cache<UUID, Boolean> newCache() {
+    return CacheBuilder.newBuilder()
+        .maximumSize(configuration.getDedupCacheSize())
+        .expireAfterWrite(Duration.ofMillis(configuration.getDedupCacheTtlMs()))
+        .ticker(ticker)
+        .build();
+  }
+}
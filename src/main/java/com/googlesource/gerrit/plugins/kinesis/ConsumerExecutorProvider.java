@@ -14,10 +14,13 @@
 
 package com.googlesource.gerrit.plugins.kinesis;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.logging.LoggingContextAwareExecutorService;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 class ConsumerExecutorProvider implements Provider<ExecutorService> {
   private final WorkQueue workQueue;
@@ -31,6 +34,16 @@ class ConsumerExecutorProvider implements Provider<ExecutorService> {
 
   @Override
   public ExecutorService get() {
-    return workQueue.createQueue(configuration.getNumberOfSubscribers(), "kinesis-consumers");
+    switch (configuration.getExecutorMode()) {
+      case ELASTIC:
+        // Every subscriber blocks a thread for as long as it runs, so in elastic mode threads are
+        // created as topics are subscribed to, and released when consumers are shut down.
+        return new LoggingContextAwareExecutorService(
+            Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("kinesis-consumers-%d").build()));
+      case FIXED:
+      default:
+        return workQueue.createQueue(configuration.getNumberOfSubscribers(), "kinesis-consumers");
+    }
   }
 }
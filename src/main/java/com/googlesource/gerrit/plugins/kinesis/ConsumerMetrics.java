@@ -0,0 +1,170 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.gerrit.metrics.CallbackMetric1;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.Histogram1;
+import com.google.gerrit.metrics.Histogram2;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Singleton
+class ConsumerMetrics {
+  private final Counter1<String> staleEventsSkipped;
+  private final Counter1<String> selfOriginatedEventsSkipped;
+  private final Counter1<String> dedupCacheHits;
+  private final Counter1<String> dedupCacheMisses;
+  private final Histogram1<String> producerLatency;
+  private final Histogram1<String> streamLatency;
+  private final Histogram1<String> handlerLatency;
+  private final Histogram2<String, String> heartbeatLatency;
+  private final Map<String, Instant> lastHeartbeats = new ConcurrentHashMap<>();
+
+  @Inject
+  ConsumerMetrics(MetricMaker metricMaker) {
+    this.staleEventsSkipped =
+        metricMaker.newCounter(
+            "consumer/stale_events_skipped",
+            new Description("Events skipped for being older than the topic maxEventAgeMs")
+                .setRate()
+                .setUnit("events"),
+            topicField());
+    this.selfOriginatedEventsSkipped =
+        metricMaker.newCounter(
+            "consumer/self_originated_events_skipped",
+            new Description("Events skipped for having been published by this node")
+                .setRate()
+                .setUnit("events"),
+            topicField());
+    this.dedupCacheHits =
+        metricMaker.newCounter(
+            "consumer/dedup_cache_hits",
+            new Description("Events skipped for having already been consumed")
+                .setRate()
+                .setUnit("events"),
+            topicField());
+    this.dedupCacheMisses =
+        metricMaker.newCounter(
+            "consumer/dedup_cache_misses",
+            new Description("Events not found in the cache of the events already consumed")
+                .setRate()
+                .setUnit("events"),
+            topicField());
+    this.producerLatency =
+        metricMaker.newHistogram(
+            "consumer/latency/producer",
+            new Description("Time between an event being published and reaching the stream")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            topicField());
+    this.streamLatency =
+        metricMaker.newHistogram(
+            "consumer/latency/stream",
+            new Description("Time between an event reaching the stream and being retrieved")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            topicField());
+    this.handlerLatency =
+        metricMaker.newHistogram(
+            "consumer/latency/handler",
+            new Description("Time spent by the subscriber handling an event or a batch of events")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            topicField());
+    this.heartbeatLatency =
+        metricMaker.newHistogram(
+            "consumer/heartbeat/latency",
+            new Description("Time between a heartbeat being published and being consumed")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            topicField(),
+            nodeField());
+    CallbackMetric1<String, Long> heartbeatAge =
+        metricMaker.newCallbackMetric(
+            "consumer/heartbeat/age",
+            Long.class,
+            new Description("Time since the last heartbeat was consumed")
+                .setGauge()
+                .setUnit(Units.MILLISECONDS),
+            topicField());
+    metricMaker.newTrigger(
+        heartbeatAge,
+        () -> {
+          Instant now = Instant.now();
+          lastHeartbeats.forEach(
+              (topic, consumedAt) ->
+                  heartbeatAge.set(topic, Duration.between(consumedAt, now).toMillis()));
+        });
+  }
+
+  void incrementStaleEventsSkipped(String topic) {
+    staleEventsSkipped.increment(topic);
+  }
+
+  void incrementSelfOriginatedEventsSkipped(String topic) {
+    selfOriginatedEventsSkipped.increment(topic);
+  }
+
+  void incrementDedupCacheHits(String topic) {
+    dedupCacheHits.increment(topic);
+  }
+
+  void incrementDedupCacheMisses(String topic) {
+    dedupCacheMisses.increment(topic);
+  }
+
+  void recordProducerLatency(String topic, Duration latency) {
+    producerLatency.record(topic, nonNegativeMillis(latency));
+  }
+
+  void recordStreamLatency(String topic, Duration latency) {
+    streamLatency.record(topic, nonNegativeMillis(latency));
+  }
+
+  void recordHandlerLatency(String topic, Duration latency) {
+    handlerLatency.record(topic, nonNegativeMillis(latency));
+  }
+
+  void recordHeartbeat(String topic, String node, Duration latency) {
+    heartbeatLatency.record(topic, node, nonNegativeMillis(latency));
+    lastHeartbeats.put(topic, Instant.now());
+  }
+
+  /** Clocks of the publishing and consuming nodes may be slightly off. */
+  private static long nonNegativeMillis(Duration latency) {
+    return Math.max(0L, latency.toMillis());
+  }
+
+  private static Field<String> nodeField() {
+    return Field.ofString("node", (metadataBuilder, fieldValue) -> {})
+        .description("The gerrit.instanceId of the node that published the heartbeat.")
+        .build();
+  }
+
+  private static Field<String> topicField() {
+    return Field.ofString("topic", (metadataBuilder, fieldValue) -> {})
+        .description("The kinesis stream the event was consumed from.")
+        .build();
+  }
+}
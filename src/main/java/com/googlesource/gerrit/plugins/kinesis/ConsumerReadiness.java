@@ -0,0 +1,109 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.kinesis.ShardProgress.ShardState;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import software.amazon.kinesis.leases.Lease;
+
+/**
+ * Tells whether the consumers of this node are current, i.e. whether it can serve traffic without
+ * exposing caches and indexes that are missing the events published by the other nodes.
+ *
+ * <p>A topic is ready once its scheduler holds shard leases and, on every one of them, the record
+ * processor has reported being at most {@code readinessMaxLagMs} behind the tip of the shard. The
+ * node is not ready until at least one topic is subscribed on the primary endpoint.
+ */
+@Singleton
+class ConsumerReadiness {
+  private final KinesisBrokerApi brokerApi;
+  private final ShardProgress shardProgress;
+  private final Configuration configuration;
+
+  @Inject
+  ConsumerReadiness(
+      KinesisBrokerApi brokerApi, ShardProgress shardProgress, Configuration configuration) {
+    this.brokerApi = brokerApi;
+    this.shardProgress = shardProgress;
+    this.configuration = configuration;
+  }
+
+  ReadinessInfo check() {
+    ReadinessInfo readiness = new ReadinessInfo();
+    readiness.topics = new TreeMap<>();
+    configuration
+        .getReadinessTopics()
+        .forEach(t -> readiness.topics.put(t, notReady("not subscribed yet")));
+    brokerApi.consumers().stream()
+        .filter(c -> c.getEndpoint().isPrimary())
+        .forEach(c -> readiness.topics.put(c.getStreamName(), topicReadiness(c)));
+    if (readiness.topics.isEmpty()) {
+      readiness.ready = false;
+      readiness.reason = "no topic subscribed yet";
+    } else {
+      readiness.ready = readiness.topics.values().stream().allMatch(t -> t.ready);
+    }
+    return readiness;
+  }
+
+  private TopicReadinessInfo topicReadiness(KinesisConsumer consumer) {
+    Collection<Lease> leases = consumer.getLeases();
+    if (leases.isEmpty()) {
+      return notReady("no shard lease acquired yet");
+    }
+
+    Map<String, ShardState> progress =
+        shardProgress.forStream(consumer.getStreamName(), consumer.getEndpoint());
+    long maxMillisBehindLatest = 0;
+    for (Lease lease : leases) {
+      ShardState shard = progress.get(lease.leaseKey());
+      if (shard == null || !shard.millisBehindLatest().isPresent()) {
+        return notReady(String.format("shard %s not processed yet", lease.leaseKey()));
+      }
+      maxMillisBehindLatest = Math.max(maxMillisBehindLatest, shard.millisBehindLatest().get());
+    }
+
+    TopicReadinessInfo topic =
+        maxMillisBehindLatest > configuration.getReadinessMaxLagMs()
+            ? notReady(String.format("%dms behind latest", maxMillisBehindLatest))
+            : new TopicReadinessInfo();
+    topic.ready = topic.reason == null;
+    topic.millisBehindLatest = maxMillisBehindLatest;
+    return topic;
+  }
+
+  private static TopicReadinessInfo notReady(String reason) {
+    TopicReadinessInfo topic = new TopicReadinessInfo();
+    topic.ready = false;
+    topic.reason = reason;
+    return topic;
+  }
+
+  static class ReadinessInfo {
+    public boolean ready;
+    public String reason;
+    public Map<String, TopicReadinessInfo> topics;
+  }
+
+  static class TopicReadinessInfo {
+    public boolean ready;
+    public String reason;
+    public Long millisBehindLatest;
+  }
+}
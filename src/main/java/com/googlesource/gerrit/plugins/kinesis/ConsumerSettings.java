@@ -0,0 +1,62 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.auto.value.AutoValue;
+import software.amazon.kinesis.common.InitialPositionInStream;
+
+/**
+ * Consuming settings of a single topic. Any setting not overridden in the topic subsection falls
+ * back to the global one.
+ */
+@AutoValue
+abstract class ConsumerSettings {
+  enum RetrievalMode {
+    POLLING,
+    FANOUT
+  }
+
+  public abstract RetrievalMode retrievalMode();
+
+  public abstract long pollingIntervalMs();
+
+  public abstract int maxRecords();
+
+  public abstract InitialPositionInStream initialPosition();
+
+  public abstract long checkpointIntervalMs();
+
+  public abstract int handlerThreads();
+
+  public boolean isCheckpointingOnProcessing() {
+    return checkpointIntervalMs() > 0;
+  }
+
+  public static ConsumerSettings create(
+      RetrievalMode retrievalMode,
+      long pollingIntervalMs,
+      int maxRecords,
+      InitialPositionInStream initialPosition,
+      long checkpointIntervalMs,
+      int handlerThreads) {
+    return new AutoValue_ConsumerSettings(
+        retrievalMode,
+        pollingIntervalMs,
+        maxRecords,
+        initialPosition,
+        checkpointIntervalMs,
+        handlerThreads);
+  }
+}
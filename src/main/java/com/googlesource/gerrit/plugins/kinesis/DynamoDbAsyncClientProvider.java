@@ -23,15 +23,20 @@ import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClientBuilder;
 @Singleton
 class DynamoDbAsyncClientProvider implements Provider<DynamoDbAsyncClient> {
   private final Configuration configuration;
+  private final NettyHttpClientFactory httpClientFactory;
 
   @Inject
-  DynamoDbAsyncClientProvider(Configuration configuration) {
+  DynamoDbAsyncClientProvider(
+      Configuration configuration, NettyHttpClientFactory httpClientFactory) {
     this.configuration = configuration;
+    this.httpClientFactory = httpClientFactory;
   }
 
   @Override
   public DynamoDbAsyncClient get() {
-    DynamoDbAsyncClientBuilder builder = DynamoDbAsyncClient.builder();
+    DynamoDbAsyncClientBuilder builder =
+        DynamoDbAsyncClient.builder()
+            .httpClientBuilder(httpClientFactory.builder(HttpClientSettings.DYNAMODB));
     configuration.getRegion().ifPresent(builder::region);
     configuration.getEndpoint().ifPresent(builder::endpointOverride);
 
@@ -37,9 +37,11 @@ import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
 import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
 import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
+import software.amazon.kinesis.common.ConfigsBuilder;
+import software.amazon.kinesis.leases.LeaseManagementConfig;
 
 @Singleton
-class CheckpointResetter {
+class DynamoDbLeaseStore implements LeaseStore {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private static final String LEASE_KEY_ATTRIBUTE_NAME = "leaseKey";
@@ -50,13 +52,20 @@ class CheckpointResetter {
   private final DynamoDbAsyncClient dynamoDbAsyncClient;
 
   @Inject
-  CheckpointResetter(Configuration configuration, DynamoDbAsyncClient dynamoDbAsyncClient) {
+  DynamoDbLeaseStore(Configuration configuration, DynamoDbAsyncClient dynamoDbAsyncClient) {
     this.configuration = configuration;
     this.dynamoDbAsyncClient = dynamoDbAsyncClient;
   }
 
-  public void setAllShardsToBeginning(String streamName) {
-    String leaseTable = cosumerLeaseName(configuration.getApplicationName(), streamName);
+  @Override
+  public LeaseManagementConfig leaseManagementConfig(
+      ConfigsBuilder configsBuilder, String streamName, KinesisEndpoint endpoint) {
+    return configsBuilder.leaseManagementConfig();
+  }
+
+  @Override
+  public void setAllShardsToBeginning(String streamName, KinesisEndpoint endpoint) {
+    String leaseTable = cosumerLeaseName(configuration.getApplicationName(), streamName, endpoint);
 
     try {
       for (String shard : getAllShards(leaseTable)) {
@@ -0,0 +1,182 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the endpoint records are published to, moving away from the active one when too many of the
+ * recent records it was sent failed or were slow, and back to the preferred one once it had time to
+ * recover.
+ *
+ * <p>An endpoint becomes unhealthy when, within a window of {@code failoverWindowMs}, at least
+ * {@code failoverMinimumCalls} records were sent to it and the percentage of them that failed or
+ * took longer than {@code failoverLatencyThresholdMs} reached {@code failoverErrorRateThreshold}.
+ * Publishing then moves to the first endpoint, in the configured order, not found unhealthy within
+ * the last {@code failbackAfterMs}. Once that time is elapsed, publishing fails back to the
+ * preferred endpoint, which is given a fresh window to prove itself healthy again.
+ */
+@Singleton
+class EndpointRouter {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final Configuration configuration;
+  private final PublisherMetrics publisherMetrics;
+  private final Ticker ticker;
+  private final ImmutableList<KinesisEndpoint> endpoints;
+  private final EndpointHealth[] health;
+
+  private int active;
+
+  @Inject
+  EndpointRouter(Configuration configuration, PublisherMetrics publisherMetrics) {
+    this(configuration, publisherMetrics, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  EndpointRouter(Configuration configuration, PublisherMetrics publisherMetrics, Ticker ticker) {
+    this.configuration = configuration;
+    this.publisherMetrics = publisherMetrics;
+    this.ticker = ticker;
+    this.endpoints = configuration.getEndpoints();
+    this.health = new EndpointHealth[endpoints.size()];
+    for (int i = 0; i < health.length; i++) {
+      health[i] = new EndpointHealth(nowMs());
+    }
+    publisherMetrics.registerActiveEndpoint(this::getActiveIndex);
+  }
+
+  /** @return the endpoint records must be published to. */
+  public synchronized KinesisEndpoint active() {
+    if (!configuration.isFailoverEnabled()) {
+      return endpoints.get(0);
+    }
+
+    long now = nowMs();
+    for (int i = 0; i < active; i++) {
+      if (!health[i].isUnhealthy(now)) {
+        logger.atInfo().log(
+            "Failing back from kinesis endpoint '%s' to '%s'",
+            endpoints.get(active).name(), endpoints.get(i).name());
+        switchTo(i, now);
+        break;
+      }
+    }
+    return endpoints.get(active);
+  }
+
+  /** Account for the outcome of a record sent to the endpoint. */
+  public synchronized void onResult(KinesisEndpoint endpoint, boolean success, Duration latency) {
+    if (!configuration.isFailoverEnabled()) {
+      return;
+    }
+
+    int index = endpoints.indexOf(endpoint);
+    if (index < 0) {
+      return;
+    }
+    long now = nowMs();
+    long latencyThresholdMs = configuration.getFailoverLatencyThresholdMs();
+    boolean degraded =
+        !success || (latencyThresholdMs > 0 && latency.toMillis() > latencyThresholdMs);
+    EndpointHealth endpointHealth = health[index];
+    endpointHealth.record(now, degraded);
+    if (index == active && endpointHealth.isOverThreshold()) {
+      failOver(now);
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int getActiveIndex() {
+    return active;
+  }
+
+  private void failOver(long now) {
+    EndpointHealth current = health[active];
+    current.markUnhealthy(now);
+    for (int i = 0; i < endpoints.size(); i++) {
+      if (i != active && !health[i].isUnhealthy(now)) {
+        logger.atWarning().log(
+            "Failing over from kinesis endpoint '%s' to '%s': %s out of %s records failed or"
+                + " were slow",
+            endpoints.get(active).name(), endpoints.get(i).name(), current.degraded, current.calls);
+        switchTo(i, now);
+        return;
+      }
+    }
+    logger.atWarning().log(
+        "Kinesis endpoint '%s' is unhealthy, but no other endpoint is healthy to fail over to",
+        endpoints.get(active).name());
+  }
+
+  private void switchTo(int index, long now) {
+    active = index;
+    health[index].resetWindow(now);
+    publisherMetrics.incrementEndpointSwitches(endpoints.get(index).name());
+  }
+
+  private long nowMs() {
+    return TimeUnit.NANOSECONDS.toMillis(ticker.read());
+  }
+
+  private class EndpointHealth {
+    private long windowStartMs;
+    private int calls;
+    private int degraded;
+    private Long unhealthySinceMs;
+
+    EndpointHealth(long now) {
+      this.windowStartMs = now;
+    }
+
+    void record(long now, boolean isDegraded) {
+      if (now - windowStartMs >= configuration.getFailoverWindowMs()) {
+        resetWindow(now);
+      }
+      calls++;
+      if (isDegraded) {
+        degraded++;
+      }
+    }
+
+    boolean isOverThreshold() {
+      return calls >= configuration.getFailoverMinimumCalls()
+          && degraded * 100 >= configuration.getFailoverErrorRateThreshold() * calls;
+    }
+
+    void markUnhealthy(long now) {
+      unhealthySinceMs = now;
+    }
+
+    boolean isUnhealthy(long now) {
+      return unhealthySinceMs != null
+          && now - unhealthySinceMs < configuration.getFailbackAfterMs();
+    }
+
+    void resetWindow(long now) {
+      windowStartMs = now;
+      calls = 0;
+      degraded = 0;
+      unhealthySinceMs = null;
+    }
+  }
+}
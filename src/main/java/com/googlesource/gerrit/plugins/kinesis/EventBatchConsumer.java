@@ -0,0 +1,52 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.gerritforge.gerrit.eventbroker.EventMessage;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Subscriber receiving all the messages retrieved from a shard in one go, rather than one at a
+ * time, e.g. to deduplicate the changes to reindex. Messages are in the order they were read from
+ * the shard, without the ones skipped by the consumer.
+ */
+@FunctionalInterface
+public interface EventBatchConsumer {
+
+  void accept(List<EventMessage> messages);
+
+  /** Adapt a subscriber of single messages, which keeps receiving them one at a time. */
+  static EventBatchConsumer forEachMessage(Consumer<EventMessage> messageConsumer) {
+    return new SingleMessageConsumer(messageConsumer);
+  }
+
+  class SingleMessageConsumer implements EventBatchConsumer {
+    private final Consumer<EventMessage> messageConsumer;
+
+    private SingleMessageConsumer(Consumer<EventMessage> messageConsumer) {
+      this.messageConsumer = messageConsumer;
+    }
+
+    @Override
+    public void accept(List<EventMessage> messages) {
+      messages.forEach(messageConsumer);
+    }
+
+    public Consumer<EventMessage> messageConsumer() {
+      return messageConsumer;
+    }
+  }
+}
@@ -0,0 +1,123 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.events.ChangeEvent;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.RefEvent;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Holds ref and change events for the coalescing window of their topic and publishes only the last
+ * one received for the same type and ref, or change, within that window.
+ *
+ * <p>Only the event types configured for the topic are coalesced, since events carrying data of
+ * their own, e.g. comments or reviewers added, are not superseded by the next event of the same
+ * type and would be lost.
+ */
+@Singleton
+class EventCoalescer implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final Configuration configuration;
+  private final PublisherMetrics publisherMetrics;
+  private final ScheduledExecutorService executor;
+  private final ConcurrentMap<String, PendingEvent> pending = new ConcurrentHashMap<>();
+
+  @Inject
+  EventCoalescer(
+      Configuration configuration, PublisherMetrics publisherMetrics, WorkQueue workQueue) {
+    this.configuration = configuration;
+    this.publisherMetrics = publisherMetrics;
+    this.executor = workQueue.getDefaultQueue();
+  }
+
+  /**
+   * Hold the event for the coalescing window of the topic.
+   *
+   * @return false when the event cannot be coalesced, in which case it is up to the caller to
+   *     publish it straight away.
+   */
+  boolean coalesce(String topic, Event event, Consumer<Event> publisher) {
+    Optional<Long> windowMs = configuration.getCoalesceWindowMs(topic);
+    if (!windowMs.isPresent()
+        || !configuration.getCoalesceEventTypes(topic).contains(event.getType())) {
+      return false;
+    }
+    Optional<String> eventKey = coalescingKey(event);
+    if (!eventKey.isPresent()) {
+      return false;
+    }
+
+    String key = String.format("%s:%s", topic, eventKey.get());
+    if (pending.put(key, new PendingEvent(event, publisher)) == null) {
+      executor.schedule(() -> flush(key), windowMs.get(), TimeUnit.MILLISECONDS);
+    } else {
+      logger.atFiner().log("Coalesced event %s on topic %s", eventKey.get(), topic);
+      publisherMetrics.incrementCoalescedEvents(topic);
+    }
+    return true;
+  }
+
+  @Override
+  public void start() {}
+
+  @Override
+  public void stop() {
+    pending.keySet().forEach(this::flush);
+  }
+
+  private void flush(String key) {
+    PendingEvent pendingEvent = pending.remove(key);
+    if (pendingEvent != null) {
+      pendingEvent.publisher.accept(pendingEvent.event);
+    }
+  }
+
+  private static Optional<String> coalescingKey(Event event) {
+    if (event instanceof ChangeEvent) {
+      return Optional.of(
+          String.format("%s:%s", event.getType(), ((ChangeEvent) event).getChangeKey().get()));
+    }
+    if (event instanceof RefEvent) {
+      RefEvent refEvent = (RefEvent) event;
+      return Optional.of(
+          String.format(
+              "%s:%s:%s",
+              event.getType(), refEvent.getProjectNameKey().get(), refEvent.getRefName()));
+    }
+    return Optional.empty();
+  }
+
+  private static class PendingEvent {
+    final Event event;
+    final Consumer<Event> publisher;
+
+    PendingEvent(Event event, Consumer<Event> publisher) {
+      this.event = event;
+      this.publisher = publisher;
+    }
+  }
+}
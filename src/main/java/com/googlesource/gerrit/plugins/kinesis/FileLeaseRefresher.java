@@ -0,0 +1,313 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import software.amazon.kinesis.common.HashKeyRangeForLease;
+import software.amazon.kinesis.common.StreamIdentifier;
+import software.amazon.kinesis.leases.Lease;
+import software.amazon.kinesis.leases.UpdateField;
+import software.amazon.kinesis.leases.dynamodb.DynamoDBLeaseRefresher;
+import software.amazon.kinesis.leases.exceptions.DependencyException;
+import software.amazon.kinesis.retrieval.kpl.ExtendedSequenceNumber;
+
+/**
+ * Keeps the leases of a stream in memory and persists them to a local file on every change.
+ *
+ * <p>The conditional updates mirror the DynamoDB ones, based on the lease counter and owner, but
+ * they are only meaningful within a single process: this store must not be shared by multiple nodes
+ * consuming the same stream.
+ *
+ * <p>The KCL lease management factory hands out {@link DynamoDBLeaseRefresher}s, hence this class
+ * extends it, without ever using DynamoDB: every operation is overridden.
+ */
+class FileLeaseRefresher extends DynamoDBLeaseRefresher {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final Path leaseFile;
+  private final Gson gson;
+  private final Map<String, Lease> leases = new LinkedHashMap<>();
+
+  FileLeaseRefresher(Path leaseFile, Gson gson) throws IOException {
+    super(leaseFile.toString(), null, null, false);
+    this.leaseFile = leaseFile;
+    this.gson = gson;
+    load();
+  }
+
+  @Override
+  public synchronized boolean createLeaseTableIfNotExists(Long readCapacity, Long writeCapacity)
+      throws DependencyException {
+    if (Files.exists(leaseFile)) {
+      return false;
+    }
+    persist();
+    return true;
+  }
+
+  @Override
+  public boolean leaseTableExists() {
+    return true;
+  }
+
+  @Override
+  public boolean waitUntilLeaseTableExists(long secondsBetweenPolls, long timeoutSeconds) {
+    return true;
+  }
+
+  /** Leases files are per stream, hence all the leases are of the stream being consumed. */
+  @Override
+  public List<Lease> listLeasesForStream(StreamIdentifier streamIdentifier) {
+    return listLeases();
+  }
+
+  @Override
+  public synchronized List<Lease> listLeases() {
+    return leases.values().stream().map(Lease::copy).collect(Collectors.toList());
+  }
+
+  @Override
+  public synchronized boolean createLeaseIfNotExists(Lease lease) throws DependencyException {
+    if (leases.containsKey(lease.leaseKey())) {
+      return false;
+    }
+    leases.put(lease.leaseKey(), lease.copy());
+    persist();
+    return true;
+  }
+
+  @Override
+  public synchronized Lease getLease(String leaseKey) {
+    Lease lease = leases.get(leaseKey);
+    return lease == null ? null : lease.copy();
+  }
+
+  @Override
+  public synchronized boolean renewLease(Lease lease) throws DependencyException {
+    Lease stored = leases.get(lease.leaseKey());
+    if (!isUnchanged(stored, lease)) {
+      return false;
+    }
+    incrementLeaseCounter(lease);
+    incrementLeaseCounter(stored);
+    persist();
+    return true;
+  }
+
+  @Override
+  public synchronized boolean takeLease(Lease lease, String owner) throws DependencyException {
+    Lease stored = leases.get(lease.leaseKey());
+    if (stored == null || !Objects.equals(stored.leaseCounter(), lease.leaseCounter())) {
+      return false;
+    }
+    if (lease.leaseOwner() != null && !lease.leaseOwner().equals(owner)) {
+      lease.ownerSwitchesSinceCheckpoint(lease.ownerSwitchesSinceCheckpoint() + 1);
+    }
+    lease.leaseOwner(owner);
+    incrementLeaseCounter(lease);
+    leases.put(lease.leaseKey(), lease.copy());
+    persist();
+    return true;
+  }
+
+  @Override
+  public synchronized boolean evictLease(Lease lease) throws DependencyException {
+    Lease stored = leases.get(lease.leaseKey());
+    if (!isUnchanged(stored, lease)) {
+      return false;
+    }
+    lease.leaseOwner(null);
+    incrementLeaseCounter(lease);
+    leases.put(lease.leaseKey(), lease.copy());
+    persist();
+    return true;
+  }
+
+  @Override
+  public synchronized void deleteLease(Lease lease) throws DependencyException {
+    if (leases.remove(lease.leaseKey()) != null) {
+      persist();
+    }
+  }
+
+  @Override
+  public synchronized void deleteAll() throws DependencyException {
+    leases.clear();
+    persist();
+  }
+
+  @Override
+  public synchronized boolean updateLease(Lease lease) throws DependencyException {
+    Lease stored = leases.get(lease.leaseKey());
+    if (!isUnchanged(stored, lease)) {
+      return false;
+    }
+    incrementLeaseCounter(lease);
+    leases.put(lease.leaseKey(), lease.copy());
+    persist();
+    return true;
+  }
+
+  @Override
+  public synchronized void updateLeaseWithMetaInfo(Lease lease, UpdateField updateField)
+      throws DependencyException {
+    Lease stored = leases.get(lease.leaseKey());
+    if (stored == null) {
+      return;
+    }
+    switch (updateField) {
+      case CHILD_SHARDS:
+        stored.childShardIds(lease.childShardIds());
+        break;
+      case HASH_KEY_RANGE:
+        stored.hashKeyRange(lease.hashKeyRangeForLease());
+        break;
+    }
+    persist();
+  }
+
+  @Override
+  public synchronized boolean isLeaseTableEmpty() {
+    return leases.isEmpty();
+  }
+
+  @Override
+  public synchronized ExtendedSequenceNumber getCheckpoint(String leaseKey) {
+    Lease lease = leases.get(leaseKey);
+    return lease == null ? null : lease.checkpoint();
+  }
+
+  /** Unconditionally set the checkpoint of all the leases, irrespective of their current owner. */
+  synchronized void setAllCheckpoints(ExtendedSequenceNumber checkpoint)
+      throws DependencyException {
+    leases.values().forEach(lease -> lease.checkpoint(checkpoint));
+    persist();
+  }
+
+  private static boolean isUnchanged(Lease stored, Lease lease) {
+    return stored != null
+        && Objects.equals(stored.leaseCounter(), lease.leaseCounter())
+        && Objects.equals(stored.leaseOwner(), lease.leaseOwner());
+  }
+
+  private static void incrementLeaseCounter(Lease lease) {
+    lease.leaseCounter(lease.leaseCounter() + 1);
+  }
+
+  private void load() throws IOException {
+    if (!Files.exists(leaseFile)) {
+      return;
+    }
+    List<StoredLease> storedLeases =
+        gson.fromJson(
+            new String(Files.readAllBytes(leaseFile), UTF_8),
+            new TypeToken<List<StoredLease>>() {}.getType());
+    if (storedLeases != null) {
+      storedLeases.stream().map(StoredLease::toLease).forEach(l -> leases.put(l.leaseKey(), l));
+    }
+    logger.atInfo().log("Loaded %d lease(s) from %s", leases.size(), leaseFile);
+  }
+
+  private void persist() throws DependencyException {
+    List<StoredLease> storedLeases = new ArrayList<>(leases.size());
+    leases.values().forEach(l -> storedLeases.add(StoredLease.fromLease(l)));
+    try {
+      Files.createDirectories(leaseFile.getParent());
+      Path tmp =
+          Files.createTempFile(leaseFile.getParent(), leaseFile.getFileName().toString(), "");
+      Files.write(tmp, gson.toJson(storedLeases).getBytes(UTF_8));
+      Files.move(tmp, leaseFile, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new DependencyException(String.format("Cannot write leases to %s", leaseFile), e);
+    }
+  }
+
+  private static class StoredLease {
+    String leaseKey;
+    String leaseOwner;
+    Long leaseCounter;
+    String checkpointSequenceNumber;
+    Long checkpointSubSequenceNumber;
+    String pendingCheckpointSequenceNumber;
+    Long pendingCheckpointSubSequenceNumber;
+    Long ownerSwitchesSinceCheckpoint;
+    Set<String> parentShardIds;
+    Set<String> childShardIds;
+    String startingHashKey;
+    String endingHashKey;
+
+    static StoredLease fromLease(Lease lease) {
+      StoredLease stored = new StoredLease();
+      stored.leaseKey = lease.leaseKey();
+      stored.leaseOwner = lease.leaseOwner();
+      stored.leaseCounter = lease.leaseCounter();
+      if (lease.checkpoint() != null) {
+        stored.checkpointSequenceNumber = lease.checkpoint().sequenceNumber();
+        stored.checkpointSubSequenceNumber = lease.checkpoint().subSequenceNumber();
+      }
+      if (lease.pendingCheckpoint() != null) {
+        stored.pendingCheckpointSequenceNumber = lease.pendingCheckpoint().sequenceNumber();
+        stored.pendingCheckpointSubSequenceNumber = lease.pendingCheckpoint().subSequenceNumber();
+      }
+      stored.ownerSwitchesSinceCheckpoint = lease.ownerSwitchesSinceCheckpoint();
+      stored.parentShardIds = lease.parentShardIds();
+      stored.childShardIds = lease.childShardIds();
+      if (lease.hashKeyRangeForLease() != null) {
+        stored.startingHashKey = lease.hashKeyRangeForLease().serializedStartingHashKey();
+        stored.endingHashKey = lease.hashKeyRangeForLease().serializedEndingHashKey();
+      }
+      return stored;
+    }
+
+    Lease toLease() {
+      Lease lease = new Lease();
+      lease.leaseKey(leaseKey);
+      lease.leaseOwner(leaseOwner);
+      lease.leaseCounter(leaseCounter);
+      if (checkpointSequenceNumber != null) {
+        lease.checkpoint(
+            new ExtendedSequenceNumber(checkpointSequenceNumber, checkpointSubSequenceNumber));
+      }
+      if (pendingCheckpointSequenceNumber != null) {
+        lease.pendingCheckpoint(
+            new ExtendedSequenceNumber(
+                pendingCheckpointSequenceNumber, pendingCheckpointSubSequenceNumber));
+      }
+      lease.ownerSwitchesSinceCheckpoint(ownerSwitchesSinceCheckpoint);
+      lease.parentShardIds(parentShardIds == null ? Collections.emptySet() : parentShardIds);
+      lease.childShardIds(childShardIds == null ? Collections.emptySet() : childShardIds);
+      if (startingHashKey != null && endingHashKey != null) {
+        lease.hashKeyRange(HashKeyRangeForLease.deserialize(startingHashKey, endingHashKey));
+      }
+      return lease;
+    }
+  }
+}
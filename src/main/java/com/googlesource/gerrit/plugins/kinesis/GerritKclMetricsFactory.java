@@ -0,0 +1,102 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Histogram0;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import software.amazon.awssdk.services.cloudwatch.model.StandardUnit;
+import software.amazon.kinesis.metrics.MetricsFactory;
+import software.amazon.kinesis.metrics.MetricsLevel;
+import software.amazon.kinesis.metrics.MetricsScope;
+
+/**
+ * Publishes the metrics of the kinesis client library as Gerrit metrics, named after the KCL
+ * operation and metric, e.g. {@code kcl/ProcessTask/RecordsProcessed}.
+ *
+ * <p>Dimensions other than the operation, such as shard id or worker identifier, are not part of
+ * the metric name to keep the number of metrics bounded.
+ */
+@Singleton
+class GerritKclMetricsFactory implements MetricsFactory {
+  private static final String OPERATION_DIMENSION = "Operation";
+
+  private final MetricMaker metricMaker;
+  private final MetricsLevel metricsLevel;
+  private final ConcurrentMap<String, Histogram0> histograms = new ConcurrentHashMap<>();
+
+  @Inject
+  GerritKclMetricsFactory(MetricMaker metricMaker, Configuration configuration) {
+    this.metricMaker = metricMaker;
+    this.metricsLevel = configuration.getKclMetricsLevel();
+  }
+
+  @Override
+  public MetricsScope createMetrics() {
+    return new GerritMetricsScope();
+  }
+
+  private Histogram0 histogram(String name, StandardUnit unit) {
+    return histograms.computeIfAbsent(
+        name,
+        n ->
+            metricMaker.newHistogram(
+                n,
+                new Description(String.format("Kinesis client library metric %s", n))
+                    .setCumulative()
+                    .setUnit(unit.toString())));
+  }
+
+  private static String sanitize(String name) {
+    return name.replaceAll("[^a-zA-Z0-9_-]", "_");
+  }
+
+  private class GerritMetricsScope implements MetricsScope {
+    private final List<String> operations = new ArrayList<>();
+
+    @Override
+    public void addData(String name, double value, StandardUnit unit) {
+      addData(name, value, unit, MetricsLevel.DETAILED);
+    }
+
+    @Override
+    public void addData(String name, double value, StandardUnit unit, MetricsLevel level) {
+      if (level.getValue() < metricsLevel.getValue()) {
+        return;
+      }
+
+      StringBuilder metricName = new StringBuilder("kcl");
+      operations.forEach(o -> metricName.append('/').append(sanitize(o)));
+      metricName.append('/').append(sanitize(name));
+      histogram(metricName.toString(), unit).record((long) value);
+    }
+
+    @Override
+    public void addDimension(String name, String value) {
+      if (OPERATION_DIMENSION.equals(name)) {
+        operations.add(value);
+      }
+    }
+
+    @Override
+    public void end() {}
+  }
+}
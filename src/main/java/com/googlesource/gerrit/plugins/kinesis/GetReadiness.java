@@ -0,0 +1,45 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static javax.servlet.http.HttpServletResponse.SC_OK;
+import static javax.servlet.http.HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.kinesis.ConsumerReadiness.ReadinessInfo;
+
+/**
+ * {@code GET /config/server/kinesis-events~ready}: 200 when the consumers of this node are current,
+ * 503 otherwise, to be probed by load balancers before putting the node in rotation.
+ */
+@Singleton
+class GetReadiness implements RestReadView<ConfigResource> {
+  private final ConsumerReadiness consumerReadiness;
+
+  @Inject
+  GetReadiness(ConsumerReadiness consumerReadiness) {
+    this.consumerReadiness = consumerReadiness;
+  }
+
+  @Override
+  public Response<ReadinessInfo> apply(ConfigResource resource) {
+    ReadinessInfo readiness = consumerReadiness.check();
+    return Response.withStatusCode(readiness.ready ? SC_OK : SC_SERVICE_UNAVAILABLE, readiness);
+  }
+}
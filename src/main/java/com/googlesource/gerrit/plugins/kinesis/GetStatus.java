@@ -0,0 +1,41 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.kinesis.BrokerStatus.BrokerStatusInfo;
+
+/** {@code GET /config/server/kinesis-events~status}: the live status of the broker on this node. */
+@Singleton
+@RequiresCapability(GlobalCapability.ADMINISTRATE_SERVER)
+class GetStatus implements RestReadView<ConfigResource> {
+  private final BrokerStatus brokerStatus;
+
+  @Inject
+  GetStatus(BrokerStatus brokerStatus) {
+    this.brokerStatus = brokerStatus;
+  }
+
+  @Override
+  public Response<BrokerStatusInfo> apply(ConfigResource resource) {
+    return Response.ok(brokerStatus.get());
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaParseException;
+import software.amazon.awssdk.services.glue.GlueAsyncClient;
+import software.amazon.awssdk.services.glue.model.AlreadyExistsException;
+import software.amazon.awssdk.services.glue.model.Compatibility;
+import software.amazon.awssdk.services.glue.model.CreateSchemaRequest;
+import software.amazon.awssdk.services.glue.model.DataFormat;
+import software.amazon.awssdk.services.glue.model.EntityNotFoundException;
+import software.amazon.awssdk.services.glue.model.GetSchemaVersionRequest;
+import software.amazon.awssdk.services.glue.model.RegistryId;
+import software.amazon.awssdk.services.glue.model.SchemaId;
+import software.amazon.awssdk.services.glue.model.SchemaVersionNumber;
+
+/**
+ * Keeps each schema in the AWS Glue schema registry {@code glueSchemaRegistryName}, as a schema of
+ * its own named after its id, so that all the nodes, whatever their host, resolve the same schemas.
+ * Since a schema is only ever looked up by the id it was registered with, its single version is
+ * registered with no compatibility checks.
+ */
+@Singleton
+class GlueSchemaRegistry implements SchemaRegistry {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final GlueAsyncClient glueClient;
+  private final String registryName;
+
+  @Inject
+  GlueSchemaRegistry(GlueAsyncClient glueClient, Configuration configuration) {
+    this.glueClient = glueClient;
+    this.registryName = configuration.getGlueSchemaRegistryName();
+  }
+
+  @Override
+  public void register(long id, Schema schema) throws IOException {
+    CreateSchemaRequest request =
+        CreateSchemaRequest.builder()
+            .registryId(RegistryId.builder().registryName(registryName).build())
+            .schemaName(schemaName(id))
+            .dataFormat(DataFormat.AVRO)
+            .compatibility(Compatibility.NONE)
+            .description(schema.getFullName())
+            .schemaDefinition(schema.toString())
+            .build();
+    try {
+      glueClient.createSchema(request).join();
+      logger.atInfo().log(
+          "Registered schema %s as %s in glue registry %s",
+          schema.getFullName(), schemaName(id), registryName);
+    } catch (CompletionException e) {
+      // Already registered by another node, or before a restart, is fine: an id maps to one schema.
+      if (!(e.getCause() instanceof AlreadyExistsException)) {
+        throw registryError(e);
+      }
+    }
+  }
+
+  @Override
+  public Optional<Schema> lookup(long id) throws IOException {
+    GetSchemaVersionRequest request =
+        GetSchemaVersionRequest.builder()
+            .schemaId(
+                SchemaId.builder().registryName(registryName).schemaName(schemaName(id)).build())
+            .schemaVersionNumber(SchemaVersionNumber.builder().latestVersion(true).build())
+            .build();
+    String definition;
+    try {
+      definition = glueClient.getSchemaVersion(request).join().schemaDefinition();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof EntityNotFoundException) {
+        return Optional.empty();
+      }
+      throw registryError(e);
+    }
+    try {
+      return Optional.of(new Schema.Parser().parse(definition));
+    } catch (SchemaParseException e) {
+      throw new IOException(
+          String.format("Invalid schema %s in glue registry %s", schemaName(id), registryName), e);
+    }
+  }
+
+  private static String schemaName(long id) {
+    return String.format("%016x", id);
+  }
+
+  private IOException registryError(CompletionException e) {
+    return new IOException(
+        String.format("Could not reach glue schema registry %s", registryName), e.getCause());
+  }
+}
@@ -0,0 +1,66 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Executors running the handlers of the topics configured with more than one handler thread. They
+ * are shared by all the shards of a topic, created the first time the topic is consumed and shut
+ * down when the plugin is stopped.
+ */
+@Singleton
+class HandlerExecutors implements LifecycleListener {
+  private final WorkQueue workQueue;
+  private final Configuration configuration;
+  private final Map<String, ExecutorService> executors = new ConcurrentHashMap<>();
+
+  @Inject
+  HandlerExecutors(WorkQueue workQueue, Configuration configuration) {
+    this.workQueue = workQueue;
+    this.configuration = configuration;
+  }
+
+  @Override
+  public void start() {}
+
+  @Override
+  public void stop() {
+    executors.values().forEach(ExecutorService::shutdown);
+    executors.clear();
+  }
+
+  public Map<String, ExecutorService> all() {
+    return Collections.unmodifiableMap(executors);
+  }
+
+  public Optional<ExecutorService> forTopic(String topic) {
+    int handlerThreads = configuration.getConsumerSettings(topic).handlerThreads();
+    if (handlerThreads <= 1) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        executors.computeIfAbsent(
+            topic, t -> workQueue.createQueue(handlerThreads, "kinesis-handler-" + t)));
+  }
+}
@@ -0,0 +1,104 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.gerritforge.gerrit.eventbroker.BrokerApi;
+import com.gerritforge.gerrit.eventbroker.TopicSubscriber;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes a heartbeat record to every subscribed topic at a fixed interval, so that consumers
+ * keep reporting latency and freshness whatever the level of traffic on the topic.
+ *
+ * <p>Heartbeats use a random partition key, hence over time they go through all the shards of the
+ * topic. They run on a queue of their own, so that a publish waiting on the producer does not hold
+ * a thread of the default queue shared with Gerrit.
+ */
+@Singleton
+class HeartbeatPublisher implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final Configuration configuration;
+  private final KinesisPublisher kinesisPublisher;
+  private final BrokerApi brokerApi;
+  private final WorkQueue workQueue;
+  private ScheduledExecutorService executor;
+  private ScheduledFuture<?> heartbeats;
+
+  @Inject
+  HeartbeatPublisher(
+      Configuration configuration,
+      KinesisPublisher kinesisPublisher,
+      BrokerApi brokerApi,
+      WorkQueue workQueue) {
+    this.configuration = configuration;
+    this.kinesisPublisher = kinesisPublisher;
+    this.brokerApi = brokerApi;
+    this.workQueue = workQueue;
+  }
+
+  @Override
+  public void start() {
+    if (!configuration.isHeartbeatEnabled()) {
+      return;
+    }
+    long intervalMs = configuration.getHeartbeatIntervalMs();
+    executor = workQueue.createQueue(1, "kinesis-heartbeat");
+    heartbeats =
+        executor.scheduleAtFixedRate(
+            this::publishHeartbeats, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void stop() {
+    if (heartbeats != null) {
+      heartbeats.cancel(false);
+      heartbeats = null;
+    }
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+  }
+
+  void publishHeartbeats() {
+    brokerApi.topicSubscribers().stream()
+        .map(TopicSubscriber::topic)
+        .distinct()
+        .forEach(
+            topic -> {
+              try {
+                PublishResult result =
+                    kinesisPublisher.publish(
+                        topic, RecordEnvelope.heartbeat(), UUID.randomUUID().toString());
+                if (!result.isSuccess()) {
+                  logger.atWarning().log("Could not publish heartbeat to topic %s", topic);
+                }
+              } catch (RuntimeException e) {
+                // Keep the heartbeats going for the other topics and the next intervals
+                logger.atWarning().withCause(e).log(
+                    "Error when publishing heartbeat to topic %s", topic);
+              }
+            });
+  }
+}
@@ -0,0 +1,69 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.auto.value.AutoValue;
+import java.util.Optional;
+import software.amazon.awssdk.http.Protocol;
+
+/** Tuning of the netty http client used by one of the AWS async clients. */
+@AutoValue
+abstract class HttpClientSettings {
+  static final String KINESIS = "kinesis";
+  static final String DYNAMODB = "dynamodb";
+  static final String CLOUDWATCH = "cloudwatch";
+  static final String GLUE = "glue";
+
+  public abstract Optional<Integer> maxConcurrency();
+
+  public abstract Optional<Long> connectionAcquisitionTimeoutMs();
+
+  public abstract Optional<Long> connectionMaxIdleTimeMs();
+
+  public abstract Optional<Boolean> useIdleConnectionReaper();
+
+  public abstract Optional<Protocol> protocol();
+
+  public abstract Optional<Long> http2MaxStreams();
+
+  public abstract Optional<Integer> http2InitialWindowSize();
+
+  public abstract Optional<Long> http2HealthCheckPingPeriodMs();
+
+  public static Builder builder() {
+    return new AutoValue_HttpClientSettings.Builder();
+  }
+
+  @AutoValue.Builder
+  public abstract static class Builder {
+    public abstract Builder maxConcurrency(Integer maxConcurrency);
+
+    public abstract Builder connectionAcquisitionTimeoutMs(Long connectionAcquisitionTimeoutMs);
+
+    public abstract Builder connectionMaxIdleTimeMs(Long connectionMaxIdleTimeMs);
+
+    public abstract Builder useIdleConnectionReaper(Boolean useIdleConnectionReaper);
+
+    public abstract Builder protocol(Protocol protocol);
+
+    public abstract Builder http2MaxStreams(Long http2MaxStreams);
+
+    public abstract Builder http2InitialWindowSize(Integer http2InitialWindowSize);
+
+    public abstract Builder http2HealthCheckPingPeriodMs(Long http2HealthCheckPingPeriodMs);
+
+    public abstract HttpClientSettings build();
+  }
+}
@@ -0,0 +1,40 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import software.amazon.kinesis.coordinator.SchedulerCoordinatorFactory;
+
+/**
+ * Gives the shard consumers of each scheduler an executor of their own, with threads named after
+ * the stream, rather than the anonymous pool KCL creates by default.
+ */
+class KclCoordinatorFactory extends SchedulerCoordinatorFactory {
+  private final String streamName;
+
+  KclCoordinatorFactory(String streamName) {
+    this.streamName = streamName;
+  }
+
+  @Override
+  public ExecutorService createExecutorService() {
+    // Like the KCL default, the pool is unbounded, since the tasks of every leased shard are
+    // submitted to it.
+    return Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("kinesis-kcl-" + streamName + "-%d").build());
+  }
+}
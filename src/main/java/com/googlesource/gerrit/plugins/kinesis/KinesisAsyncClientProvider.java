@@ -17,25 +17,45 @@ package com.googlesource.gerrit.plugins.kinesis;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
+import software.amazon.awssdk.http.Protocol;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClientBuilder;
-import software.amazon.kinesis.common.KinesisClientUtil;
 
 @Singleton
 class KinesisAsyncClientProvider implements Provider<KinesisAsyncClient> {
+  // Same http client defaults KinesisClientUtil applies to kinesis clients
+  private static final HttpClientSettings KINESIS_HTTP_CLIENT_DEFAULTS =
+      HttpClientSettings.builder()
+          .maxConcurrency(Integer.MAX_VALUE)
+          .protocol(Protocol.HTTP2)
+          .http2InitialWindowSize(512 * 1024)
+          .http2HealthCheckPingPeriodMs(60 * 1000L)
+          .build();
+
   private final Configuration configuration;
+  private final NettyHttpClientFactory httpClientFactory;
 
   @Inject
-  KinesisAsyncClientProvider(Configuration configuration) {
+  KinesisAsyncClientProvider(
+      Configuration configuration, NettyHttpClientFactory httpClientFactory) {
     this.configuration = configuration;
+    this.httpClientFactory = httpClientFactory;
   }
 
   @Override
   public KinesisAsyncClient get() {
-    KinesisAsyncClientBuilder builder = KinesisAsyncClient.builder();
-    configuration.getRegion().ifPresent(builder::region);
-    configuration.getEndpoint().ifPresent(builder::endpointOverride);
+    return create(configuration.getPrimaryEndpoint());
+  }
+
+  KinesisAsyncClient create(KinesisEndpoint endpoint) {
+    KinesisAsyncClientBuilder builder =
+        KinesisAsyncClient.builder()
+            .httpClientBuilder(
+                httpClientFactory.builder(
+                    HttpClientSettings.KINESIS, KINESIS_HTTP_CLIENT_DEFAULTS));
+    endpoint.region().ifPresent(builder::region);
+    endpoint.endpoint().ifPresent(builder::endpointOverride);
 
-    return KinesisClientUtil.createKinesisAsyncClient(builder);
+    return builder.build();
   }
 }
@@ -27,17 +27,25 @@ import java.util.stream.Collectors;
 
 class KinesisBrokerApi implements BrokerApi {
   private final KinesisConsumer.Factory consumerFactory;
+  private final Configuration configuration;
 
   private final Gson gson;
   private final KinesisPublisher kinesisPublisher;
   private final Set<KinesisConsumer> consumers;
+  private final LocalEventSources localEventSources;
 
   @Inject
   public KinesisBrokerApi(
-      Gson gson, KinesisPublisher kinesisPublisher, KinesisConsumer.Factory consumerFactory) {
+      Gson gson,
+      KinesisPublisher kinesisPublisher,
+      KinesisConsumer.Factory consumerFactory,
+      LocalEventSources localEventSources,
+      Configuration configuration) {
     this.gson = gson;
     this.kinesisPublisher = kinesisPublisher;
     this.consumerFactory = consumerFactory;
+    this.configuration = configuration;
+    this.localEventSources = localEventSources;
     this.consumers = Collections.newSetFromMap(new ConcurrentHashMap<>());
   }
 
@@ -47,24 +55,46 @@ class KinesisBrokerApi implements BrokerApi {
   }
 
   PublishResult sendWithResult(String streamName, EventMessage event) {
-    return kinesisPublisher.publish(
-        streamName, gson.toJson(event), event.getHeader().sourceInstanceId.toString());
+    String sourceInstanceId = event.getHeader().sourceInstanceId.toString();
+    localEventSources.add(sourceInstanceId);
+    return kinesisPublisher.publish(streamName, gson.toJsonTree(event), sourceInstanceId);
   }
 
   @Override
   public void receiveAsync(String streamName, Consumer<EventMessage> eventConsumer) {
-    KinesisConsumer consumer = consumerFactory.create(streamName, eventConsumer);
-    consumers.add(consumer);
-    consumer.subscribe(streamName, eventConsumer);
+    receiveBatchAsync(streamName, EventBatchConsumer.forEachMessage(eventConsumer));
+  }
+
+  /**
+   * Like {@link #receiveAsync(String, Consumer)}, but hands over all the messages read from a shard
+   * at once.
+   *
+   * <p>When consuming the failover endpoints, the stream is consumed from each of them as well, so
+   * that the messages published while failed over reach the subscriber too.
+   */
+  public void receiveBatchAsync(String streamName, EventBatchConsumer batchConsumer) {
+    for (KinesisEndpoint endpoint : configuration.getEndpoints()) {
+      if (!endpoint.isPrimary() && !configuration.isConsumeFailoverEndpoints()) {
+        break;
+      }
+      KinesisConsumer consumer = consumerFactory.create(streamName, batchConsumer);
+      consumers.add(consumer);
+      consumer.subscribe(streamName, endpoint, batchConsumer);
+    }
   }
 
   @Override
   public Set<TopicSubscriber> topicSubscribers() {
     return consumers.stream()
+        .filter(s -> s.getEndpoint().isPrimary())
         .map(s -> TopicSubscriber.topicSubscriber(s.getStreamName(), s.getMessageProcessor()))
         .collect(Collectors.toSet());
   }
 
+  Set<KinesisConsumer> consumers() {
+    return Collections.unmodifiableSet(consumers);
+  }
+
   @Override
   public void disconnect() {
     consumers.parallelStream().forEach(KinesisConsumer::shutdown);
@@ -15,60 +15,146 @@
 package com.googlesource.gerrit.plugins.kinesis;
 
 import com.gerritforge.gerrit.eventbroker.EventMessage;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.FluentLogger;
 import com.google.inject.Inject;
+import com.googlesource.gerrit.plugins.kinesis.ConsumerSettings.RetrievalMode;
+import com.googlesource.gerrit.plugins.kinesis.EventBatchConsumer.SingleMessageConsumer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import software.amazon.kinesis.coordinator.Scheduler;
+import software.amazon.kinesis.leases.Lease;
+import software.amazon.kinesis.leases.LeaseCoordinator;
 
 class KinesisConsumer {
   interface Factory {
-    KinesisConsumer create(String topic, Consumer<EventMessage> messageProcessor);
+    KinesisConsumer create(String topic, EventBatchConsumer messageProcessor);
   }
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
   private final SchedulerProvider.Factory schedulerFactory;
-  private final CheckpointResetter checkpointResetter;
+  private final LeaseStore leaseStore;
+  private final ConsumedEventsCache consumedEventsCache;
   private final Configuration configuration;
   private final ExecutorService executor;
-  private Scheduler kinesisScheduler;
+  private volatile Scheduler kinesisScheduler;
+  private CatchUpMonitor catchUpMonitor;
 
-  private java.util.function.Consumer<EventMessage> messageProcessor;
+  private EventBatchConsumer messageProcessor;
   private String streamName;
+  private KinesisEndpoint endpoint;
   private AtomicBoolean resetOffset = new AtomicBoolean(false);
 
+  // Guards replacing the scheduler against stopping it, so that no scheduler outlives shutdown().
+  private final Object schedulerLock = new Object();
+  private CompletableFuture<Void> restart;
+  private boolean stopped;
+
   @Inject
   public KinesisConsumer(
       SchedulerProvider.Factory schedulerFactory,
-      CheckpointResetter checkpointResetter,
+      LeaseStore leaseStore,
+      ConsumedEventsCache consumedEventsCache,
       Configuration configuration,
       @ConsumerExecutor ExecutorService executor) {
     this.schedulerFactory = schedulerFactory;
-    this.checkpointResetter = checkpointResetter;
+    this.leaseStore = leaseStore;
+    this.consumedEventsCache = consumedEventsCache;
     this.configuration = configuration;
     this.executor = executor;
   }
 
   public void subscribe(
-      String streamName, java.util.function.Consumer<EventMessage> messageProcessor) {
+      String streamName, KinesisEndpoint endpoint, EventBatchConsumer messageProcessor) {
     this.streamName = streamName;
+    this.endpoint = endpoint;
     this.messageProcessor = messageProcessor;
+    // Catch-up retrieval settings only apply when polling, hence there is nothing to restart for
+    // when using enhanced fan-out.
+    this.catchUpMonitor =
+        new CatchUpMonitor(
+            streamName,
+            configuration,
+            configuration.getConsumerSettings(streamName).retrievalMode() == RetrievalMode.POLLING
+                ? this::restartReceiver
+                : () -> {});
 
-    logger.atInfo().log("Subscribe kinesis consumer to stream [%s]", streamName);
+    logger.atInfo().log(
+        "Subscribe kinesis consumer to stream [%s] of endpoint [%s]", streamName, endpoint.name());
     runReceiver(messageProcessor);
   }
 
-  private void runReceiver(java.util.function.Consumer<EventMessage> messageProcessor) {
+  private void runReceiver(EventBatchConsumer messageProcessor) {
+    boolean fromBeginning = resetOffset.getAndSet(false);
+    if (fromBeginning) {
+      catchUpMonitor.startCatchingUp();
+    }
     this.kinesisScheduler =
-        schedulerFactory.create(streamName, resetOffset.getAndSet(false), messageProcessor).get();
+        schedulerFactory
+            .create(streamName, endpoint, fromBeginning, catchUpMonitor, messageProcessor)
+            .get();
     executor.execute(kinesisScheduler);
   }
 
+  /**
+   * Retrieval settings of a running scheduler cannot be changed, hence switching in and out of
+   * catch-up mode requires replacing it. This is called from within the record processor, so it
+   * must not wait for the current scheduler to shut down.
+   */
+  @VisibleForTesting
+  void restartReceiver() {
+    CompletableFuture<Void> restarted = new CompletableFuture<>();
+    CompletableFuture<Boolean> previousShutdown;
+    synchronized (schedulerLock) {
+      if (stopped || restart != null) {
+        return;
+      }
+      restart = restarted;
+      logger.atInfo().log("Restarting kinesis consumer of stream %s", streamName);
+      previousShutdown = kinesisScheduler.startGracefulShutdown();
+    }
+
+    previousShutdown.whenComplete(
+        (shutdown, e) -> {
+          if (e != null) {
+            logger.atSevere().withCause(e).log(
+                "Error caught when restarting kinesis consumer for stream %s", streamName);
+          }
+          try {
+            synchronized (schedulerLock) {
+              try {
+                if (!stopped) {
+                  runReceiver(messageProcessor);
+                }
+              } finally {
+                restart = null;
+              }
+            }
+          } finally {
+            restarted.complete(null);
+          }
+          if (catchUpMonitor.isRetrievalOutdated()) {
+            restartReceiver();
+          }
+        });
+  }
+
   public void shutdown() {
-    Future<Boolean> gracefulShutdownFuture = kinesisScheduler.startGracefulShutdown();
+    Future<?> gracefulShutdownFuture;
+    synchronized (schedulerLock) {
+      stopped = true;
+      // The scheduler being replaced is already shutting down, and no other one will be started
+      // in its place: waiting for the restart is waiting for the last scheduler to shut down.
+      gracefulShutdownFuture = restart != null ? restart : kinesisScheduler.startGracefulShutdown();
+    }
     logger.atInfo().log(
         "Waiting up to '%s' milliseconds to complete shutdown of kinesis consumer of stream '%s'",
         configuration.getShutdownTimeoutMs(), getStreamName());
@@ -81,18 +167,45 @@ class KinesisConsumer {
     logger.atInfo().log("Shutdown kinesis consumer of stream %s completed.", getStreamName());
   }
 
-  public java.util.function.Consumer<EventMessage> getMessageProcessor() {
-    return messageProcessor;
+  /**
+   * Subscriber of single messages, as expected by the broker API. Batch subscribers receive each
+   * message in a batch of its own.
+   */
+  public Consumer<EventMessage> getMessageProcessor() {
+    if (messageProcessor instanceof SingleMessageConsumer) {
+      return ((SingleMessageConsumer) messageProcessor).messageConsumer();
+    }
+    return message -> messageProcessor.accept(ImmutableList.of(message));
   }
 
   public String getStreamName() {
     return streamName;
   }
 
+  public KinesisEndpoint getEndpoint() {
+    return endpoint;
+  }
+
+  /** The leases currently held by this node, with the last checkpoint of their shard. */
+  public Collection<Lease> getLeases() {
+    return leaseCoordinator().map(LeaseCoordinator::getAssignments).orElse(Collections.emptyList());
+  }
+
+  public Optional<String> getWorkerIdentifier() {
+    return leaseCoordinator().map(LeaseCoordinator::workerIdentifier);
+  }
+
+  private Optional<LeaseCoordinator> leaseCoordinator() {
+    return Optional.ofNullable(kinesisScheduler).map(Scheduler::leaseCoordinator);
+  }
+
   public void resetOffset() {
     // Move all checkpoints (if any) to TRIM_HORIZON, so that the consumer
     // scheduler will start consuming from beginning.
-    checkpointResetter.setAllShardsToBeginning(streamName);
+    leaseStore.setAllShardsToBeginning(streamName, endpoint);
+
+    // Replayed events must reach the subscriber, even if already consumed.
+    consumedEventsCache.clear(streamName);
 
     // Even when no checkpoints have been persisted, instruct the consumer
     // scheduler to start from TRIM_HORIZON, irrespective of 'initialPosition'
@@ -0,0 +1,44 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.auto.value.AutoValue;
+import java.net.URI;
+import java.util.Optional;
+import software.amazon.awssdk.regions.Region;
+
+/**
+ * Where Kinesis is reached: the primary endpoint, configured by {@code region} and {@code
+ * endpoint}, or one of the failover endpoints, configured in their own {@code endpoint} section.
+ */
+@AutoValue
+abstract class KinesisEndpoint {
+  static final String PRIMARY = "primary";
+
+  public abstract String name();
+
+  public abstract Optional<Region> region();
+
+  public abstract Optional<URI> endpoint();
+
+  public boolean isPrimary() {
+    return PRIMARY.equals(name());
+  }
+
+  public static KinesisEndpoint create(
+      String name, Optional<Region> region, Optional<URI> endpoint) {
+    return new AutoValue_KinesisEndpoint(name, region, endpoint);
+  }
+}
@@ -0,0 +1,69 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+
+/**
+ * The kinesis clients used to consume each of the endpoints: the bound one for the primary
+ * endpoint, clients of their own, created the first time they are needed, for the failover ones.
+ * All of them are closed when the plugin is stopped.
+ */
+@Singleton
+class KinesisEndpointClients implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final KinesisAsyncClient primaryClient;
+  private final KinesisAsyncClientProvider clientProvider;
+  private final Map<String, KinesisAsyncClient> failoverClients = new ConcurrentHashMap<>();
+
+  @Inject
+  KinesisEndpointClients(
+      KinesisAsyncClient primaryClient, KinesisAsyncClientProvider clientProvider) {
+    this.primaryClient = primaryClient;
+    this.clientProvider = clientProvider;
+  }
+
+  KinesisAsyncClient forEndpoint(KinesisEndpoint endpoint) {
+    return endpoint.isPrimary()
+        ? primaryClient
+        : failoverClients.computeIfAbsent(endpoint.name(), e -> clientProvider.create(endpoint));
+  }
+
+  @Override
+  public void start() {}
+
+  @Override
+  public void stop() {
+    failoverClients.forEach(KinesisEndpointClients::close);
+    failoverClients.clear();
+    close(KinesisEndpoint.PRIMARY, primaryClient);
+  }
+
+  private static void close(String endpoint, KinesisAsyncClient client) {
+    try {
+      client.close();
+    } catch (RuntimeException e) {
+      logger.atWarning().withCause(e).log(
+          "Could not close kinesis client of endpoint %s", endpoint);
+    }
+  }
+}
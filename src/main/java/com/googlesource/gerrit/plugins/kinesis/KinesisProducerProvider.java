@@ -18,11 +18,11 @@ import com.amazonaws.services.kinesis.producer.KinesisProducer;
 import com.amazonaws.services.kinesis.producer.KinesisProducerConfiguration;
 import com.google.common.flogger.FluentLogger;
 import com.google.inject.Inject;
-import com.google.inject.Provider;
 import com.google.inject.Singleton;
 
+/** Creates the kinesis producers, whose lifecycle is managed by {@link KinesisProducers}. */
 @Singleton
-public class KinesisProducerProvider implements Provider<KinesisProducer> {
+public class KinesisProducerProvider {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
   private final Configuration configuration;
 
@@ -31,17 +31,21 @@ public class KinesisProducerProvider implements Provider<KinesisProducer> {
     this.configuration = configuration;
   }
 
-  @Override
-  public KinesisProducer get() {
+  KinesisProducer create(PriorityClass priorityClass, KinesisEndpoint endpoint) {
     KinesisProducerConfiguration conf =
         new KinesisProducerConfiguration()
             .setAggregationEnabled(false)
-            .setMaxConnections(1)
-            .setRequestTimeout(configuration.getPublishSingleRequestTimeoutMs());
+            .setMaxConnections(priorityClass.maxConnections())
+            .setRequestTimeout(priorityClass.publishSingleRequestTimeoutMs());
 
-    configuration.getRegion().ifPresent(r -> conf.setRegion(r.toString()));
-    configuration
-        .getEndpoint()
+    if (configuration.isFailoverEnabled()) {
+      // Records not published within the publish timeout fail rather than being retried for
+      // the default TTL, so that they are accounted for when assessing the health of the endpoint.
+      conf.setRecordTtl(priorityClass.publishTimeoutMs());
+    }
+    endpoint.region().ifPresent(r -> conf.setRegion(r.toString()));
+    endpoint
+        .endpoint()
         .ifPresent(
             uri ->
                 conf.setKinesisEndpoint(uri.getHost())
@@ -50,11 +54,14 @@ public class KinesisProducerProvider implements Provider<KinesisProducer> {
                     .setCloudwatchPort(uri.getPort())
                     .setVerifyCertificate(false));
     logger.atInfo().log(
-        "Kinesis producer configured. Request Timeout (ms):'%s'%s%s",
-        configuration.getPublishSingleRequestTimeoutMs(),
-        configuration.getRegion().map(r -> String.format("|region: '%s'", r.id())).orElse(""),
-        configuration
-            .getEndpoint()
+        "Kinesis producer configured. Priority class: '%s'|Endpoint: '%s'|Max connections: %s|Request Timeout (ms):'%s'%s%s",
+        priorityClass.name(),
+        endpoint.name(),
+        priorityClass.maxConnections(),
+        priorityClass.publishSingleRequestTimeoutMs(),
+        endpoint.region().map(r -> String.format("|region: '%s'", r.id())).orElse(""),
+        endpoint
+            .endpoint()
             .map(e -> String.format("|endpoint: '%s'", e.toASCIIString()))
             .orElse(""));
 
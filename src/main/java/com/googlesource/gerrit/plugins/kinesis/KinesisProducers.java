@@ -0,0 +1,235 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+
+import com.amazonaws.services.kinesis.producer.KinesisProducer;
+import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.kinesis.Configuration.ProducerStartup;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * One kinesis producer for each of the configured priority classes and endpoints.
+ *
+ * <p>Depending on {@code producerStartup}, the producers of the primary endpoint are created when
+ * the plugin starts, in the background right after it started, or when the first record of their
+ * priority class is added. The producers of the failover endpoints are warmed up together with the
+ * primary ones, otherwise created when publishing first fails over to them.
+ *
+ * <p>When the plugin stops, the records still buffered are flushed and all the producers started so
+ * far, however they were started, are destroyed along with their native process.
+ */
+@Singleton
+class KinesisProducers implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final Configuration configuration;
+  private final PublisherMetrics publisherMetrics;
+  private final EndpointRouter endpointRouter;
+  private final ImmutableMap<String, Supplier<KinesisProducer>> producers;
+  private final Set<String> startedProducers = ConcurrentHashMap.newKeySet();
+  private final Set<String> firstRecordAdded = ConcurrentHashMap.newKeySet();
+  private final Map<String, AtomicLong> outstandingBytes = new ConcurrentHashMap<>();
+  private volatile boolean stopped;
+
+  @Inject
+  KinesisProducers(
+      Configuration configuration,
+      KinesisProducerProvider producerProvider,
+      PublisherMetrics publisherMetrics,
+      EndpointRouter endpointRouter) {
+    this.configuration = configuration;
+    this.publisherMetrics = publisherMetrics;
+    this.endpointRouter = endpointRouter;
+
+    ImmutableMap.Builder<String, Supplier<KinesisProducer>> producersBuilder =
+        ImmutableMap.builder();
+    for (KinesisEndpoint endpoint : configuration.getEndpoints()) {
+      for (PriorityClass priorityClass : configuration.getPriorityClasses()) {
+        String name = producerName(priorityClass.name(), endpoint);
+        producersBuilder.put(
+            name,
+            Suppliers.memoize(
+                () -> start(name, () -> producerProvider.create(priorityClass, endpoint))));
+      }
+      if (!configuration.isFailoverEnabled()) {
+        break;
+      }
+    }
+    this.producers = producersBuilder.build();
+
+    if (configuration.getProducerStartup() == ProducerStartup.EAGER) {
+      KinesisEndpoint primary = configuration.getPrimaryEndpoint();
+      configuration.getPriorityClasses().stream()
+          .map(p -> producers.get(producerName(p.name(), primary)))
+          .forEach(Supplier::get);
+    }
+  }
+
+  @Override
+  public void start() {}
+
+  @Override
+  public void stop() {
+    synchronized (this) {
+      stopped = true;
+    }
+    started()
+        .forEach(
+            (name, producer) -> {
+              try {
+                producer.flushSync();
+              } catch (RuntimeException e) {
+                logger.atWarning().withCause(e).log(
+                    "Could not flush kinesis producer '%s' before stopping it", name);
+              }
+              producer.destroy();
+              logger.atInfo().log("Kinesis producer '%s' stopped", name);
+            });
+  }
+
+  /**
+   * Name of the producer of the priority class for the endpoint: the name of the priority class for
+   * the primary endpoint, suffixed by {@code @<endpoint>} for the failover ones.
+   */
+  static String producerName(String priorityClass, KinesisEndpoint endpoint) {
+    return endpoint.isPrimary()
+        ? priorityClass
+        : String.format("%s@%s", priorityClass, endpoint.name());
+  }
+
+  /**
+   * Add the record to the producer of the topic for the active endpoint, keeping track of the bytes
+   * it holds until the record is either published or failed, which the producer itself does not
+   * report, and of the outcome, which tells whether the endpoint is healthy.
+   */
+  ListenableFuture<UserRecordResult> addUserRecord(
+      String streamName, String partitionKey, ByteBuffer data) {
+    KinesisEndpoint endpoint = endpointRouter.active();
+    String name = producerName(configuration.getPriorityClass(streamName).name(), endpoint);
+    AtomicLong bytes = outstandingBytes.computeIfAbsent(name, p -> new AtomicLong());
+    long size = data.remaining();
+    bytes.addAndGet(size);
+    boolean firstRecord = firstRecordAdded.add(name);
+    Stopwatch latency = Stopwatch.createStarted();
+    try {
+      ListenableFuture<UserRecordResult> result =
+          producers.get(name).get().addUserRecord(streamName, partitionKey, data);
+      result.addListener(() -> bytes.addAndGet(-size), MoreExecutors.directExecutor());
+      if (firstRecord) {
+        result.addListener(
+            () -> publisherMetrics.recordFirstRecordLatency(name, latency.elapsed()),
+            MoreExecutors.directExecutor());
+      }
+      Futures.addCallback(
+          result,
+          new FutureCallback<UserRecordResult>() {
+            @Override
+            public void onSuccess(UserRecordResult userRecordResult) {
+              endpointRouter.onResult(endpoint, userRecordResult.isSuccessful(), latency.elapsed());
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+              endpointRouter.onResult(endpoint, false, latency.elapsed());
+            }
+          },
+          MoreExecutors.directExecutor());
+      return result;
+    } catch (RuntimeException e) {
+      bytes.addAndGet(-size);
+      endpointRouter.onResult(endpoint, false, latency.elapsed());
+      throw e;
+    }
+  }
+
+  /**
+   * Start all the producers not started yet and make a round trip to each of their native
+   * processes, so that the first records do not wait for them to come up.
+   */
+  void warmUp() {
+    for (Map.Entry<String, Supplier<KinesisProducer>> producer : producers.entrySet()) {
+      String name = producer.getKey();
+      if (stopped || Thread.currentThread().isInterrupted()) {
+        logger.atInfo().log("Warm up of kinesis producers stopped before '%s'", name);
+        return;
+      }
+      Stopwatch warmUp = Stopwatch.createStarted();
+      try {
+        producer.getValue().get().getMetrics("UserRecordsPut", 1);
+        logger.atInfo().log("Kinesis producer '%s' warmed up in %s", name, warmUp);
+      } catch (ExecutionException | RuntimeException e) {
+        logger.atWarning().withCause(e).log("Could not warm up kinesis producer '%s'", name);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        logger.atWarning().log("Interrupted while warming up kinesis producer '%s'", name);
+      }
+    }
+  }
+
+  /** The producers started so far, by name. */
+  ImmutableMap<String, KinesisProducer> started() {
+    return producers.entrySet().stream()
+        .filter(e -> startedProducers.contains(e.getKey()))
+        .collect(toImmutableMap(Map.Entry::getKey, e -> e.getValue().get()));
+  }
+
+  long getOutstandingBytes(String name) {
+    AtomicLong bytes = outstandingBytes.get(name);
+    return bytes != null ? bytes.get() : 0L;
+  }
+
+  private KinesisProducer start(String name, Supplier<KinesisProducer> create) {
+    checkNotStopped(name);
+    Stopwatch startup = Stopwatch.createStarted();
+    KinesisProducer producer = create.get();
+    publisherMetrics.recordProducerStartup(name, startup.elapsed());
+    synchronized (this) {
+      // A producer started while stopping would never be destroyed, leaking its native process.
+      if (stopped) {
+        producer.destroy();
+        checkNotStopped(name);
+      }
+      startedProducers.add(name);
+    }
+    logger.atInfo().log("Kinesis producer '%s' started in %s", name, startup);
+    return producer;
+  }
+
+  private void checkNotStopped(String name) {
+    if (stopped) {
+      throw new IllegalStateException(
+          String.format("Kinesis producer '%s' not started, the plugin is stopping", name));
+    }
+  }
+}
@@ -15,18 +15,21 @@
 package com.googlesource.gerrit.plugins.kinesis;
 
 import com.amazonaws.services.kinesis.producer.Attempt;
-import com.amazonaws.services.kinesis.producer.KinesisProducer;
 import com.amazonaws.services.kinesis.producer.UserRecordResult;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.config.GerritInstanceId;
 import com.google.gerrit.server.events.Event;
 import com.google.gerrit.server.events.EventListener;
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.nio.ByteBuffer;
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
@@ -38,54 +41,123 @@ import java.util.concurrent.TimeoutException;
 class KinesisPublisher implements EventListener {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
-  private final KinesisProducer kinesisProducer;
+  private final KinesisProducers kinesisProducers;
   private final Configuration configuration;
   private final ExecutorService callBackExecutor;
+  private final StreamEventRules streamEventRules;
+  private final EventCoalescer eventCoalescer;
+  private final PublishCircuitBreaker circuitBreaker;
+  private final ShardRateLimiter shardRateLimiter;
+  private final Optional<String> instanceId;
+  private final RecordCodec recordCodec;
 
   private final Gson gson;
 
   @Inject
   public KinesisPublisher(
       Gson gson,
-      KinesisProducer kinesisProducer,
+      KinesisProducers kinesisProducers,
       Configuration configuration,
-      @ProducerCallbackExecutor ExecutorService callBackExecutor) {
+      @ProducerCallbackExecutor ExecutorService callBackExecutor,
+      StreamEventRules streamEventRules,
+      EventCoalescer eventCoalescer,
+      PublishCircuitBreaker circuitBreaker,
+      ShardRateLimiter shardRateLimiter,
+      RecordCodec recordCodec,
+      @Nullable @GerritInstanceId String instanceId) {
     this.gson = gson;
-    this.kinesisProducer = kinesisProducer;
+    this.kinesisProducers = kinesisProducers;
     this.configuration = configuration;
     this.callBackExecutor = callBackExecutor;
+    this.streamEventRules = streamEventRules;
+    this.eventCoalescer = eventCoalescer;
+    this.circuitBreaker = circuitBreaker;
+    this.shardRateLimiter = shardRateLimiter;
+    this.recordCodec = recordCodec;
+    this.instanceId = Optional.ofNullable(instanceId);
   }
 
   @Override
   public void onEvent(Event event) {
-    publish(configuration.getStreamEventsTopic(), gson.toJson(event), event.getType());
+    streamEventRules
+        .topicFor(event)
+        .ifPresent(
+            topic -> {
+              if (!eventCoalescer.coalesce(topic, event, e -> publishEvent(topic, e))) {
+                publishEvent(topic, event);
+              }
+            });
   }
 
-  PublishResult publish(String streamName, String stringEvent, String partitionKey) {
-    if (configuration.isSendAsync()) {
-      return publishAsync(streamName, stringEvent, partitionKey);
+  private void publishEvent(String topic, Event event) {
+    publish(topic, gson.toJsonTree(event), event.getType());
+  }
+
+  PublishResult publish(String streamName, JsonElement payload, String partitionKey) {
+    if (!circuitBreaker.tryAcquire(streamName)) {
+      logger.atFine().log(
+          "KINESIS PRODUCER - Circuit breaker open, not publishing event %s [PK: %s]",
+          payload, partitionKey);
+      return PublishResult.failure(0);
+    }
+
+    // Once acquired, the outcome must always be reported, since the request may be one of the
+    // probes of a half-open breaker, which would otherwise never close nor open again.
+    try {
+      if (payload.isJsonObject()) {
+        RecordEnvelope.stamp(payload.getAsJsonObject(), Instant.now(), instanceId);
+      }
+      byte[] data = recordCodec.encode(payload);
+
+      // Kinesis accounts for the partition key as well as the data.
+      int sizeBytes = data.length + partitionKey.length();
+      if (configuration.isSendAsync()) {
+        if (shardRateLimiter.deferUntilAcquired(
+            streamName,
+            partitionKey,
+            sizeBytes,
+            () -> publishAsync(streamName, payload, data, partitionKey))) {
+          return PublishResult.success(1);
+        }
+        return publishAsync(streamName, payload, data, partitionKey);
+      }
+      shardRateLimiter.acquire(streamName, partitionKey, sizeBytes);
+      PublishResult result = publishSync(streamName, payload, data, partitionKey);
+      if (result.isSuccess()) {
+        circuitBreaker.onSuccess();
+      } else {
+        circuitBreaker.onFailure();
+      }
+      return result;
+    } catch (RuntimeException e) {
+      circuitBreaker.onFailure();
+      logger.atSevere().withCause(e).log(
+          "KINESIS PRODUCER - Error when publishing event %s [PK: %s]", payload, partitionKey);
+      return PublishResult.failure(0);
     }
-    return publishSync(streamName, stringEvent, partitionKey);
   }
 
-  private PublishResult publishSync(String streamName, String stringEvent, String partitionKey) {
+  private PublishResult publishSync(
+      String streamName, JsonElement payload, byte[] data, String partitionKey) {
     logger.atFiner().log(
         "KINESIS PRODUCER - Attempt to publish event %s to stream %s [PK: %s]",
-        stringEvent, streamName, partitionKey);
+        payload, streamName, partitionKey);
 
     UserRecordResult result = null;
     try {
       result =
-          kinesisProducer
-              .addUserRecord(streamName, partitionKey, ByteBuffer.wrap(stringEvent.getBytes()))
-              .get(configuration.getPublishTimeoutMs(), TimeUnit.MILLISECONDS);
+          kinesisProducers
+              .addUserRecord(streamName, partitionKey, ByteBuffer.wrap(data))
+              .get(
+                  configuration.getPriorityClass(streamName).publishTimeoutMs(),
+                  TimeUnit.MILLISECONDS);
 
       List<Attempt> attemptsDetails = result.getAttempts();
       int numberOfAttempts = attemptsDetails.size();
       if (result.isSuccessful()) {
         logger.atFine().log(
             "KINESIS PRODUCER - Successfully published event '%s' to shardId '%s' [PK: %s] [Sequence: %s] after %s attempt(s)",
-            stringEvent,
+            payload,
             result.getShardId(),
             partitionKey,
             result.getSequenceNumber(),
@@ -100,7 +172,7 @@ class KinesisPublisher implements EventListener {
           logger.atSevere().log(
               String.format(
                   "KINESIS PRODUCER - Failed publishing event '%s' [PK: %s] - %s : %s. Previous failure - %s : %s",
-                  stringEvent,
+                  payload,
                   partitionKey,
                   current.getErrorCode(),
                   current.getErrorMessage(),
@@ -110,44 +182,45 @@ class KinesisPublisher implements EventListener {
           logger.atSevere().log(
               String.format(
                   "KINESIS PRODUCER - Failed publishing event '%s' [PK: %s] - %s : %s.",
-                  stringEvent, partitionKey, current.getErrorCode(), current.getErrorMessage()));
+                  payload, partitionKey, current.getErrorCode(), current.getErrorMessage()));
         }
       }
     } catch (InterruptedException e) {
       logger.atSevere().withCause(e).log(
           String.format(
               "KINESIS PRODUCER - Interrupted publishing event '%s' [PK: %s]",
-              stringEvent, partitionKey));
+              payload, partitionKey));
     } catch (ExecutionException e) {
       logger.atSevere().withCause(e).log(
           String.format(
               "KINESIS PRODUCER - Error when publishing event '%s' [PK: %s]",
-              stringEvent, partitionKey));
+              payload, partitionKey));
     } catch (TimeoutException e) {
       logger.atSevere().withCause(e).log(
           String.format(
               "KINESIS PRODUCER - Timeout when publishing event '%s' [PK: %s]",
-              stringEvent, partitionKey));
+              payload, partitionKey));
     }
 
     return PublishResult.failure(
         Optional.ofNullable(result).map(r -> r.getAttempts().size()).orElse(0));
   }
 
-  private PublishResult publishAsync(String streamName, String stringEvent, String partitionKey) {
+  private PublishResult publishAsync(
+      String streamName, JsonElement payload, byte[] data, String partitionKey) {
     try {
       ListenableFuture<UserRecordResult> publishF =
-          kinesisProducer.addUserRecord(
-              streamName, partitionKey, ByteBuffer.wrap(stringEvent.getBytes()));
+          kinesisProducers.addUserRecord(streamName, partitionKey, ByteBuffer.wrap(data));
 
       Futures.addCallback(
           publishF,
           new FutureCallback<UserRecordResult>() {
             @Override
             public void onSuccess(UserRecordResult result) {
+              circuitBreaker.onSuccess();
               logger.atFine().log(
                   "KINESIS PRODUCER - Successfully published event '%s' to shardId '%s' [PK: %s] [Sequence: %s] after %s attempt(s)",
-                  stringEvent,
+                  payload,
                   result.getShardId(),
                   partitionKey,
                   result.getSequenceNumber(),
@@ -156,15 +229,16 @@ class KinesisPublisher implements EventListener {
 
             @Override
             public void onFailure(Throwable e) {
+              circuitBreaker.onFailure();
               logger.atSevere().withCause(e).log(
-                  "KINESIS PRODUCER - Failed publishing event %s [PK: %s]",
-                  stringEvent, partitionKey);
+                  "KINESIS PRODUCER - Failed publishing event %s [PK: %s]", payload, partitionKey);
             }
           },
           callBackExecutor);
     } catch (Exception e) {
+      circuitBreaker.onFailure();
       logger.atSevere().withCause(e).log(
-          "KINESIS PRODUCER - Error when publishing event %s [PK: %s]", stringEvent, partitionKey);
+          "KINESIS PRODUCER - Error when publishing event %s [PK: %s]", payload, partitionKey);
       return PublishResult.failure(1);
     }
 
@@ -19,9 +19,22 @@ import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.server.util.ManualRequestContext;
 import com.google.gerrit.server.util.OneOffRequestContext;
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
+import com.googlesource.gerrit.plugins.kinesis.EventBatchConsumer.SingleMessageConsumer;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import software.amazon.kinesis.exceptions.InvalidStateException;
 import software.amazon.kinesis.exceptions.ShutdownException;
 import software.amazon.kinesis.lifecycle.events.InitializationInput;
@@ -29,68 +42,344 @@ import software.amazon.kinesis.lifecycle.events.LeaseLostInput;
 import software.amazon.kinesis.lifecycle.events.ProcessRecordsInput;
 import software.amazon.kinesis.lifecycle.events.ShardEndedInput;
 import software.amazon.kinesis.lifecycle.events.ShutdownRequestedInput;
+import software.amazon.kinesis.processor.RecordProcessorCheckpointer;
 import software.amazon.kinesis.processor.ShardRecordProcessor;
+import software.amazon.kinesis.retrieval.KinesisClientRecord;
 
 class KinesisRecordProcessor implements ShardRecordProcessor {
   interface Factory {
-    KinesisRecordProcessor create(Consumer<EventMessage> recordProcessor);
+    KinesisRecordProcessor create(
+        String streamName,
+        KinesisEndpoint endpoint,
+        CatchUpMonitor catchUpMonitor,
+        EventBatchConsumer recordProcessor);
   }
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
-  private final Consumer<EventMessage> recordProcessor;
+  private final String streamName;
+  private final KinesisEndpoint endpoint;
+  private final CatchUpMonitor catchUpMonitor;
+  private final EventBatchConsumer recordProcessor;
+  private final Optional<Consumer<EventMessage>> messageConsumer;
   private final OneOffRequestContext oneOffCtx;
   private final Gson gson;
+  private final ExecutorService catchUpExecutor;
+  private final ConsumerMetrics consumerMetrics;
+  private final Optional<Duration> maxEventAge;
+  private final LocalEventSources localEventSources;
+  private final boolean skipSelfOriginatedEvents;
+  private final ConsumerSettings consumerSettings;
+  private final Optional<ExecutorService> handlerExecutor;
+  private final ConsumedEventsCache consumedEventsCache;
+  private final ShardProgress shardProgress;
+  private final RecordCodec recordCodec;
+  private Instant lastCheckpoint = Instant.now();
+  private String shardId;
 
   @Inject
   KinesisRecordProcessor(
-      @Assisted Consumer<EventMessage> recordProcessor, OneOffRequestContext oneOffCtx, Gson gson) {
+      @Assisted String streamName,
+      @Assisted KinesisEndpoint endpoint,
+      @Assisted CatchUpMonitor catchUpMonitor,
+      @Assisted EventBatchConsumer recordProcessor,
+      OneOffRequestContext oneOffCtx,
+      Gson gson,
+      @CatchUpExecutor ExecutorService catchUpExecutor,
+      ConsumerMetrics consumerMetrics,
+      LocalEventSources localEventSources,
+      HandlerExecutors handlerExecutors,
+      ConsumedEventsCache consumedEventsCache,
+      ShardProgress shardProgress,
+      RecordCodec recordCodec,
+      Configuration configuration) {
+    this.streamName = streamName;
+    this.endpoint = endpoint;
+    this.catchUpMonitor = catchUpMonitor;
     this.recordProcessor = recordProcessor;
+    this.messageConsumer =
+        recordProcessor instanceof SingleMessageConsumer
+            ? Optional.of(((SingleMessageConsumer) recordProcessor).messageConsumer())
+            : Optional.empty();
     this.oneOffCtx = oneOffCtx;
     this.gson = gson;
+    this.catchUpExecutor = catchUpExecutor;
+    this.consumerMetrics = consumerMetrics;
+    this.maxEventAge = configuration.getMaxEventAgeMs(streamName).map(Duration::ofMillis);
+    this.localEventSources = localEventSources;
+    this.skipSelfOriginatedEvents = configuration.isSkipSelfOriginatedEvents();
+    this.consumerSettings = configuration.getConsumerSettings(streamName);
+    this.handlerExecutor = handlerExecutors.forTopic(streamName);
+    this.consumedEventsCache = consumedEventsCache;
+    this.shardProgress = shardProgress;
+    this.recordCodec = recordCodec;
   }
 
   @Override
   public void initialize(InitializationInput initializationInput) {
+    shardId = initializationInput.shardId();
     logger.atInfo().log(
-        "Initializing @ Sequence: %s", initializationInput.extendedSequenceNumber());
+        "Initializing %s @ Sequence: %s", shardId, initializationInput.extendedSequenceNumber());
   }
 
   @Override
   public void processRecords(ProcessRecordsInput processRecordsInput) {
+    if (processRecordsInput.records().isEmpty()) {
+      catchUpMonitor.onMillisBehindLatest(shardId, processRecordsInput.millisBehindLatest());
+      reportProgress(processRecordsInput);
+      return;
+    }
+
     try {
-      logger.atInfo().log("Processing %s record(s)", processRecordsInput.records().size());
-      processRecordsInput
-          .records()
-          .forEach(
-              consumerRecord -> {
-                logger.atFiner().log(
-                    "GERRIT > Processing record pk: %s -- %s",
-                    consumerRecord.partitionKey(), consumerRecord.sequenceNumber());
-                byte[] byteRecord = new byte[consumerRecord.data().remaining()];
-                consumerRecord.data().get(byteRecord);
-                String jsonMessage = new String(byteRecord);
-                logger.atFiner().log("Kinesis consumed event: '%s'", jsonMessage);
-                try (ManualRequestContext ctx = oneOffCtx.open()) {
-                  EventMessage eventMessage = gson.fromJson(jsonMessage, EventMessage.class);
-                  recordProcessor.accept(eventMessage);
+      logger.atInfo().log(
+          "Processing %s record(s) [millisBehindLatest: %s]",
+          processRecordsInput.records().size(), processRecordsInput.millisBehindLatest());
+      Instant retrievedAt = Instant.now();
+      if (!messageConsumer.isPresent()) {
+        processBatch(processRecordsInput.records(), retrievedAt);
+      } else if (catchUpMonitor.isCatchingUp()) {
+        processRecordsInParallel(processRecordsInput.records(), retrievedAt, catchUpExecutor);
+      } else if (handlerExecutor.isPresent()) {
+        processRecordsInParallel(processRecordsInput.records(), retrievedAt, handlerExecutor.get());
+      } else {
+        processRecordsInput.records().forEach(r -> processRecord(r, retrievedAt));
+      }
+      checkpointIfDue(processRecordsInput.checkpointer());
+      catchUpMonitor.onMillisBehindLatest(shardId, processRecordsInput.millisBehindLatest());
+      reportProgress(processRecordsInput);
+    } catch (Throwable t) {
+      logger.atSevere().withCause(t).log("Caught throwable while processing records. Aborting.");
+    }
+  }
+
+  /**
+   * Hand records over to the executor and wait for all of them to be processed, so that the batch
+   * is still fully consumed when returning to the scheduler. Note that the order in which handlers
+   * run is not preserved.
+   */
+  private void processRecordsInParallel(
+      List<KinesisClientRecord> records, Instant retrievedAt, ExecutorService executor)
+      throws InterruptedException {
+    List<Future<?>> processed =
+        records.stream()
+            .map(r -> executor.submit(() -> processRecord(r, retrievedAt)))
+            .collect(Collectors.toList());
+    for (Future<?> f : processed) {
+      try {
+        f.get();
+      } catch (ExecutionException e) {
+        logger.atSevere().withCause(e).log("Could not process record in parallel");
+      }
+    }
+  }
+
+  /**
+   * Hand all the messages of the batch to the subscriber at once. The subscriber is in charge of
+   * parallelising their processing, if needed, hence neither the catch-up nor the handler executors
+   * are used.
+   */
+  private void processBatch(List<KinesisClientRecord> records, Instant retrievedAt) {
+    List<EventMessage> messages = new ArrayList<>(records.size());
+    for (KinesisClientRecord consumerRecord : records) {
+      readMessage(consumerRecord)
+          .ifPresent(
+              jsonRecord -> {
+                try {
+                  recordStageLatencies(consumerRecord, jsonRecord, retrievedAt);
+                  if (RecordEnvelope.isHeartbeat(jsonRecord)) {
+                    recordHeartbeat(jsonRecord);
+                    return;
+                  }
+                  EventMessage eventMessage = gson.fromJson(jsonRecord, EventMessage.class);
+                  if (!isDuplicate(eventMessage)) {
+                    messages.add(eventMessage);
+                  }
                 } catch (Exception e) {
-                  logger.atSevere().withCause(e).log("Could not process event '%s'", jsonMessage);
+                  // A bad record only drops itself, as it does when processed on its own.
+                  logger.atSevere().withCause(e).log("Could not process event '%s'", jsonRecord);
                 }
               });
-    } catch (Throwable t) {
-      logger.atSevere().withCause(t).log("Caught throwable while processing records. Aborting.");
     }
+    if (messages.isEmpty()) {
+      return;
+    }
+
+    try (ManualRequestContext ctx = oneOffCtx.open()) {
+      Instant handlingStart = Instant.now();
+      recordProcessor.accept(messages);
+      consumerMetrics.recordHandlerLatency(
+          streamName, Duration.between(handlingStart, Instant.now()));
+    } catch (Exception e) {
+      messages.forEach(this::forgetConsumed);
+      logger.atSevere().withCause(e).log(
+          "Could not process batch of %d event(s) from stream %s", messages.size(), streamName);
+    }
+  }
+
+  private void processRecord(KinesisClientRecord consumerRecord, Instant retrievedAt) {
+    readMessage(consumerRecord)
+        .ifPresent(
+            jsonRecord -> {
+              try (ManualRequestContext ctx = oneOffCtx.open()) {
+                recordStageLatencies(consumerRecord, jsonRecord, retrievedAt);
+                if (RecordEnvelope.isHeartbeat(jsonRecord)) {
+                  recordHeartbeat(jsonRecord);
+                  return;
+                }
+                EventMessage eventMessage = gson.fromJson(jsonRecord, EventMessage.class);
+                if (!isDuplicate(eventMessage)) {
+                  Instant handlingStart = Instant.now();
+                  try {
+                    messageConsumer.get().accept(eventMessage);
+                  } catch (RuntimeException e) {
+                    forgetConsumed(eventMessage);
+                    throw e;
+                  }
+                  consumerMetrics.recordHandlerLatency(
+                      streamName, Duration.between(handlingStart, Instant.now()));
+                }
+              } catch (Exception e) {
+                logger.atSevere().withCause(e).log("Could not process event '%s'", jsonRecord);
+              }
+            });
+  }
+
+  private Optional<JsonObject> readMessage(KinesisClientRecord consumerRecord) {
+    logger.atFiner().log(
+        "GERRIT > Processing record pk: %s -- %s",
+        consumerRecord.partitionKey(), consumerRecord.sequenceNumber());
+    if (skipSelfOriginatedEvents && localEventSources.isLocal(consumerRecord.partitionKey())) {
+      logger.atFiner().log(
+          "Skipping self-originated record pk: %s -- %s",
+          consumerRecord.partitionKey(), consumerRecord.sequenceNumber());
+      consumerMetrics.incrementSelfOriginatedEventsSkipped(streamName);
+      return Optional.empty();
+    }
+
+    if (isStale(consumerRecord)) {
+      logger.atFiner().log(
+          "Skipping stale record pk: %s -- %s [arrived: %s]",
+          consumerRecord.partitionKey(),
+          consumerRecord.sequenceNumber(),
+          consumerRecord.approximateArrivalTimestamp());
+      consumerMetrics.incrementStaleEventsSkipped(streamName);
+      return Optional.empty();
+    }
+
+    byte[] byteRecord = new byte[consumerRecord.data().remaining()];
+    consumerRecord.data().get(byteRecord);
+    try {
+      JsonObject jsonRecord = recordCodec.decode(byteRecord);
+      logger.atFiner().log("Kinesis consumed event: '%s'", jsonRecord);
+      return Optional.of(jsonRecord);
+    } catch (IOException | JsonParseException e) {
+      logger.atSevere().withCause(e).log(
+          "Could not decode record pk: %s -- %s",
+          consumerRecord.partitionKey(), consumerRecord.sequenceNumber());
+      return Optional.empty();
+    }
+  }
+
+  private void reportProgress(ProcessRecordsInput processRecordsInput) {
+    List<KinesisClientRecord> records = processRecordsInput.records();
+    shardProgress.onRecordsProcessed(
+        streamName,
+        endpoint,
+        shardId,
+        Optional.ofNullable(processRecordsInput.millisBehindLatest()),
+        records.isEmpty()
+            ? Optional.empty()
+            : Optional.of(records.get(records.size() - 1).sequenceNumber()));
+  }
+
+  /**
+   * Account for the time the record spent in the publishing node, from the moment it was stamped by
+   * the publisher until Kinesis received it, and in the stream, until it was retrieved by this
+   * consumer.
+   */
+  private void recordStageLatencies(
+      KinesisClientRecord consumerRecord, JsonObject jsonRecord, Instant retrievedAt) {
+    Instant arrivedAt = consumerRecord.approximateArrivalTimestamp();
+    if (arrivedAt == null) {
+      return;
+    }
+    Optional<Instant> publishedAt = RecordEnvelope.publishedAt(jsonRecord);
+    publishedAt.ifPresent(
+        p -> consumerMetrics.recordProducerLatency(streamName, Duration.between(p, arrivedAt)));
+    consumerMetrics.recordStreamLatency(streamName, Duration.between(arrivedAt, retrievedAt));
+    if (!logger.atFiner().isEnabled()) {
+      return;
+    }
+    logger.atFiner().log(
+        "Record %s published by %s at %s, arrived at %s, retrieved at %s",
+        consumerRecord.sequenceNumber(),
+        RecordEnvelope.publishedBy(jsonRecord).orElse("unknown"),
+        publishedAt.map(Instant::toString).orElse("unknown"),
+        arrivedAt,
+        retrievedAt);
+  }
+
+  /** Heartbeats are only there to be measured and are never handed over to the subscriber. */
+  private void recordHeartbeat(JsonObject jsonRecord) {
+    RecordEnvelope.publishedAt(jsonRecord)
+        .ifPresent(
+            publishedAt ->
+                consumerMetrics.recordHeartbeat(
+                    streamName,
+                    RecordEnvelope.publishedBy(jsonRecord).orElse("unknown"),
+                    Duration.between(publishedAt, Instant.now())));
+  }
+
+  private boolean isDuplicate(EventMessage eventMessage) {
+    if (consumedEventsCache.isEnabled()
+        && !consumedEventsCache.markConsumed(streamName, eventMessage.getHeader().eventId)) {
+      logger.atFiner().log("Skipping already consumed event %s", eventMessage.getHeader().eventId);
+      return true;
+    }
+    return false;
+  }
+
+  private void forgetConsumed(EventMessage eventMessage) {
+    if (consumedEventsCache.isEnabled()) {
+      consumedEventsCache.forget(streamName, eventMessage.getHeader().eventId);
+    }
+  }
+
+  private void checkpointIfDue(RecordProcessorCheckpointer checkpointer) {
+    if (!consumerSettings.isCheckpointingOnProcessing()
+        || Instant.now()
+            .isBefore(lastCheckpoint.plusMillis(consumerSettings.checkpointIntervalMs()))) {
+      return;
+    }
+    try {
+      checkpointer.checkpoint();
+      lastCheckpoint = Instant.now();
+    } catch (ShutdownException | InvalidStateException e) {
+      logger.atWarning().withCause(e).log(
+          "[%s] Could not checkpoint, will retry after next batch", streamName);
+    }
+  }
+
+  private boolean isStale(KinesisClientRecord consumerRecord) {
+    return maxEventAge.isPresent()
+        && consumerRecord.approximateArrivalTimestamp() != null
+        && consumerRecord
+            .approximateArrivalTimestamp()
+            .isBefore(Instant.now().minus(maxEventAge.get()));
   }
 
   @Override
   public void leaseLost(LeaseLostInput leaseLostInput) {
     logger.atInfo().log("Lost lease, so terminating.");
+    shardProgress.onShardReleased(streamName, endpoint, shardId);
+    catchUpMonitor.onShardReleased(shardId);
   }
 
   @Override
   public void shardEnded(ShardEndedInput shardEndedInput) {
     try {
       logger.atInfo().log("Reached shard end checkpointing.");
+      shardProgress.onShardReleased(streamName, endpoint, shardId);
+      catchUpMonitor.onShardReleased(shardId);
       shardEndedInput.checkpointer().checkpoint();
     } catch (ShutdownException | InvalidStateException e) {
       logger.atSevere().withCause(e).log("Exception while checkpointing at shard end. Giving up.");
@@ -101,6 +390,7 @@ class KinesisRecordProcessor implements ShardRecordProcessor {
   public void shutdownRequested(ShutdownRequestedInput shutdownRequestedInput) {
     try {
       logger.atInfo().log("Scheduler is shutting down, checkpointing.");
+      shardProgress.onShardReleased(streamName, endpoint, shardId);
       shutdownRequestedInput.checkpointer().checkpoint();
     } catch (ShutdownException | InvalidStateException e) {
       logger.atSevere().withCause(e).log(
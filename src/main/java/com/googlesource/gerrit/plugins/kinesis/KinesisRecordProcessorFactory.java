@@ -14,30 +14,41 @@
 
 package com.googlesource.gerrit.plugins.kinesis;
 
-import com.gerritforge.gerrit.eventbroker.EventMessage;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
-import java.util.function.Consumer;
 import software.amazon.kinesis.processor.ShardRecordProcessor;
 import software.amazon.kinesis.processor.ShardRecordProcessorFactory;
 
 class KinesisRecordProcessorFactory implements ShardRecordProcessorFactory {
   interface Factory {
-    KinesisRecordProcessorFactory create(Consumer<EventMessage> recordProcessor);
+    KinesisRecordProcessorFactory create(
+        String streamName,
+        KinesisEndpoint endpoint,
+        CatchUpMonitor catchUpMonitor,
+        EventBatchConsumer recordProcessor);
   }
 
-  private final Consumer<EventMessage> recordProcessor;
+  private final String streamName;
+  private final KinesisEndpoint endpoint;
+  private final CatchUpMonitor catchUpMonitor;
+  private final EventBatchConsumer recordProcessor;
   private final KinesisRecordProcessor.Factory processorFactory;
 
   @Inject
   KinesisRecordProcessorFactory(
-      @Assisted Consumer<EventMessage> recordProcessor,
+      @Assisted String streamName,
+      @Assisted KinesisEndpoint endpoint,
+      @Assisted CatchUpMonitor catchUpMonitor,
+      @Assisted EventBatchConsumer recordProcessor,
       KinesisRecordProcessor.Factory processorFactory) {
+    this.streamName = streamName;
+    this.endpoint = endpoint;
+    this.catchUpMonitor = catchUpMonitor;
     this.recordProcessor = recordProcessor;
     this.processorFactory = processorFactory;
   }
 
   public ShardRecordProcessor shardRecordProcessor() {
-    return processorFactory.create(recordProcessor);
+    return processorFactory.create(streamName, endpoint, catchUpMonitor, recordProcessor);
   }
 }
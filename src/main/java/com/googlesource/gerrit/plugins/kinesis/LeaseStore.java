@@ -0,0 +1,32 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import software.amazon.kinesis.common.ConfigsBuilder;
+import software.amazon.kinesis.leases.LeaseManagementConfig;
+
+/** Where the consumers keep the leases and checkpoints of the shards of each stream. */
+interface LeaseStore {
+
+  /**
+   * Lease management configuration of the scheduler consuming the stream from the endpoint. The
+   * leases of all the endpoints are kept in this store, apart from each other.
+   */
+  LeaseManagementConfig leaseManagementConfig(
+      ConfigsBuilder configsBuilder, String streamName, KinesisEndpoint endpoint);
+
+  /** Move the checkpoints of all the shards of the stream of the endpoint back to the beginning. */
+  void setAllShardsToBeginning(String streamName, KinesisEndpoint endpoint);
+}
@@ -0,0 +1,45 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+class LeaseStoreProvider implements Provider<LeaseStore> {
+  private final Configuration configuration;
+  private final Provider<DynamoDbLeaseStore> dynamoDbLeaseStore;
+  private final Provider<LocalLeaseStore> localLeaseStore;
+
+  @Inject
+  LeaseStoreProvider(
+      Configuration configuration,
+      Provider<DynamoDbLeaseStore> dynamoDbLeaseStore,
+      Provider<LocalLeaseStore> localLeaseStore) {
+    this.configuration = configuration;
+    this.dynamoDbLeaseStore = dynamoDbLeaseStore;
+    this.localLeaseStore = localLeaseStore;
+  }
+
+  @Override
+  public LeaseStore get() {
+    switch (configuration.getLeaseStore()) {
+      case LOCAL:
+        return localLeaseStore.get();
+      case DYNAMODB:
+      default:
+        return dynamoDbLeaseStore.get();
+    }
+  }
+}
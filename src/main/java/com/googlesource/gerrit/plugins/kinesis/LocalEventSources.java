@@ -0,0 +1,52 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.config.GerritInstanceId;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the source instance ids this node publishes messages with.
+ *
+ * <p>Messages sent through the broker api use their source instance id as partition key, which
+ * allows consumers to recognise self-originated records without deserializing them.
+ *
+ * <p>The ids known upfront, i.e. the gerrit instance id and the configured ones, are added at
+ * startup, so that records published before a restart are recognised as well.
+ */
+@Singleton
+class LocalEventSources {
+  private final Set<String> sourceInstanceIds = ConcurrentHashMap.newKeySet();
+
+  @Inject
+  LocalEventSources(@Nullable @GerritInstanceId String instanceId, Configuration configuration) {
+    if (instanceId != null) {
+      sourceInstanceIds.add(instanceId);
+    }
+    sourceInstanceIds.addAll(configuration.getSourceInstanceIds());
+  }
+
+  void add(String sourceInstanceId) {
+    sourceInstanceIds.add(sourceInstanceId);
+  }
+
+  boolean isLocal(String partitionKey) {
+    return sourceInstanceIds.contains(partitionKey);
+  }
+}
@@ -0,0 +1,125 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import java.util.concurrent.ScheduledExecutorService;
+import software.amazon.kinesis.common.StreamConfig;
+import software.amazon.kinesis.leases.HierarchicalShardSyncer;
+import software.amazon.kinesis.leases.LeaseCleanupManager;
+import software.amazon.kinesis.leases.LeaseCoordinator;
+import software.amazon.kinesis.leases.LeaseManagementConfig;
+import software.amazon.kinesis.leases.LeaseManagementFactory;
+import software.amazon.kinesis.leases.LeaseRefresher;
+import software.amazon.kinesis.leases.ShardDetector;
+import software.amazon.kinesis.leases.ShardSyncTaskManager;
+import software.amazon.kinesis.leases.dynamodb.DynamoDBLeaseCoordinator;
+import software.amazon.kinesis.leases.dynamodb.DynamoDBLeaseRefresher;
+import software.amazon.kinesis.metrics.MetricsFactory;
+
+/**
+ * Lease management backed by a {@link LeaseRefresher} other than the DynamoDB one.
+ *
+ * <p>Despite their names, the KCL lease coordinator, taker and renewer only depend on the {@link
+ * LeaseRefresher} interface, hence they are reused as they are. Shard discovery does not involve
+ * the lease table and is delegated to the default lease management factory.
+ */
+class LocalLeaseManagementFactory implements LeaseManagementFactory {
+  private final LeaseManagementConfig config;
+  private final LeaseManagementFactory defaultFactory;
+  private final FileLeaseRefresher leaseRefresher;
+  private final ScheduledExecutorService leaseCleanupExecutor;
+
+  LocalLeaseManagementFactory(
+      LeaseManagementConfig config,
+      LeaseManagementFactory defaultFactory,
+      FileLeaseRefresher leaseRefresher,
+      ScheduledExecutorService leaseCleanupExecutor) {
+    this.config = config;
+    this.defaultFactory = defaultFactory;
+    this.leaseRefresher = leaseRefresher;
+    this.leaseCleanupExecutor = leaseCleanupExecutor;
+  }
+
+  @Override
+  public LeaseCoordinator createLeaseCoordinator(MetricsFactory metricsFactory) {
+    return new DynamoDBLeaseCoordinator(
+        leaseRefresher,
+        config.workerIdentifier(),
+        config.failoverTimeMillis(),
+        config.epsilonMillis(),
+        config.maxLeasesForWorker(),
+        config.maxLeasesToStealAtOneTime(),
+        config.maxLeaseRenewalThreads(),
+        config.initialLeaseTableReadCapacity(),
+        config.initialLeaseTableWriteCapacity(),
+        metricsFactory);
+  }
+
+  @Override
+  public ShardSyncTaskManager createShardSyncTaskManager(MetricsFactory metricsFactory) {
+    return new ShardSyncTaskManager(
+        createShardDetector(),
+        leaseRefresher,
+        config.initialPositionInStream(),
+        config.cleanupLeasesUponShardCompletion(),
+        config.ignoreUnexpectedChildShards(),
+        config.shardSyncIntervalMillis(),
+        config.executorService(),
+        new HierarchicalShardSyncer(),
+        metricsFactory);
+  }
+
+  @Override
+  public ShardSyncTaskManager createShardSyncTaskManager(
+      MetricsFactory metricsFactory, StreamConfig streamConfig) {
+    return new ShardSyncTaskManager(
+        createShardDetector(streamConfig),
+        leaseRefresher,
+        streamConfig.initialPositionInStreamExtended(),
+        config.cleanupLeasesUponShardCompletion(),
+        config.ignoreUnexpectedChildShards(),
+        config.shardSyncIntervalMillis(),
+        config.executorService(),
+        new HierarchicalShardSyncer(false, streamConfig.streamIdentifier().toString()),
+        metricsFactory);
+  }
+
+  @Override
+  public DynamoDBLeaseRefresher createLeaseRefresher() {
+    return leaseRefresher;
+  }
+
+  @Override
+  public ShardDetector createShardDetector() {
+    return defaultFactory.createShardDetector();
+  }
+
+  @Override
+  public ShardDetector createShardDetector(StreamConfig streamConfig) {
+    return defaultFactory.createShardDetector(streamConfig);
+  }
+
+  @Override
+  public LeaseCleanupManager createLeaseCleanupManager(MetricsFactory metricsFactory) {
+    return new LeaseCleanupManager(
+        createLeaseCoordinator(metricsFactory),
+        metricsFactory,
+        leaseCleanupExecutor,
+        config.cleanupLeasesUponShardCompletion(),
+        config.leaseCleanupConfig().leaseCleanupIntervalMillis(),
+        config.leaseCleanupConfig().completedLeaseCleanupIntervalMillis(),
+        config.leaseCleanupConfig().garbageLeaseCleanupIntervalMillis());
+  }
+}
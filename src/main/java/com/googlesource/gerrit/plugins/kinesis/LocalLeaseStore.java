@@ -0,0 +1,122 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.googlesource.gerrit.plugins.kinesis.Configuration.cosumerLeaseName;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gson.Gson;
+import com.google.inject.Inject;
+import com.google.inject.ProvisionException;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import software.amazon.kinesis.common.ConfigsBuilder;
+import software.amazon.kinesis.leases.LeaseManagementConfig;
+import software.amazon.kinesis.leases.exceptions.DependencyException;
+import software.amazon.kinesis.retrieval.kpl.ExtendedSequenceNumber;
+
+/**
+ * Keeps leases and checkpoints in local files, one per stream, rather than in DynamoDB. Suitable
+ * only when a single node consumes each stream with a given application name, e.g. single-node
+ * deployments or tests.
+ *
+ * <p>The schedulers of all the streams share a single executor for cleaning up the leases of
+ * completed shards, which is shut down with the plugin.
+ */
+@Singleton
+class LocalLeaseStore implements LeaseStore, LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final Configuration configuration;
+  private final Path leaseStoreDirectory;
+  private final Gson gson;
+  private final ConcurrentMap<String, FileLeaseRefresher> refreshers = new ConcurrentHashMap<>();
+  private ScheduledExecutorService leaseCleanupExecutor;
+
+  @Inject
+  LocalLeaseStore(Configuration configuration, @PluginData Path pluginData, Gson gson) {
+    this.configuration = configuration;
+    this.leaseStoreDirectory =
+        configuration.getLocalLeaseStoreDirectory().orElse(pluginData.resolve("leases"));
+    this.gson = gson;
+  }
+
+  @Override
+  public LeaseManagementConfig leaseManagementConfig(
+      ConfigsBuilder configsBuilder, String streamName, KinesisEndpoint endpoint) {
+    LeaseManagementConfig leaseManagementConfig = configsBuilder.leaseManagementConfig();
+    return leaseManagementConfig.leaseManagementFactory(
+        new LocalLeaseManagementFactory(
+            leaseManagementConfig,
+            leaseManagementConfig.leaseManagementFactory(),
+            leaseRefresher(streamName, endpoint),
+            leaseCleanupExecutor()));
+  }
+
+  @Override
+  public void setAllShardsToBeginning(String streamName, KinesisEndpoint endpoint) {
+    try {
+      logger.atInfo().log("[%s] Resetting checkpoints", streamName);
+      leaseRefresher(streamName, endpoint).setAllCheckpoints(ExtendedSequenceNumber.TRIM_HORIZON);
+    } catch (DependencyException e) {
+      logger.atSevere().withCause(e).log("%s resetOffset: Error", streamName);
+    }
+  }
+
+  @Override
+  public void start() {}
+
+  @Override
+  public synchronized void stop() {
+    if (leaseCleanupExecutor != null) {
+      leaseCleanupExecutor.shutdownNow();
+      leaseCleanupExecutor = null;
+    }
+  }
+
+  private synchronized ScheduledExecutorService leaseCleanupExecutor() {
+    if (leaseCleanupExecutor == null) {
+      leaseCleanupExecutor =
+          Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactoryBuilder()
+                  .setNameFormat("kinesis-lease-cleanup-%d")
+                  .setDaemon(true)
+                  .build());
+    }
+    return leaseCleanupExecutor;
+  }
+
+  private FileLeaseRefresher leaseRefresher(String streamName, KinesisEndpoint endpoint) {
+    return refreshers.computeIfAbsent(
+        cosumerLeaseName(configuration.getApplicationName(), streamName, endpoint),
+        leaseName -> {
+          Path leaseFile = leaseStoreDirectory.resolve(String.format("%s.json", leaseName));
+          try {
+            return new FileLeaseRefresher(leaseFile, gson);
+          } catch (IOException e) {
+            throw new ProvisionException(
+                String.format("Cannot read leases of stream %s from %s", streamName, leaseFile), e);
+          }
+        });
+  }
+}
@@ -0,0 +1,83 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaParseException;
+
+/**
+ * Keeps each schema in a {@code <id>.avsc} file of a directory. Every node must be able to read the
+ * schemas registered by the others, hence the directory must either be shared, or be provisioned
+ * with the schemas beforehand, e.g. on nodes with no access to any registry service.
+ */
+@Singleton
+class LocalSchemaRegistry implements SchemaRegistry {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final Path directory;
+
+  @Inject
+  LocalSchemaRegistry(Configuration configuration, @PluginData Path pluginData) {
+    this.directory =
+        configuration.getLocalSchemaRegistryDirectory().orElse(pluginData.resolve("schemas"));
+  }
+
+  @Override
+  public void register(long id, Schema schema) throws IOException {
+    Path schemaFile = schemaFile(id);
+    if (Files.exists(schemaFile)) {
+      return;
+    }
+
+    // Write then move, so that concurrent readers never see a partially written schema
+    Files.createDirectories(directory);
+    Path tmp = Files.createTempFile(directory, schemaFile.getFileName().toString(), ".tmp");
+    try {
+      Files.write(tmp, schema.toString(true).getBytes(UTF_8));
+      Files.move(tmp, schemaFile, StandardCopyOption.ATOMIC_MOVE);
+      logger.atInfo().log("Registered schema %s in %s", schema.getFullName(), schemaFile);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  @Override
+  public Optional<Schema> lookup(long id) throws IOException {
+    Path schemaFile = schemaFile(id);
+    if (!Files.exists(schemaFile)) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(new Schema.Parser().parse(schemaFile.toFile()));
+    } catch (SchemaParseException e) {
+      throw new IOException(String.format("Invalid schema in %s", schemaFile), e);
+    }
+  }
+
+  private Path schemaFile(long id) {
+    return directory.resolve(String.format("%016x.avsc", id));
+  }
+}
@@ -14,9 +14,9 @@
 
 package com.googlesource.gerrit.plugins.kinesis;
 
+import static com.google.gerrit.server.config.ConfigResource.CONFIG_KIND;
 import static com.google.inject.Scopes.SINGLETON;
 
-import com.amazonaws.services.kinesis.producer.KinesisProducer;
 import com.gerritforge.gerrit.eventbroker.BrokerApi;
 import com.gerritforge.gerrit.eventbroker.EventGsonProvider;
 import com.gerritforge.gerrit.eventbroker.TopicSubscriber;
@@ -24,6 +24,7 @@ import com.google.common.collect.Sets;
 import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.extensions.registration.DynamicItem;
 import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.extensions.restapi.RestApiModule;
 import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.gerrit.server.events.EventListener;
 import com.google.gson.Gson;
@@ -33,8 +34,10 @@ import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.glue.GlueAsyncClient;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 
 public class Module extends LifecycleModule {
@@ -65,21 +68,54 @@ public class Module extends LifecycleModule {
         .annotatedWith(ConsumerExecutor.class)
         .toProvider(ConsumerExecutorProvider.class)
         .in(SINGLETON);
+    bind(ExecutorService.class)
+        .annotatedWith(CatchUpExecutor.class)
+        .toProvider(CatchUpExecutorProvider.class)
+        .in(SINGLETON);
     bind(ExecutorService.class)
         .annotatedWith(ProducerCallbackExecutor.class)
         .toProvider(ProducerCallbackExecutorProvider.class)
         .in(SINGLETON);
-    bind(KinesisProducer.class).toProvider(KinesisProducerProvider.class).in(Scopes.SINGLETON);
+    bind(SdkEventLoopGroup.class).toProvider(SdkEventLoopGroupProvider.class).in(SINGLETON);
+    // Registered before the broker lifecycle manager, so that the event loop group is shut down
+    // after the consumers.
+    listener().to(NettyHttpClientFactory.class);
     bind(KinesisAsyncClient.class).toProvider(KinesisAsyncClientProvider.class).in(SINGLETON);
+    // Closes the kinesis clients once the consumers are stopped, before their event loop group.
+    listener().to(KinesisEndpointClients.class);
     bind(DynamoDbAsyncClient.class).toProvider(DynamoDbAsyncClientProvider.class).in(SINGLETON);
     bind(CloudWatchAsyncClient.class).toProvider(CloudWatchAsyncClientProvider.class).in(SINGLETON);
+    bind(LeaseStore.class).toProvider(LeaseStoreProvider.class).in(SINGLETON);
+    // Stops the lease cleanup executor of local leases, once the consumers are stopped.
+    listener().to(LocalLeaseStore.class);
+    // Shuts the handler executors down, once the consumers are stopped.
+    listener().to(HandlerExecutors.class);
+    bind(GlueAsyncClient.class).toProvider(GlueAsyncClientProvider.class).in(SINGLETON);
+    bind(SchemaRegistry.class).toProvider(SchemaRegistryProvider.class).in(SINGLETON);
     factory(SchedulerProvider.Factory.class);
     bind(new TypeLiteral<Set<TopicSubscriber>>() {}).toInstance(activeConsumers);
+    // The status and readiness views list the consumers of the very instance serving as broker API.
+    bind(KinesisBrokerApi.class).in(SINGLETON);
     DynamicItem.bind(binder(), BrokerApi.class).to(KinesisBrokerApi.class).in(Scopes.SINGLETON);
     bind(Gson.class).toProvider(EventGsonProvider.class).in(Singleton.class);
     DynamicSet.bind(binder(), LifecycleListener.class).to(KinesisBrokerLifeCycleManager.class);
     factory(KinesisConsumer.Factory.class);
     DynamicSet.bind(binder(), EventListener.class).to(KinesisPublisher.class);
     listener().to(AWSLogLevelListener.class);
+    // Listeners are stopped in reverse order: the producers are stopped once the events held by the
+    // coalescer, the last heartbeats, and the records deferred by the rate limiter are published.
+    listener().to(KinesisProducers.class);
+    listener().to(ShardRateLimiter.class);
+    listener().to(EventCoalescer.class);
+    listener().to(HeartbeatPublisher.class);
+    listener().to(ProducerWarmUp.class);
+    install(
+        new RestApiModule() {
+          @Override
+          protected void configure() {
+            get(CONFIG_KIND, "status").to(GetStatus.class);
+            get(CONFIG_KIND, "ready").to(GetReadiness.class);
+          }
+        });
   }
 }
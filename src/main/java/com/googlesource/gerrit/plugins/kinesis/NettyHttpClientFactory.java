@@ -0,0 +1,123 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import software.amazon.awssdk.http.nio.netty.Http2Configuration;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
+
+/**
+ * Creates the http clients of the AWS async clients, all sharing the same event loop group, which
+ * is shut down with the plugin.
+ */
+@Singleton
+class NettyHttpClientFactory implements LifecycleListener {
+  private static final long EVENT_LOOP_SHUTDOWN_TIMEOUT_SECS = 5;
+
+  private final Configuration configuration;
+  private final SdkEventLoopGroup eventLoopGroup;
+
+  @Inject
+  NettyHttpClientFactory(Configuration configuration, SdkEventLoopGroup eventLoopGroup) {
+    this.configuration = configuration;
+    this.eventLoopGroup = eventLoopGroup;
+  }
+
+  @Override
+  public void start() {}
+
+  @Override
+  public void stop() {
+    eventLoopGroup
+        .eventLoopGroup()
+        .shutdownGracefully(0, EVENT_LOOP_SHUTDOWN_TIMEOUT_SECS, TimeUnit.SECONDS);
+  }
+
+  NettyNioAsyncHttpClient.Builder builder(String client) {
+    return builder(client, HttpClientSettings.builder().build());
+  }
+
+  /**
+   * @param client name of the client, as used in the {@code httpClient} subsections
+   * @param defaults settings to apply when not explicitly configured for the client
+   */
+  NettyNioAsyncHttpClient.Builder builder(String client, HttpClientSettings defaults) {
+    HttpClientSettings settings = settings(client, defaults);
+    NettyNioAsyncHttpClient.Builder builder =
+        NettyNioAsyncHttpClient.builder().eventLoopGroup(eventLoopGroup);
+
+    settings.maxConcurrency().ifPresent(builder::maxConcurrency);
+    settings
+        .connectionAcquisitionTimeoutMs()
+        .map(Duration::ofMillis)
+        .ifPresent(builder::connectionAcquisitionTimeout);
+    settings
+        .connectionMaxIdleTimeMs()
+        .map(Duration::ofMillis)
+        .ifPresent(builder::connectionMaxIdleTime);
+    settings.useIdleConnectionReaper().ifPresent(builder::useIdleConnectionReaper);
+    settings.protocol().ifPresent(builder::protocol);
+
+    if (settings.http2MaxStreams().isPresent()
+        || settings.http2InitialWindowSize().isPresent()
+        || settings.http2HealthCheckPingPeriodMs().isPresent()) {
+      Http2Configuration.Builder http2 = Http2Configuration.builder();
+      settings.http2MaxStreams().ifPresent(http2::maxStreams);
+      settings.http2InitialWindowSize().ifPresent(http2::initialWindowSize);
+      settings
+          .http2HealthCheckPingPeriodMs()
+          .map(Duration::ofMillis)
+          .ifPresent(http2::healthCheckPingPeriod);
+      builder.http2Configuration(http2.build());
+    }
+
+    return builder;
+  }
+
+  /** Settings of the client, falling back to the defaults for those not configured. */
+  HttpClientSettings settings(String client, HttpClientSettings defaults) {
+    HttpClientSettings configured = configuration.getHttpClientSettings(client);
+    HttpClientSettings.Builder settings = HttpClientSettings.builder();
+    configured.maxConcurrency().or(defaults::maxConcurrency).ifPresent(settings::maxConcurrency);
+    configured
+        .connectionAcquisitionTimeoutMs()
+        .or(defaults::connectionAcquisitionTimeoutMs)
+        .ifPresent(settings::connectionAcquisitionTimeoutMs);
+    configured
+        .connectionMaxIdleTimeMs()
+        .or(defaults::connectionMaxIdleTimeMs)
+        .ifPresent(settings::connectionMaxIdleTimeMs);
+    configured
+        .useIdleConnectionReaper()
+        .or(defaults::useIdleConnectionReaper)
+        .ifPresent(settings::useIdleConnectionReaper);
+    configured.protocol().or(defaults::protocol).ifPresent(settings::protocol);
+    configured.http2MaxStreams().or(defaults::http2MaxStreams).ifPresent(settings::http2MaxStreams);
+    configured
+        .http2InitialWindowSize()
+        .or(defaults::http2InitialWindowSize)
+        .ifPresent(settings::http2InitialWindowSize);
+    configured
+        .http2HealthCheckPingPeriodMs()
+        .or(defaults::http2HealthCheckPingPeriodMs)
+        .ifPresent(settings::http2HealthCheckPingPeriodMs);
+    return settings.build();
+  }
+}
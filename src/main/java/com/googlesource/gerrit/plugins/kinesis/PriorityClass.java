@@ -0,0 +1,40 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * Publishing settings shared by a group of topics. Each priority class is served by its own
+ * producer, so that a backlog of records in one class does not delay the others.
+ */
+@AutoValue
+abstract class PriorityClass {
+  static final String DEFAULT = "default";
+
+  public abstract String name();
+
+  public abstract int maxConnections();
+
+  public abstract long publishSingleRequestTimeoutMs();
+
+  public abstract long publishTimeoutMs();
+
+  public static PriorityClass create(
+      String name, int maxConnections, long publishSingleRequestTimeoutMs, long publishTimeoutMs) {
+    return new AutoValue_PriorityClass(
+        name, maxConnections, publishSingleRequestTimeoutMs, publishTimeoutMs);
+  }
+}
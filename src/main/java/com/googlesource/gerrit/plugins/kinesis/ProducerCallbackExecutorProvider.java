@@ -16,21 +16,33 @@ package com.googlesource.gerrit.plugins.kinesis;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gerrit.server.logging.LoggingContextAwareExecutorService;
+import com.google.inject.Inject;
 import com.google.inject.Provider;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 class ProducerCallbackExecutorProvider implements Provider<ExecutorService> {
+  private final Configuration configuration;
+
+  @Inject
+  ProducerCallbackExecutorProvider(Configuration configuration) {
+    this.configuration = configuration;
+  }
 
   @Override
   public ExecutorService get() {
-    // Currently, we use 1 thread only when publishing, so it makes sense to
-    // have the same when processing the related callbacks.
-    return new LoggingContextAwareExecutorService(
-        Executors.newFixedThreadPool(
-            1,
-            new ThreadFactoryBuilder()
-                .setNameFormat("kinesis-producer-callback-executor-%d")
-                .build()));
+    ThreadFactory threadFactory =
+        new ThreadFactoryBuilder().setNameFormat("kinesis-producer-callback-executor-%d").build();
+    switch (configuration.getExecutorMode()) {
+      case ELASTIC:
+        // A slow callback gets a thread of its own, rather than delaying the others.
+        return new LoggingContextAwareExecutorService(Executors.newCachedThreadPool(threadFactory));
+      case FIXED:
+      default:
+        return new LoggingContextAwareExecutorService(
+            Executors.newFixedThreadPool(
+                configuration.getProducerCallbackThreads(), threadFactory));
+    }
   }
 }
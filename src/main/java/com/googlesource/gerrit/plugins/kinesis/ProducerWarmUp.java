@@ -0,0 +1,58 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.kinesis.Configuration.ProducerStartup;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Starts the kinesis producers in the background once the plugin is started, when {@code
+ * producerStartup} is WARM_UP, so that neither the startup of Gerrit nor the first published events
+ * wait for them. The warm up is cancelled when the plugin is stopped, before the producers are.
+ */
+@Singleton
+class ProducerWarmUp implements LifecycleListener {
+  private final Configuration configuration;
+  private final KinesisProducers kinesisProducers;
+  private final ScheduledExecutorService executor;
+  private volatile Future<?> warmUp;
+
+  @Inject
+  ProducerWarmUp(
+      Configuration configuration, KinesisProducers kinesisProducers, WorkQueue workQueue) {
+    this.configuration = configuration;
+    this.kinesisProducers = kinesisProducers;
+    this.executor = workQueue.getDefaultQueue();
+  }
+
+  @Override
+  public void start() {
+    if (configuration.getProducerStartup() == ProducerStartup.WARM_UP) {
+      warmUp = executor.submit(kinesisProducers::warmUp);
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (warmUp != null) {
+      warmUp.cancel(true);
+    }
+  }
+}
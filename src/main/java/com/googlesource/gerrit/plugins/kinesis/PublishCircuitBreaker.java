@@ -0,0 +1,172 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.flogger.FluentLogger;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops publishing for a while when too many of the recent publishing requests failed or timed out,
+ * so that callers fail straight away rather than each waiting for {@code publishTimeoutMs} while
+ * Kinesis is throttling or unreachable.
+ *
+ * <p>The breaker opens when, within a window of {@code circuitBreakerWindowMs}, at least {@code
+ * circuitBreakerMinimumCalls} requests were made and the percentage of failures reached {@code
+ * circuitBreakerFailureRateThreshold}. After {@code circuitBreakerOpenMs} it lets {@code
+ * circuitBreakerProbes} requests through: it closes again once they all succeed, and opens again as
+ * soon as one fails.
+ */
+@Singleton
+class PublishCircuitBreaker {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  enum State {
+    CLOSED,
+    HALF_OPEN,
+    OPEN
+  }
+
+  private final Configuration configuration;
+  private final PublisherMetrics publisherMetrics;
+  private final Ticker ticker;
+
+  private State state = State.CLOSED;
+  private long windowStartMs;
+  private int calls;
+  private int failures;
+  private long openedAtMs;
+  private int probes;
+  private int successfulProbes;
+
+  @Inject
+  PublishCircuitBreaker(Configuration configuration, PublisherMetrics publisherMetrics) {
+    this(configuration, publisherMetrics, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  PublishCircuitBreaker(
+      Configuration configuration, PublisherMetrics publisherMetrics, Ticker ticker) {
+    this.configuration = configuration;
+    this.publisherMetrics = publisherMetrics;
+    this.ticker = ticker;
+    this.windowStartMs = nowMs();
+    publisherMetrics.registerCircuitBreakerState(() -> getState().ordinal());
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /** @return true if a request can be published to the stream, false if it must fail fast. */
+  public synchronized boolean tryAcquire(String streamName) {
+    if (!configuration.isCircuitBreakerEnabled()) {
+      return true;
+    }
+
+    if (state == State.OPEN && nowMs() - openedAtMs >= configuration.getCircuitBreakerOpenMs()) {
+      logger.atInfo().log("Publishing circuit breaker half-open, probing kinesis");
+      state = State.HALF_OPEN;
+      probes = 0;
+      successfulProbes = 0;
+    }
+
+    if (state == State.CLOSED) {
+      return true;
+    }
+    if (state == State.HALF_OPEN && probes < configuration.getCircuitBreakerProbes()) {
+      probes++;
+      return true;
+    }
+    publisherMetrics.incrementCircuitBreakerRejections(streamName);
+    return false;
+  }
+
+  public synchronized void onSuccess() {
+    if (!configuration.isCircuitBreakerEnabled()) {
+      return;
+    }
+
+    switch (state) {
+      case CLOSED:
+        record(false);
+        break;
+      case HALF_OPEN:
+        if (++successfulProbes >= configuration.getCircuitBreakerProbes()) {
+          logger.atInfo().log("Publishing circuit breaker closed");
+          state = State.CLOSED;
+          resetWindow(nowMs());
+        }
+        break;
+      case OPEN:
+      default:
+        break;
+    }
+  }
+
+  public synchronized void onFailure() {
+    if (!configuration.isCircuitBreakerEnabled()) {
+      return;
+    }
+
+    switch (state) {
+      case CLOSED:
+        record(true);
+        break;
+      case HALF_OPEN:
+        open();
+        break;
+      case OPEN:
+      default:
+        break;
+    }
+  }
+
+  private void record(boolean failed) {
+    long now = nowMs();
+    if (now - windowStartMs >= configuration.getCircuitBreakerWindowMs()) {
+      resetWindow(now);
+    }
+    calls++;
+    if (failed) {
+      failures++;
+    }
+    if (calls >= configuration.getCircuitBreakerMinimumCalls()
+        && failures * 100 >= configuration.getCircuitBreakerFailureRateThreshold() * calls) {
+      open();
+    }
+  }
+
+  private void open() {
+    logger.atWarning().log(
+        "Publishing circuit breaker open for %sms: %s out of %s requests failed",
+        configuration.getCircuitBreakerOpenMs(), failures, calls);
+    state = State.OPEN;
+    openedAtMs = nowMs();
+  }
+
+  private void resetWindow(long now) {
+    windowStartMs = now;
+    calls = 0;
+    failures = 0;
+  }
+
+  private long nowMs() {
+    return TimeUnit.NANOSECONDS.toMillis(ticker.read());
+  }
+}
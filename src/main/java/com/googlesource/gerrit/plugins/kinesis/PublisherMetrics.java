@@ -0,0 +1,144 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.common.base.Supplier;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.Histogram1;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.time.Duration;
+
+@Singleton
+class PublisherMetrics {
+  private final MetricMaker metricMaker;
+  private final Counter1<String> coalescedEvents;
+  private final Counter1<String> circuitBreakerRejections;
+  private final Counter1<String> rateLimitExceeded;
+  private final Histogram1<String> producerStartup;
+  private final Histogram1<String> firstRecordLatency;
+  private final Counter1<String> endpointSwitches;
+
+  @Inject
+  PublisherMetrics(MetricMaker metricMaker) {
+    this.metricMaker = metricMaker;
+    this.coalescedEvents =
+        metricMaker.newCounter(
+            "publisher/coalesced_events",
+            new Description("Events superseded by a later one within the topic coalescing window")
+                .setRate()
+                .setUnit("events"),
+            topicField());
+    this.circuitBreakerRejections =
+        metricMaker.newCounter(
+            "publisher/circuit_breaker_rejections",
+            new Description("Events not published because the circuit breaker was open")
+                .setRate()
+                .setUnit("events"),
+            topicField());
+    this.rateLimitExceeded =
+        metricMaker.newCounter(
+            "publisher/rate_limit_exceeded",
+            new Description("Events published over the shard rate limit after waiting for it")
+                .setRate()
+                .setUnit("events"),
+            topicField());
+    this.producerStartup =
+        metricMaker.newHistogram(
+            "publisher/producer/startup",
+            new Description("Time taken to start the kinesis producer of a priority class")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            priorityClassField());
+    this.firstRecordLatency =
+        metricMaker.newHistogram(
+            "publisher/producer/first_record_latency",
+            new Description(
+                    "Time between the first record being added to a priority class and it being"
+                        + " published or failed, including starting the producer when lazy")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            priorityClassField());
+    this.endpointSwitches =
+        metricMaker.newCounter(
+            "publisher/failover/switches",
+            new Description("Times publishing switched to another kinesis endpoint")
+                .setRate()
+                .setUnit("switches"),
+            Field.ofString("endpoint", (metadataBuilder, fieldValue) -> {})
+                .description("The kinesis endpoint publishing switched to.")
+                .build());
+  }
+
+  void registerActiveEndpoint(Supplier<Integer> activeEndpoint) {
+    metricMaker.newCallbackMetric(
+        "publisher/failover/active_endpoint",
+        Integer.class,
+        new Description(
+                "Position of the kinesis endpoint records are published to: 0 for the primary,"
+                    + " then the failover endpoints in the configured order")
+            .setGauge(),
+        activeEndpoint);
+  }
+
+  void registerCircuitBreakerState(Supplier<Integer> state) {
+    metricMaker.newCallbackMetric(
+        "publisher/circuit_breaker_state",
+        Integer.class,
+        new Description("State of the publishing circuit breaker: 0 closed, 1 half-open, 2 open")
+            .setGauge(),
+        state);
+  }
+
+  void incrementCoalescedEvents(String topic) {
+    coalescedEvents.increment(topic);
+  }
+
+  void incrementCircuitBreakerRejections(String topic) {
+    circuitBreakerRejections.increment(topic);
+  }
+
+  void incrementRateLimitExceeded(String topic) {
+    rateLimitExceeded.increment(topic);
+  }
+
+  void incrementEndpointSwitches(String endpoint) {
+    endpointSwitches.increment(endpoint);
+  }
+
+  void recordProducerStartup(String priorityClass, Duration startup) {
+    producerStartup.record(priorityClass, startup.toMillis());
+  }
+
+  void recordFirstRecordLatency(String priorityClass, Duration latency) {
+    firstRecordLatency.record(priorityClass, latency.toMillis());
+  }
+
+  private static Field<String> priorityClassField() {
+    return Field.ofString("priority_class", (metadataBuilder, fieldValue) -> {})
+        .description("The priority class of the kinesis producer.")
+        .build();
+  }
+
+  private static Field<String> topicField() {
+    return Field.ofString("topic", (metadataBuilder, fieldValue) -> {})
+        .description("The kinesis stream the event was published to.")
+        .build();
+  }
+}
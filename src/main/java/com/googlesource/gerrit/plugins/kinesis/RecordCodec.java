@@ -0,0 +1,164 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.kinesis.Configuration.RecordEncoding;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+
+/**
+ * Turns the payloads published to Kinesis into record data and back.
+ *
+ * <p>With {@code recordEncoding = avro}, records use the Avro single-object encoding: two marker
+ * bytes, the 64-bit fingerprint of the schema, which also identifies it in the {@link
+ * SchemaRegistry}, and the Avro binary encoding of the payload. Payloads are encoded with the
+ * {@link RecordSchemas} of their kind, each registered once, the first time it is used. Schemas of
+ * records published by other nodes are kept in memory once looked up, so that the registry is only
+ * hit the first time a schema is seen.
+ *
+ * <p>Records are decoded according to their own encoding, whatever {@code recordEncoding} is, so
+ * that nodes can be switched from one encoding to the other one at a time.
+ */
+@Singleton
+class RecordCodec {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final byte[] AVRO_MARKER = {(byte) 0xC3, (byte) 0x01};
+  private static final int AVRO_HEADER_LENGTH = AVRO_MARKER.length + Long.BYTES;
+
+  private final Gson gson;
+  private final SchemaRegistry schemaRegistry;
+  private final RecordEncoding recordEncoding;
+  private final Map<Schema, RegisteredSchema> declaredSchemas = new IdentityHashMap<>();
+  private final Map<Long, Schema> schemasById = new ConcurrentHashMap<>();
+
+  @Inject
+  RecordCodec(Gson gson, SchemaRegistry schemaRegistry, Configuration configuration) {
+    this.gson = gson;
+    this.schemaRegistry = schemaRegistry;
+    this.recordEncoding = configuration.getRecordEncoding();
+    for (Schema schema : Arrays.asList(RecordSchemas.EVENT_MESSAGE, RecordSchemas.STREAM_EVENT)) {
+      RegisteredSchema declared = new RegisteredSchema(schema);
+      declaredSchemas.put(schema, declared);
+      schemasById.put(declared.id, schema);
+    }
+  }
+
+  byte[] encode(JsonElement payload) {
+    if (recordEncoding == RecordEncoding.AVRO && payload.isJsonObject()) {
+      try {
+        return encodeAvro(payload.getAsJsonObject());
+      } catch (IOException | RuntimeException e) {
+        logger.atWarning().withCause(e).log(
+            "Could not encode event as Avro, falling back to JSON: %s", payload);
+      }
+    }
+    return gson.toJson(payload).getBytes();
+  }
+
+  JsonObject decode(byte[] data) throws IOException {
+    if (isAvro(data)) {
+      return decodeAvro(data);
+    }
+    return gson.fromJson(new String(data), JsonObject.class);
+  }
+
+  private byte[] encodeAvro(JsonObject payload) throws IOException {
+    RegisteredSchema schema = declaredSchemas.get(RecordSchemas.schemaOf(payload));
+    if (!schema.registered) {
+      register(schema);
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(AVRO_MARKER);
+    out.write(
+        ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).putLong(schema.id).array());
+    BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+    AvroJson.write(payload, schema.schema, encoder);
+    encoder.flush();
+    return out.toByteArray();
+  }
+
+  private void register(RegisteredSchema schema) throws IOException {
+    schemaRegistry.register(schema.id, schema.schema);
+    schema.registered = true;
+    logger.atFine().log("Registered schema %016x of %s", schema.id, schema.schema.getFullName());
+  }
+
+  private JsonObject decodeAvro(byte[] data) throws IOException {
+    long id =
+        ByteBuffer.wrap(data, AVRO_MARKER.length, Long.BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .getLong();
+    Schema schema = schemasById.get(id);
+    if (schema == null) {
+      schema = lookup(id);
+    }
+
+    BinaryDecoder decoder =
+        DecoderFactory.get()
+            .binaryDecoder(data, AVRO_HEADER_LENGTH, data.length - AVRO_HEADER_LENGTH, null);
+    JsonElement payload = AvroJson.read(schema, decoder);
+    if (!payload.isJsonObject()) {
+      throw new JsonParseException(String.format("Schema %016x is not a record", id));
+    }
+    return payload.getAsJsonObject();
+  }
+
+  private Schema lookup(long id) throws IOException {
+    Optional<Schema> schema = schemaRegistry.lookup(id);
+    if (!schema.isPresent()) {
+      throw new IOException(String.format("Unknown schema %016x", id));
+    }
+    schemasById.put(id, schema.get());
+    return schema.get();
+  }
+
+  private static boolean isAvro(byte[] data) {
+    return data.length >= AVRO_HEADER_LENGTH
+        && data[0] == AVRO_MARKER[0]
+        && data[1] == AVRO_MARKER[1];
+  }
+
+  private static class RegisteredSchema {
+    final long id;
+    final Schema schema;
+    volatile boolean registered;
+
+    RegisteredSchema(Schema schema) {
+      this.id = SchemaNormalization.parsingFingerprint64(schema);
+      this.schema = schema;
+    }
+  }
+}
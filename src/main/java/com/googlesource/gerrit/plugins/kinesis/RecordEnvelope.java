@@ -0,0 +1,81 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Publishing metadata stamped by {@link KinesisPublisher} into every record, so that consumers can
+ * tell how long it spent in the producer and in the stream before reaching them.
+ *
+ * <p>The metadata is added as a {@code kinesis} member of the published JSON object, e.g. {@code
+ * "kinesis": {"publishedAt": 1623162356000, "publishedBy": "gerrit-1"}}. Consumers not aware of it,
+ * such as nodes running a previous version of the plugin, ignore it when deserializing the event.
+ */
+class RecordEnvelope {
+  static final String METADATA = "kinesis";
+  private static final String PUBLISHED_AT = "publishedAt";
+  private static final String PUBLISHED_BY = "publishedBy";
+  private static final String HEARTBEAT = "heartbeat";
+
+  private RecordEnvelope() {}
+
+  static void stamp(JsonObject record, Instant publishedAt, Optional<String> publishedBy) {
+    JsonObject metadata =
+        Optional.ofNullable(record.get(METADATA))
+            .filter(JsonElement::isJsonObject)
+            .map(JsonElement::getAsJsonObject)
+            .orElseGet(JsonObject::new);
+    metadata.addProperty(PUBLISHED_AT, publishedAt.toEpochMilli());
+    publishedBy.ifPresent(source -> metadata.addProperty(PUBLISHED_BY, source));
+    record.add(METADATA, metadata);
+  }
+
+  /**
+   * A record carrying nothing but metadata, published by {@link HeartbeatPublisher} and swallowed
+   * by the consumers, which only measure how long it took to reach them.
+   */
+  static JsonObject heartbeat() {
+    JsonObject metadata = new JsonObject();
+    metadata.addProperty(HEARTBEAT, true);
+    JsonObject record = new JsonObject();
+    record.add(METADATA, metadata);
+    return record;
+  }
+
+  static boolean isHeartbeat(JsonObject record) {
+    return metadata(record, HEARTBEAT).map(JsonElement::getAsBoolean).orElse(false);
+  }
+
+  static Optional<Instant> publishedAt(JsonObject record) {
+    return metadata(record, PUBLISHED_AT).map(e -> Instant.ofEpochMilli(e.getAsLong()));
+  }
+
+  static Optional<String> publishedBy(JsonObject record) {
+    return metadata(record, PUBLISHED_BY).map(JsonElement::getAsString);
+  }
+
+  private static Optional<JsonElement> metadata(JsonObject record, String member) {
+    JsonElement metadata = record.get(METADATA);
+    if (metadata == null || !metadata.isJsonObject()) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(metadata.getAsJsonObject().get(member))
+        .filter(JsonElement::isJsonPrimitive);
+  }
+}
@@ -0,0 +1,116 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.SchemaBuilder.FieldAssembler;
+
+/**
+ * The Avro schemas of the records published to Kinesis.
+ *
+ * <p>Schemas are declared rather than inferred from the events, so that all the events of a kind
+ * share the same schema, whatever their type and optional members. Only the members common to all
+ * the events are declared, the other ones are carried as JSON text, see {@link AvroJson}.
+ */
+class RecordSchemas {
+  private static final String NAMESPACE = "com.googlesource.gerrit.plugins.kinesis.avro";
+  private static final String HEADER = "header";
+  private static final String BODY = "body";
+
+  private static final Schema METADATA =
+      otherMembers(
+              SchemaBuilder.record("Metadata")
+                  .namespace(NAMESPACE)
+                  .fields()
+                  .optionalLong("publishedAt")
+                  .optionalString("publishedBy")
+                  .optionalBoolean("heartbeat"))
+          .endRecord();
+
+  private static final Schema EVENT =
+      otherMembers(
+              SchemaBuilder.record("Event")
+                  .namespace(NAMESPACE)
+                  .fields()
+                  .optionalString("type")
+                  .optionalLong("eventCreatedOn"))
+          .endRecord();
+
+  private static final Schema HEADER_SCHEMA =
+      otherMembers(
+              SchemaBuilder.record("Header")
+                  .namespace(NAMESPACE)
+                  .fields()
+                  .optionalString("eventId")
+                  .optionalString("sourceInstanceId"))
+          .endRecord();
+
+  /** An {@code EventMessage}, as published by the event broker API. */
+  static final Schema EVENT_MESSAGE =
+      otherMembers(
+              SchemaBuilder.record("EventMessage")
+                  .namespace(NAMESPACE)
+                  .fields()
+                  .name(HEADER)
+                  .type()
+                  .optional()
+                  .type(HEADER_SCHEMA)
+                  .name(BODY)
+                  .type()
+                  .optional()
+                  .type(EVENT)
+                  .name(RecordEnvelope.METADATA)
+                  .type()
+                  .optional()
+                  .type(METADATA))
+          .endRecord();
+
+  /** A Gerrit stream event, or a heartbeat, as published with {@code sendStreamEvents}. */
+  static final Schema STREAM_EVENT =
+      otherMembers(
+              SchemaBuilder.record("StreamEvent")
+                  .namespace(NAMESPACE)
+                  .fields()
+                  .optionalString("type")
+                  .optionalLong("eventCreatedOn")
+                  .name(RecordEnvelope.METADATA)
+                  .type()
+                  .optional()
+                  .type(METADATA))
+          .endRecord();
+
+  /** The schema of the payload, decided from its top-level members only. */
+  static Schema schemaOf(JsonObject payload) {
+    return isObject(payload.get(HEADER)) && isObject(payload.get(BODY))
+        ? EVENT_MESSAGE
+        : STREAM_EVENT;
+  }
+
+  private static boolean isObject(JsonElement value) {
+    return value != null && value.isJsonObject();
+  }
+
+  private static FieldAssembler<Schema> otherMembers(FieldAssembler<Schema> fields) {
+    return fields
+        .name(AvroJson.OTHER_MEMBERS)
+        .prop(AvroJson.OTHER_MEMBERS, "true")
+        .type()
+        .optional()
+        .bytesType();
+  }
+}
@@ -16,83 +16,139 @@ package com.googlesource.gerrit.plugins.kinesis;
 
 import static com.googlesource.gerrit.plugins.kinesis.Configuration.cosumerLeaseName;
 
-import com.gerritforge.gerrit.eventbroker.EventMessage;
 import com.google.inject.Provider;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
+import com.googlesource.gerrit.plugins.kinesis.ConsumerSettings.RetrievalMode;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 import software.amazon.kinesis.common.ConfigsBuilder;
 import software.amazon.kinesis.common.InitialPositionInStream;
 import software.amazon.kinesis.common.InitialPositionInStreamExtended;
+import software.amazon.kinesis.coordinator.CoordinatorConfig;
 import software.amazon.kinesis.coordinator.Scheduler;
+import software.amazon.kinesis.metrics.MetricsConfig;
+import software.amazon.kinesis.metrics.NullMetricsFactory;
 import software.amazon.kinesis.retrieval.RetrievalConfig;
+import software.amazon.kinesis.retrieval.RetrievalSpecificConfig;
+import software.amazon.kinesis.retrieval.fanout.FanOutConfig;
 import software.amazon.kinesis.retrieval.polling.PollingConfig;
 
 class SchedulerProvider implements Provider<Scheduler> {
   interface Factory {
     SchedulerProvider create(
         String streamName,
+        KinesisEndpoint endpoint,
         boolean fromBeginning,
-        java.util.function.Consumer<EventMessage> messageProcessor);
+        CatchUpMonitor catchUpMonitor,
+        EventBatchConsumer messageProcessor);
   }
 
   private final ConfigsBuilder configsBuilder;
   private final Configuration configuration;
   private final KinesisAsyncClient kinesisAsyncClient;
   private final String streamName;
+  private final KinesisEndpoint endpoint;
+  private final String leaseName;
   private final boolean fromBeginning;
+  private final CatchUpMonitor catchUpMonitor;
+  private final GerritKclMetricsFactory gerritKclMetricsFactory;
+  private final LeaseStore leaseStore;
 
   @AssistedInject
   SchedulerProvider(
       Configuration configuration,
-      KinesisAsyncClient kinesisAsyncClient,
+      KinesisEndpointClients kinesisEndpointClients,
       DynamoDbAsyncClient dynamoDbAsyncClient,
       CloudWatchAsyncClient cloudWatchAsyncClient,
       KinesisRecordProcessorFactory.Factory kinesisRecordProcessorFactory,
+      GerritKclMetricsFactory gerritKclMetricsFactory,
+      LeaseStore leaseStore,
       @Assisted String streamName,
+      @Assisted KinesisEndpoint endpoint,
       @Assisted boolean fromBeginning,
-      @Assisted java.util.function.Consumer<EventMessage> messageProcessor) {
+      @Assisted CatchUpMonitor catchUpMonitor,
+      @Assisted EventBatchConsumer messageProcessor) {
     this.configuration = configuration;
-    this.kinesisAsyncClient = kinesisAsyncClient;
+    this.kinesisAsyncClient = kinesisEndpointClients.forEndpoint(endpoint);
     this.streamName = streamName;
+    this.endpoint = endpoint;
+    this.leaseName = cosumerLeaseName(configuration.getApplicationName(), streamName, endpoint);
     this.fromBeginning = fromBeginning;
+    this.catchUpMonitor = catchUpMonitor;
+    this.gerritKclMetricsFactory = gerritKclMetricsFactory;
+    this.leaseStore = leaseStore;
     this.configsBuilder =
         new ConfigsBuilder(
             streamName,
-            cosumerLeaseName(configuration.getApplicationName(), streamName),
-            kinesisAsyncClient,
+            leaseName,
+            this.kinesisAsyncClient,
             dynamoDbAsyncClient,
             cloudWatchAsyncClient,
-            String.format("klc-worker-%s-%s", configuration.getApplicationName(), streamName),
-            kinesisRecordProcessorFactory.create(messageProcessor));
+            String.format("klc-worker-%s", leaseName),
+            kinesisRecordProcessorFactory.create(
+                streamName, endpoint, catchUpMonitor, messageProcessor));
   }
 
   private RetrievalConfig getRetrievalConfig() {
-    PollingConfig polling =
-        new PollingConfig(streamName, kinesisAsyncClient)
-            .idleTimeBetweenReadsInMillis(configuration.getPollingIntervalMs())
-            .maxRecords(configuration.getMaxRecords());
+    ConsumerSettings consumerSettings = configuration.getConsumerSettings(streamName);
     RetrievalConfig retrievalConfig =
-        configsBuilder.retrievalConfig().retrievalSpecificConfig(polling);
+        configsBuilder.retrievalConfig().retrievalSpecificConfig(getRetrievalSpecificConfig());
     retrievalConfig.initialPositionInStreamExtended(
         InitialPositionInStreamExtended.newInitialPosition(
             fromBeginning
                 ? InitialPositionInStream.TRIM_HORIZON
-                : configuration.getInitialPosition()));
+                : consumerSettings.initialPosition()));
     return retrievalConfig;
   }
 
+  private RetrievalSpecificConfig getRetrievalSpecificConfig() {
+    ConsumerSettings consumerSettings = configuration.getConsumerSettings(streamName);
+    if (consumerSettings.retrievalMode() == RetrievalMode.FANOUT) {
+      return new FanOutConfig(kinesisAsyncClient).streamName(streamName).applicationName(leaseName);
+    }
+
+    boolean catchingUp = catchUpMonitor.useCatchUpRetrieval();
+    return new PollingConfig(streamName, kinesisAsyncClient)
+        .idleTimeBetweenReadsInMillis(
+            catchingUp
+                ? configuration.getCatchUpPollingIntervalMs()
+                : consumerSettings.pollingIntervalMs())
+        .maxRecords(
+            catchingUp ? configuration.getCatchUpMaxRecords() : consumerSettings.maxRecords());
+  }
+
+  private CoordinatorConfig getCoordinatorConfig() {
+    return configsBuilder
+        .coordinatorConfig()
+        .coordinatorFactory(new KclCoordinatorFactory(streamName));
+  }
+
+  private MetricsConfig getMetricsConfig() {
+    MetricsConfig metricsConfig =
+        configsBuilder.metricsConfig().metricsLevel(configuration.getKclMetricsLevel());
+    switch (configuration.getKclMetrics()) {
+      case GERRIT:
+        return metricsConfig.metricsFactory(gerritKclMetricsFactory);
+      case NONE:
+        return metricsConfig.metricsFactory(new NullMetricsFactory());
+      case CLOUDWATCH:
+      default:
+        return metricsConfig;
+    }
+  }
+
   @Override
   public Scheduler get() {
     return new Scheduler(
         configsBuilder.checkpointConfig(),
-        configsBuilder.coordinatorConfig(),
-        configsBuilder.leaseManagementConfig(),
+        getCoordinatorConfig(),
+        leaseStore.leaseManagementConfig(configsBuilder, streamName, endpoint),
         configsBuilder.lifecycleConfig(),
-        configsBuilder.metricsConfig(),
-        configsBuilder.processorConfig(),
+        getMetricsConfig(),
+        // Empty batches still report how far behind the consumer is, which readiness relies on
+        configsBuilder.processorConfig().callProcessRecordsEvenForEmptyRecordList(true),
         getRetrievalConfig());
   }
 }
@@ -0,0 +1,33 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import java.io.IOException;
+import java.util.Optional;
+import org.apache.avro.Schema;
+
+/**
+ * Where the Avro schemas of the records are published to by the producers and resolved from by the
+ * consumers. Schemas are identified by their 64-bit Rabin fingerprint, as carried by Avro
+ * single-object encoded records.
+ */
+interface SchemaRegistry {
+
+  /** Make the schema resolvable by its id, if it is not already. */
+  void register(long id, Schema schema) throws IOException;
+
+  /** The schema with this id, if any was registered. */
+  Optional<Schema> lookup(long id) throws IOException;
+}
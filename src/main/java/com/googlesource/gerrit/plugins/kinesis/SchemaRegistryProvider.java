@@ -0,0 +1,45 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+class SchemaRegistryProvider implements Provider<SchemaRegistry> {
+  private final Configuration configuration;
+  private final Provider<GlueSchemaRegistry> glueSchemaRegistry;
+  private final Provider<LocalSchemaRegistry> localSchemaRegistry;
+
+  @Inject
+  SchemaRegistryProvider(
+      Configuration configuration,
+      Provider<GlueSchemaRegistry> glueSchemaRegistry,
+      Provider<LocalSchemaRegistry> localSchemaRegistry) {
+    this.configuration = configuration;
+    this.glueSchemaRegistry = glueSchemaRegistry;
+    this.localSchemaRegistry = localSchemaRegistry;
+  }
+
+  @Override
+  public SchemaRegistry get() {
+    switch (configuration.getSchemaRegistry()) {
+      case GLUE:
+        return glueSchemaRegistry.get();
+      case LOCAL:
+      default:
+        return localSchemaRegistry.get();
+    }
+  }
+}
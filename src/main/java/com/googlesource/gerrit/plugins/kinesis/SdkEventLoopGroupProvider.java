@@ -0,0 +1,46 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
+
+class SdkEventLoopGroupProvider implements Provider<SdkEventLoopGroup> {
+  private final Configuration configuration;
+
+  @Inject
+  SdkEventLoopGroupProvider(Configuration configuration) {
+    this.configuration = configuration;
+  }
+
+  @Override
+  public SdkEventLoopGroup get() {
+    // Shared by the kinesis, dynamodb and cloudwatch clients, rather than
+    // having each of them allocating its own event loop threads.
+    SdkEventLoopGroup.Builder builder =
+        SdkEventLoopGroup.builder()
+            .threadFactory(
+                new ThreadFactoryBuilder()
+                    .setNameFormat("kinesis-events-netty-event-loop-%d")
+                    .setDaemon(true)
+                    .build());
+    if (configuration.getHttpClientEventLoopThreads() > 0) {
+      builder.numberOfThreads(configuration.getHttpClientEventLoopThreads());
+    }
+    return builder.build();
+  }
+}
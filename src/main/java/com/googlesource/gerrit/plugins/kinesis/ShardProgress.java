@@ -0,0 +1,88 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Singleton;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Progress of the shards processed by this node, as last reported by their record processors. It
+ * complements the leases, which only show the last checkpoint, with how far behind the tip of the
+ * shard the processor is.
+ *
+ * <p>Shards are tracked per endpoint, since the stream of each endpoint has its own shards, with
+ * the same identifiers.
+ */
+@Singleton
+class ShardProgress {
+  private final Map<String, Map<String, ShardState>> shardsByStream = new ConcurrentHashMap<>();
+
+  void onRecordsProcessed(
+      String streamName,
+      KinesisEndpoint endpoint,
+      String shardId,
+      Optional<Long> millisBehindLatest,
+      Optional<String> lastSequenceNumber) {
+    shardsByStream
+        .computeIfAbsent(key(streamName, endpoint), s -> new ConcurrentHashMap<>())
+        .compute(
+            shardId,
+            (id, previous) ->
+                ShardState.create(
+                    millisBehindLatest,
+                    lastSequenceNumber.isPresent() || previous == null
+                        ? lastSequenceNumber
+                        : previous.lastSequenceNumber(),
+                    Instant.now()));
+  }
+
+  void onShardReleased(String streamName, KinesisEndpoint endpoint, String shardId) {
+    Map<String, ShardState> shards = shardsByStream.get(key(streamName, endpoint));
+    if (shards != null) {
+      shards.remove(shardId);
+    }
+  }
+
+  ImmutableMap<String, ShardState> forStream(String streamName, KinesisEndpoint endpoint) {
+    return ImmutableMap.copyOf(
+        shardsByStream.getOrDefault(key(streamName, endpoint), ImmutableMap.of()));
+  }
+
+  private static String key(String streamName, KinesisEndpoint endpoint) {
+    return String.format("%s/%s", endpoint.name(), streamName);
+  }
+
+  @AutoValue
+  abstract static class ShardState {
+    abstract Optional<Long> millisBehindLatest();
+
+    abstract Optional<String> lastSequenceNumber();
+
+    abstract Instant processedAt();
+
+    static ShardState create(
+        Optional<Long> millisBehindLatest,
+        Optional<String> lastSequenceNumber,
+        Instant processedAt) {
+      return new AutoValue_ShardProgress_ShardState(
+          millisBehindLatest, lastSequenceNumber, processedAt);
+    }
+  }
+}
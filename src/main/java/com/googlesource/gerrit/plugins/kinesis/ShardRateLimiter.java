@@ -0,0 +1,358 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toSet;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.ListShardsRequest;
+import software.amazon.awssdk.services.kinesis.model.Shard;
+
+/**
+ * Spreads the records published to each shard over time, so that bursts wait on this side rather
+ * than going over the shard limits and being retried by the producer.
+ *
+ * <p>The shard a record goes to is predicted as Kinesis does it: the MD5 hash of the partition key
+ * falls in the hash key range of exactly one open shard. The shard map of each stream is listed,
+ * from the endpoint records are currently published to, in the background and again every {@code
+ * shardMapRefreshMs} to follow resharding: until it is first known, records of the stream are not
+ * rate limited. Shard maps and limiters are kept per endpoint, since the shards of a stream differ
+ * from one endpoint to the other, and the limiters of shards no longer listed are dropped.
+ *
+ * <p>When sending synchronously, the caller waits for the capacity of the shard. When sending
+ * asynchronously, the caller, possibly a Gerrit thread dispatching events, is never blocked: a
+ * record that has to wait is published later, from a queue of its own.
+ */
+@Singleton
+class ShardRateLimiter implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final Configuration configuration;
+  private final EndpointRouter endpointRouter;
+  private final KinesisEndpointClients endpointClients;
+  private final PublisherMetrics publisherMetrics;
+  private final WorkQueue workQueue;
+  private final Ticker ticker;
+  private final LoadingCache<StreamKey, CompletableFuture<ImmutableList<ShardRange>>> shardMaps;
+  private final Map<StreamKey, ImmutableList<ShardRange>> lastShardMaps = new ConcurrentHashMap<>();
+  private final Map<StreamKey, Map<String, ShardLimiter>> limiters = new ConcurrentHashMap<>();
+  private volatile ScheduledExecutorService deferredPublishes;
+
+  @Inject
+  ShardRateLimiter(
+      Configuration configuration,
+      EndpointRouter endpointRouter,
+      KinesisEndpointClients endpointClients,
+      PublisherMetrics publisherMetrics,
+      WorkQueue workQueue) {
+    this(
+        configuration,
+        endpointRouter,
+        endpointClients,
+        publisherMetrics,
+        workQueue,
+        Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  ShardRateLimiter(
+      Configuration configuration,
+      EndpointRouter endpointRouter,
+      KinesisEndpointClients endpointClients,
+      PublisherMetrics publisherMetrics,
+      WorkQueue workQueue,
+      Ticker ticker) {
+    this.configuration = configuration;
+    this.endpointRouter = endpointRouter;
+    this.endpointClients = endpointClients;
+    this.publisherMetrics = publisherMetrics;
+    this.workQueue = workQueue;
+    this.ticker = ticker;
+    this.shardMaps =
+        CacheBuilder.newBuilder()
+            .ticker(ticker)
+            .expireAfterWrite(configuration.getShardMapRefreshMs(), TimeUnit.MILLISECONDS)
+            .build(CacheLoader.from(this::listOpenShards));
+  }
+
+  @Override
+  public void start() {
+    if (configuration.isShardRateLimitEnabled() && configuration.isSendAsync()) {
+      deferredPublishes = workQueue.createQueue(1, "kinesis-rate-limit");
+    }
+  }
+
+  @Override
+  public void stop() {
+    ScheduledExecutorService executor = deferredPublishes;
+    if (executor == null) {
+      return;
+    }
+    deferredPublishes = null;
+    // Deferred records are published within shardRateLimitMaxWaitMs, before the producers stop.
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(
+          configuration.getShardRateLimitMaxWaitMs(), TimeUnit.MILLISECONDS)) {
+        logger.atWarning().log("Not all the records deferred by the rate limiter were published");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Wait, for up to {@code shardRateLimitMaxWaitMs} in total, until the shard the record goes to
+   * has capacity for both its count and its size. When the wait would be longer the record is let
+   * through straight away, without taking any capacity, leaving it to the producer to retry it.
+   */
+  public void acquire(String streamName, String partitionKey, int sizeBytes) {
+    long waitNanos = reserve(streamName, partitionKey, sizeBytes);
+    if (waitNanos > 0) {
+      Uninterruptibles.sleepUninterruptibly(waitNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Reserve capacity for the record as {@link #acquire} does, without ever blocking the caller.
+   *
+   * @return true when the record has to wait and {@code publish} was scheduled to run once the
+   *     shard has capacity, false when the record can be published straight away.
+   */
+  public boolean deferUntilAcquired(
+      String streamName, String partitionKey, int sizeBytes, Runnable publish) {
+    long waitNanos = reserve(streamName, partitionKey, sizeBytes);
+    ScheduledExecutorService executor = deferredPublishes;
+    if (waitNanos <= 0 || executor == null) {
+      return false;
+    }
+    try {
+      executor.schedule(publish, waitNanos, TimeUnit.NANOSECONDS);
+      return true;
+    } catch (RejectedExecutionException e) {
+      // Stopping: publish straight away rather than losing the record.
+      return false;
+    }
+  }
+
+  private long reserve(String streamName, String partitionKey, int sizeBytes) {
+    if (!configuration.isShardRateLimitEnabled()) {
+      return 0;
+    }
+
+    StreamKey stream = StreamKey.create(endpointRouter.active(), streamName);
+    Optional<String> shardId = shardFor(stream, partitionKey);
+    if (!shardId.isPresent()) {
+      return 0;
+    }
+
+    ShardLimiter limiter =
+        limiters
+            .computeIfAbsent(stream, s -> new ConcurrentHashMap<>())
+            .computeIfAbsent(
+                shardId.get(),
+                s ->
+                    new ShardLimiter(
+                        configuration.getShardRateLimitRecordsPerSecond(),
+                        configuration.getShardRateLimitBytesPerSecond(),
+                        ticker.read()));
+    long waitNanos =
+        limiter.reserve(
+            sizeBytes,
+            TimeUnit.MILLISECONDS.toNanos(configuration.getShardRateLimitMaxWaitMs()),
+            ticker.read());
+    if (waitNanos < 0) {
+      logger.atFine().log(
+          "Shard %s of stream %s over its rate limit, publishing anyway",
+          shardId.get(), streamName);
+      publisherMetrics.incrementRateLimitExceeded(streamName);
+      return 0;
+    }
+    return waitNanos;
+  }
+
+  @VisibleForTesting
+  Optional<String> shardFor(KinesisEndpoint endpoint, String streamName, String partitionKey) {
+    return shardFor(StreamKey.create(endpoint, streamName), partitionKey);
+  }
+
+  @VisibleForTesting
+  Set<String> limitedShards(KinesisEndpoint endpoint, String streamName) {
+    return limiters
+        .getOrDefault(StreamKey.create(endpoint, streamName), ImmutableMap.of())
+        .keySet();
+  }
+
+  private Optional<String> shardFor(StreamKey stream, String partitionKey) {
+    BigInteger hashKey = hashKey(partitionKey);
+    return shardMaps.getUnchecked(stream)
+        .getNow(lastShardMaps.getOrDefault(stream, ImmutableList.of())).stream()
+        .filter(r -> r.contains(hashKey))
+        .map(ShardRange::shardId)
+        .findFirst();
+  }
+
+  private CompletableFuture<ImmutableList<ShardRange>> listOpenShards(StreamKey stream) {
+    return listOpenShards(
+            endpointClients.forEndpoint(stream.endpoint()),
+            ListShardsRequest.builder().streamName(stream.streamName()).build(),
+            ImmutableList.builder())
+        .handle(
+            (shards, e) -> {
+              if (e != null) {
+                // Keep rate limiting with the shards known so far, until they are listed again.
+                logger.atWarning().withCause(e).log(
+                    "Could not list the shards of stream %s on endpoint %s",
+                    stream.streamName(), stream.endpoint().name());
+                return lastShardMaps.getOrDefault(stream, ImmutableList.of());
+              }
+              lastShardMaps.put(stream, shards);
+              Set<String> shardIds = shards.stream().map(ShardRange::shardId).collect(toSet());
+              limiters.computeIfPresent(
+                  stream,
+                  (s, shardLimiters) -> {
+                    shardLimiters.keySet().retainAll(shardIds);
+                    return shardLimiters;
+                  });
+              return shards;
+            });
+  }
+
+  private static CompletableFuture<ImmutableList<ShardRange>> listOpenShards(
+      KinesisAsyncClient client,
+      ListShardsRequest request,
+      ImmutableList.Builder<ShardRange> shards) {
+    return client
+        .listShards(request)
+        .thenCompose(
+            response -> {
+              response.shards().stream()
+                  .filter(s -> s.sequenceNumberRange().endingSequenceNumber() == null)
+                  .map(ShardRange::create)
+                  .forEach(shards::add);
+              if (response.nextToken() == null) {
+                return CompletableFuture.completedFuture(shards.build());
+              }
+              return listOpenShards(
+                  client,
+                  ListShardsRequest.builder().nextToken(response.nextToken()).build(),
+                  shards);
+            });
+  }
+
+  private static BigInteger hashKey(String partitionKey) {
+    try {
+      return new BigInteger(
+          1, MessageDigest.getInstance("MD5").digest(partitionKey.getBytes(UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("MD5 is not available", e);
+    }
+  }
+
+  @AutoValue
+  abstract static class StreamKey {
+    abstract KinesisEndpoint endpoint();
+
+    abstract String streamName();
+
+    static StreamKey create(KinesisEndpoint endpoint, String streamName) {
+      return new AutoValue_ShardRateLimiter_StreamKey(endpoint, streamName);
+    }
+  }
+
+  @AutoValue
+  abstract static class ShardRange {
+    abstract String shardId();
+
+    abstract BigInteger startingHashKey();
+
+    abstract BigInteger endingHashKey();
+
+    boolean contains(BigInteger hashKey) {
+      return hashKey.compareTo(startingHashKey()) >= 0 && hashKey.compareTo(endingHashKey()) <= 0;
+    }
+
+    static ShardRange create(Shard shard) {
+      return new AutoValue_ShardRateLimiter_ShardRange(
+          shard.shardId(),
+          new BigInteger(shard.hashKeyRange().startingHashKey()),
+          new BigInteger(shard.hashKeyRange().endingHashKey()));
+    }
+  }
+
+  /**
+   * Records and bytes a shard has capacity for, as the time from which the next ones are free.
+   * Capacity left unused builds up for at most one second, matching the per second shard limits.
+   */
+  private static class ShardLimiter {
+    private static final long BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final double nanosPerRecord;
+    private final double nanosPerByte;
+    private long recordsFreeAt;
+    private long bytesFreeAt;
+
+    ShardLimiter(int recordsPerSecond, int bytesPerSecond, long nowNanos) {
+      this.nanosPerRecord = (double) BURST_NANOS / recordsPerSecond;
+      this.nanosPerByte = (double) BURST_NANOS / bytesPerSecond;
+      this.recordsFreeAt = nowNanos;
+      this.bytesFreeAt = nowNanos;
+    }
+
+    /**
+     * Reserve the capacity for one record of {@code sizeBytes}, both or none.
+     *
+     * @return how long to wait before publishing the record, or -1 when that is longer than {@code
+     *     maxWaitNanos} and nothing was reserved.
+     */
+    synchronized long reserve(int sizeBytes, long maxWaitNanos, long nowNanos) {
+      long recordsFrom = Math.max(recordsFreeAt, nowNanos - BURST_NANOS);
+      long bytesFrom = Math.max(bytesFreeAt, nowNanos - BURST_NANOS);
+      long waitNanos = Math.max(0, Math.max(recordsFrom, bytesFrom) - nowNanos);
+      if (waitNanos > maxWaitNanos) {
+        return -1;
+      }
+      recordsFreeAt = recordsFrom + (long) nanosPerRecord;
+      bytesFreeAt = bytesFrom + (long) (nanosPerByte * sizeBytes);
+      return waitNanos;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.ProjectEvent;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether a stream event should be published and to which topic, before spending any time
+ * serializing it.
+ */
+@Singleton
+class StreamEventRules {
+  private final Configuration configuration;
+  private final ImmutableSet<String> includedEventTypes;
+  private final ImmutableSet<String> excludedEventTypes;
+  private final ImmutableList<Predicate<String>> includedProjects;
+  private final ImmutableList<Predicate<String>> excludedProjects;
+
+  @Inject
+  StreamEventRules(Configuration configuration) {
+    this.configuration = configuration;
+    this.includedEventTypes =
+        ImmutableSet.copyOf(configuration.getStreamEventsIncludedEventTypes());
+    this.excludedEventTypes =
+        ImmutableSet.copyOf(configuration.getStreamEventsExcludedEventTypes());
+    this.includedProjects = projectMatchers(configuration.getStreamEventsIncludedProjects());
+    this.excludedProjects = projectMatchers(configuration.getStreamEventsExcludedProjects());
+  }
+
+  /**
+   * Returns the topic the event should be published to, or empty when the event should not be
+   * published at all.
+   */
+  Optional<String> topicFor(Event event) {
+    String eventType = event.getType();
+    if (!includedEventTypes.isEmpty() && !includedEventTypes.contains(eventType)) {
+      return Optional.empty();
+    }
+    if (excludedEventTypes.contains(eventType)) {
+      return Optional.empty();
+    }
+    if ((!includedProjects.isEmpty() || !excludedProjects.isEmpty())
+        && event instanceof ProjectEvent) {
+      String project = ((ProjectEvent) event).getProjectNameKey().get();
+      if (!includedProjects.isEmpty() && !matchesAny(includedProjects, project)) {
+        return Optional.empty();
+      }
+      if (matchesAny(excludedProjects, project)) {
+        return Optional.empty();
+      }
+    }
+    return Optional.of(configuration.getStreamEventsTopic(eventType));
+  }
+
+  private static boolean matchesAny(ImmutableList<Predicate<String>> matchers, String project) {
+    return matchers.stream().anyMatch(m -> m.test(project));
+  }
+
+  private static ImmutableList<Predicate<String>> projectMatchers(ImmutableList<String> projects) {
+    return projects.stream()
+        .map(StreamEventRules::projectMatcher)
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  private static Predicate<String> projectMatcher(String project) {
+    if (project.startsWith("^")) {
+      Pattern pattern = Pattern.compile(project);
+      return p -> pattern.matcher(p).matches();
+    }
+    return project::equals;
+  }
+}
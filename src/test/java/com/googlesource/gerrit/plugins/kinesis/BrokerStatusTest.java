@@ -0,0 +1,191 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.services.kinesis.producer.KinesisProducer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.googlesource.gerrit.plugins.kinesis.BrokerStatus.BrokerStatusInfo;
+import com.googlesource.gerrit.plugins.kinesis.BrokerStatus.ConsumerInfo;
+import com.googlesource.gerrit.plugins.kinesis.BrokerStatus.ShardInfo;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import software.amazon.kinesis.leases.Lease;
+import software.amazon.kinesis.retrieval.kpl.ExtendedSequenceNumber;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BrokerStatusTest {
+  private static final KinesisEndpoint PRIMARY =
+      KinesisEndpoint.create(KinesisEndpoint.PRIMARY, Optional.empty(), Optional.empty());
+  private static final KinesisEndpoint FAILOVER =
+      KinesisEndpoint.create("failover", Optional.empty(), Optional.empty());
+
+  @Mock private KinesisBrokerApi brokerApiMock;
+  @Mock private KinesisProducers kinesisProducersMock;
+  @Mock private KinesisProducer kinesisProducerMock;
+  @Mock private HandlerExecutors handlerExecutorsMock;
+  private ShardProgress shardProgress;
+  private ThreadPoolExecutor consumerExecutor;
+  private ExecutorService catchUpExecutor;
+  private ExecutorService producerCallbackExecutor;
+
+  @Before
+  public void setup() {
+    shardProgress = new ShardProgress();
+    consumerExecutor =
+        new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+    catchUpExecutor = Executors.newSingleThreadExecutor();
+    producerCallbackExecutor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    consumerExecutor.shutdownNow();
+    catchUpExecutor.shutdownNow();
+    producerCallbackExecutor.shutdownNow();
+  }
+
+  @Test
+  public void shouldListConsumersByTopicWithThePrimaryEndpointFirst() {
+    KinesisConsumer failoverConsumer = consumer("stream-a", FAILOVER);
+    KinesisConsumer primaryConsumer = consumer("stream-a", PRIMARY);
+    KinesisConsumer otherConsumer = consumer("stream-b", PRIMARY);
+    when(brokerApiMock.consumers())
+        .thenReturn(ImmutableSet.of(otherConsumer, failoverConsumer, primaryConsumer));
+
+    when(kinesisProducersMock.started()).thenReturn(ImmutableMap.of());
+    BrokerStatusInfo status = brokerStatus().get();
+
+    assertThat(status.consumers).hasSize(3);
+    assertConsumer(status.consumers.get(0), "stream-a", KinesisEndpoint.PRIMARY);
+    assertConsumer(status.consumers.get(1), "stream-a", "failover");
+    assertConsumer(status.consumers.get(2), "stream-b", KinesisEndpoint.PRIMARY);
+  }
+
+  @Test
+  public void shouldReportTheLeasesAndProgressOfEachShard() {
+    KinesisConsumer consumer = consumer("stream-a", PRIMARY);
+    when(consumer.getWorkerIdentifier()).thenReturn(Optional.of("worker-1"));
+    when(consumer.getLeases())
+        .thenReturn(ImmutableList.of(lease("shard-1", "worker-2"), lease("shard-0", "worker-1")));
+    when(brokerApiMock.consumers()).thenReturn(ImmutableSet.of(consumer));
+    shardProgress.onRecordsProcessed(
+        "stream-a", PRIMARY, "shard-0", Optional.of(1500L), Optional.of("42"));
+
+    when(kinesisProducersMock.started()).thenReturn(ImmutableMap.of());
+    ConsumerInfo info = brokerStatus().get().consumers.get(0);
+
+    assertThat(info.workerId).isEqualTo("worker-1");
+    assertThat(info.shards).hasSize(2);
+    ShardInfo processed = info.shards.get(0);
+    assertThat(processed.shardId).isEqualTo("shard-0");
+    assertThat(processed.leaseOwner).isEqualTo("worker-1");
+    assertThat(processed.leaseCounter).isEqualTo(3L);
+    assertThat(processed.checkpoint).isEqualTo("41");
+    assertThat(processed.millisBehindLatest).isEqualTo(1500L);
+    assertThat(processed.lastSequenceNumber).isEqualTo("42");
+    assertThat(processed.lastProcessedAt).isNotNull();
+    ShardInfo notProcessed = info.shards.get(1);
+    assertThat(notProcessed.shardId).isEqualTo("shard-1");
+    assertThat(notProcessed.leaseOwner).isEqualTo("worker-2");
+    assertThat(notProcessed.millisBehindLatest).isNull();
+    assertThat(notProcessed.lastProcessedAt).isNull();
+  }
+
+  @Test
+  public void shouldReportOutstandingRecordsOfStartedProducers() {
+    when(kinesisProducersMock.started())
+        .thenReturn(ImmutableMap.of("default-primary", kinesisProducerMock));
+    when(kinesisProducerMock.getOutstandingRecordsCount()).thenReturn(7);
+    when(kinesisProducersMock.getOutstandingBytes("default-primary")).thenReturn(2048L);
+
+    BrokerStatusInfo status = brokerStatus().get();
+
+    assertThat(status.producers.keySet()).containsExactly("default-primary");
+    assertThat(status.producers.get("default-primary").outstandingRecords).isEqualTo(7L);
+    assertThat(status.producers.get("default-primary").outstandingBytes).isEqualTo(2048L);
+  }
+
+  @Test
+  public void shouldReportTheExecutors() throws Exception {
+    ExecutorService handlerExecutor = Executors.newSingleThreadExecutor();
+    try {
+      when(handlerExecutorsMock.all()).thenReturn(ImmutableMap.of("stream-a", handlerExecutor));
+      consumerExecutor.submit(() -> {}).get();
+      // The worker counts a task as completed only after its future is done.
+      for (int i = 0; i < 100 && consumerExecutor.getCompletedTaskCount() == 0; i++) {
+        Thread.sleep(10);
+      }
+
+      when(kinesisProducersMock.started()).thenReturn(ImmutableMap.of());
+      BrokerStatusInfo status = brokerStatus().get();
+
+      assertThat(status.executors.keySet())
+          .containsExactly("consumer", "catch-up", "producer-callback", "handler-stream-a");
+      assertThat(status.executors.get("consumer").poolSize).isEqualTo(1);
+      assertThat(status.executors.get("consumer").queuedTasks).isEqualTo(0);
+      assertThat(status.executors.get("consumer").completedTasks).isEqualTo(1L);
+    } finally {
+      handlerExecutor.shutdownNow();
+    }
+  }
+
+  private BrokerStatus brokerStatus() {
+    return new BrokerStatus(
+        brokerApiMock,
+        shardProgress,
+        kinesisProducersMock,
+        consumerExecutor,
+        catchUpExecutor,
+        producerCallbackExecutor,
+        handlerExecutorsMock);
+  }
+
+  private static KinesisConsumer consumer(String streamName, KinesisEndpoint endpoint) {
+    KinesisConsumer consumer = mock(KinesisConsumer.class);
+    when(consumer.getStreamName()).thenReturn(streamName);
+    when(consumer.getEndpoint()).thenReturn(endpoint);
+    return consumer;
+  }
+
+  private static Lease lease(String shardId, String owner) {
+    Lease lease = new Lease();
+    lease.leaseKey(shardId);
+    lease.leaseOwner(owner);
+    lease.leaseCounter(3L);
+    lease.checkpoint(new ExtendedSequenceNumber("41"));
+    return lease;
+  }
+
+  private static void assertConsumer(ConsumerInfo info, String topic, String endpoint) {
+    assertThat(info.topic).isEqualTo(topic);
+    assertThat(info.endpoint).isEqualTo(endpoint);
+  }
+}
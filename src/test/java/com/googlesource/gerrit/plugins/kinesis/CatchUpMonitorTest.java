@@ -0,0 +1,150 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CatchUpMonitorTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+  private static final String STREAM_NAME = "gerrit";
+  private static final String SHARD_1 = "shardId-000000000001";
+  private static final String SHARD_2 = "shardId-000000000002";
+  private static final long THRESHOLD_MS = 10000L;
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  private PluginConfig.Update pluginConfig;
+  private AtomicInteger modeChanges;
+
+  @Before
+  public void setup() {
+    pluginConfig = PluginConfig.Update.forTest(PLUGIN_NAME, new Config());
+    pluginConfig.setString("catchUpThresholdMs", Long.toString(THRESHOLD_MS));
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(new Config());
+    modeChanges = new AtomicInteger();
+  }
+
+  @Test
+  public void shouldSwitchToCatchUpModeOverTheThreshold() {
+    CatchUpMonitor monitor = catchUpMonitor();
+
+    monitor.onMillisBehindLatest(SHARD_1, THRESHOLD_MS);
+    assertThat(monitor.isCatchingUp()).isFalse();
+
+    monitor.onMillisBehindLatest(SHARD_1, THRESHOLD_MS + 1);
+    assertThat(monitor.isCatchingUp()).isTrue();
+    assertThat(modeChanges.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldOnlySwitchBackBelowHalfTheThreshold() {
+    CatchUpMonitor monitor = catchUpMonitor();
+    monitor.onMillisBehindLatest(SHARD_1, THRESHOLD_MS + 1);
+
+    monitor.onMillisBehindLatest(SHARD_1, THRESHOLD_MS / 2 + 1);
+    assertThat(monitor.isCatchingUp()).isTrue();
+
+    monitor.onMillisBehindLatest(SHARD_1, THRESHOLD_MS / 2);
+    assertThat(monitor.isCatchingUp()).isFalse();
+    assertThat(modeChanges.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void shouldNotReportTheSameModeChangeTwice() {
+    CatchUpMonitor monitor = catchUpMonitor();
+
+    monitor.onMillisBehindLatest(SHARD_1, THRESHOLD_MS + 1);
+    monitor.onMillisBehindLatest(SHARD_1, THRESHOLD_MS + 2);
+
+    assertThat(modeChanges.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldKeepCatchingUpWhileAnyShardIsLagging() {
+    CatchUpMonitor monitor = catchUpMonitor();
+    monitor.onMillisBehindLatest(SHARD_1, THRESHOLD_MS + 1);
+
+    monitor.onMillisBehindLatest(SHARD_2, 0L);
+
+    assertThat(monitor.isCatchingUp()).isTrue();
+    assertThat(modeChanges.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldSwitchBackOnceTheLaggingShardIsReleased() {
+    CatchUpMonitor monitor = catchUpMonitor();
+    monitor.onMillisBehindLatest(SHARD_1, THRESHOLD_MS + 1);
+
+    monitor.onShardReleased(SHARD_1);
+    monitor.onMillisBehindLatest(SHARD_2, 0L);
+
+    assertThat(monitor.isCatchingUp()).isFalse();
+    assertThat(modeChanges.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void shouldIgnoreMissingLag() {
+    CatchUpMonitor monitor = catchUpMonitor();
+    monitor.onMillisBehindLatest(SHARD_1, THRESHOLD_MS + 1);
+
+    monitor.onMillisBehindLatest(SHARD_1, null);
+
+    assertThat(monitor.isCatchingUp()).isTrue();
+  }
+
+  @Test
+  public void shouldNeverCatchUpWhenDisabled() {
+    pluginConfig.setString("catchUpThresholdMs", "0");
+    CatchUpMonitor monitor = catchUpMonitor();
+
+    monitor.startCatchingUp();
+    monitor.onMillisBehindLatest(SHARD_1, Long.MAX_VALUE);
+
+    assertThat(monitor.isCatchingUp()).isFalse();
+    assertThat(modeChanges.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldReportRetrievalSettingsOutdatedByAModeChange() {
+    CatchUpMonitor monitor = catchUpMonitor();
+    assertThat(monitor.useCatchUpRetrieval()).isFalse();
+
+    monitor.onMillisBehindLatest(SHARD_1, THRESHOLD_MS + 1);
+    assertThat(monitor.isRetrievalOutdated()).isTrue();
+
+    assertThat(monitor.useCatchUpRetrieval()).isTrue();
+    assertThat(monitor.isRetrievalOutdated()).isFalse();
+  }
+
+  private CatchUpMonitor catchUpMonitor() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+    return new CatchUpMonitor(
+        STREAM_NAME,
+        new Configuration(pluginConfigFactoryMock, PLUGIN_NAME),
+        modeChanges::incrementAndGet);
+  }
+}
@@ -15,10 +15,16 @@
 package com.googlesource.gerrit.plugins.kinesis;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+import static org.junit.Assert.assertThrows;
 import static org.mockito.Mockito.when;
 
 import com.google.gerrit.server.config.PluginConfig;
 import com.google.gerrit.server.config.PluginConfigFactory;
+import com.googlesource.gerrit.plugins.kinesis.ConsumerSettings.RetrievalMode;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.List;
 import org.apache.log4j.Level;
 import org.eclipse.jgit.lib.Config;
 import org.junit.Before;
@@ -26,6 +32,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.kinesis.metrics.MetricsLevel;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ConfigurationTest {
@@ -33,10 +41,13 @@ public class ConfigurationTest {
 
   @Mock private PluginConfigFactory pluginConfigFactoryMock;
   private PluginConfig.Update pluginConfig;
+  private Config topicsConfig;
 
   @Before
   public void setup() {
     pluginConfig = PluginConfig.Update.forTest(PLUGIN_NAME, new Config());
+    topicsConfig = new Config();
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(topicsConfig);
   }
 
   @Test
@@ -91,4 +102,286 @@ public class ConfigurationTest {
 
     assertThat(configuration.isSendAsync()).isEqualTo(false);
   }
+
+  @Test
+  public void shouldDisableCatchUpModeByDefault() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.isCatchUpEnabled()).isFalse();
+  }
+
+  @Test
+  public void shouldEnableCatchUpModeWhenThresholdIsConfigured() {
+    pluginConfig.setString("catchUpThresholdMs", "60000");
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.isCatchUpEnabled()).isTrue();
+    assertThat(configuration.getCatchUpThresholdMs()).isEqualTo(60000L);
+    assertThat(configuration.getCatchUpMaxRecords()).isEqualTo(10000);
+  }
+
+  @Test
+  public void shouldNotLimitEventAgeByDefault() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.getMaxEventAgeMs("gerrit")).isEmpty();
+  }
+
+  @Test
+  public void shouldConfigureMaxEventAgePerTopic() {
+    topicsConfig.setLong("topic", "gerrit_cache_eviction", "maxEventAgeMs", 300000L);
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.getMaxEventAgeMs("gerrit_cache_eviction")).hasValue(300000L);
+    assertThat(configuration.getMaxEventAgeMs("gerrit_index")).isEmpty();
+  }
+
+  @Test
+  public void shouldPublishEventTypesToTheirTopic() {
+    topicsConfig.setString("topic", "gerrit_index", "eventType", "ref-updated");
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.getStreamEventsTopic("ref-updated")).isEqualTo("gerrit_index");
+    assertThat(configuration.getStreamEventsTopic("comment-added")).isEqualTo("gerrit");
+  }
+
+  @Test
+  public void shouldKeepTheFirstTopicOfEventTypesAssignedToMultipleTopics() {
+    topicsConfig.setString("topic", "gerrit_replication", "eventType", "ref-updated");
+    topicsConfig.setString("topic", "gerrit_index", "eventType", "ref-updated");
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.getStreamEventsTopic("ref-updated")).isEqualTo("gerrit_replication");
+  }
+
+  @Test
+  public void shouldAssignTopicsToDefaultPriorityClassByDefault() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.getPriorityClass("gerrit_index"))
+        .isEqualTo(PriorityClass.create(PriorityClass.DEFAULT, 1, 6000L, 6000L));
+  }
+
+  @Test
+  public void shouldAssignTopicToConfiguredPriorityClass() {
+    topicsConfig.setInt("priority", "critical", "maxConnections", 4);
+    topicsConfig.setLong("priority", "critical", "publishTimeoutMs", 2000L);
+    topicsConfig.setString("topic", "gerrit_index", "priority", "critical");
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.getPriorityClass("gerrit_index"))
+        .isEqualTo(PriorityClass.create("critical", 4, 6000L, 2000L));
+    assertThat(configuration.getPriorityClass("gerrit").name()).isEqualTo(PriorityClass.DEFAULT);
+  }
+
+  @Test
+  public void shouldPublishKclMetricsToCloudWatchByDefault() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.getKclMetrics()).isEqualTo(Configuration.KclMetrics.CLOUDWATCH);
+    assertThat(configuration.getKclMetricsLevel()).isEqualTo(MetricsLevel.DETAILED);
+  }
+
+  @Test
+  public void shouldConfigureKclMetricsToBePublishedToGerrit() {
+    pluginConfig.setString("kclMetrics", "gerrit");
+    pluginConfig.setString("kclMetricsLevel", "summary");
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.getKclMetrics()).isEqualTo(Configuration.KclMetrics.GERRIT);
+    assertThat(configuration.getKclMetricsLevel()).isEqualTo(MetricsLevel.SUMMARY);
+  }
+
+  @Test
+  public void shouldUseDynamoDbLeaseStoreByDefault() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.getLeaseStore()).isEqualTo(Configuration.LeaseStoreType.DYNAMODB);
+    assertThat(configuration.getLocalLeaseStoreDirectory()).isEmpty();
+  }
+
+  @Test
+  public void shouldConfigureLocalLeaseStore() {
+    pluginConfig.setString("leaseStore", "local");
+    pluginConfig.setString("localLeaseStoreDirectory", "/tmp/leases");
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.getLeaseStore()).isEqualTo(Configuration.LeaseStoreType.LOCAL);
+    assertThat(configuration.getLocalLeaseStoreDirectory()).hasValue(Paths.get("/tmp/leases"));
+  }
+
+  @Test
+  public void shouldOverrideConsumerSettingsPerTopic() {
+    pluginConfig.setString("maxRecords", "200");
+    topicsConfig.setString("topic", "gerrit_index", "retrievalMode", "fanout");
+    topicsConfig.setInt("topic", "gerrit_index", "handlerThreads", 4);
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    ConsumerSettings indexSettings = configuration.getConsumerSettings("gerrit_index");
+    assertThat(indexSettings.retrievalMode()).isEqualTo(RetrievalMode.FANOUT);
+    assertThat(indexSettings.handlerThreads()).isEqualTo(4);
+    assertThat(indexSettings.maxRecords()).isEqualTo(200);
+
+    ConsumerSettings otherSettings = configuration.getConsumerSettings("gerrit");
+    assertThat(otherSettings.retrievalMode()).isEqualTo(RetrievalMode.POLLING);
+    assertThat(otherSettings.handlerThreads()).isEqualTo(1);
+    assertThat(otherSettings.isCheckpointingOnProcessing()).isFalse();
+  }
+
+  @Test
+  public void shouldNotDeduplicateEventsByDefault() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.getDedupCacheSize()).isEqualTo(0L);
+    assertThat(configuration.getDedupCacheTtlMs()).isEqualTo(600000L);
+  }
+
+  @Test
+  public void shouldConfigureReadiness() {
+    pluginConfig.setString("readinessMaxLagMs", "30000");
+    pluginConfig.setStringList("readinessTopic", List.of("gerrit", "gerrit_index"));
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.getReadinessMaxLagMs()).isEqualTo(30000L);
+    assertThat(configuration.getReadinessTopics()).containsExactly("gerrit", "gerrit_index");
+  }
+
+  @Test
+  public void shouldStartProducersEagerlyByDefault() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.getProducerStartup()).isEqualTo(Configuration.ProducerStartup.EAGER);
+  }
+
+  @Test
+  public void shouldConfigureProducerWarmUp() {
+    pluginConfig.setString("producerStartup", "warm-up");
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.getProducerStartup()).isEqualTo(Configuration.ProducerStartup.WARM_UP);
+  }
+
+  @Test
+  public void shouldEncodeRecordsAsJsonByDefault() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.getRecordEncoding()).isEqualTo(Configuration.RecordEncoding.JSON);
+    assertThat(configuration.getLocalSchemaRegistryDirectory()).isEmpty();
+  }
+
+  @Test
+  public void shouldConfigureAvroRecordEncoding() {
+    pluginConfig.setString("recordEncoding", "avro");
+    pluginConfig.setString("localSchemaRegistryDirectory", "/tmp/schemas");
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.getRecordEncoding()).isEqualTo(Configuration.RecordEncoding.AVRO);
+    assertThat(configuration.getSchemaRegistry()).isEqualTo(Configuration.SchemaRegistryType.LOCAL);
+    assertThat(configuration.getLocalSchemaRegistryDirectory()).hasValue(Paths.get("/tmp/schemas"));
+  }
+
+  @Test
+  public void shouldConfigureAvroRecordEncodingWithTheGlueSchemaRegistry() {
+    pluginConfig.setString("recordEncoding", "avro");
+    pluginConfig.setString("schemaRegistry", "glue");
+    pluginConfig.setString("glueSchemaRegistryName", "gerrit");
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.getSchemaRegistry()).isEqualTo(Configuration.SchemaRegistryType.GLUE);
+    assertThat(configuration.getGlueSchemaRegistryName()).isEqualTo("gerrit");
+  }
+
+  @Test
+  public void shouldRefuseAvroRecordEncodingWithoutASharedSchemaRegistry() {
+    pluginConfig.setString("recordEncoding", "avro");
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    IllegalArgumentException e =
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> new Configuration(pluginConfigFactoryMock, PLUGIN_NAME));
+
+    assertThat(e).hasMessageThat().contains("localSchemaRegistryDirectory");
+  }
+
+  @Test
+  public void shouldListFailoverEndpointsAfterThePrimaryOneInOrder() {
+    pluginConfig.setString("region", "us-east-1");
+    topicsConfig.setString("endpoint", "west", "region", "us-west-2");
+    topicsConfig.setString("endpoint", "local", "endpoint", "http://localhost:4567");
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    assertThat(configuration.getEndpoints().stream().map(KinesisEndpoint::name))
+        .containsExactly("primary", "west", "local")
+        .inOrder();
+    assertThat(configuration.getPrimaryEndpoint().region()).hasValue(Region.US_EAST_1);
+    assertThat(configuration.getEndpoints().get(1).region()).hasValue(Region.US_WEST_2);
+    assertThat(configuration.getEndpoints().get(2).endpoint())
+        .hasValue(URI.create("http://localhost:4567"));
+    assertThat(configuration.isFailoverEnabled()).isFalse();
+  }
 }
@@ -0,0 +1,140 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Ticker;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConsumedEventsCacheTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+  private static final String STREAM_NAME = "gerrit";
+  private static final long TTL_MS = 60000L;
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  @Mock private ConsumerMetrics consumerMetricsMock;
+  private PluginConfig.Update pluginConfig;
+  private AtomicLong nanos;
+  private Ticker ticker;
+
+  @Before
+  public void setup() {
+    pluginConfig = PluginConfig.Update.forTest(PLUGIN_NAME, new Config());
+    pluginConfig.setLong("dedupCacheSize", 100L);
+    pluginConfig.setLong("dedupCacheTtlMs", TTL_MS);
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(new Config());
+    nanos = new AtomicLong();
+    ticker =
+        new Ticker() {
+          @Override
+          public long read() {
+            return nanos.get();
+          }
+        };
+  }
+
+  @Test
+  public void shouldBeDisabledByDefault() {
+    pluginConfig.setString("dedupCacheSize", null);
+
+    assertThat(consumedEventsCache().isEnabled()).isFalse();
+  }
+
+  @Test
+  public void shouldMissEventsNotConsumedYet() {
+    ConsumedEventsCache cache = consumedEventsCache();
+
+    assertThat(cache.isEnabled()).isTrue();
+    assertThat(cache.markConsumed(STREAM_NAME, UUID.randomUUID())).isTrue();
+    verify(consumerMetricsMock).incrementDedupCacheMisses(STREAM_NAME);
+  }
+
+  @Test
+  public void shouldHitEventsAlreadyConsumed() {
+    ConsumedEventsCache cache = consumedEventsCache();
+    UUID eventId = UUID.randomUUID();
+    cache.markConsumed(STREAM_NAME, eventId);
+
+    assertThat(cache.markConsumed(STREAM_NAME, eventId)).isFalse();
+    verify(consumerMetricsMock).incrementDedupCacheHits(STREAM_NAME);
+  }
+
+  @Test
+  public void shouldTellEventsOfDifferentStreamsApart() {
+    ConsumedEventsCache cache = consumedEventsCache();
+    UUID eventId = UUID.randomUUID();
+    cache.markConsumed(STREAM_NAME, eventId);
+
+    assertThat(cache.markConsumed("gerrit_index", eventId)).isTrue();
+  }
+
+  @Test
+  public void shouldForgetEventsOnceExpired() {
+    ConsumedEventsCache cache = consumedEventsCache();
+    UUID eventId = UUID.randomUUID();
+    cache.markConsumed(STREAM_NAME, eventId);
+
+    nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(TTL_MS - 1));
+    assertThat(cache.markConsumed(STREAM_NAME, eventId)).isFalse();
+
+    nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(TTL_MS));
+    assertThat(cache.markConsumed(STREAM_NAME, eventId)).isTrue();
+    verify(consumerMetricsMock, times(2)).incrementDedupCacheMisses(STREAM_NAME);
+  }
+
+  @Test
+  public void shouldConsumeAgainEventsForgottenAfterAFailure() {
+    ConsumedEventsCache cache = consumedEventsCache();
+    UUID eventId = UUID.randomUUID();
+    cache.markConsumed(STREAM_NAME, eventId);
+
+    cache.forget(STREAM_NAME, eventId);
+
+    assertThat(cache.markConsumed(STREAM_NAME, eventId)).isTrue();
+  }
+
+  @Test
+  public void shouldConsumeAgainEventsOfAClearedStream() {
+    ConsumedEventsCache cache = consumedEventsCache();
+    UUID eventId = UUID.randomUUID();
+    cache.markConsumed(STREAM_NAME, eventId);
+
+    cache.clear(STREAM_NAME);
+
+    assertThat(cache.markConsumed(STREAM_NAME, eventId)).isTrue();
+  }
+
+  private ConsumedEventsCache consumedEventsCache() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+    return new ConsumedEventsCache(
+        new Configuration(pluginConfigFactoryMock, PLUGIN_NAME), consumerMetricsMock, ticker);
+  }
+}
@@ -0,0 +1,102 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConsumerExecutorProviderTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  @Mock private WorkQueue workQueueMock;
+  @Mock private ScheduledExecutorService workQueueExecutorMock;
+  private PluginConfig.Update pluginConfig;
+
+  @Before
+  public void setup() {
+    pluginConfig = PluginConfig.Update.forTest(PLUGIN_NAME, new Config());
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(new Config());
+  }
+
+  @Test
+  public void shouldRunConsumersOnAWorkQueueOfNumberOfSubscribersThreadsByDefault() {
+    pluginConfig.setInt("numberOfSubscribers", 3);
+    when(workQueueMock.createQueue(3, "kinesis-consumers")).thenReturn(workQueueExecutorMock);
+
+    assertThat(consumerExecutorProvider().get()).isSameInstanceAs(workQueueExecutorMock);
+  }
+
+  @Test
+  public void shouldRunEveryConsumerOnAThreadOfItsOwnInElasticMode() throws Exception {
+    pluginConfig.setInt("numberOfSubscribers", 1);
+    pluginConfig.setString("executorMode", "elastic");
+    int consumers = 3;
+    CountDownLatch running = new CountDownLatch(consumers);
+    CountDownLatch release = new CountDownLatch(1);
+
+    ExecutorService executor = consumerExecutorProvider().get();
+    try {
+      for (int i = 0; i < consumers; i++) {
+        executor.execute(
+            () -> {
+              assertThat(Thread.currentThread().getName()).startsWith("kinesis-consumers-");
+              running.countDown();
+              awaitUninterruptibly(release);
+            });
+      }
+
+      assertThat(running.await(10, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+    verify(workQueueMock, never()).createQueue(anyInt(), anyString());
+  }
+
+  private ConsumerExecutorProvider consumerExecutorProvider() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+    return new ConsumerExecutorProvider(
+        workQueueMock, new Configuration(pluginConfigFactoryMock, PLUGIN_NAME));
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
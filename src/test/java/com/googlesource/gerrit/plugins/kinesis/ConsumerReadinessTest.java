@@ -0,0 +1,194 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.googlesource.gerrit.plugins.kinesis.ConsumerReadiness.ReadinessInfo;
+import com.googlesource.gerrit.plugins.kinesis.ConsumerReadiness.TopicReadinessInfo;
+import java.util.Optional;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import software.amazon.kinesis.leases.Lease;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConsumerReadinessTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+  private static final String STREAM_NAME = "gerrit";
+  private static final KinesisEndpoint PRIMARY =
+      KinesisEndpoint.create(KinesisEndpoint.PRIMARY, Optional.empty(), Optional.empty());
+  private static final KinesisEndpoint FAILOVER =
+      KinesisEndpoint.create("failover", Optional.empty(), Optional.empty());
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  @Mock private KinesisBrokerApi brokerApiMock;
+  private PluginConfig.Update pluginConfig;
+  private ShardProgress shardProgress;
+
+  @Before
+  public void setup() {
+    pluginConfig = PluginConfig.Update.forTest(PLUGIN_NAME, new Config());
+    pluginConfig.setString("readinessMaxLagMs", "1000");
+    shardProgress = new ShardProgress();
+  }
+
+  @Test
+  public void shouldNotBeReadyUntilExpectedTopicsAreSubscribed() {
+    pluginConfig.setStringList("readinessTopic", ImmutableList.of(STREAM_NAME));
+    when(brokerApiMock.consumers()).thenReturn(ImmutableSet.of());
+
+    ReadinessInfo readiness = consumerReadiness().check();
+
+    assertThat(readiness.ready).isFalse();
+    assertNotReady(readiness.topics.get(STREAM_NAME), "not subscribed yet");
+  }
+
+  @Test
+  public void shouldNotBeReadyWithoutTopics() {
+    when(brokerApiMock.consumers()).thenReturn(ImmutableSet.of());
+
+    ReadinessInfo readiness = consumerReadiness().check();
+
+    assertThat(readiness.ready).isFalse();
+    assertThat(readiness.reason).isEqualTo("no topic subscribed yet");
+    assertThat(readiness.topics).isEmpty();
+  }
+
+  @Test
+  public void shouldNotBeReadyWithoutShardLeases() {
+    KinesisConsumer consumer = consumer(PRIMARY);
+    when(consumer.getLeases()).thenReturn(ImmutableList.of());
+    when(brokerApiMock.consumers()).thenReturn(ImmutableSet.of(consumer));
+
+    ReadinessInfo readiness = consumerReadiness().check();
+
+    assertThat(readiness.ready).isFalse();
+    assertNotReady(readiness.topics.get(STREAM_NAME), "no shard lease acquired yet");
+  }
+
+  @Test
+  public void shouldNotBeReadyUntilEveryLeasedShardIsProcessed() {
+    KinesisConsumer consumer = consumer(PRIMARY);
+    when(consumer.getLeases()).thenReturn(ImmutableList.of(lease("shard-0"), lease("shard-1")));
+    when(brokerApiMock.consumers()).thenReturn(ImmutableSet.of(consumer));
+    processed("shard-0", 0L);
+
+    ReadinessInfo readiness = consumerReadiness().check();
+
+    assertThat(readiness.ready).isFalse();
+    assertNotReady(readiness.topics.get(STREAM_NAME), "shard shard-1 not processed yet");
+  }
+
+  @Test
+  public void shouldNotBeReadyWhenAShardLagsTooMuch() {
+    KinesisConsumer consumer = consumer(PRIMARY);
+    when(consumer.getLeases()).thenReturn(ImmutableList.of(lease("shard-0"), lease("shard-1")));
+    when(brokerApiMock.consumers()).thenReturn(ImmutableSet.of(consumer));
+    processed("shard-0", 0L);
+    processed("shard-1", 1500L);
+
+    ReadinessInfo readiness = consumerReadiness().check();
+
+    assertThat(readiness.ready).isFalse();
+    TopicReadinessInfo topic = readiness.topics.get(STREAM_NAME);
+    assertNotReady(topic, "1500ms behind latest");
+    assertThat(topic.millisBehindLatest).isEqualTo(1500L);
+  }
+
+  @Test
+  public void shouldBeReadyWhenEveryShardIsWithinTheMaxLag() {
+    KinesisConsumer consumer = consumer(PRIMARY);
+    when(consumer.getLeases()).thenReturn(ImmutableList.of(lease("shard-0"), lease("shard-1")));
+    when(brokerApiMock.consumers()).thenReturn(ImmutableSet.of(consumer));
+    processed("shard-0", 0L);
+    processed("shard-1", 1000L);
+
+    ReadinessInfo readiness = consumerReadiness().check();
+
+    assertThat(readiness.ready).isTrue();
+    TopicReadinessInfo topic = readiness.topics.get(STREAM_NAME);
+    assertThat(topic.ready).isTrue();
+    assertThat(topic.reason).isNull();
+    assertThat(topic.millisBehindLatest).isEqualTo(1000L);
+  }
+
+  @Test
+  public void shouldIgnoreFailoverEndpointConsumers() {
+    KinesisConsumer consumer = consumer(PRIMARY);
+    when(consumer.getLeases()).thenReturn(ImmutableList.of(lease("shard-0")));
+    KinesisConsumer failoverConsumer = mock(KinesisConsumer.class);
+    when(failoverConsumer.getEndpoint()).thenReturn(FAILOVER);
+    when(brokerApiMock.consumers()).thenReturn(ImmutableSet.of(consumer, failoverConsumer));
+    processed("shard-0", 0L);
+
+    ReadinessInfo readiness = consumerReadiness().check();
+
+    assertThat(readiness.ready).isTrue();
+    assertThat(readiness.topics.keySet()).containsExactly(STREAM_NAME);
+  }
+
+  @Test
+  public void shouldNotBeReadyWithOnlyFailoverEndpointConsumers() {
+    KinesisConsumer failoverConsumer = mock(KinesisConsumer.class);
+    when(failoverConsumer.getEndpoint()).thenReturn(FAILOVER);
+    when(brokerApiMock.consumers()).thenReturn(ImmutableSet.of(failoverConsumer));
+
+    ReadinessInfo readiness = consumerReadiness().check();
+
+    assertThat(readiness.ready).isFalse();
+    assertThat(readiness.topics).isEmpty();
+  }
+
+  private ConsumerReadiness consumerReadiness() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(new Config());
+    return new ConsumerReadiness(
+        brokerApiMock, shardProgress, new Configuration(pluginConfigFactoryMock, PLUGIN_NAME));
+  }
+
+  private void processed(String shardId, long millisBehindLatest) {
+    shardProgress.onRecordsProcessed(
+        STREAM_NAME, PRIMARY, shardId, Optional.of(millisBehindLatest), Optional.empty());
+  }
+
+  private static KinesisConsumer consumer(KinesisEndpoint endpoint) {
+    KinesisConsumer consumer = mock(KinesisConsumer.class);
+    when(consumer.getStreamName()).thenReturn(STREAM_NAME);
+    when(consumer.getEndpoint()).thenReturn(endpoint);
+    return consumer;
+  }
+
+  private static Lease lease(String shardId) {
+    Lease lease = new Lease();
+    lease.leaseKey(shardId);
+    return lease;
+  }
+
+  private static void assertNotReady(TopicReadinessInfo topic, String reason) {
+    assertThat(topic.ready).isFalse();
+    assertThat(topic.reason).isEqualTo(reason);
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.googlesource.gerrit.plugins.kinesis.fake.FakeDynamoDb;
+import java.util.Map;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import software.amazon.awssdk.services.dynamodb.model.AttributeDefinition;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.CreateTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.KeySchemaElement;
+import software.amazon.awssdk.services.dynamodb.model.KeyType;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DynamoDbLeaseStoreTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+  private static final String STREAM_NAME = "stream";
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  private FakeDynamoDb dynamoDb;
+  private DynamoDbLeaseStore leaseStore;
+  private KinesisEndpoint endpoint;
+  private String leaseTable;
+
+  @Before
+  public void setup() {
+    PluginConfig.Update pluginConfig = PluginConfig.Update.forTest(PLUGIN_NAME, new Config());
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(new Config());
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+
+    dynamoDb = new FakeDynamoDb();
+    leaseStore = new DynamoDbLeaseStore(configuration, dynamoDb);
+    endpoint = configuration.getPrimaryEndpoint();
+    leaseTable = Configuration.cosumerLeaseName(configuration.getApplicationName(), STREAM_NAME);
+  }
+
+  @Test
+  public void shouldResetTheCheckpointOfEveryShard() {
+    dynamoDb
+        .createTable(
+            CreateTableRequest.builder()
+                .tableName(leaseTable)
+                .keySchema(
+                    KeySchemaElement.builder()
+                        .attributeName("leaseKey")
+                        .keyType(KeyType.HASH)
+                        .build())
+                .attributeDefinitions(
+                    AttributeDefinition.builder()
+                        .attributeName("leaseKey")
+                        .attributeType(ScalarAttributeType.S)
+                        .build())
+                .build())
+        .join();
+    putLease("shardId-000000000000", "49000");
+    putLease("shardId-000000000001", "49001");
+
+    leaseStore.setAllShardsToBeginning(STREAM_NAME, endpoint);
+
+    assertThat(dynamoDb.items(leaseTable)).hasSize(2);
+    for (Map<String, AttributeValue> lease : dynamoDb.items(leaseTable)) {
+      assertThat(lease.get("checkpoint").s()).isEqualTo("TRIM_HORIZON");
+    }
+  }
+
+  @Test
+  public void shouldIgnoreMissingLeaseTable() {
+    leaseStore.setAllShardsToBeginning(STREAM_NAME, endpoint);
+
+    assertThat(dynamoDb.listTables().join().tableNames()).isEmpty();
+  }
+
+  private void putLease(String shardId, String checkpoint) {
+    dynamoDb
+        .putItem(
+            PutItemRequest.builder()
+                .tableName(leaseTable)
+                .item(
+                    Map.of(
+                        "leaseKey", AttributeValue.builder().s(shardId).build(),
+                        "checkpoint", AttributeValue.builder().s(checkpoint).build()))
+                .build())
+        .join();
+  }
+}
@@ -0,0 +1,157 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Ticker;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class EndpointRouterTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+  private static final Duration FAST = Duration.ofMillis(10);
+  private static final Duration SLOW = Duration.ofMillis(600);
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  @Mock private PublisherMetrics publisherMetricsMock;
+  private PluginConfig.Update pluginConfig;
+  private Config globalPluginConfig;
+  private FakeTicker ticker;
+
+  @Before
+  public void setup() {
+    pluginConfig = PluginConfig.Update.forTest(PLUGIN_NAME, new Config());
+    pluginConfig.setString("endpoint", "http://localhost:4566");
+    pluginConfig.setString("failoverErrorRateThreshold", "50");
+    pluginConfig.setString("failoverLatencyThresholdMs", "500");
+    pluginConfig.setString("failoverMinimumCalls", "4");
+    pluginConfig.setString("failbackAfterMs", "1000");
+    globalPluginConfig = new Config();
+    globalPluginConfig.setString("endpoint", "secondary", "endpoint", "http://localhost:4567");
+    ticker = new FakeTicker();
+  }
+
+  @Test
+  public void shouldAlwaysRouteToPrimaryWhenDisabled() {
+    pluginConfig.setString("failoverErrorRateThreshold", "0");
+    EndpointRouter router = router();
+
+    failRecords(router, router.active(), 10);
+
+    assertThat(router.active().isPrimary()).isTrue();
+  }
+
+  @Test
+  public void shouldFailOverWhenErrorRateIsReached() {
+    EndpointRouter router = router();
+    KinesisEndpoint primary = router.active();
+
+    router.onResult(primary, true, FAST);
+    router.onResult(primary, true, FAST);
+    router.onResult(primary, false, FAST);
+    assertThat(router.active()).isEqualTo(primary);
+
+    router.onResult(primary, false, FAST);
+    assertThat(router.active().name()).isEqualTo("secondary");
+    verify(publisherMetricsMock).incrementEndpointSwitches("secondary");
+  }
+
+  @Test
+  public void shouldFailOverWhenSlowRateIsReached() {
+    EndpointRouter router = router();
+    KinesisEndpoint primary = router.active();
+
+    for (int i = 0; i < 4; i++) {
+      router.onResult(primary, true, SLOW);
+    }
+
+    assertThat(router.active().name()).isEqualTo("secondary");
+  }
+
+  @Test
+  public void shouldFailBackOnceThePrimaryHadTimeToRecover() {
+    EndpointRouter router = router();
+    KinesisEndpoint primary = router.active();
+    failRecords(router, primary, 4);
+
+    ticker.advanceMillis(999);
+    assertThat(router.active().name()).isEqualTo("secondary");
+
+    ticker.advanceMillis(1);
+    assertThat(router.active()).isEqualTo(primary);
+  }
+
+  @Test
+  public void shouldIgnoreLateResultsOfTheEndpointFailedOverFrom() {
+    EndpointRouter router = router();
+    KinesisEndpoint primary = router.active();
+    failRecords(router, primary, 4);
+    KinesisEndpoint secondary = router.active();
+
+    failRecords(router, primary, 4);
+    assertThat(router.active()).isEqualTo(secondary);
+  }
+
+  @Test
+  public void shouldStayOnTheActiveEndpointWhenNoneIsHealthy() {
+    EndpointRouter router = router();
+    KinesisEndpoint primary = router.active();
+    failRecords(router, primary, 4);
+    KinesisEndpoint secondary = router.active();
+
+    failRecords(router, secondary, 4);
+
+    assertThat(router.active()).isEqualTo(secondary);
+  }
+
+  private static void failRecords(EndpointRouter router, KinesisEndpoint endpoint, int records) {
+    for (int i = 0; i < records; i++) {
+      router.onResult(endpoint, false, FAST);
+    }
+  }
+
+  private EndpointRouter router() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(globalPluginConfig);
+    return new EndpointRouter(
+        new Configuration(pluginConfigFactoryMock, PLUGIN_NAME), publisherMetricsMock, ticker);
+  }
+
+  private static class FakeTicker extends Ticker {
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void advanceMillis(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+  }
+}
@@ -0,0 +1,182 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.googlesource.gerrit.plugins.kinesis.Configuration.COALESCE_EVENT_TYPE;
+import static com.googlesource.gerrit.plugins.kinesis.Configuration.COALESCE_WINDOW_MS;
+import static com.googlesource.gerrit.plugins.kinesis.Configuration.TOPIC_SECTION;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Suppliers;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.data.RefUpdateAttribute;
+import com.google.gerrit.server.events.CommentAddedEvent;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.RefUpdatedEvent;
+import com.google.gerrit.server.git.WorkQueue;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class EventCoalescerTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+  private static final String TOPIC = "gerrit";
+  private static final long WINDOW_MS = 1000L;
+  private static final String PROJECT = "project";
+  private static final String REF = "refs/heads/master";
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  @Mock private WorkQueue workQueueMock;
+  @Mock private ScheduledExecutorService executorMock;
+  private Config topicsConfig;
+  private List<Event> published;
+
+  @Before
+  public void setup() {
+    topicsConfig = new Config();
+    topicsConfig.setLong(TOPIC_SECTION, TOPIC, COALESCE_WINDOW_MS, WINDOW_MS);
+    when(workQueueMock.getDefaultQueue()).thenReturn(executorMock);
+    published = new ArrayList<>();
+  }
+
+  @Test
+  public void shouldPublishOnlyTheLastRefUpdateOfTheSameRefAfterTheWindow() {
+    EventCoalescer coalescer = eventCoalescer();
+    RefUpdatedEvent first = refUpdatedEvent(REF);
+    RefUpdatedEvent last = refUpdatedEvent(REF);
+
+    assertThat(coalescer.coalesce(TOPIC, first, published::add)).isTrue();
+    assertThat(coalescer.coalesce(TOPIC, last, published::add)).isTrue();
+    assertThat(published).isEmpty();
+
+    runScheduledFlushes(1);
+    assertThat(published).containsExactly(last);
+  }
+
+  @Test
+  public void shouldPublishTheRefUpdatesOfDifferentRefs() {
+    EventCoalescer coalescer = eventCoalescer();
+    RefUpdatedEvent master = refUpdatedEvent(REF);
+    RefUpdatedEvent stable = refUpdatedEvent("refs/heads/stable");
+
+    coalescer.coalesce(TOPIC, master, published::add);
+    coalescer.coalesce(TOPIC, stable, published::add);
+
+    runScheduledFlushes(2);
+    assertThat(published).containsExactly(master, stable);
+  }
+
+  @Test
+  public void shouldNotCoalesceEventsCarryingDataByDefault() {
+    EventCoalescer coalescer = eventCoalescer();
+
+    assertThat(coalescer.coalesce(TOPIC, commentAddedEvent(), published::add)).isFalse();
+    assertThat(coalescer.coalesce(TOPIC, commentAddedEvent(), published::add)).isFalse();
+
+    verify(executorMock, never()).schedule(any(Runnable.class), anyLong(), any());
+  }
+
+  @Test
+  public void shouldCoalesceOnlyTheConfiguredEventTypes() {
+    topicsConfig.setString(TOPIC_SECTION, TOPIC, COALESCE_EVENT_TYPE, "comment-added");
+    EventCoalescer coalescer = eventCoalescer();
+    CommentAddedEvent last = commentAddedEvent();
+
+    assertThat(coalescer.coalesce(TOPIC, refUpdatedEvent(REF), published::add)).isFalse();
+    assertThat(coalescer.coalesce(TOPIC, commentAddedEvent(), published::add)).isTrue();
+    assertThat(coalescer.coalesce(TOPIC, last, published::add)).isTrue();
+
+    runScheduledFlushes(1);
+    assertThat(published).containsExactly(last);
+  }
+
+  @Test
+  public void shouldNotCoalesceEventsOfTopicsWithoutWindow() {
+    EventCoalescer coalescer = eventCoalescer();
+
+    assertThat(coalescer.coalesce("another_topic", refUpdatedEvent(REF), published::add)).isFalse();
+  }
+
+  @Test
+  public void shouldPublishPendingEventsWhenStopping() {
+    EventCoalescer coalescer = eventCoalescer();
+    RefUpdatedEvent event = refUpdatedEvent(REF);
+    coalescer.coalesce(TOPIC, event, published::add);
+
+    coalescer.stop();
+
+    assertThat(published).containsExactly(event);
+  }
+
+  private void runScheduledFlushes(int expectedFlushes) {
+    ArgumentCaptor<Runnable> flushes = ArgumentCaptor.forClass(Runnable.class);
+    verify(executorMock, times(expectedFlushes))
+        .schedule(flushes.capture(), eq(WINDOW_MS), eq(TimeUnit.MILLISECONDS));
+    flushes.getAllValues().forEach(Runnable::run);
+  }
+
+  private EventCoalescer eventCoalescer() {
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(topicsConfig);
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(PluginConfig.Update.forTest(PLUGIN_NAME, new Config()).asPluginConfig());
+    return new EventCoalescer(
+        new Configuration(pluginConfigFactoryMock, PLUGIN_NAME),
+        new PublisherMetrics(new DisabledMetricMaker()),
+        workQueueMock);
+  }
+
+  private static RefUpdatedEvent refUpdatedEvent(String refName) {
+    RefUpdateAttribute refUpdate = new RefUpdateAttribute();
+    refUpdate.project = PROJECT;
+    refUpdate.refName = refName;
+    RefUpdatedEvent event = new RefUpdatedEvent();
+    event.refUpdate = Suppliers.ofInstance(refUpdate);
+    return event;
+  }
+
+  private static CommentAddedEvent commentAddedEvent() {
+    Change change =
+        new Change(
+            Change.key("I0123456789abcdef0123456789abcdef01234567"),
+            Change.id(1),
+            Account.id(1000000),
+            BranchNameKey.create(Project.nameKey(PROJECT), REF),
+            new Timestamp(System.currentTimeMillis()));
+    return new CommentAddedEvent(change);
+  }
+}
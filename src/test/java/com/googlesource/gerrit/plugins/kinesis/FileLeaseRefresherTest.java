@@ -0,0 +1,193 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.kinesis.leases.Lease;
+import software.amazon.kinesis.retrieval.kpl.ExtendedSequenceNumber;
+
+public class FileLeaseRefresherTest {
+  private static final String SHARD_ID = "shardId-000000000000";
+  private static final String OWNER = "worker-1";
+  private static final String OTHER_OWNER = "worker-2";
+
+  private final Gson gson = new Gson();
+  private Path leaseFile;
+  private FileLeaseRefresher objectUnderTest;
+
+  @Before
+  public void setup() throws IOException {
+    leaseFile = Files.createTempDirectory("leases").resolve("stream.json");
+    objectUnderTest = new FileLeaseRefresher(leaseFile, gson);
+  }
+
+  @Test
+  public void shouldCreateALeaseOnlyOnce() throws Exception {
+    assertThat(objectUnderTest.createLeaseIfNotExists(newLease())).isTrue();
+    assertThat(objectUnderTest.createLeaseIfNotExists(newLease())).isFalse();
+
+    assertThat(objectUnderTest.isLeaseTableEmpty()).isFalse();
+    assertThat(objectUnderTest.listLeases()).hasSize(1);
+    assertThat(objectUnderTest.getLease(SHARD_ID).checkpoint())
+        .isEqualTo(ExtendedSequenceNumber.TRIM_HORIZON);
+  }
+
+  @Test
+  public void shouldTakeALeaseNotChangedInTheMeantime() throws Exception {
+    objectUnderTest.createLeaseIfNotExists(newLease());
+    Lease lease = objectUnderTest.getLease(SHARD_ID);
+
+    assertThat(objectUnderTest.takeLease(lease, OWNER)).isTrue();
+
+    Lease taken = objectUnderTest.getLease(SHARD_ID);
+    assertThat(taken.leaseOwner()).isEqualTo(OWNER);
+    assertThat(taken.leaseCounter()).isEqualTo(1L);
+  }
+
+  @Test
+  public void shouldNotTakeALeaseChangedInTheMeantime() throws Exception {
+    objectUnderTest.createLeaseIfNotExists(newLease());
+    Lease stale = objectUnderTest.getLease(SHARD_ID);
+    objectUnderTest.takeLease(objectUnderTest.getLease(SHARD_ID), OWNER);
+
+    assertThat(objectUnderTest.takeLease(stale, OTHER_OWNER)).isFalse();
+    assertThat(objectUnderTest.getLease(SHARD_ID).leaseOwner()).isEqualTo(OWNER);
+  }
+
+  @Test
+  public void shouldCountOwnerSwitchesWhenTakingALeaseFromAnotherOwner() throws Exception {
+    objectUnderTest.createLeaseIfNotExists(newLease());
+    objectUnderTest.takeLease(objectUnderTest.getLease(SHARD_ID), OWNER);
+
+    assertThat(objectUnderTest.takeLease(objectUnderTest.getLease(SHARD_ID), OTHER_OWNER)).isTrue();
+
+    Lease taken = objectUnderTest.getLease(SHARD_ID);
+    assertThat(taken.leaseOwner()).isEqualTo(OTHER_OWNER);
+    assertThat(taken.ownerSwitchesSinceCheckpoint()).isEqualTo(1L);
+  }
+
+  @Test
+  public void shouldRenewTheLeaseOfTheSameOwner() throws Exception {
+    Lease lease = takenLease();
+
+    assertThat(objectUnderTest.renewLease(lease)).isTrue();
+
+    assertThat(lease.leaseCounter()).isEqualTo(2L);
+    assertThat(objectUnderTest.getLease(SHARD_ID).leaseCounter()).isEqualTo(2L);
+  }
+
+  @Test
+  public void shouldNotRenewALeaseTakenByAnotherOwner() throws Exception {
+    Lease lease = takenLease();
+    objectUnderTest.takeLease(objectUnderTest.getLease(SHARD_ID), OTHER_OWNER);
+
+    assertThat(objectUnderTest.renewLease(lease)).isFalse();
+  }
+
+  @Test
+  public void shouldEvictTheOwnerOfALease() throws Exception {
+    Lease lease = takenLease();
+
+    assertThat(objectUnderTest.evictLease(lease)).isTrue();
+
+    assertThat(objectUnderTest.getLease(SHARD_ID).leaseOwner()).isNull();
+  }
+
+  @Test
+  public void shouldNotEvictALeaseChangedInTheMeantime() throws Exception {
+    Lease lease = takenLease();
+    objectUnderTest.renewLease(objectUnderTest.getLease(SHARD_ID));
+
+    assertThat(objectUnderTest.evictLease(lease)).isFalse();
+    assertThat(objectUnderTest.getLease(SHARD_ID).leaseOwner()).isEqualTo(OWNER);
+  }
+
+  @Test
+  public void shouldCheckpointThroughALeaseUpdate() throws Exception {
+    Lease lease = takenLease();
+    ExtendedSequenceNumber checkpoint = new ExtendedSequenceNumber("42");
+    lease.checkpoint(checkpoint);
+
+    assertThat(objectUnderTest.updateLease(lease)).isTrue();
+
+    assertThat(objectUnderTest.getCheckpoint(SHARD_ID)).isEqualTo(checkpoint);
+  }
+
+  @Test
+  public void shouldResetAllTheCheckpoints() throws Exception {
+    Lease lease = takenLease();
+    lease.checkpoint(new ExtendedSequenceNumber("42"));
+    objectUnderTest.updateLease(lease);
+
+    objectUnderTest.setAllCheckpoints(ExtendedSequenceNumber.TRIM_HORIZON);
+
+    assertThat(objectUnderTest.getCheckpoint(SHARD_ID))
+        .isEqualTo(ExtendedSequenceNumber.TRIM_HORIZON);
+  }
+
+  @Test
+  public void shouldReloadTheLeasesFromTheFile() throws Exception {
+    Lease lease = takenLease();
+    ExtendedSequenceNumber checkpoint = new ExtendedSequenceNumber("42", 3L);
+    lease.checkpoint(checkpoint);
+    objectUnderTest.updateLease(lease);
+
+    FileLeaseRefresher reloaded = new FileLeaseRefresher(leaseFile, gson);
+
+    Lease reloadedLease = reloaded.getLease(SHARD_ID);
+    assertThat(reloadedLease.leaseOwner()).isEqualTo(OWNER);
+    assertThat(reloadedLease.leaseCounter()).isEqualTo(2L);
+    assertThat(reloadedLease.checkpoint()).isEqualTo(checkpoint);
+    assertThat(reloaded.createLeaseTableIfNotExists(1L, 1L)).isFalse();
+  }
+
+  @Test
+  public void shouldNotFindDeletedLeasesOnceReloaded() throws Exception {
+    objectUnderTest.createLeaseIfNotExists(newLease());
+    objectUnderTest.deleteLease(objectUnderTest.getLease(SHARD_ID));
+
+    assertThat(new FileLeaseRefresher(leaseFile, gson).isLeaseTableEmpty()).isTrue();
+  }
+
+  @Test
+  public void shouldBeTheRefresherOfTheLeaseManagementFactory() {
+    LocalLeaseManagementFactory factory =
+        new LocalLeaseManagementFactory(null, null, objectUnderTest, null);
+
+    assertThat(factory.createLeaseRefresher()).isSameInstanceAs(objectUnderTest);
+  }
+
+  private Lease takenLease() throws Exception {
+    objectUnderTest.createLeaseIfNotExists(newLease());
+    objectUnderTest.takeLease(objectUnderTest.getLease(SHARD_ID), OWNER);
+    return objectUnderTest.getLease(SHARD_ID);
+  }
+
+  private static Lease newLease() {
+    Lease lease = new Lease();
+    lease.leaseKey(SHARD_ID);
+    lease.leaseCounter(0L);
+    lease.checkpoint(ExtendedSequenceNumber.TRIM_HORIZON);
+    lease.ownerSwitchesSinceCheckpoint(0L);
+    return lease;
+  }
+}
@@ -0,0 +1,118 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Histogram0;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import software.amazon.awssdk.services.cloudwatch.model.StandardUnit;
+import software.amazon.kinesis.metrics.MetricsLevel;
+import software.amazon.kinesis.metrics.MetricsScope;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GerritKclMetricsFactoryTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  @Mock private MetricMaker metricMakerMock;
+  @Mock private Histogram0 histogramMock;
+  private PluginConfig.Update pluginConfig;
+
+  @Before
+  public void setup() {
+    pluginConfig = PluginConfig.Update.forTest(PLUGIN_NAME, new Config());
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(new Config());
+  }
+
+  @Test
+  public void shouldNameMetricsAfterTheOperationAndMetric() {
+    when(metricMakerMock.newHistogram(anyString(), any(Description.class)))
+        .thenReturn(histogramMock);
+    MetricsScope scope = metricsFactory().createMetrics();
+    scope.addDimension("Operation", "ProcessTask");
+    scope.addDimension("ShardId", "shardId-000000000000");
+
+    scope.addData("RecordsProcessed", 42, StandardUnit.COUNT, MetricsLevel.SUMMARY);
+    scope.end();
+
+    verify(metricMakerMock)
+        .newHistogram(eq("kcl/ProcessTask/RecordsProcessed"), any(Description.class));
+    verify(histogramMock).record(42L);
+  }
+
+  @Test
+  public void shouldSanitizeMetricNames() {
+    when(metricMakerMock.newHistogram(anyString(), any(Description.class)))
+        .thenReturn(histogramMock);
+    MetricsScope scope = metricsFactory().createMetrics();
+    scope.addDimension("Operation", "ShardSyncTask.Sync");
+
+    scope.addData("Time spent", 10, StandardUnit.MILLISECONDS, MetricsLevel.SUMMARY);
+
+    verify(metricMakerMock)
+        .newHistogram(eq("kcl/ShardSyncTask_Sync/Time_spent"), any(Description.class));
+  }
+
+  @Test
+  public void shouldCreateEachMetricOnce() {
+    when(metricMakerMock.newHistogram(anyString(), any(Description.class)))
+        .thenReturn(histogramMock);
+    GerritKclMetricsFactory metricsFactory = metricsFactory();
+
+    for (int i = 0; i < 3; i++) {
+      MetricsScope scope = metricsFactory.createMetrics();
+      scope.addDimension("Operation", "ProcessTask");
+      scope.addData("RecordsProcessed", i, StandardUnit.COUNT, MetricsLevel.SUMMARY);
+    }
+
+    verify(metricMakerMock, times(1)).newHistogram(anyString(), any(Description.class));
+    verify(histogramMock, times(3)).record(any(Long.class));
+  }
+
+  @Test
+  public void shouldDropMetricsBelowTheConfiguredLevel() {
+    pluginConfig.setString("kclMetricsLevel", "summary");
+    MetricsScope scope = metricsFactory().createMetrics();
+    scope.addDimension("Operation", "ProcessTask");
+
+    scope.addData("RecordsProcessed", 42, StandardUnit.COUNT);
+    scope.addData("MillisBehindLatest", 42, StandardUnit.MILLISECONDS, MetricsLevel.DETAILED);
+
+    verify(metricMakerMock, never()).newHistogram(anyString(), any(Description.class));
+  }
+
+  private GerritKclMetricsFactory metricsFactory() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+    return new GerritKclMetricsFactory(
+        metricMakerMock, new Configuration(pluginConfigFactoryMock, PLUGIN_NAME));
+  }
+}
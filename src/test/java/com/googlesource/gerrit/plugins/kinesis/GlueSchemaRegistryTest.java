@@ -0,0 +1,131 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.glue.GlueAsyncClient;
+import software.amazon.awssdk.services.glue.model.AlreadyExistsException;
+import software.amazon.awssdk.services.glue.model.CreateSchemaRequest;
+import software.amazon.awssdk.services.glue.model.CreateSchemaResponse;
+import software.amazon.awssdk.services.glue.model.EntityNotFoundException;
+import software.amazon.awssdk.services.glue.model.GetSchemaVersionRequest;
+import software.amazon.awssdk.services.glue.model.GetSchemaVersionResponse;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GlueSchemaRegistryTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+  private static final long SCHEMA_ID = 0x0123456789abcdefL;
+  private static final Schema SCHEMA =
+      SchemaBuilder.record("Record").fields().optionalString("type").endRecord();
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  @Mock private GlueAsyncClient glueClientMock;
+  private PluginConfig.Update pluginConfig;
+
+  @Before
+  public void setup() {
+    pluginConfig = PluginConfig.Update.forTest(PLUGIN_NAME, new Config());
+    pluginConfig.setString("glueSchemaRegistryName", "gerrit");
+  }
+
+  @Test
+  public void shouldRegisterTheSchemaNamedAfterItsId() throws Exception {
+    when(glueClientMock.createSchema(any(CreateSchemaRequest.class)))
+        .thenReturn(CompletableFuture.completedFuture(CreateSchemaResponse.builder().build()));
+
+    glueSchemaRegistry().register(SCHEMA_ID, SCHEMA);
+
+    ArgumentCaptor<CreateSchemaRequest> request =
+        ArgumentCaptor.forClass(CreateSchemaRequest.class);
+    verify(glueClientMock).createSchema(request.capture());
+    assertThat(request.getValue().registryId().registryName()).isEqualTo("gerrit");
+    assertThat(request.getValue().schemaName()).isEqualTo("0123456789abcdef");
+    assertThat(new Schema.Parser().parse(request.getValue().schemaDefinition())).isEqualTo(SCHEMA);
+  }
+
+  @Test
+  public void shouldIgnoreSchemasAlreadyRegistered() throws Exception {
+    when(glueClientMock.createSchema(any(CreateSchemaRequest.class)))
+        .thenReturn(failed(AlreadyExistsException.builder().message("exists").build()));
+
+    glueSchemaRegistry().register(SCHEMA_ID, SCHEMA);
+  }
+
+  @Test
+  public void shouldFailToRegisterWhenGlueCannotBeReached() {
+    when(glueClientMock.createSchema(any(CreateSchemaRequest.class)))
+        .thenReturn(failed(SdkClientException.create("unreachable")));
+    GlueSchemaRegistry glueSchemaRegistry = glueSchemaRegistry();
+
+    assertThrows(IOException.class, () -> glueSchemaRegistry.register(SCHEMA_ID, SCHEMA));
+  }
+
+  @Test
+  public void shouldLookUpTheSchemaByItsId() throws Exception {
+    when(glueClientMock.getSchemaVersion(any(GetSchemaVersionRequest.class)))
+        .thenReturn(
+            CompletableFuture.completedFuture(
+                GetSchemaVersionResponse.builder().schemaDefinition(SCHEMA.toString()).build()));
+
+    assertThat(glueSchemaRegistry().lookup(SCHEMA_ID)).hasValue(SCHEMA);
+
+    ArgumentCaptor<GetSchemaVersionRequest> request =
+        ArgumentCaptor.forClass(GetSchemaVersionRequest.class);
+    verify(glueClientMock).getSchemaVersion(request.capture());
+    assertThat(request.getValue().schemaId().schemaName()).isEqualTo("0123456789abcdef");
+  }
+
+  @Test
+  public void shouldNotFindSchemasNeverRegistered() throws Exception {
+    when(glueClientMock.getSchemaVersion(any(GetSchemaVersionRequest.class)))
+        .thenReturn(failed(EntityNotFoundException.builder().message("not found").build()));
+
+    assertThat(glueSchemaRegistry().lookup(SCHEMA_ID)).isEmpty();
+  }
+
+  private GlueSchemaRegistry glueSchemaRegistry() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(new Config());
+    return new GlueSchemaRegistry(
+        glueClientMock, new Configuration(pluginConfigFactoryMock, PLUGIN_NAME));
+  }
+
+  private static <T> CompletableFuture<T> failed(Throwable cause) {
+    CompletableFuture<T> response = new CompletableFuture<>();
+    response.completeExceptionally(cause);
+    return response;
+  }
+}
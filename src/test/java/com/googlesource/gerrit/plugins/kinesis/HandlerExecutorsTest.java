@@ -0,0 +1,71 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HandlerExecutorsTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+  private static final String STREAM_NAME = "gerrit";
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  @Mock private WorkQueue workQueueMock;
+  @Mock private ScheduledThreadPoolExecutor executorMock;
+
+  @Test
+  public void shouldRunHandlersInTheCallerWithASingleThread() {
+    HandlerExecutors handlerExecutors = handlerExecutors(new Config());
+
+    assertThat(handlerExecutors.forTopic(STREAM_NAME)).isEmpty();
+    verifyNoInteractions(workQueueMock);
+  }
+
+  @Test
+  public void shouldShutDownTheExecutorsWhenStopped() {
+    Config topicsConfig = new Config();
+    topicsConfig.setInt("topic", STREAM_NAME, "handlerThreads", 4);
+    when(workQueueMock.createQueue(4, "kinesis-handler-" + STREAM_NAME)).thenReturn(executorMock);
+    HandlerExecutors handlerExecutors = handlerExecutors(topicsConfig);
+
+    assertThat(handlerExecutors.forTopic(STREAM_NAME)).hasValue(executorMock);
+    handlerExecutors.stop();
+
+    verify(executorMock).shutdown();
+    assertThat(handlerExecutors.all()).isEmpty();
+  }
+
+  private HandlerExecutors handlerExecutors(Config topicsConfig) {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(PluginConfig.Update.forTest(PLUGIN_NAME, new Config()).asPluginConfig());
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(topicsConfig);
+    return new HandlerExecutors(
+        workQueueMock, new Configuration(pluginConfigFactoryMock, PLUGIN_NAME));
+  }
+}
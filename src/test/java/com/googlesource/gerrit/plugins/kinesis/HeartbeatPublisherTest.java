@@ -0,0 +1,93 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.gerritforge.gerrit.eventbroker.BrokerApi;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HeartbeatPublisherTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  @Mock private KinesisPublisher kinesisPublisherMock;
+  @Mock private BrokerApi brokerApiMock;
+  @Mock private WorkQueue workQueueMock;
+  @Mock private ScheduledExecutorService executorMock;
+  @Mock private ScheduledFuture<?> heartbeatsMock;
+  private PluginConfig.Update pluginConfig;
+
+  @Before
+  public void setup() {
+    pluginConfig = PluginConfig.Update.forTest(PLUGIN_NAME, new Config());
+  }
+
+  @Test
+  public void shouldPublishHeartbeatsOnAQueueOfTheirOwn() {
+    pluginConfig.setString("heartbeatIntervalMs", "5000");
+    when(workQueueMock.createQueue(1, "kinesis-heartbeat")).thenReturn(executorMock);
+    doReturn(heartbeatsMock)
+        .when(executorMock)
+        .scheduleAtFixedRate(any(Runnable.class), eq(5000L), eq(5000L), eq(TimeUnit.MILLISECONDS));
+    HeartbeatPublisher heartbeatPublisher = heartbeatPublisher();
+
+    heartbeatPublisher.start();
+    heartbeatPublisher.stop();
+
+    verify(heartbeatsMock).cancel(false);
+    verify(executorMock).shutdown();
+    verify(workQueueMock, never()).getDefaultQueue();
+  }
+
+  @Test
+  public void shouldNotCreateAQueueWhenHeartbeatsAreDisabled() {
+    HeartbeatPublisher heartbeatPublisher = heartbeatPublisher();
+
+    heartbeatPublisher.start();
+    heartbeatPublisher.stop();
+
+    verifyNoInteractions(workQueueMock);
+  }
+
+  private HeartbeatPublisher heartbeatPublisher() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(new Config());
+    return new HeartbeatPublisher(
+        new Configuration(pluginConfigFactoryMock, PLUGIN_NAME),
+        kinesisPublisherMock,
+        brokerApiMock,
+        workQueueMock);
+  }
+}
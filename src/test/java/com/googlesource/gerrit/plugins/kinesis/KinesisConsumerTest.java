@@ -0,0 +1,109 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import software.amazon.kinesis.coordinator.Scheduler;
+
+@RunWith(MockitoJUnitRunner.class)
+public class KinesisConsumerTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+  private static final String STREAM_NAME = "gerrit";
+  private static final KinesisEndpoint PRIMARY =
+      KinesisEndpoint.create(KinesisEndpoint.PRIMARY, Optional.empty(), Optional.empty());
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  @Mock private SchedulerProvider.Factory schedulerFactoryMock;
+  @Mock private SchedulerProvider firstSchedulerProviderMock;
+  @Mock private SchedulerProvider secondSchedulerProviderMock;
+  @Mock private Scheduler firstSchedulerMock;
+  @Mock private Scheduler secondSchedulerMock;
+  @Mock private LeaseStore leaseStoreMock;
+  @Mock private ConsumedEventsCache consumedEventsCacheMock;
+  @Mock private ExecutorService executorMock;
+  @Mock private EventBatchConsumer messageProcessorMock;
+  private CompletableFuture<Boolean> firstShutdown;
+  private KinesisConsumer consumer;
+
+  @Before
+  public void setup() {
+    PluginConfig.Update pluginConfig = PluginConfig.Update.forTest(PLUGIN_NAME, new Config());
+    pluginConfig.setString("shutdownTimeoutMs", "100");
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(new Config());
+
+    when(schedulerFactoryMock.create(
+            eq(STREAM_NAME), eq(PRIMARY), anyBoolean(), any(), eq(messageProcessorMock)))
+        .thenReturn(firstSchedulerProviderMock, secondSchedulerProviderMock);
+    when(firstSchedulerProviderMock.get()).thenReturn(firstSchedulerMock);
+    firstShutdown = new CompletableFuture<>();
+    when(firstSchedulerMock.startGracefulShutdown()).thenReturn(firstShutdown);
+
+    consumer =
+        new KinesisConsumer(
+            schedulerFactoryMock,
+            leaseStoreMock,
+            consumedEventsCacheMock,
+            new Configuration(pluginConfigFactoryMock, PLUGIN_NAME),
+            executorMock);
+    consumer.subscribe(STREAM_NAME, PRIMARY, messageProcessorMock);
+  }
+
+  @Test
+  public void shouldReplaceTheSchedulerOnRestart() {
+    when(secondSchedulerProviderMock.get()).thenReturn(secondSchedulerMock);
+    when(secondSchedulerMock.startGracefulShutdown())
+        .thenReturn(CompletableFuture.completedFuture(true));
+
+    consumer.restartReceiver();
+    firstShutdown.complete(true);
+    consumer.shutdown();
+
+    verify(executorMock).execute(firstSchedulerMock);
+    verify(executorMock).execute(secondSchedulerMock);
+    verify(firstSchedulerMock, times(1)).startGracefulShutdown();
+    verify(secondSchedulerMock).startGracefulShutdown();
+  }
+
+  @Test
+  public void shouldNotStartAnotherSchedulerWhenShutDownDuringRestart() {
+    consumer.restartReceiver();
+    consumer.shutdown();
+    firstShutdown.complete(true);
+
+    verify(schedulerFactoryMock, times(1))
+        .create(eq(STREAM_NAME), eq(PRIMARY), anyBoolean(), any(), eq(messageProcessorMock));
+    verify(executorMock, times(1)).execute(any());
+    verify(firstSchedulerMock, times(1)).startGracefulShutdown();
+  }
+}
@@ -0,0 +1,74 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Optional;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+
+@RunWith(MockitoJUnitRunner.class)
+public class KinesisEndpointClientsTest {
+  private static final KinesisEndpoint PRIMARY =
+      KinesisEndpoint.create(KinesisEndpoint.PRIMARY, Optional.empty(), Optional.empty());
+  private static final KinesisEndpoint FAILOVER =
+      KinesisEndpoint.create("failover", Optional.empty(), Optional.empty());
+
+  @Mock private KinesisAsyncClient primaryClientMock;
+  @Mock private KinesisAsyncClient failoverClientMock;
+  @Mock private KinesisAsyncClientProvider clientProviderMock;
+
+  @Test
+  public void shouldUseTheBoundClientForThePrimaryEndpoint() {
+    KinesisEndpointClients clients =
+        new KinesisEndpointClients(primaryClientMock, clientProviderMock);
+
+    assertThat(clients.forEndpoint(PRIMARY)).isSameInstanceAs(primaryClientMock);
+    verifyNoInteractions(clientProviderMock);
+  }
+
+  @Test
+  public void shouldCreateTheClientOfAFailoverEndpointOnce() {
+    when(clientProviderMock.create(FAILOVER)).thenReturn(failoverClientMock);
+    KinesisEndpointClients clients =
+        new KinesisEndpointClients(primaryClientMock, clientProviderMock);
+
+    assertThat(clients.forEndpoint(FAILOVER)).isSameInstanceAs(failoverClientMock);
+    assertThat(clients.forEndpoint(FAILOVER)).isSameInstanceAs(failoverClientMock);
+    verify(clientProviderMock).create(FAILOVER);
+  }
+
+  @Test
+  public void shouldCloseAllTheClientsWhenStopped() {
+    when(clientProviderMock.create(FAILOVER)).thenReturn(failoverClientMock);
+    doThrow(new IllegalStateException("already closed")).when(failoverClientMock).close();
+    KinesisEndpointClients clients =
+        new KinesisEndpointClients(primaryClientMock, clientProviderMock);
+    clients.forEndpoint(FAILOVER);
+
+    clients.stop();
+
+    verify(failoverClientMock).close();
+    verify(primaryClientMock).close();
+  }
+}
@@ -30,6 +30,7 @@ import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
 import org.junit.Before;
 import org.junit.Test;
@@ -111,6 +112,31 @@ public class KinesisEventsIT extends LightweightPluginDaemonTest {
         .isEqualTo(eventConsumerCounter.getConsumedMessages().get(0).getHeader().eventId);
   }
 
+  @Test
+  @GerritConfig(name = "plugin.kinesis-events.applicationName", value = "test-consumer")
+  @GerritConfig(name = "plugin.kinesis-events.initialPosition", value = "trim_horizon")
+  @GerritConfig(name = "plugin.kinesis-events.sendAsync", value = "false")
+  public void shouldConsumeEventsPublishedToATopicInBatches() throws Exception {
+    String streamName = UUID.randomUUID().toString();
+    createStreamAndWait(streamName, STREAM_CREATION_TIMEOUT);
+
+    EventMessage firstEvent = eventMessage();
+    EventMessage secondEvent = eventMessage();
+    kinesisBroker().send(streamName, firstEvent);
+    kinesisBroker().send(streamName, secondEvent);
+
+    List<List<EventMessage>> consumedBatches = new CopyOnWriteArrayList<>();
+    kinesisBroker().receiveBatchAsync(streamName, consumedBatches::add);
+
+    WaitUtil.waitUntil(() -> !consumedBatches.isEmpty(), WAIT_FOR_CONSUMPTION);
+    assertThat(consumedBatches).hasSize(1);
+    assertThat(consumedBatches.get(0)).hasSize(2);
+    assertThat(consumedBatches.get(0).get(0).getHeader().eventId)
+        .isEqualTo(firstEvent.getHeader().eventId);
+    assertThat(consumedBatches.get(0).get(1).getHeader().eventId)
+        .isEqualTo(secondEvent.getHeader().eventId);
+  }
+
   @Test
   @GerritConfig(name = "plugin.kinesis-events.applicationName", value = "test-consumer")
   @GerritConfig(name = "plugin.kinesis-events.initialPosition", value = "trim_horizon")
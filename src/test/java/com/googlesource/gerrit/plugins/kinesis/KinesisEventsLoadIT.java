@@ -0,0 +1,504 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.testcontainers.containers.localstack.LocalStackContainer.Service.CLOUDWATCH;
+import static org.testcontainers.containers.localstack.LocalStackContainer.Service.DYNAMODB;
+import static org.testcontainers.containers.localstack.LocalStackContainer.Service.KINESIS;
+
+import com.gerritforge.gerrit.eventbroker.BrokerApi;
+import com.gerritforge.gerrit.eventbroker.EventMessage;
+import com.google.common.base.Strings;
+import com.google.common.base.Suppliers;
+import com.google.gerrit.acceptance.LightweightPluginDaemonTest;
+import com.google.gerrit.acceptance.TestPlugin;
+import com.google.gerrit.acceptance.WaitUtil;
+import com.google.gerrit.acceptance.config.GerritConfig;
+import com.google.gerrit.server.data.RefUpdateAttribute;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.ProjectCreatedEvent;
+import com.google.gerrit.server.events.RefUpdatedEvent;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.testcontainers.containers.localstack.LocalStackContainer;
+import org.testcontainers.utility.DockerImageName;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.kinesis.KinesisClient;
+import software.amazon.awssdk.services.kinesis.model.CreateStreamRequest;
+import software.amazon.awssdk.services.kinesis.model.DescribeStreamRequest;
+import software.amazon.awssdk.services.kinesis.model.StreamStatus;
+
+/**
+ * Load harness measuring how many events per second a node can publish and consume, and at which
+ * latency. It is not part of the regular test suite, see the "Load tests" section of Build.md.
+ *
+ * <p>The load is shaped by system properties:
+ *
+ * <ul>
+ *   <li>{@code load.events}: number of events published per run (default 2000)
+ *   <li>{@code load.concurrency}: number of threads publishing them (default 8)
+ *   <li>{@code load.payloadBytes}: approximate size of each event (default 1024)
+ *   <li>{@code load.eventMix}: weighted event types, e.g. {@code ref-updated:9,project-created:1}
+ *   <li>{@code load.shards}: number of shards of the stream (default 1)
+ *   <li>{@code load.timeoutSec}: how long to wait for all the events to be consumed (default 600)
+ * </ul>
+ */
+@TestPlugin(name = "kinesis-events", sysModule = "com.googlesource.gerrit.plugins.kinesis.Module")
+public class KinesisEventsLoadIT extends LightweightPluginDaemonTest {
+  private static final Duration WAIT_FOR_WARM_UP = Duration.ofSeconds(120);
+  private static final Duration STREAM_CREATION_TIMEOUT = Duration.ofSeconds(10);
+  private static final String STREAM_EVENTS_TOPIC = "load-stream-events";
+
+  private static final int LOCALSTACK_PORT = 4566;
+  private LocalStackContainer localstack =
+      new LocalStackContainer(DockerImageName.parse("localstack/localstack:0.12.8"))
+          .withServices(DYNAMODB, KINESIS, CLOUDWATCH)
+          .withEnv("USE_SSL", "true")
+          .withExposedPorts(LOCALSTACK_PORT);
+
+  private KinesisClient kinesisClient;
+  private LoadProfile profile;
+
+  @Before
+  public void setUpTestPlugin() throws Exception {
+    localstack.start();
+
+    kinesisClient =
+        KinesisClient.builder()
+            .endpointOverride(localstack.getEndpointOverride(KINESIS))
+            .credentialsProvider(
+                StaticCredentialsProvider.create(
+                    AwsBasicCredentials.create(
+                        localstack.getAccessKey(), localstack.getSecretKey())))
+            .region(Region.of(localstack.getRegion()))
+            .build();
+
+    System.setProperty("endpoint", localstack.getEndpointOverride(KINESIS).toASCIIString());
+    System.setProperty("region", localstack.getRegion());
+    System.setProperty("aws.accessKeyId", localstack.getAccessKey());
+    System.setProperty("aws.secretKey", localstack.getSecretKey());
+    System.setProperty("aws.secretAccessKey", localstack.getSecretKey());
+
+    profile = LoadProfile.fromSystemProperties();
+    createStreamAndWait(STREAM_EVENTS_TOPIC);
+
+    super.setUpTestPlugin();
+  }
+
+  @Override
+  public void tearDownTestPlugin() {
+    localstack.close();
+
+    super.tearDownTestPlugin();
+  }
+
+  @Test
+  @GerritConfig(name = "plugin.kinesis-events.applicationName", value = "load-consumer")
+  @GerritConfig(name = "plugin.kinesis-events.initialPosition", value = "trim_horizon")
+  @GerritConfig(name = "plugin.kinesis-events.sendAsync", value = "true")
+  public void sendAsyncWithDefaultPolling() throws Exception {
+    runBrokerLoad("send async, default polling");
+  }
+
+  @Test
+  @GerritConfig(name = "plugin.kinesis-events.applicationName", value = "load-consumer")
+  @GerritConfig(name = "plugin.kinesis-events.initialPosition", value = "trim_horizon")
+  @GerritConfig(name = "plugin.kinesis-events.sendAsync", value = "false")
+  public void sendSyncWithDefaultPolling() throws Exception {
+    runBrokerLoad("send sync, default polling");
+  }
+
+  @Test
+  @GerritConfig(name = "plugin.kinesis-events.applicationName", value = "load-consumer")
+  @GerritConfig(name = "plugin.kinesis-events.initialPosition", value = "trim_horizon")
+  @GerritConfig(name = "plugin.kinesis-events.sendAsync", value = "true")
+  @GerritConfig(name = "plugin.kinesis-events.maxRecords", value = "100")
+  @GerritConfig(name = "plugin.kinesis-events.pollingIntervalMs", value = "200")
+  public void sendAsyncWithSmallBatchesAndFrequentPolling() throws Exception {
+    runBrokerLoad("send async, maxRecords=100, pollingIntervalMs=200");
+  }
+
+  @Test
+  @GerritConfig(name = "plugin.kinesis-events.applicationName", value = "load-consumer")
+  @GerritConfig(name = "plugin.kinesis-events.initialPosition", value = "trim_horizon")
+  @GerritConfig(name = "plugin.kinesis-events.sendAsync", value = "true")
+  @GerritConfig(name = "plugin.kinesis-events.maxRecords", value = "10000")
+  @GerritConfig(name = "plugin.kinesis-events.pollingIntervalMs", value = "2000")
+  public void sendAsyncWithLargeBatchesAndInfrequentPolling() throws Exception {
+    runBrokerLoad("send async, maxRecords=10000, pollingIntervalMs=2000");
+  }
+
+  @Test
+  @GerritConfig(name = "plugin.kinesis-events.applicationName", value = "load-consumer")
+  @GerritConfig(name = "plugin.kinesis-events.initialPosition", value = "trim_horizon")
+  @GerritConfig(name = "plugin.kinesis-events.sendAsync", value = "true")
+  @GerritConfig(name = "plugin.kinesis-events.topic", value = STREAM_EVENTS_TOPIC)
+  public void publishStreamEventsAsync() throws Exception {
+    runStreamEventsLoad("stream events, send async");
+  }
+
+  @Test
+  @GerritConfig(name = "plugin.kinesis-events.applicationName", value = "load-consumer")
+  @GerritConfig(name = "plugin.kinesis-events.initialPosition", value = "trim_horizon")
+  @GerritConfig(name = "plugin.kinesis-events.sendAsync", value = "false")
+  @GerritConfig(name = "plugin.kinesis-events.topic", value = STREAM_EVENTS_TOPIC)
+  public void publishStreamEventsSync() throws Exception {
+    runStreamEventsLoad("stream events, send sync");
+  }
+
+  /**
+   * Publishes through {@link KinesisBrokerApi#sendWithResult} and measures the latency of every
+   * event from the moment it is sent to the moment it is received by {@code receiveAsync}.
+   */
+  private void runBrokerLoad(String scenario) throws Exception {
+    String streamName = UUID.randomUUID().toString();
+    createStreamAndWait(streamName);
+
+    Map<UUID, Long> sentAtNanos = new ConcurrentHashMap<>();
+    List<Long> endToEndNanos = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger consumed = new AtomicInteger();
+    kinesisBroker()
+        .receiveAsync(
+            streamName,
+            message -> {
+              Long sentAt = sentAtNanos.remove(message.getHeader().eventId);
+              if (sentAt != null) {
+                endToEndNanos.add(System.nanoTime() - sentAt);
+                consumed.incrementAndGet();
+              }
+            });
+    waitForLeases(
+        () -> {
+          EventMessage warmUpEvent = eventMessage(newEvent(-1));
+          sentAtNanos.put(warmUpEvent.getHeader().eventId, System.nanoTime());
+          kinesisBroker().send(streamName, warmUpEvent);
+        },
+        consumed);
+    endToEndNanos.clear();
+
+    LoadReport report = new LoadReport(scenario, profile);
+    report.start();
+    publishConcurrently(
+        i -> {
+          EventMessage message = eventMessage(newEvent(i));
+          sentAtNanos.put(message.getHeader().eventId, System.nanoTime());
+          long start = System.nanoTime();
+          PublishResult result = kinesisBroker().sendWithResult(streamName, message);
+          report.published(System.nanoTime() - start, result);
+        });
+    report.publishingDone();
+
+    WaitUtil.waitUntil(() -> consumed.get() == profile.events, profile.timeout);
+    report.consumingDone(endToEndNanos);
+    report.print();
+
+    assertThat(report.failures.get()).isEqualTo(0);
+  }
+
+  /**
+   * Publishes through {@link KinesisPublisher#onEvent}, as Gerrit does for its stream events. Those
+   * are not wrapped in an {@link EventMessage}, hence they cannot be correlated one by one on
+   * consumption: only the time to drain them all is reported.
+   */
+  private void runStreamEventsLoad(String scenario) throws Exception {
+    KinesisPublisher publisher = plugin.getSysInjector().getInstance(KinesisPublisher.class);
+    AtomicInteger consumed = new AtomicInteger();
+    kinesisBroker().receiveAsync(STREAM_EVENTS_TOPIC, message -> consumed.incrementAndGet());
+    waitForLeases(() -> publisher.onEvent(newEvent(-1)), consumed);
+
+    LoadReport report = new LoadReport(scenario, profile);
+    report.start();
+    publishConcurrently(
+        i -> {
+          long start = System.nanoTime();
+          publisher.onEvent(newEvent(i));
+          report.published(System.nanoTime() - start, null);
+        });
+    report.publishingDone();
+
+    WaitUtil.waitUntil(() -> consumed.get() >= profile.events, profile.timeout);
+    report.consumingDone(Collections.emptyList());
+    report.print();
+  }
+
+  private void waitForLeases(Runnable sendWarmUpEvent, AtomicInteger consumed)
+      throws InterruptedException {
+    // The first event is only consumed once the scheduler has acquired the shard leases, which
+    // would otherwise be accounted as latency.
+    sendWarmUpEvent.run();
+    WaitUtil.waitUntil(() -> consumed.get() > 0, WAIT_FOR_WARM_UP);
+    consumed.set(0);
+  }
+
+  private void publishConcurrently(Consumer<Integer> publishOne) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(profile.concurrency);
+    try {
+      AtomicInteger next = new AtomicInteger();
+      List<Future<?>> publishers = new ArrayList<>();
+      for (int t = 0; t < profile.concurrency; t++) {
+        publishers.add(
+            executor.submit(
+                () -> {
+                  for (int i = next.getAndIncrement();
+                      i < profile.events;
+                      i = next.getAndIncrement()) {
+                    publishOne.accept(i);
+                  }
+                }));
+      }
+      for (Future<?> publisher : publishers) {
+        publisher.get();
+      }
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+  }
+
+  private Event newEvent(int i) {
+    String name = Strings.padEnd("load-" + i + "-", profile.payloadBytes, 'x');
+    switch (profile.nextEventType()) {
+      case "ref-updated":
+        RefUpdateAttribute refUpdate = new RefUpdateAttribute();
+        refUpdate.project = name;
+        refUpdate.refName = "refs/heads/master";
+        refUpdate.oldRev = ObjectId.zeroId().name();
+        refUpdate.newRev = ObjectId.zeroId().name();
+        RefUpdatedEvent refUpdatedEvent = new RefUpdatedEvent();
+        refUpdatedEvent.refUpdate = Suppliers.ofInstance(refUpdate);
+        return refUpdatedEvent;
+      default:
+        ProjectCreatedEvent projectCreatedEvent = new ProjectCreatedEvent();
+        projectCreatedEvent.projectName = name;
+        projectCreatedEvent.headName = "refs/heads/master";
+        return projectCreatedEvent;
+    }
+  }
+
+  private EventMessage eventMessage(Event event) {
+    return new EventMessage(new EventMessage.Header(UUID.randomUUID(), UUID.randomUUID()), event);
+  }
+
+  public KinesisBrokerApi kinesisBroker() {
+    return (KinesisBrokerApi) plugin.getSysInjector().getInstance(BrokerApi.class);
+  }
+
+  private void createStreamAndWait(String streamName) throws InterruptedException {
+    kinesisClient.createStream(
+        CreateStreamRequest.builder().streamName(streamName).shardCount(profile.shards).build());
+
+    WaitUtil.waitUntil(
+        () ->
+            kinesisClient
+                .describeStream(DescribeStreamRequest.builder().streamName(streamName).build())
+                .streamDescription()
+                .streamStatus()
+                .equals(StreamStatus.ACTIVE),
+        STREAM_CREATION_TIMEOUT);
+  }
+
+  private static class LoadProfile {
+    private final int events;
+    private final int concurrency;
+    private final int payloadBytes;
+    private final int shards;
+    private final Duration timeout;
+    private final Map<String, Integer> eventMix;
+    private final int totalWeight;
+
+    private LoadProfile(
+        int events,
+        int concurrency,
+        int payloadBytes,
+        int shards,
+        Duration timeout,
+        Map<String, Integer> eventMix) {
+      this.events = events;
+      this.concurrency = concurrency;
+      this.payloadBytes = payloadBytes;
+      this.shards = shards;
+      this.timeout = timeout;
+      this.eventMix = eventMix;
+      this.totalWeight = eventMix.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    static LoadProfile fromSystemProperties() {
+      Map<String, Integer> eventMix = new LinkedHashMap<>();
+      for (String entry :
+          System.getProperty("load.eventMix", "ref-updated:9,project-created:1").split(",")) {
+        String[] typeAndWeight = entry.trim().split(":");
+        eventMix.put(
+            typeAndWeight[0], typeAndWeight.length > 1 ? Integer.parseInt(typeAndWeight[1]) : 1);
+      }
+      return new LoadProfile(
+          Integer.getInteger("load.events", 2000),
+          Integer.getInteger("load.concurrency", 8),
+          Integer.getInteger("load.payloadBytes", 1024),
+          Integer.getInteger("load.shards", 1),
+          Duration.ofSeconds(Integer.getInteger("load.timeoutSec", 600)),
+          eventMix);
+    }
+
+    String nextEventType() {
+      int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+      for (Map.Entry<String, Integer> type : eventMix.entrySet()) {
+        pick -= type.getValue();
+        if (pick < 0) {
+          return type.getKey();
+        }
+      }
+      throw new IllegalStateException("Empty event mix");
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "events=%d concurrency=%d payloadBytes=%d shards=%d eventMix=%s",
+          events, concurrency, payloadBytes, shards, eventMix);
+    }
+  }
+
+  private static class LoadReport {
+    private final String scenario;
+    private final LoadProfile profile;
+    private final List<Long> publishNanos = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private List<Long> endToEndNanos;
+    private long startNanos;
+    private long publishedNanos;
+    private long consumedNanos;
+    private long heapBefore;
+    private long heapAfter;
+    private long gcCount;
+    private long gcTimeMs;
+
+    LoadReport(String scenario, LoadProfile profile) {
+      this.scenario = scenario;
+      this.profile = profile;
+    }
+
+    void start() {
+      System.gc();
+      heapBefore = usedHeap();
+      gcCount = -gcCount();
+      gcTimeMs = -gcTimeMs();
+      startNanos = System.nanoTime();
+    }
+
+    void published(long nanos, PublishResult result) {
+      publishNanos.add(nanos);
+      if (result != null) {
+        retries.addAndGet(Math.max(0, result.attempts() - 1));
+        if (!result.isSuccess()) {
+          failures.incrementAndGet();
+        }
+      }
+    }
+
+    void publishingDone() {
+      publishedNanos = System.nanoTime() - startNanos;
+    }
+
+    void consumingDone(List<Long> endToEndNanos) {
+      consumedNanos = System.nanoTime() - startNanos;
+      gcCount += gcCount();
+      gcTimeMs += gcTimeMs();
+      heapAfter = usedHeap();
+      this.endToEndNanos = endToEndNanos;
+    }
+
+    void print() {
+      StringBuilder report = new StringBuilder();
+      report.append(String.format("%n=== %s [%s]%n", scenario, profile));
+      report.append(
+          String.format(
+              "publish: %.1f events/s, latency %s%n",
+              rate(publishedNanos), percentiles(publishNanos)));
+      report.append(
+          String.format("publish: %d retries, %d failures%n", retries.get(), failures.get()));
+      report.append(
+          String.format(
+              "consume: %.1f events/s, end-to-end latency %s%n",
+              rate(consumedNanos), endToEndNanos.isEmpty() ? "n/a" : percentiles(endToEndNanos)));
+      report.append(
+          String.format(
+              "jvm: heap %dMiB -> %dMiB, %d GCs taking %dms%n",
+              heapBefore >> 20, heapAfter >> 20, gcCount, gcTimeMs));
+      System.out.print(report);
+    }
+
+    private double rate(long nanos) {
+      return profile.events / (nanos / 1e9);
+    }
+
+    private static String percentiles(List<Long> nanos) {
+      List<Long> sorted;
+      synchronized (nanos) {
+        sorted = new ArrayList<>(nanos);
+      }
+      Collections.sort(sorted);
+      return String.format(
+          "p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms",
+          percentile(sorted, 0.50),
+          percentile(sorted, 0.95),
+          percentile(sorted, 0.99),
+          sorted.get(sorted.size() - 1) / 1e6);
+    }
+
+    private static double percentile(List<Long> sorted, double p) {
+      int index = (int) Math.ceil(p * sorted.size()) - 1;
+      return sorted.get(Math.max(0, index)) / 1e6;
+    }
+
+    private static long usedHeap() {
+      return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long gcCount() {
+      return ManagementFactory.getGarbageCollectorMXBeans().stream()
+          .mapToLong(GarbageCollectorMXBean::getCollectionCount)
+          .sum();
+    }
+
+    private static long gcTimeMs() {
+      return ManagementFactory.getGarbageCollectorMXBeans().stream()
+          .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+          .sum();
+    }
+  }
+}
@@ -0,0 +1,281 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.googlesource.gerrit.plugins.kinesis.Configuration.MAX_EVENT_AGE_MS;
+import static com.googlesource.gerrit.plugins.kinesis.Configuration.TOPIC_SECTION;
+import static org.mockito.Mockito.when;
+
+import com.gerritforge.gerrit.eventbroker.EventGsonProvider;
+import com.gerritforge.gerrit.eventbroker.EventMessage;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.events.ProjectCreatedEvent;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.util.OneOffRequestContext;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import software.amazon.kinesis.lifecycle.events.InitializationInput;
+import software.amazon.kinesis.lifecycle.events.ProcessRecordsInput;
+import software.amazon.kinesis.processor.RecordProcessorCheckpointer;
+import software.amazon.kinesis.retrieval.KinesisClientRecord;
+
+@RunWith(MockitoJUnitRunner.class)
+public class KinesisRecordProcessorTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+  private static final String STREAM_NAME = "gerrit_cache_eviction";
+  private static final String SHARD_ID = "shardId-000000000000";
+  private static final long MAX_EVENT_AGE = 300000L;
+  private static final String INSTANCE_ID = "gerrit-1";
+  private static final UUID SOURCE_INSTANCE_ID = UUID.randomUUID();
+
+  private final Gson gson = new EventGsonProvider().get();
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  @Mock private OneOffRequestContext oneOffCtxMock;
+  @Mock private WorkQueue workQueueMock;
+  @Mock private SchemaRegistry schemaRegistryMock;
+  @Mock private RecordProcessorCheckpointer checkpointerMock;
+  private PluginConfig.Update pluginConfig;
+  private Config globalPluginConfig;
+  private List<EventMessage> consumedMessages;
+  private int failingHandlings;
+
+  @Before
+  public void setup() {
+    pluginConfig = PluginConfig.Update.forTest(PLUGIN_NAME, new Config());
+    globalPluginConfig = new Config();
+    consumedMessages = new ArrayList<>();
+  }
+
+  @Test
+  public void shouldSkipRecordsOlderThanTheTopicMaxEventAge() {
+    globalPluginConfig.setLong(TOPIC_SECTION, STREAM_NAME, MAX_EVENT_AGE_MS, MAX_EVENT_AGE);
+    EventMessage stale = eventMessage();
+    EventMessage fresh = eventMessage();
+
+    recordProcessor()
+        .processRecords(
+            processRecordsInput(
+                record(stale, Instant.now().minusMillis(MAX_EVENT_AGE + 60000)),
+                record(fresh, Instant.now())));
+
+    assertThat(consumedEventIds()).containsExactly(fresh.getHeader().eventId);
+  }
+
+  @Test
+  public void shouldConsumeRecordsWithinTheTopicMaxEventAge() {
+    globalPluginConfig.setLong(TOPIC_SECTION, STREAM_NAME, MAX_EVENT_AGE_MS, MAX_EVENT_AGE);
+    EventMessage message = eventMessage();
+
+    recordProcessor()
+        .processRecords(
+            processRecordsInput(record(message, Instant.now().minusMillis(MAX_EVENT_AGE / 2))));
+
+    assertThat(consumedEventIds()).containsExactly(message.getHeader().eventId);
+  }
+
+  @Test
+  public void shouldConsumeOldRecordsOfTopicsWithoutMaxEventAge() {
+    globalPluginConfig.setLong(TOPIC_SECTION, "another_topic", MAX_EVENT_AGE_MS, MAX_EVENT_AGE);
+    EventMessage message = eventMessage();
+
+    recordProcessor()
+        .processRecords(
+            processRecordsInput(record(message, Instant.now().minus(1, ChronoUnit.DAYS))));
+
+    assertThat(consumedEventIds()).containsExactly(message.getHeader().eventId);
+  }
+
+  @Test
+  public void shouldConsumeRecordsWithoutArrivalTimestamp() {
+    globalPluginConfig.setLong(TOPIC_SECTION, STREAM_NAME, MAX_EVENT_AGE_MS, MAX_EVENT_AGE);
+    EventMessage message = eventMessage();
+
+    recordProcessor().processRecords(processRecordsInput(record(message, null)));
+
+    assertThat(consumedEventIds()).containsExactly(message.getHeader().eventId);
+  }
+
+  @Test
+  public void shouldSkipRecordsOfTheConfiguredSourceInstanceIds() {
+    pluginConfig.setBoolean("skipSelfOriginatedEvents", true);
+    pluginConfig.setString("sourceInstanceId", SOURCE_INSTANCE_ID.toString());
+    EventMessage selfOriginated = eventMessage(SOURCE_INSTANCE_ID);
+    EventMessage fromAnotherNode = eventMessage();
+
+    recordProcessor()
+        .processRecords(
+            processRecordsInput(
+                record(selfOriginated, Instant.now()), record(fromAnotherNode, Instant.now())));
+
+    assertThat(consumedEventIds()).containsExactly(fromAnotherNode.getHeader().eventId);
+  }
+
+  @Test
+  public void shouldSkipRecordsPublishedWithTheGerritInstanceId() {
+    pluginConfig.setBoolean("skipSelfOriginatedEvents", true);
+    EventMessage message = eventMessage();
+
+    recordProcessor()
+        .processRecords(processRecordsInput(record(message, INSTANCE_ID, Instant.now())));
+
+    assertThat(consumedMessages).isEmpty();
+  }
+
+  @Test
+  public void shouldConsumeSelfOriginatedRecordsWhenNotSkippingThem() {
+    pluginConfig.setString("sourceInstanceId", SOURCE_INSTANCE_ID.toString());
+    EventMessage selfOriginated = eventMessage(SOURCE_INSTANCE_ID);
+
+    recordProcessor().processRecords(processRecordsInput(record(selfOriginated, Instant.now())));
+
+    assertThat(consumedEventIds()).containsExactly(selfOriginated.getHeader().eventId);
+  }
+
+  @Test
+  public void shouldSkipEventsAlreadyConsumed() {
+    pluginConfig.setLong("dedupCacheSize", 100L);
+    EventMessage message = eventMessage();
+    KinesisRecordProcessor recordProcessor = recordProcessor();
+
+    recordProcessor.processRecords(processRecordsInput(record(message, Instant.now())));
+    recordProcessor.processRecords(processRecordsInput(record(message, Instant.now())));
+
+    assertThat(consumedEventIds()).containsExactly(message.getHeader().eventId);
+  }
+
+  @Test
+  public void shouldConsumeAgainEventsTheSubscriberFailedToHandle() {
+    pluginConfig.setLong("dedupCacheSize", 100L);
+    EventMessage message = eventMessage();
+    failingHandlings = 1;
+    KinesisRecordProcessor recordProcessor = recordProcessor();
+
+    recordProcessor.processRecords(processRecordsInput(record(message, Instant.now())));
+    recordProcessor.processRecords(processRecordsInput(record(message, Instant.now())));
+
+    assertThat(consumedEventIds()).containsExactly(message.getHeader().eventId);
+  }
+
+  @Test
+  public void shouldOnlyDropTheBadRecordsOfABatch() {
+    pluginConfig.setLong("dedupCacheSize", 100L);
+    EventMessage message = eventMessage();
+    JsonObject withoutHeader = gson.toJsonTree(eventMessage()).getAsJsonObject();
+    withoutHeader.remove("header");
+    KinesisClientRecord headerless =
+        KinesisClientRecord.builder()
+            .data(ByteBuffer.wrap(gson.toJson(withoutHeader).getBytes()))
+            .partitionKey(SOURCE_INSTANCE_ID.toString())
+            .sequenceNumber("1")
+            .approximateArrivalTimestamp(Instant.now())
+            .build();
+
+    recordProcessor(consumedMessages::addAll)
+        .processRecords(processRecordsInput(headerless, record(message, Instant.now())));
+
+    assertThat(consumedEventIds()).containsExactly(message.getHeader().eventId);
+  }
+
+  private KinesisRecordProcessor recordProcessor() {
+    return recordProcessor(EventBatchConsumer.forEachMessage(this::consume));
+  }
+
+  private KinesisRecordProcessor recordProcessor(EventBatchConsumer eventBatchConsumer) {
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(globalPluginConfig);
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+    Configuration configuration = new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+    ConsumerMetrics consumerMetrics = new ConsumerMetrics(new DisabledMetricMaker());
+    KinesisRecordProcessor recordProcessor =
+        new KinesisRecordProcessor(
+            STREAM_NAME,
+            configuration.getPrimaryEndpoint(),
+            new CatchUpMonitor(STREAM_NAME, configuration, () -> {}),
+            eventBatchConsumer,
+            oneOffCtxMock,
+            gson,
+            null,
+            consumerMetrics,
+            new LocalEventSources(INSTANCE_ID, configuration),
+            new HandlerExecutors(workQueueMock, configuration),
+            new ConsumedEventsCache(configuration, consumerMetrics),
+            new ShardProgress(),
+            new RecordCodec(gson, schemaRegistryMock, configuration),
+            configuration);
+    recordProcessor.initialize(InitializationInput.builder().shardId(SHARD_ID).build());
+    return recordProcessor;
+  }
+
+  private ProcessRecordsInput processRecordsInput(KinesisClientRecord... records) {
+    return ProcessRecordsInput.builder()
+        .records(Arrays.asList(records))
+        .millisBehindLatest(0L)
+        .checkpointer(checkpointerMock)
+        .build();
+  }
+
+  private KinesisClientRecord record(EventMessage message, Instant arrivedAt) {
+    return record(message, message.getHeader().sourceInstanceId.toString(), arrivedAt);
+  }
+
+  private KinesisClientRecord record(EventMessage message, String partitionKey, Instant arrivedAt) {
+    return KinesisClientRecord.builder()
+        .data(ByteBuffer.wrap(gson.toJson(message).getBytes()))
+        .partitionKey(partitionKey)
+        .sequenceNumber(message.getHeader().eventId.toString())
+        .approximateArrivalTimestamp(arrivedAt)
+        .build();
+  }
+
+  private void consume(EventMessage message) {
+    if (failingHandlings > 0) {
+      failingHandlings--;
+      throw new IllegalStateException("Subscriber failure");
+    }
+    consumedMessages.add(message);
+  }
+
+  private List<UUID> consumedEventIds() {
+    List<UUID> eventIds = new ArrayList<>();
+    consumedMessages.forEach(m -> eventIds.add(m.getHeader().eventId));
+    return eventIds;
+  }
+
+  private static EventMessage eventMessage() {
+    return eventMessage(UUID.randomUUID());
+  }
+
+  private static EventMessage eventMessage(UUID sourceInstanceId) {
+    return new EventMessage(
+        new EventMessage.Header(UUID.randomUUID(), sourceInstanceId), new ProjectCreatedEvent());
+  }
+}
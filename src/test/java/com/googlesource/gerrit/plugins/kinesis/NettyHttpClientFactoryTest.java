@@ -0,0 +1,128 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+import static com.googlesource.gerrit.plugins.kinesis.Configuration.HTTP_CLIENT_SECTION;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import software.amazon.awssdk.http.Protocol;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
+
+@RunWith(MockitoJUnitRunner.class)
+public class NettyHttpClientFactoryTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+  private static final HttpClientSettings DEFAULTS =
+      HttpClientSettings.builder()
+          .maxConcurrency(Integer.MAX_VALUE)
+          .protocol(Protocol.HTTP2)
+          .http2InitialWindowSize(512 * 1024)
+          .build();
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  private Config httpClientsConfig;
+  private SdkEventLoopGroup eventLoopGroup;
+
+  @Before
+  public void setup() {
+    httpClientsConfig = new Config();
+    eventLoopGroup = SdkEventLoopGroup.builder().numberOfThreads(1).build();
+  }
+
+  @After
+  public void teardown() {
+    eventLoopGroup.eventLoopGroup().shutdownGracefully();
+  }
+
+  @Test
+  public void shouldUseTheDefaultsWhenNotConfigured() {
+    HttpClientSettings settings =
+        httpClientFactory().settings(HttpClientSettings.KINESIS, DEFAULTS);
+
+    assertThat(settings).isEqualTo(DEFAULTS);
+  }
+
+  @Test
+  public void shouldPreferTheConfiguredSettingsToTheDefaults() {
+    httpClientsConfig.setInt(HTTP_CLIENT_SECTION, HttpClientSettings.KINESIS, "maxConcurrency", 50);
+    httpClientsConfig.setString(
+        HTTP_CLIENT_SECTION, HttpClientSettings.KINESIS, "protocol", "http1_1");
+
+    HttpClientSettings settings =
+        httpClientFactory().settings(HttpClientSettings.KINESIS, DEFAULTS);
+
+    assertThat(settings.maxConcurrency()).hasValue(50);
+    assertThat(settings.protocol()).hasValue(Protocol.HTTP1_1);
+    assertThat(settings.http2InitialWindowSize()).hasValue(512 * 1024);
+  }
+
+  @Test
+  public void shouldOnlyApplyTheSettingsOfTheClient() {
+    httpClientsConfig.setInt(
+        HTTP_CLIENT_SECTION, HttpClientSettings.DYNAMODB, "maxConcurrency", 100);
+
+    NettyHttpClientFactory httpClientFactory = httpClientFactory();
+
+    assertThat(
+            httpClientFactory
+                .settings(HttpClientSettings.DYNAMODB, HttpClientSettings.builder().build())
+                .maxConcurrency())
+        .hasValue(100);
+    assertThat(httpClientFactory.settings(HttpClientSettings.KINESIS, DEFAULTS).maxConcurrency())
+        .hasValue(Integer.MAX_VALUE);
+  }
+
+  @Test
+  public void shouldBuildClientsWithHttp2Settings() {
+    httpClientsConfig.setLong(
+        HTTP_CLIENT_SECTION, HttpClientSettings.KINESIS, "http2HealthCheckPingPeriodMs", 30000L);
+
+    try (SdkAsyncHttpClient client =
+        httpClientFactory().builder(HttpClientSettings.KINESIS, DEFAULTS).build()) {
+      assertThat(client.clientName()).isEqualTo("NettyNio");
+    }
+  }
+
+  @Test
+  public void shouldShutDownTheSharedEventLoopGroupWhenStopping() {
+    NettyHttpClientFactory httpClientFactory = httpClientFactory();
+    httpClientFactory.builder(HttpClientSettings.KINESIS, DEFAULTS).build().close();
+    httpClientFactory.builder(HttpClientSettings.DYNAMODB).build().close();
+    assertThat(eventLoopGroup.eventLoopGroup().isShuttingDown()).isFalse();
+
+    httpClientFactory.stop();
+
+    assertThat(eventLoopGroup.eventLoopGroup().isShuttingDown()).isTrue();
+  }
+
+  private NettyHttpClientFactory httpClientFactory() {
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(httpClientsConfig);
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(PluginConfig.Update.forTest(PLUGIN_NAME, new Config()).asPluginConfig());
+    return new NettyHttpClientFactory(
+        new Configuration(pluginConfigFactoryMock, PLUGIN_NAME), eventLoopGroup);
+  }
+}
@@ -0,0 +1,115 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ProducerCallbackExecutorProviderTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+  private static final int CALLBACKS = 10;
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  private PluginConfig.Update pluginConfig;
+
+  @Before
+  public void setup() {
+    pluginConfig = PluginConfig.Update.forTest(PLUGIN_NAME, new Config());
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(new Config());
+  }
+
+  @Test
+  public void shouldRunCallbacksOnProducerCallbackThreadsByDefault() throws Exception {
+    pluginConfig.setInt("producerCallbackThreads", 2);
+
+    Set<String> threads = runCallbacks(producerCallbackExecutorProvider().get());
+
+    assertThat(threads.size()).isAtMost(2);
+    threads.forEach(t -> assertThat(t).startsWith("kinesis-producer-callback-executor-"));
+  }
+
+  @Test
+  public void shouldNotDelayCallbacksBehindSlowOnesInElasticMode() throws Exception {
+    pluginConfig.setInt("producerCallbackThreads", 1);
+    pluginConfig.setString("executorMode", "elastic");
+    CountDownLatch slowCallbackRunning = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch callbackRun = new CountDownLatch(1);
+
+    ExecutorService executor = producerCallbackExecutorProvider().get();
+    try {
+      executor.execute(
+          () -> {
+            slowCallbackRunning.countDown();
+            awaitUninterruptibly(release);
+          });
+      assertThat(slowCallbackRunning.await(10, TimeUnit.SECONDS)).isTrue();
+      executor.execute(callbackRun::countDown);
+
+      assertThat(callbackRun.await(10, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  private Set<String> runCallbacks(ExecutorService executor) throws InterruptedException {
+    Set<String> threads = ConcurrentHashMap.newKeySet();
+    CountDownLatch done = new CountDownLatch(CALLBACKS);
+    try {
+      for (int i = 0; i < CALLBACKS; i++) {
+        executor.execute(
+            () -> {
+              threads.add(Thread.currentThread().getName());
+              done.countDown();
+            });
+      }
+      assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      executor.shutdown();
+    }
+    return threads;
+  }
+
+  private ProducerCallbackExecutorProvider producerCallbackExecutorProvider() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+    return new ProducerCallbackExecutorProvider(
+        new Configuration(pluginConfigFactoryMock, PLUGIN_NAME));
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,168 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.services.kinesis.producer.KinesisProducer;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ProducerWarmUpTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  @Mock private KinesisProducerProvider producerProviderMock;
+  @Mock private KinesisProducer defaultProducerMock;
+  @Mock private KinesisProducer urgentProducerMock;
+  @Mock private PublisherMetrics publisherMetricsMock;
+  @Mock private EndpointRouter endpointRouterMock;
+  @Mock private WorkQueue workQueueMock;
+  @Mock private ScheduledExecutorService executorMock;
+  @Mock private Future<?> warmUpMock;
+  private PluginConfig.Update pluginConfig;
+  private Config globalPluginConfig;
+
+  @Before
+  public void setup() {
+    pluginConfig = PluginConfig.Update.forTest(PLUGIN_NAME, new Config());
+    pluginConfig.setString("producerStartup", "warm-up");
+    globalPluginConfig = new Config();
+    globalPluginConfig.setInt(Configuration.PRIORITY_SECTION, "urgent", "maxConnections", 4);
+    when(workQueueMock.getDefaultQueue()).thenReturn(executorMock);
+  }
+
+  @Test
+  public void shouldWarmUpAllProducersInTheBackground() throws Exception {
+    stubProducers();
+    doReturn(warmUpMock).when(executorMock).submit(any(Runnable.class));
+    Configuration configuration = configuration();
+    KinesisProducers kinesisProducers = kinesisProducers(configuration);
+
+    new ProducerWarmUp(configuration, kinesisProducers, workQueueMock).start();
+    assertThat(kinesisProducers.started()).isEmpty();
+
+    ArgumentCaptor<Runnable> warmUp = ArgumentCaptor.forClass(Runnable.class);
+    verify(executorMock).submit(warmUp.capture());
+    warmUp.getValue().run();
+
+    assertThat(kinesisProducers.started().keySet()).containsExactly("default", "urgent");
+    verify(defaultProducerMock).getMetrics("UserRecordsPut", 1);
+    verify(urgentProducerMock).getMetrics("UserRecordsPut", 1);
+  }
+
+  @Test
+  public void shouldNotWarmUpWhenStartingProducersLazily() {
+    pluginConfig.setString("producerStartup", "lazy");
+    Configuration configuration = configuration();
+
+    new ProducerWarmUp(configuration, kinesisProducers(configuration), workQueueMock).start();
+
+    verifyNoInteractions(executorMock);
+  }
+
+  @Test
+  public void shouldCancelTheWarmUpWhenStopped() {
+    doReturn(warmUpMock).when(executorMock).submit(any(Runnable.class));
+    Configuration configuration = configuration();
+    ProducerWarmUp producerWarmUp =
+        new ProducerWarmUp(configuration, kinesisProducers(configuration), workQueueMock);
+
+    producerWarmUp.start();
+    producerWarmUp.stop();
+
+    verify(warmUpMock).cancel(true);
+  }
+
+  @Test
+  public void shouldStopWarmedUpProducers() {
+    stubProducers();
+    KinesisProducers kinesisProducers = kinesisProducers(configuration());
+    kinesisProducers.warmUp();
+
+    kinesisProducers.stop();
+
+    verify(defaultProducerMock).flushSync();
+    verify(defaultProducerMock).destroy();
+    verify(urgentProducerMock).flushSync();
+    verify(urgentProducerMock).destroy();
+  }
+
+  @Test
+  public void shouldNotStartProducersOnceStopped() {
+    KinesisProducers kinesisProducers = kinesisProducers(configuration());
+
+    kinesisProducers.stop();
+    kinesisProducers.warmUp();
+
+    verify(producerProviderMock, never()).create(any(), any());
+    assertThat(kinesisProducers.started()).isEmpty();
+  }
+
+  @Test
+  public void shouldNotStartLazyProducersOnceStopped() {
+    pluginConfig.setString("producerStartup", "lazy");
+    Configuration configuration = configuration();
+    when(endpointRouterMock.active()).thenReturn(configuration.getPrimaryEndpoint());
+    KinesisProducers kinesisProducers = kinesisProducers(configuration);
+
+    kinesisProducers.stop();
+
+    assertThrows(
+        IllegalStateException.class,
+        () -> kinesisProducers.addUserRecord("stream", "key", ByteBuffer.allocate(1)));
+    verify(producerProviderMock, never()).create(any(), any());
+  }
+
+  private void stubProducers() {
+    when(producerProviderMock.create(any(), any()))
+        .thenAnswer(
+            invocation ->
+                invocation.<PriorityClass>getArgument(0).name().equals("urgent")
+                    ? urgentProducerMock
+                    : defaultProducerMock);
+  }
+
+  private KinesisProducers kinesisProducers(Configuration configuration) {
+    return new KinesisProducers(
+        configuration, producerProviderMock, publisherMetricsMock, endpointRouterMock);
+  }
+
+  private Configuration configuration() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(globalPluginConfig);
+    return new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+  }
+}
@@ -0,0 +1,172 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Ticker;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.googlesource.gerrit.plugins.kinesis.PublishCircuitBreaker.State;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PublishCircuitBreakerTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+  private static final String STREAM_NAME = "gerrit";
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  @Mock private PublisherMetrics publisherMetricsMock;
+  @Mock private KinesisProducers kinesisProducersMock;
+  @Mock private StreamEventRules streamEventRulesMock;
+  @Mock private EventCoalescer eventCoalescerMock;
+  @Mock private ShardRateLimiter shardRateLimiterMock;
+  @Mock private RecordCodec recordCodecMock;
+  private PluginConfig.Update pluginConfig;
+  private FakeTicker ticker;
+
+  @Before
+  public void setup() {
+    pluginConfig = PluginConfig.Update.forTest(PLUGIN_NAME, new Config());
+    pluginConfig.setString("circuitBreakerFailureRateThreshold", "50");
+    pluginConfig.setString("circuitBreakerMinimumCalls", "4");
+    pluginConfig.setString("circuitBreakerOpenMs", "1000");
+    pluginConfig.setString("circuitBreakerProbes", "2");
+    ticker = new FakeTicker();
+  }
+
+  @Test
+  public void shouldAlwaysPublishWhenDisabled() {
+    pluginConfig.setString("circuitBreakerFailureRateThreshold", "0");
+    PublishCircuitBreaker circuitBreaker = circuitBreaker();
+
+    for (int i = 0; i < 10; i++) {
+      assertThat(circuitBreaker.tryAcquire(STREAM_NAME)).isTrue();
+      circuitBreaker.onFailure();
+    }
+    assertThat(circuitBreaker.getState()).isEqualTo(State.CLOSED);
+  }
+
+  @Test
+  public void shouldOpenWhenFailureRateIsReached() {
+    PublishCircuitBreaker circuitBreaker = circuitBreaker();
+
+    circuitBreaker.onSuccess();
+    circuitBreaker.onSuccess();
+    circuitBreaker.onFailure();
+    assertThat(circuitBreaker.getState()).isEqualTo(State.CLOSED);
+
+    circuitBreaker.onFailure();
+    assertThat(circuitBreaker.getState()).isEqualTo(State.OPEN);
+    assertThat(circuitBreaker.tryAcquire(STREAM_NAME)).isFalse();
+    verify(publisherMetricsMock).incrementCircuitBreakerRejections(STREAM_NAME);
+  }
+
+  @Test
+  public void shouldCloseAfterSuccessfulProbes() {
+    PublishCircuitBreaker circuitBreaker = openCircuitBreaker();
+
+    ticker.advanceMillis(1000);
+    assertThat(circuitBreaker.tryAcquire(STREAM_NAME)).isTrue();
+    assertThat(circuitBreaker.tryAcquire(STREAM_NAME)).isTrue();
+    assertThat(circuitBreaker.tryAcquire(STREAM_NAME)).isFalse();
+    assertThat(circuitBreaker.getState()).isEqualTo(State.HALF_OPEN);
+
+    circuitBreaker.onSuccess();
+    circuitBreaker.onSuccess();
+    assertThat(circuitBreaker.getState()).isEqualTo(State.CLOSED);
+    assertThat(circuitBreaker.tryAcquire(STREAM_NAME)).isTrue();
+  }
+
+  @Test
+  public void shouldOpenAgainWhenAProbeFails() {
+    PublishCircuitBreaker circuitBreaker = openCircuitBreaker();
+
+    ticker.advanceMillis(1000);
+    assertThat(circuitBreaker.tryAcquire(STREAM_NAME)).isTrue();
+    circuitBreaker.onFailure();
+
+    assertThat(circuitBreaker.getState()).isEqualTo(State.OPEN);
+    assertThat(circuitBreaker.tryAcquire(STREAM_NAME)).isFalse();
+  }
+
+  @Test
+  public void shouldOpenAgainWhenAProbeThrowsBeforeBeingSent() {
+    PublishCircuitBreaker circuitBreaker = openCircuitBreaker();
+    when(recordCodecMock.encode(any())).thenThrow(new IllegalStateException("encoding failed"));
+    KinesisPublisher publisher =
+        new KinesisPublisher(
+            new Gson(),
+            kinesisProducersMock,
+            new Configuration(pluginConfigFactoryMock, PLUGIN_NAME),
+            null,
+            streamEventRulesMock,
+            eventCoalescerMock,
+            circuitBreaker,
+            shardRateLimiterMock,
+            recordCodecMock,
+            null);
+
+    ticker.advanceMillis(1000);
+    assertThat(publisher.publish(STREAM_NAME, new JsonObject(), "partitionKey").isSuccess())
+        .isFalse();
+    assertThat(circuitBreaker.getState()).isEqualTo(State.OPEN);
+
+    ticker.advanceMillis(1000);
+    assertThat(circuitBreaker.tryAcquire(STREAM_NAME)).isTrue();
+    assertThat(circuitBreaker.getState()).isEqualTo(State.HALF_OPEN);
+  }
+
+  private PublishCircuitBreaker openCircuitBreaker() {
+    PublishCircuitBreaker circuitBreaker = circuitBreaker();
+    for (int i = 0; i < 4; i++) {
+      circuitBreaker.onFailure();
+    }
+    assertThat(circuitBreaker.getState()).isEqualTo(State.OPEN);
+    return circuitBreaker;
+  }
+
+  private PublishCircuitBreaker circuitBreaker() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(new Config());
+    return new PublishCircuitBreaker(
+        new Configuration(pluginConfigFactoryMock, PLUGIN_NAME), publisherMetricsMock, ticker);
+  }
+
+  private static class FakeTicker extends Ticker {
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void advanceMillis(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+  }
+}
@@ -0,0 +1,212 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.gerritforge.gerrit.eventbroker.EventGsonProvider;
+import com.gerritforge.gerrit.eventbroker.EventMessage;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.ProjectCreatedEvent;
+import com.google.gerrit.server.events.RefUpdatedEvent;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.UUID;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RecordCodecTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+
+  private final Gson gson = new EventGsonProvider().get();
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  @Mock private SchemaRegistry schemaRegistryMock;
+  private PluginConfig.Update pluginConfig;
+
+  @Before
+  public void setup() throws IOException {
+    pluginConfig = PluginConfig.Update.forTest(PLUGIN_NAME, new Config());
+    pluginConfig.setString(
+        "localSchemaRegistryDirectory", Files.createTempDirectory(PLUGIN_NAME).toString());
+  }
+
+  @Test
+  public void shouldEncodeAsJsonByDefault() throws Exception {
+    JsonObject record = eventRecord();
+
+    byte[] data = recordCodec(schemaRegistryMock).encode(record);
+
+    assertThat(new String(data)).isEqualTo(gson.toJson(record));
+  }
+
+  @Test
+  public void shouldDecodeAvroRecordsWithTheSchemaRegisteredByThePublisher() throws Exception {
+    pluginConfig.setString("recordEncoding", "avro");
+    JsonObject record = eventRecord();
+
+    byte[] data = recordCodec(localSchemaRegistry()).encode(record);
+    JsonObject consumed = recordCodec(localSchemaRegistry()).decode(data);
+
+    assertThat(consumed).isEqualTo(record);
+    assertThat(data.length).isLessThan(gson.toJson(record).getBytes().length);
+    assertThat(gson.fromJson(consumed, EventMessage.class).getHeader().eventId)
+        .isEqualTo(gson.fromJson(record, EventMessage.class).getHeader().eventId);
+  }
+
+  @Test
+  public void shouldDecodeAvroStreamEventsAndHeartbeats() throws Exception {
+    pluginConfig.setString("recordEncoding", "avro");
+    RecordCodec recordCodec = recordCodec(localSchemaRegistry());
+    JsonObject streamEvent = streamEventRecord(new RefUpdatedEvent());
+    JsonObject heartbeat = RecordEnvelope.heartbeat();
+
+    assertThat(recordCodec.decode(recordCodec.encode(streamEvent))).isEqualTo(streamEvent);
+    assertThat(recordCodec.decode(recordCodec.encode(heartbeat))).isEqualTo(heartbeat);
+  }
+
+  @Test
+  public void shouldRegisterEachSchemaOnceWhateverTheEventMembers() throws Exception {
+    pluginConfig.setString("recordEncoding", "avro");
+    RecordCodec recordCodec = recordCodec(schemaRegistryMock);
+    JsonObject unstamped = eventRecord();
+    unstamped.remove(RecordEnvelope.METADATA);
+
+    byte[] event = recordCodec.encode(eventRecord());
+    byte[] otherEvent = recordCodec.encode(unstamped);
+    byte[] streamEvent = recordCodec.encode(streamEventRecord(new ProjectCreatedEvent()));
+    byte[] otherStreamEvent = recordCodec.encode(streamEventRecord(new RefUpdatedEvent()));
+    byte[] heartbeat = recordCodec.encode(RecordEnvelope.heartbeat());
+
+    verify(schemaRegistryMock, times(2)).register(anyLong(), any());
+    assertThat(schemaId(otherEvent)).isEqualTo(schemaId(event));
+    assertThat(schemaId(otherStreamEvent)).isEqualTo(schemaId(streamEvent));
+    assertThat(schemaId(heartbeat)).isEqualTo(schemaId(streamEvent));
+  }
+
+  @Test
+  public void shouldDecodeAvroRecordsWithTheSchemaLookedUpFromTheRegistry() throws Exception {
+    pluginConfig.setString("recordEncoding", "avro");
+    Schema schema =
+        SchemaBuilder.record("Record")
+            .fields()
+            .requiredString("type")
+            .nullableLong("n", 0)
+            .endRecord();
+    long id = SchemaNormalization.parsingFingerprint64(schema);
+    when(schemaRegistryMock.lookup(id)).thenReturn(Optional.of(schema));
+    GenericRecord record = new GenericData.Record(schema);
+    record.put("type", "ref-updated");
+    record.put("n", null);
+
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    data.write(new byte[] {(byte) 0xC3, (byte) 0x01});
+    data.write(ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).putLong(id).array());
+    BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(data, null);
+    new GenericDatumWriter<GenericRecord>(schema).write(record, encoder);
+    encoder.flush();
+
+    JsonObject consumed = recordCodec(schemaRegistryMock).decode(data.toByteArray());
+
+    assertThat(consumed.get("type").getAsString()).isEqualTo("ref-updated");
+    assertThat(consumed.has("n")).isFalse();
+  }
+
+  @Test
+  public void shouldFallBackToJsonWhenTheSchemaCannotBeRegistered() throws Exception {
+    pluginConfig.setString("recordEncoding", "avro");
+    doThrow(new IOException("unavailable")).when(schemaRegistryMock).register(anyLong(), any());
+    JsonObject record = eventRecord();
+
+    byte[] data = recordCodec(schemaRegistryMock).encode(record);
+
+    assertThat(new String(data)).isEqualTo(gson.toJson(record));
+  }
+
+  @Test
+  public void shouldDecodeJsonRecordsWhenEncodingAsAvro() throws Exception {
+    pluginConfig.setString("recordEncoding", "avro");
+    JsonObject record = eventRecord();
+
+    JsonObject consumed = recordCodec(schemaRegistryMock).decode(gson.toJson(record).getBytes());
+
+    assertThat(consumed).isEqualTo(record);
+  }
+
+  private RecordCodec recordCodec(SchemaRegistry schemaRegistry) {
+    return new RecordCodec(gson, schemaRegistry, configuration());
+  }
+
+  private LocalSchemaRegistry localSchemaRegistry() throws IOException {
+    return new LocalSchemaRegistry(configuration(), Files.createTempDirectory(PLUGIN_NAME));
+  }
+
+  private Configuration configuration() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(new Config());
+    return new Configuration(pluginConfigFactoryMock, PLUGIN_NAME);
+  }
+
+  private JsonObject streamEventRecord(Event event) {
+    JsonObject record = gson.toJsonTree(event).getAsJsonObject();
+    RecordEnvelope.stamp(record, Instant.now(), Optional.of("gerrit-1"));
+    return record;
+  }
+
+  private static byte[] schemaId(byte[] data) {
+    return Arrays.copyOfRange(data, 0, 10);
+  }
+
+  private JsonObject eventRecord() {
+    JsonObject record =
+        gson.toJsonTree(
+                new EventMessage(
+                    new EventMessage.Header(UUID.randomUUID(), UUID.randomUUID()),
+                    new ProjectCreatedEvent()))
+            .getAsJsonObject();
+    RecordEnvelope.stamp(record, Instant.now(), Optional.of("gerrit-1"));
+    return record;
+  }
+}
@@ -0,0 +1,87 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+
+import com.gerritforge.gerrit.eventbroker.EventGsonProvider;
+import com.gerritforge.gerrit.eventbroker.EventMessage;
+import com.google.gerrit.server.events.ProjectCreatedEvent;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+import org.junit.Test;
+
+public class RecordEnvelopeTest {
+  private final Gson gson = new EventGsonProvider().get();
+
+  @Test
+  public void shouldReadBackTheStampedMetadata() {
+    Instant publishedAt = Instant.ofEpochMilli(1623162356000L);
+    JsonObject record = gson.toJsonTree(eventMessage()).getAsJsonObject();
+
+    RecordEnvelope.stamp(record, publishedAt, Optional.of("gerrit-1"));
+
+    JsonObject consumed = gson.fromJson(gson.toJson(record), JsonObject.class);
+    assertThat(RecordEnvelope.publishedAt(consumed)).hasValue(publishedAt);
+    assertThat(RecordEnvelope.publishedBy(consumed)).hasValue("gerrit-1");
+  }
+
+  @Test
+  public void shouldStillDeserializeTheStampedEventMessage() {
+    EventMessage message = eventMessage();
+    JsonObject record = gson.toJsonTree(message).getAsJsonObject();
+
+    RecordEnvelope.stamp(record, Instant.now(), Optional.empty());
+
+    EventMessage consumed = gson.fromJson(gson.toJson(record), EventMessage.class);
+    assertThat(consumed.getHeader().eventId).isEqualTo(message.getHeader().eventId);
+  }
+
+  @Test
+  public void shouldKeepTheHeartbeatFlagWhenStamping() {
+    JsonObject record = RecordEnvelope.heartbeat();
+
+    RecordEnvelope.stamp(record, Instant.now(), Optional.of("gerrit-1"));
+
+    assertThat(RecordEnvelope.isHeartbeat(record)).isTrue();
+    assertThat(RecordEnvelope.publishedBy(record)).hasValue("gerrit-1");
+  }
+
+  @Test
+  public void shouldNotTakeEventsForHeartbeats() {
+    JsonObject record = gson.toJsonTree(eventMessage()).getAsJsonObject();
+
+    RecordEnvelope.stamp(record, Instant.now(), Optional.empty());
+
+    assertThat(RecordEnvelope.isHeartbeat(record)).isFalse();
+  }
+
+  @Test
+  public void shouldHaveNoMetadataWhenNotStamped() {
+    JsonObject record = gson.toJsonTree(eventMessage()).getAsJsonObject();
+
+    assertThat(RecordEnvelope.publishedAt(record)).isEmpty();
+    assertThat(RecordEnvelope.publishedBy(record)).isEmpty();
+  }
+
+  private EventMessage eventMessage() {
+    return new EventMessage(
+        new EventMessage.Header(UUID.randomUUID(), UUID.randomUUID()), new ProjectCreatedEvent());
+  }
+}
@@ -0,0 +1,280 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Ticker;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import java.math.BigInteger;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.HashKeyRange;
+import software.amazon.awssdk.services.kinesis.model.ListShardsRequest;
+import software.amazon.awssdk.services.kinesis.model.ListShardsResponse;
+import software.amazon.awssdk.services.kinesis.model.SequenceNumberRange;
+import software.amazon.awssdk.services.kinesis.model.Shard;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ShardRateLimiterTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+  private static final String STREAM_NAME = "gerrit";
+  private static final BigInteger HALF_HASH_KEY_RANGE = BigInteger.ONE.shiftLeft(127);
+  private static final KinesisEndpoint PRIMARY =
+      KinesisEndpoint.create(KinesisEndpoint.PRIMARY, Optional.empty(), Optional.empty());
+  private static final KinesisEndpoint FAILOVER =
+      KinesisEndpoint.create("failover", Optional.empty(), Optional.empty());
+
+  // The MD5 hash of "a" starts with 0x0c, the one of "abc" with 0x90.
+  private static final String LOWER_HALF_KEY = "a";
+  private static final String UPPER_HALF_KEY = "abc";
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  @Mock private KinesisAsyncClient kinesisAsyncClientMock;
+  @Mock private KinesisAsyncClient failoverClientMock;
+  @Mock private EndpointRouter endpointRouterMock;
+  @Mock private KinesisEndpointClients endpointClientsMock;
+  @Mock private PublisherMetrics publisherMetricsMock;
+  @Mock private WorkQueue workQueueMock;
+  @Mock private ScheduledExecutorService executorMock;
+  private PluginConfig.Update pluginConfig;
+  private FakeTicker ticker;
+
+  @Before
+  public void setup() {
+    pluginConfig = PluginConfig.Update.forTest(PLUGIN_NAME, new Config());
+    pluginConfig.setString("shardRateLimitRecordsPerSecond", "5");
+    pluginConfig.setString("shardRateLimitBytesPerSecond", "1000");
+    pluginConfig.setString("shardRateLimitMaxWaitMs", "500");
+    ticker = new FakeTicker();
+  }
+
+  @Test
+  public void shouldPredictTheShardFromThePartitionKeyHash() {
+    when(endpointClientsMock.forEndpoint(PRIMARY)).thenReturn(kinesisAsyncClientMock);
+    when(kinesisAsyncClientMock.listShards(any(ListShardsRequest.class)))
+        .thenReturn(CompletableFuture.completedFuture(twoShards()));
+    ShardRateLimiter shardRateLimiter = shardRateLimiter();
+
+    assertThat(shardRateLimiter.shardFor(PRIMARY, STREAM_NAME, LOWER_HALF_KEY)).hasValue("shard-0");
+    assertThat(shardRateLimiter.shardFor(PRIMARY, STREAM_NAME, UPPER_HALF_KEY)).hasValue("shard-1");
+  }
+
+  @Test
+  public void shouldNotWaitForTheShardMapToBeListed() {
+    CompletableFuture<ListShardsResponse> listShards = new CompletableFuture<>();
+    activeEndpoint(PRIMARY, kinesisAsyncClientMock);
+    when(kinesisAsyncClientMock.listShards(any(ListShardsRequest.class))).thenReturn(listShards);
+    ShardRateLimiter shardRateLimiter = shardRateLimiter();
+
+    assertThat(shardRateLimiter.shardFor(PRIMARY, STREAM_NAME, LOWER_HALF_KEY)).isEmpty();
+    shardRateLimiter.acquire(STREAM_NAME, LOWER_HALF_KEY, 1);
+
+    listShards.complete(twoShards());
+    assertThat(shardRateLimiter.shardFor(PRIMARY, STREAM_NAME, LOWER_HALF_KEY)).hasValue("shard-0");
+  }
+
+  @Test
+  public void shouldPublishAnywayWithoutReservingWhenOverTheMaxWait() {
+    activeEndpoint(PRIMARY, kinesisAsyncClientMock);
+    when(kinesisAsyncClientMock.listShards(any(ListShardsRequest.class)))
+        .thenReturn(CompletableFuture.completedFuture(twoShards()));
+    ShardRateLimiter shardRateLimiter = shardRateLimiter();
+
+    shardRateLimiter.acquire(STREAM_NAME, LOWER_HALF_KEY, 2000);
+    verify(publisherMetricsMock, never()).incrementRateLimitExceeded(STREAM_NAME);
+
+    // The record would wait 200ms for the records limit, then 2s for the bytes one.
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    shardRateLimiter.acquire(STREAM_NAME, LOWER_HALF_KEY, 1);
+    assertThat(stopwatch.elapsed(TimeUnit.MILLISECONDS)).isLessThan(200L);
+    verify(publisherMetricsMock).incrementRateLimitExceeded(STREAM_NAME);
+
+    // Nothing was reserved by the record let through, so the next one only waits 100ms.
+    ticker.advanceMillis(1900);
+    shardRateLimiter.acquire(STREAM_NAME, LOWER_HALF_KEY, 1);
+    verify(publisherMetricsMock).incrementRateLimitExceeded(STREAM_NAME);
+  }
+
+  @Test
+  public void shouldLimitEachShardSeparately() {
+    activeEndpoint(PRIMARY, kinesisAsyncClientMock);
+    when(kinesisAsyncClientMock.listShards(any(ListShardsRequest.class)))
+        .thenReturn(CompletableFuture.completedFuture(twoShards()));
+    ShardRateLimiter shardRateLimiter = shardRateLimiter();
+
+    shardRateLimiter.acquire(STREAM_NAME, LOWER_HALF_KEY, 2000);
+    shardRateLimiter.acquire(STREAM_NAME, UPPER_HALF_KEY, 1);
+
+    verify(publisherMetricsMock, never()).incrementRateLimitExceeded(STREAM_NAME);
+  }
+
+  @Test
+  public void shouldListTheShardsOfTheActiveEndpoint() {
+    activeEndpoint(PRIMARY, kinesisAsyncClientMock);
+    when(kinesisAsyncClientMock.listShards(any(ListShardsRequest.class)))
+        .thenReturn(CompletableFuture.completedFuture(twoShards()));
+    when(failoverClientMock.listShards(any(ListShardsRequest.class)))
+        .thenReturn(CompletableFuture.completedFuture(oneShard("shard-2")));
+    ShardRateLimiter shardRateLimiter = shardRateLimiter();
+
+    shardRateLimiter.acquire(STREAM_NAME, LOWER_HALF_KEY, 2000);
+    activeEndpoint(FAILOVER, failoverClientMock);
+    // The failover endpoint has shards and capacity of its own.
+    shardRateLimiter.acquire(STREAM_NAME, LOWER_HALF_KEY, 1);
+
+    verify(publisherMetricsMock, never()).incrementRateLimitExceeded(STREAM_NAME);
+    assertThat(shardRateLimiter.limitedShards(PRIMARY, STREAM_NAME)).containsExactly("shard-0");
+    assertThat(shardRateLimiter.limitedShards(FAILOVER, STREAM_NAME)).containsExactly("shard-2");
+  }
+
+  @Test
+  public void shouldDropTheLimitersOfShardsNoLongerListed() {
+    activeEndpoint(PRIMARY, kinesisAsyncClientMock);
+    when(kinesisAsyncClientMock.listShards(any(ListShardsRequest.class)))
+        .thenReturn(CompletableFuture.completedFuture(twoShards()))
+        .thenReturn(CompletableFuture.completedFuture(oneShard("shard-2")));
+    ShardRateLimiter shardRateLimiter = shardRateLimiter();
+
+    shardRateLimiter.acquire(STREAM_NAME, LOWER_HALF_KEY, 1);
+    shardRateLimiter.acquire(STREAM_NAME, UPPER_HALF_KEY, 1);
+    assertThat(shardRateLimiter.limitedShards(PRIMARY, STREAM_NAME))
+        .containsExactly("shard-0", "shard-1");
+
+    ticker.advanceMillis(60000);
+    shardRateLimiter.acquire(STREAM_NAME, LOWER_HALF_KEY, 1);
+
+    assertThat(shardRateLimiter.limitedShards(PRIMARY, STREAM_NAME)).containsExactly("shard-2");
+  }
+
+  @Test
+  public void shouldDeferRatherThanWaitWhenSendingAsync() {
+    pluginConfig.setBoolean("sendAsync", true);
+    activeEndpoint(PRIMARY, kinesisAsyncClientMock);
+    when(kinesisAsyncClientMock.listShards(any(ListShardsRequest.class)))
+        .thenReturn(CompletableFuture.completedFuture(twoShards()));
+    when(workQueueMock.createQueue(1, "kinesis-rate-limit")).thenReturn(executorMock);
+    ShardRateLimiter shardRateLimiter = shardRateLimiter();
+    shardRateLimiter.start();
+    Runnable publish = () -> {};
+
+    assertThat(shardRateLimiter.deferUntilAcquired(STREAM_NAME, LOWER_HALF_KEY, 1, publish))
+        .isFalse();
+    // The second record of the second has to wait 200ms for the records limit.
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    assertThat(shardRateLimiter.deferUntilAcquired(STREAM_NAME, LOWER_HALF_KEY, 1, publish))
+        .isTrue();
+    assertThat(stopwatch.elapsed(TimeUnit.MILLISECONDS)).isLessThan(200L);
+
+    verify(executorMock)
+        .schedule(publish, TimeUnit.MILLISECONDS.toNanos(200), TimeUnit.NANOSECONDS);
+    verify(publisherMetricsMock, never()).incrementRateLimitExceeded(STREAM_NAME);
+  }
+
+  @Test
+  public void shouldPublishTheDeferredRecordsBeforeStopping() throws Exception {
+    pluginConfig.setBoolean("sendAsync", true);
+    when(workQueueMock.createQueue(1, "kinesis-rate-limit")).thenReturn(executorMock);
+    when(executorMock.awaitTermination(500, TimeUnit.MILLISECONDS)).thenReturn(true);
+    ShardRateLimiter shardRateLimiter = shardRateLimiter();
+
+    shardRateLimiter.start();
+    shardRateLimiter.stop();
+
+    verify(executorMock).shutdown();
+    verify(executorMock).awaitTermination(500, TimeUnit.MILLISECONDS);
+  }
+
+  private ShardRateLimiter shardRateLimiter() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(new Config());
+    return new ShardRateLimiter(
+        new Configuration(pluginConfigFactoryMock, PLUGIN_NAME),
+        endpointRouterMock,
+        endpointClientsMock,
+        publisherMetricsMock,
+        workQueueMock,
+        ticker);
+  }
+
+  private void activeEndpoint(KinesisEndpoint endpoint, KinesisAsyncClient client) {
+    when(endpointRouterMock.active()).thenReturn(endpoint);
+    when(endpointClientsMock.forEndpoint(endpoint)).thenReturn(client);
+  }
+
+  private static ListShardsResponse twoShards() {
+    return ListShardsResponse.builder()
+        .shards(
+            shard("shard-0", BigInteger.ZERO, HALF_HASH_KEY_RANGE.subtract(BigInteger.ONE)),
+            shard(
+                "shard-1",
+                HALF_HASH_KEY_RANGE,
+                HALF_HASH_KEY_RANGE.shiftLeft(1).subtract(BigInteger.ONE)))
+        .build();
+  }
+
+  private static ListShardsResponse oneShard(String shardId) {
+    return ListShardsResponse.builder()
+        .shards(
+            shard(
+                shardId,
+                BigInteger.ZERO,
+                HALF_HASH_KEY_RANGE.shiftLeft(1).subtract(BigInteger.ONE)))
+        .build();
+  }
+
+  private static Shard shard(String shardId, BigInteger startingHashKey, BigInteger endingHashKey) {
+    return Shard.builder()
+        .shardId(shardId)
+        .hashKeyRange(
+            HashKeyRange.builder()
+                .startingHashKey(startingHashKey.toString())
+                .endingHashKey(endingHashKey.toString())
+                .build())
+        .sequenceNumberRange(SequenceNumberRange.builder().startingSequenceNumber("0").build())
+        .build();
+  }
+
+  private static class FakeTicker extends Ticker {
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void advanceMillis(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+  }
+}
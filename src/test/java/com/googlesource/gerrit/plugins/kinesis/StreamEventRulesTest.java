@@ -0,0 +1,126 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis;
+
+import static com.google.common.truth.Truth8.assertThat;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.events.ProjectCreatedEvent;
+import com.google.gerrit.server.events.RefUpdatedEvent;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StreamEventRulesTest {
+  private static final String PLUGIN_NAME = "kinesis-events";
+
+  @Mock private PluginConfigFactory pluginConfigFactoryMock;
+  private PluginConfig.Update pluginConfig;
+  private Config topicsConfig;
+
+  @Before
+  public void setup() {
+    pluginConfig = PluginConfig.Update.forTest(PLUGIN_NAME, new Config());
+    topicsConfig = new Config();
+  }
+
+  @Test
+  public void shouldPublishAllEventsToStreamEventsTopicByDefault() {
+    StreamEventRules rules = streamEventRules();
+
+    assertThat(rules.topicFor(projectCreatedEvent("foo"))).hasValue("gerrit");
+    assertThat(rules.topicFor(new RefUpdatedEvent())).hasValue("gerrit");
+  }
+
+  @Test
+  public void shouldOnlyPublishIncludedEventTypes() {
+    pluginConfig.setStringList("streamEventsIncludeEventType", ImmutableList.of("project-created"));
+    StreamEventRules rules = streamEventRules();
+
+    assertThat(rules.topicFor(projectCreatedEvent("foo"))).hasValue("gerrit");
+    assertThat(rules.topicFor(new RefUpdatedEvent())).isEmpty();
+  }
+
+  @Test
+  public void shouldNotPublishExcludedEventTypes() {
+    pluginConfig.setStringList("streamEventsExcludeEventType", ImmutableList.of("ref-updated"));
+    StreamEventRules rules = streamEventRules();
+
+    assertThat(rules.topicFor(projectCreatedEvent("foo"))).hasValue("gerrit");
+    assertThat(rules.topicFor(new RefUpdatedEvent())).isEmpty();
+  }
+
+  @Test
+  public void shouldNotPublishEventsOfExcludedProjects() {
+    pluginConfig.setStringList(
+        "streamEventsExcludeProject", ImmutableList.of("foo", "^sandbox/.*"));
+    StreamEventRules rules = streamEventRules();
+
+    assertThat(rules.topicFor(projectCreatedEvent("foo"))).isEmpty();
+    assertThat(rules.topicFor(projectCreatedEvent("sandbox/bar"))).isEmpty();
+    assertThat(rules.topicFor(projectCreatedEvent("foobar"))).hasValue("gerrit");
+  }
+
+  @Test
+  public void shouldMatchProjectRegularExpressionsAgainstTheWholeName() {
+    pluginConfig.setStringList("streamEventsExcludeProject", ImmutableList.of("^foo"));
+    StreamEventRules rules = streamEventRules();
+
+    assertThat(rules.topicFor(projectCreatedEvent("foo"))).isEmpty();
+    assertThat(rules.topicFor(projectCreatedEvent("foo-bar/baz"))).hasValue("gerrit");
+  }
+
+  @Test
+  public void shouldOnlyPublishEventsOfIncludedProjects() {
+    pluginConfig.setStringList("streamEventsIncludeProject", ImmutableList.of("foo", "^team/.*"));
+    pluginConfig.setStringList("streamEventsExcludeProject", ImmutableList.of("team/secret"));
+    StreamEventRules rules = streamEventRules();
+
+    assertThat(rules.topicFor(projectCreatedEvent("foo"))).hasValue("gerrit");
+    assertThat(rules.topicFor(projectCreatedEvent("team/bar"))).hasValue("gerrit");
+    assertThat(rules.topicFor(projectCreatedEvent("team/secret"))).isEmpty();
+    assertThat(rules.topicFor(projectCreatedEvent("foobar"))).isEmpty();
+    assertThat(rules.topicFor(projectCreatedEvent("other/team/bar"))).isEmpty();
+  }
+
+  @Test
+  public void shouldRouteEventTypesToTheirTopic() {
+    topicsConfig.setString("topic", "gerrit_ref_updates", "eventType", "ref-updated");
+    StreamEventRules rules = streamEventRules();
+
+    assertThat(rules.topicFor(new RefUpdatedEvent())).hasValue("gerrit_ref_updates");
+    assertThat(rules.topicFor(projectCreatedEvent("foo"))).hasValue("gerrit");
+  }
+
+  private StreamEventRules streamEventRules() {
+    when(pluginConfigFactoryMock.getFromGerritConfig(PLUGIN_NAME))
+        .thenReturn(pluginConfig.asPluginConfig());
+    when(pluginConfigFactoryMock.getGlobalPluginConfig(PLUGIN_NAME)).thenReturn(topicsConfig);
+    return new StreamEventRules(new Configuration(pluginConfigFactoryMock, PLUGIN_NAME));
+  }
+
+  private static ProjectCreatedEvent projectCreatedEvent(String projectName) {
+    ProjectCreatedEvent event = new ProjectCreatedEvent();
+    event.projectName = projectName;
+    return event;
+  }
+}
@@ -0,0 +1,47 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis.fake;
+
+import com.google.inject.AbstractModule;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+
+/**
+ * Replaces the AWS clients bound by the plugin module with in-memory fakes, e.g.:
+ *
+ * <pre>
+ *   Modules.override(new Module(...)).with(new FakeAwsModule(kinesis, dynamoDb))
+ * </pre>
+ *
+ * <p>Publishing still goes through the Kinesis Producer Library, which runs as a native daemon and
+ * can only be pointed at an HTTP endpoint; load tests drive the fake through its PutRecords API.
+ */
+public class FakeAwsModule extends AbstractModule {
+  private final FakeKinesis kinesis;
+  private final FakeDynamoDb dynamoDb;
+
+  public FakeAwsModule(FakeKinesis kinesis, FakeDynamoDb dynamoDb) {
+    this.kinesis = kinesis;
+    this.dynamoDb = dynamoDb;
+  }
+
+  @Override
+  protected void configure() {
+    bind(KinesisAsyncClient.class).toInstance(kinesis);
+    bind(DynamoDbAsyncClient.class).toInstance(dynamoDb);
+    bind(CloudWatchAsyncClient.class).toInstance(new FakeCloudWatch());
+  }
+}
@@ -0,0 +1,365 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis.fake;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeAction;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValueUpdate;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.CreateTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.CreateTableResponse;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DeleteTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteTableResponse;
+import software.amazon.awssdk.services.dynamodb.model.DescribeTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.DescribeTableResponse;
+import software.amazon.awssdk.services.dynamodb.model.ExpectedAttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.KeySchemaElement;
+import software.amazon.awssdk.services.dynamodb.model.KeyType;
+import software.amazon.awssdk.services.dynamodb.model.ListTablesRequest;
+import software.amazon.awssdk.services.dynamodb.model.ListTablesResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ResourceInUseException;
+import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.TableDescription;
+import software.amazon.awssdk.services.dynamodb.model.TableStatus;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
+
+/**
+ * In-memory stand-in for the DynamoDB APIs used to manage the kinesis client library lease tables:
+ * table creation and lookup, conditional item writes and paginated scans.
+ *
+ * <p>Conditions are only supported in the legacy {@code Expected} form, and updates in the legacy
+ * {@code AttributeUpdates} form, which is what the kinesis client library and {@code
+ * DynamoDbLeaseStore} use. Tables are keyed by their hash key only.
+ */
+public class FakeDynamoDb implements DynamoDbAsyncClient {
+  private final Map<String, FakeTable> tables = new ConcurrentHashMap<>();
+  private final FakeLatency latency;
+
+  public FakeDynamoDb() {
+    this(FakeLatency.none());
+  }
+
+  public FakeDynamoDb(FakeLatency latency) {
+    this.latency = latency;
+  }
+
+  /** All the items currently in the table, in the order of their hash keys. */
+  public List<Map<String, AttributeValue>> items(String tableName) {
+    FakeTable table = table(tableName);
+    synchronized (table) {
+      return new ArrayList<>(table.items.values());
+    }
+  }
+
+  @Override
+  public String serviceName() {
+    return SERVICE_NAME;
+  }
+
+  @Override
+  public void close() {
+    latency.close();
+  }
+
+  @Override
+  public CompletableFuture<CreateTableResponse> createTable(CreateTableRequest request) {
+    return latency.respond(
+        () -> {
+          FakeTable table = new FakeTable(request);
+          if (tables.putIfAbsent(request.tableName(), table) != null) {
+            throw ResourceInUseException.builder()
+                .message("Table already exists: " + request.tableName())
+                .build();
+          }
+          return CreateTableResponse.builder().tableDescription(table.describe()).build();
+        });
+  }
+
+  @Override
+  public CompletableFuture<DescribeTableResponse> describeTable(DescribeTableRequest request) {
+    return latency.respond(
+        () -> DescribeTableResponse.builder().table(table(request.tableName()).describe()).build());
+  }
+
+  @Override
+  public CompletableFuture<DeleteTableResponse> deleteTable(DeleteTableRequest request) {
+    return latency.respond(
+        () -> {
+          FakeTable table = table(request.tableName());
+          tables.remove(request.tableName());
+          return DeleteTableResponse.builder().tableDescription(table.describe()).build();
+        });
+  }
+
+  @Override
+  public CompletableFuture<ListTablesResponse> listTables(ListTablesRequest request) {
+    return latency.respond(
+        () -> ListTablesResponse.builder().tableNames(new TreeMap<>(tables).keySet()).build());
+  }
+
+  @Override
+  public CompletableFuture<ListTablesResponse> listTables() {
+    return listTables(ListTablesRequest.builder().build());
+  }
+
+  @Override
+  public CompletableFuture<PutItemResponse> putItem(PutItemRequest request) {
+    return latency.respond(
+        () -> {
+          FakeTable table = table(request.tableName());
+          synchronized (table) {
+            String key = table.keyOf(request.item());
+            Map<String, AttributeValue> old = table.items.get(key);
+            checkExpected(request.expected(), old);
+            table.items.put(key, new HashMap<>(request.item()));
+            PutItemResponse.Builder response = PutItemResponse.builder();
+            if (request.returnValues() == ReturnValue.ALL_OLD && old != null) {
+              response.attributes(old);
+            }
+            return response.build();
+          }
+        });
+  }
+
+  @Override
+  public CompletableFuture<GetItemResponse> getItem(GetItemRequest request) {
+    return latency.respond(
+        () -> {
+          FakeTable table = table(request.tableName());
+          synchronized (table) {
+            Map<String, AttributeValue> item = table.items.get(table.keyOf(request.key()));
+            GetItemResponse.Builder response = GetItemResponse.builder();
+            if (item != null) {
+              response.item(new HashMap<>(item));
+            }
+            return response.build();
+          }
+        });
+  }
+
+  @Override
+  public CompletableFuture<UpdateItemResponse> updateItem(UpdateItemRequest request) {
+    return latency.respond(
+        () -> {
+          FakeTable table = table(request.tableName());
+          synchronized (table) {
+            String key = table.keyOf(request.key());
+            Map<String, AttributeValue> old = table.items.get(key);
+            checkExpected(request.expected(), old);
+            Map<String, AttributeValue> updated =
+                old != null ? new HashMap<>(old) : new HashMap<>(request.key());
+            request.attributeUpdates().forEach((name, update) -> apply(updated, name, update));
+            table.items.put(key, updated);
+            UpdateItemResponse.Builder response = UpdateItemResponse.builder();
+            switch (Optional.ofNullable(request.returnValues()).orElse(ReturnValue.NONE)) {
+              case ALL_OLD:
+              case UPDATED_OLD:
+                if (old != null) {
+                  response.attributes(old);
+                }
+                break;
+              case ALL_NEW:
+              case UPDATED_NEW:
+                response.attributes(new HashMap<>(updated));
+                break;
+              default:
+                break;
+            }
+            return response.build();
+          }
+        });
+  }
+
+  @Override
+  public CompletableFuture<DeleteItemResponse> deleteItem(DeleteItemRequest request) {
+    return latency.respond(
+        () -> {
+          FakeTable table = table(request.tableName());
+          synchronized (table) {
+            String key = table.keyOf(request.key());
+            checkExpected(request.expected(), table.items.get(key));
+            Map<String, AttributeValue> old = table.items.remove(key);
+            DeleteItemResponse.Builder response = DeleteItemResponse.builder();
+            if (request.returnValues() == ReturnValue.ALL_OLD && old != null) {
+              response.attributes(old);
+            }
+            return response.build();
+          }
+        });
+  }
+
+  @Override
+  public CompletableFuture<ScanResponse> scan(ScanRequest request) {
+    return latency.respond(
+        () -> {
+          FakeTable table = table(request.tableName());
+          synchronized (table) {
+            Map<String, Map<String, AttributeValue>> remaining =
+                request.hasExclusiveStartKey()
+                    ? table.items.tailMap(table.keyOf(request.exclusiveStartKey()), false)
+                    : table.items;
+            int limit = Optional.ofNullable(request.limit()).orElse(Integer.MAX_VALUE);
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
+            Map<String, AttributeValue> last = null;
+            for (Map<String, AttributeValue> item : remaining.values()) {
+              if (items.size() == limit) {
+                break;
+              }
+              items.add(project(item, request.attributesToGet()));
+              last = item;
+            }
+            ScanResponse.Builder response =
+                ScanResponse.builder().items(items).count(items.size()).scannedCount(items.size());
+            if (last != null && items.size() < remaining.size()) {
+              response.lastEvaluatedKey(Map.of(table.hashKey, last.get(table.hashKey)));
+            }
+            return response.build();
+          }
+        });
+  }
+
+  private FakeTable table(String tableName) {
+    FakeTable table = tables.get(tableName);
+    if (table == null) {
+      throw ResourceNotFoundException.builder()
+          .message("Requested resource not found: Table: " + tableName + " not found")
+          .build();
+    }
+    return table;
+  }
+
+  private static void checkExpected(
+      Map<String, ExpectedAttributeValue> expected, Map<String, AttributeValue> item) {
+    expected.forEach(
+        (name, expectation) -> {
+          AttributeValue actual = item != null ? item.get(name) : null;
+          if (!matches(expectation, actual)) {
+            throw ConditionalCheckFailedException.builder()
+                .message("The conditional request failed on " + name)
+                .build();
+          }
+        });
+  }
+
+  private static boolean matches(ExpectedAttributeValue expectation, AttributeValue actual) {
+    if (expectation.comparisonOperator() != null) {
+      switch (expectation.comparisonOperator()) {
+        case NULL:
+          return actual == null;
+        case NOT_NULL:
+          return actual != null;
+        case EQ:
+          return expectation.attributeValueList().get(0).equals(actual);
+        case NE:
+          return !expectation.attributeValueList().get(0).equals(actual);
+        default:
+          throw new UnsupportedOperationException(
+              "Unsupported comparison " + expectation.comparisonOperatorAsString());
+      }
+    }
+    if (Boolean.FALSE.equals(expectation.exists())) {
+      return actual == null;
+    }
+    return expectation.value() == null ? actual != null : expectation.value().equals(actual);
+  }
+
+  private static void apply(
+      Map<String, AttributeValue> item, String name, AttributeValueUpdate update) {
+    AttributeAction action = Optional.ofNullable(update.action()).orElse(AttributeAction.PUT);
+    switch (action) {
+      case PUT:
+        item.put(name, update.value());
+        break;
+      case DELETE:
+        item.remove(name);
+        break;
+      case ADD:
+        AttributeValue current = item.get(name);
+        BigDecimal base = current != null ? new BigDecimal(current.n()) : BigDecimal.ZERO;
+        BigDecimal sum = base.add(new BigDecimal(update.value().n()));
+        item.put(name, AttributeValue.builder().n(sum.toString()).build());
+        break;
+      default:
+        throw new UnsupportedOperationException("Unsupported action " + update.actionAsString());
+    }
+  }
+
+  private static Map<String, AttributeValue> project(
+      Map<String, AttributeValue> item, List<String> attributes) {
+    Map<String, AttributeValue> projected = new HashMap<>(item);
+    if (!attributes.isEmpty()) {
+      projected.keySet().retainAll(attributes);
+    }
+    return projected;
+  }
+
+  private static class FakeTable {
+    private final CreateTableRequest definition;
+    private final String hashKey;
+    private final Instant created = Instant.now();
+    private final TreeMap<String, Map<String, AttributeValue>> items = new TreeMap<>();
+
+    FakeTable(CreateTableRequest definition) {
+      this.definition = definition;
+      this.hashKey =
+          definition.keySchema().stream()
+              .filter(k -> k.keyType() == KeyType.HASH)
+              .map(KeySchemaElement::attributeName)
+              .findFirst()
+              .orElseThrow(() -> new IllegalArgumentException("Missing hash key"));
+    }
+
+    String keyOf(Map<String, AttributeValue> item) {
+      AttributeValue key = item.get(hashKey);
+      if (key == null) {
+        throw new IllegalArgumentException("Missing hash key " + hashKey);
+      }
+      return key.s() != null ? key.s() : key.n();
+    }
+
+    TableDescription describe() {
+      return TableDescription.builder()
+          .tableName(definition.tableName())
+          .tableArn("arn:aws:dynamodb:fake:000000000000:table/" + definition.tableName())
+          .tableStatus(TableStatus.ACTIVE)
+          .keySchema(definition.keySchema())
+          .attributeDefinitions(definition.attributeDefinitions())
+          .creationDateTime(created)
+          .itemCount((long) items.size())
+          .build();
+    }
+  }
+}
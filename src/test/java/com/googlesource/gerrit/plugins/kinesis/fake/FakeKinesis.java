@@ -0,0 +1,473 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis.fake;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.CreateStreamRequest;
+import software.amazon.awssdk.services.kinesis.model.CreateStreamResponse;
+import software.amazon.awssdk.services.kinesis.model.DescribeStreamSummaryRequest;
+import software.amazon.awssdk.services.kinesis.model.DescribeStreamSummaryResponse;
+import software.amazon.awssdk.services.kinesis.model.ExpiredIteratorException;
+import software.amazon.awssdk.services.kinesis.model.GetRecordsRequest;
+import software.amazon.awssdk.services.kinesis.model.GetRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.GetShardIteratorRequest;
+import software.amazon.awssdk.services.kinesis.model.GetShardIteratorResponse;
+import software.amazon.awssdk.services.kinesis.model.HashKeyRange;
+import software.amazon.awssdk.services.kinesis.model.InvalidArgumentException;
+import software.amazon.awssdk.services.kinesis.model.ListShardsRequest;
+import software.amazon.awssdk.services.kinesis.model.ListShardsResponse;
+import software.amazon.awssdk.services.kinesis.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.kinesis.model.PutRecordRequest;
+import software.amazon.awssdk.services.kinesis.model.PutRecordResponse;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequest;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequestEntry;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResultEntry;
+import software.amazon.awssdk.services.kinesis.model.Record;
+import software.amazon.awssdk.services.kinesis.model.ResourceInUseException;
+import software.amazon.awssdk.services.kinesis.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.kinesis.model.SequenceNumberRange;
+import software.amazon.awssdk.services.kinesis.model.Shard;
+import software.amazon.awssdk.services.kinesis.model.StreamDescriptionSummary;
+import software.amazon.awssdk.services.kinesis.model.StreamStatus;
+
+/**
+ * In-memory stand-in for the Kinesis APIs used by the plugin and the kinesis client library:
+ * creating streams, publishing records, listing shards and reading records with shard iterators.
+ *
+ * <p>Records are routed to shards by the MD5 hash of their partition key, as Kinesis does, and kept
+ * for the lifetime of the fake. Each shard can be given write and read limits, going over which
+ * fails the request with a {@link ProvisionedThroughputExceededException}, and every response can
+ * be delayed by {@link FakeLatency}.
+ */
+public class FakeKinesis implements KinesisAsyncClient {
+  private static final BigInteger MAX_HASH_KEY =
+      BigInteger.ONE.shiftLeft(128).subtract(BigInteger.ONE);
+
+  private final Map<String, FakeStream> streams = new ConcurrentHashMap<>();
+  private final AtomicLong sequenceNumbers = new AtomicLong();
+  private final FakeLatency latency;
+  private volatile int writeRecordsPerSecondPerShard = Integer.MAX_VALUE;
+  private volatile int writeBytesPerSecondPerShard = Integer.MAX_VALUE;
+  private volatile int readsPerSecondPerShard = Integer.MAX_VALUE;
+
+  public FakeKinesis() {
+    this(FakeLatency.none());
+  }
+
+  public FakeKinesis(FakeLatency latency) {
+    this.latency = latency;
+  }
+
+  /** Limit the records and bytes written to each shard per second, 1000 and 1MiB on Kinesis. */
+  public FakeKinesis withShardWriteLimits(int recordsPerSecond, int bytesPerSecond) {
+    this.writeRecordsPerSecondPerShard = recordsPerSecond;
+    this.writeBytesPerSecondPerShard = bytesPerSecond;
+    return this;
+  }
+
+  /** Limit the GetRecords calls to each shard per second, 5 on Kinesis. */
+  public FakeKinesis withShardReadLimit(int readsPerSecond) {
+    this.readsPerSecondPerShard = readsPerSecond;
+    return this;
+  }
+
+  /** Create an active stream straight away, without going through the async API. */
+  public void createStream(String streamName, int shardCount) {
+    if (streams.putIfAbsent(streamName, new FakeStream(streamName, shardCount)) != null) {
+      throw ResourceInUseException.builder().message("Stream exists: " + streamName).build();
+    }
+  }
+
+  /** All the records published to the stream, in the order of their shards. */
+  public List<Record> records(String streamName) {
+    return stream(streamName)
+        .shards
+        .stream()
+        .flatMap(s -> s.snapshot().stream())
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public String serviceName() {
+    return SERVICE_NAME;
+  }
+
+  @Override
+  public void close() {
+    latency.close();
+  }
+
+  @Override
+  public CompletableFuture<CreateStreamResponse> createStream(CreateStreamRequest request) {
+    return latency.respond(
+        () -> {
+          createStream(request.streamName(), request.shardCount());
+          return CreateStreamResponse.builder().build();
+        });
+  }
+
+  @Override
+  public CompletableFuture<DescribeStreamSummaryResponse> describeStreamSummary(
+      DescribeStreamSummaryRequest request) {
+    return latency.respond(
+        () -> {
+          FakeStream stream = stream(request.streamName());
+          return DescribeStreamSummaryResponse.builder()
+              .streamDescriptionSummary(
+                  StreamDescriptionSummary.builder()
+                      .streamName(stream.name)
+                      .streamARN("arn:aws:kinesis:fake:000000000000:stream/" + stream.name)
+                      .streamStatus(StreamStatus.ACTIVE)
+                      .openShardCount(stream.shards.size())
+                      .retentionPeriodHours(24)
+                      .streamCreationTimestamp(stream.created)
+                      .build())
+              .build();
+        });
+  }
+
+  @Override
+  public CompletableFuture<ListShardsResponse> listShards(ListShardsRequest request) {
+    return latency.respond(
+        () -> {
+          String streamName =
+              request.streamName() != null ? request.streamName() : request.nextToken();
+          return ListShardsResponse.builder()
+              .shards(
+                  stream(streamName)
+                      .shards
+                      .stream()
+                      .map(FakeShard::describe)
+                      .collect(Collectors.toList()))
+              .build();
+        });
+  }
+
+  @Override
+  public CompletableFuture<PutRecordResponse> putRecord(PutRecordRequest request) {
+    return latency.respond(
+        () -> {
+          FakeStream stream = stream(request.streamName());
+          FakeShard shard = stream.shardFor(request.partitionKey(), request.explicitHashKey());
+          Record record = shard.put(request.partitionKey(), request.data());
+          return PutRecordResponse.builder()
+              .shardId(shard.shardId)
+              .sequenceNumber(record.sequenceNumber())
+              .build();
+        });
+  }
+
+  @Override
+  public CompletableFuture<PutRecordsResponse> putRecords(PutRecordsRequest request) {
+    return latency.respond(
+        () -> {
+          FakeStream stream = stream(request.streamName());
+          List<PutRecordsResultEntry> results = new ArrayList<>(request.records().size());
+          int failed = 0;
+          for (PutRecordsRequestEntry entry : request.records()) {
+            FakeShard shard = stream.shardFor(entry.partitionKey(), entry.explicitHashKey());
+            try {
+              Record record = shard.put(entry.partitionKey(), entry.data());
+              results.add(
+                  PutRecordsResultEntry.builder()
+                      .shardId(shard.shardId)
+                      .sequenceNumber(record.sequenceNumber())
+                      .build());
+            } catch (ProvisionedThroughputExceededException e) {
+              failed++;
+              results.add(
+                  PutRecordsResultEntry.builder()
+                      .errorCode("ProvisionedThroughputExceededException")
+                      .errorMessage(e.getMessage())
+                      .build());
+            }
+          }
+          return PutRecordsResponse.builder().failedRecordCount(failed).records(results).build();
+        });
+  }
+
+  @Override
+  public CompletableFuture<GetShardIteratorResponse> getShardIterator(
+      GetShardIteratorRequest request) {
+    return latency.respond(
+        () -> {
+          FakeShard shard = stream(request.streamName()).shard(request.shardId());
+          int position;
+          switch (request.shardIteratorType()) {
+            case TRIM_HORIZON:
+              position = 0;
+              break;
+            case LATEST:
+              position = shard.size();
+              break;
+            case AT_SEQUENCE_NUMBER:
+              position = shard.positionOf(request.startingSequenceNumber());
+              break;
+            case AFTER_SEQUENCE_NUMBER:
+              position = shard.positionOf(request.startingSequenceNumber()) + 1;
+              break;
+            case AT_TIMESTAMP:
+              position = shard.positionAt(request.timestamp());
+              break;
+            default:
+              throw InvalidArgumentException.builder()
+                  .message("Unsupported iterator type " + request.shardIteratorTypeAsString())
+                  .build();
+          }
+          return GetShardIteratorResponse.builder()
+              .shardIterator(ShardIterator.encode(request.streamName(), shard.shardId, position))
+              .build();
+        });
+  }
+
+  @Override
+  public CompletableFuture<GetRecordsResponse> getRecords(GetRecordsRequest request) {
+    return latency.respond(
+        () -> {
+          ShardIterator iterator = ShardIterator.decode(request.shardIterator());
+          FakeShard shard = stream(iterator.streamName).shard(iterator.shardId);
+          shard.read();
+          int limit = Optional.ofNullable(request.limit()).orElse(10000);
+          List<Record> records = shard.get(iterator.position, limit);
+          int next = iterator.position + records.size();
+          return GetRecordsResponse.builder()
+              .records(records)
+              .nextShardIterator(ShardIterator.encode(iterator.streamName, shard.shardId, next))
+              .millisBehindLatest(shard.millisBehindLatest(next))
+              .build();
+        });
+  }
+
+  private FakeStream stream(String streamName) {
+    FakeStream stream = streams.get(streamName);
+    if (stream == null) {
+      throw ResourceNotFoundException.builder().message("Stream not found: " + streamName).build();
+    }
+    return stream;
+  }
+
+  private static BigInteger hashKey(String partitionKey) {
+    try {
+      MessageDigest md5 = MessageDigest.getInstance("MD5");
+      return new BigInteger(1, md5.digest(partitionKey.getBytes(UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("MD5 is not available", e);
+    }
+  }
+
+  private class FakeStream {
+    private final String name;
+    private final Instant created = Instant.now();
+    private final List<FakeShard> shards;
+
+    FakeStream(String name, int shardCount) {
+      this.name = name;
+      List<FakeShard> shards = new ArrayList<>(shardCount);
+      BigInteger shardRange = MAX_HASH_KEY.divide(BigInteger.valueOf(shardCount));
+      for (int i = 0; i < shardCount; i++) {
+        BigInteger start = shardRange.multiply(BigInteger.valueOf(i));
+        BigInteger end =
+            i == shardCount - 1 ? MAX_HASH_KEY : start.add(shardRange).subtract(BigInteger.ONE);
+        shards.add(new FakeShard(String.format("shardId-%012d", i), start, end));
+      }
+      this.shards = Collections.unmodifiableList(shards);
+    }
+
+    FakeShard shard(String shardId) {
+      return shards.stream()
+          .filter(s -> s.shardId.equals(shardId))
+          .findFirst()
+          .orElseThrow(
+              () ->
+                  ResourceNotFoundException.builder()
+                      .message("Shard not found: " + shardId)
+                      .build());
+    }
+
+    FakeShard shardFor(String partitionKey, String explicitHashKey) {
+      BigInteger hashKey =
+          explicitHashKey != null ? new BigInteger(explicitHashKey) : hashKey(partitionKey);
+      return shards.stream().filter(s -> s.contains(hashKey)).findFirst().get();
+    }
+  }
+
+  private class FakeShard {
+    private final String shardId;
+    private final BigInteger startingHashKey;
+    private final BigInteger endingHashKey;
+    private final List<Record> records = new ArrayList<>();
+    private final RateWindow writtenRecords = new RateWindow();
+    private final RateWindow writtenBytes = new RateWindow();
+    private final RateWindow reads = new RateWindow();
+
+    FakeShard(String shardId, BigInteger startingHashKey, BigInteger endingHashKey) {
+      this.shardId = shardId;
+      this.startingHashKey = startingHashKey;
+      this.endingHashKey = endingHashKey;
+    }
+
+    boolean contains(BigInteger hashKey) {
+      return hashKey.compareTo(startingHashKey) >= 0 && hashKey.compareTo(endingHashKey) <= 0;
+    }
+
+    Shard describe() {
+      return Shard.builder()
+          .shardId(shardId)
+          .hashKeyRange(
+              HashKeyRange.builder()
+                  .startingHashKey(startingHashKey.toString())
+                  .endingHashKey(endingHashKey.toString())
+                  .build())
+          .sequenceNumberRange(SequenceNumberRange.builder().startingSequenceNumber("0").build())
+          .build();
+    }
+
+    synchronized Record put(String partitionKey, SdkBytes data) {
+      int size = data.asByteArrayUnsafe().length + partitionKey.length();
+      if (!writtenRecords.tryAcquire(1, writeRecordsPerSecondPerShard)
+          || !writtenBytes.tryAcquire(size, writeBytesPerSecondPerShard)) {
+        throw ProvisionedThroughputExceededException.builder()
+            .message("Rate exceeded for shard " + shardId)
+            .build();
+      }
+      Record record =
+          Record.builder()
+              .partitionKey(partitionKey)
+              .data(data)
+              .sequenceNumber(Long.toString(sequenceNumbers.incrementAndGet()))
+              .approximateArrivalTimestamp(Instant.now())
+              .build();
+      records.add(record);
+      return record;
+    }
+
+    synchronized void read() {
+      if (!reads.tryAcquire(1, readsPerSecondPerShard)) {
+        throw ProvisionedThroughputExceededException.builder()
+            .message("Rate exceeded for shard " + shardId)
+            .build();
+      }
+    }
+
+    synchronized List<Record> get(int position, int limit) {
+      if (position > records.size()) {
+        throw ExpiredIteratorException.builder().message("Iterator past the shard end").build();
+      }
+      return new ArrayList<>(records.subList(position, Math.min(records.size(), position + limit)));
+    }
+
+    synchronized List<Record> snapshot() {
+      return new ArrayList<>(records);
+    }
+
+    synchronized int size() {
+      return records.size();
+    }
+
+    synchronized int positionOf(String sequenceNumber) {
+      BigInteger target = new BigInteger(sequenceNumber);
+      for (int i = 0; i < records.size(); i++) {
+        if (new BigInteger(records.get(i).sequenceNumber()).compareTo(target) >= 0) {
+          return i;
+        }
+      }
+      return records.size();
+    }
+
+    synchronized int positionAt(Instant timestamp) {
+      for (int i = 0; i < records.size(); i++) {
+        if (!records.get(i).approximateArrivalTimestamp().isBefore(timestamp)) {
+          return i;
+        }
+      }
+      return records.size();
+    }
+
+    synchronized long millisBehindLatest(int position) {
+      if (position >= records.size()) {
+        return 0L;
+      }
+      return Duration.between(records.get(position).approximateArrivalTimestamp(), Instant.now())
+          .toMillis();
+    }
+  }
+
+  /** Amount consumed within the current one second window. */
+  private static class RateWindow {
+    private long windowStartMs;
+    private long used;
+
+    boolean tryAcquire(long amount, long limitPerSecond) {
+      long now = System.currentTimeMillis();
+      if (now - windowStartMs >= 1000) {
+        windowStartMs = now;
+        used = 0;
+      }
+      if (used + amount > limitPerSecond) {
+        return false;
+      }
+      used += amount;
+      return true;
+    }
+  }
+
+  private static class ShardIterator {
+    private final String streamName;
+    private final String shardId;
+    private final int position;
+
+    private ShardIterator(String streamName, String shardId, int position) {
+      this.streamName = streamName;
+      this.shardId = shardId;
+      this.position = position;
+    }
+
+    static String encode(String streamName, String shardId, int position) {
+      return String.join("/", streamName, shardId, Integer.toString(position));
+    }
+
+    static ShardIterator decode(String shardIterator) {
+      int positionIdx = shardIterator.lastIndexOf('/');
+      int shardIdx = shardIterator.lastIndexOf('/', positionIdx - 1);
+      if (positionIdx < 0 || shardIdx < 0) {
+        throw InvalidArgumentException.builder()
+            .message("Invalid shard iterator " + shardIterator)
+            .build();
+      }
+      return new ShardIterator(
+          shardIterator.substring(0, shardIdx),
+          shardIterator.substring(shardIdx + 1, positionIdx),
+          Integer.parseInt(shardIterator.substring(positionIdx + 1)));
+    }
+  }
+}
@@ -0,0 +1,94 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.kinesis.fake;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Delay applied to the responses of the fake AWS clients, so that tests can reproduce the round
+ * trips of a real region. Each response is held for {@code base} plus a random amount up to {@code
+ * jitter}, and the request is only served once that delay has elapsed.
+ */
+public class FakeLatency implements AutoCloseable {
+  private final long baseMs;
+  private final long jitterMs;
+  private final ScheduledExecutorService scheduler;
+
+  public static FakeLatency none() {
+    return new FakeLatency(Duration.ZERO, Duration.ZERO);
+  }
+
+  public static FakeLatency of(Duration base, Duration jitter) {
+    return new FakeLatency(base, jitter);
+  }
+
+  private FakeLatency(Duration base, Duration jitter) {
+    this.baseMs = base.toMillis();
+    this.jitterMs = jitter.toMillis();
+    this.scheduler =
+        baseMs + jitterMs > 0
+            ? Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                    .setNameFormat("fake-aws-latency-%d")
+                    .setDaemon(true)
+                    .build())
+            : null;
+  }
+
+  <T> CompletableFuture<T> respond(Supplier<T> response) {
+    if (scheduler == null) {
+      return serve(response);
+    }
+    long delayMs = baseMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+    CompletableFuture<T> future = new CompletableFuture<>();
+    scheduler.schedule(
+        () -> {
+          serve(response)
+              .whenComplete(
+                  (r, e) -> {
+                    if (e != null) {
+                      future.completeExceptionally(e);
+                    } else {
+                      future.complete(r);
+                    }
+                  });
+        },
+        delayMs,
+        TimeUnit.MILLISECONDS);
+    return future;
+  }
+
+  private static <T> CompletableFuture<T> serve(Supplier<T> response) {
+    try {
+      return CompletableFuture.completedFuture(response.get());
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+}